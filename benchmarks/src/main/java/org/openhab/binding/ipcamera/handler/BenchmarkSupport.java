@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.handler;
+
+import static org.openhab.binding.ipcamera.IpCameraBindingConstants.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.eclipse.smarthome.config.core.Configuration;
+import org.eclipse.smarthome.core.thing.Thing;
+import org.eclipse.smarthome.core.thing.ThingTypeUID;
+import org.eclipse.smarthome.core.thing.binding.ThingHandlerCallback;
+import org.eclipse.smarthome.core.thing.binding.builder.ThingBuilder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+
+/**
+ * The {@link BenchmarkSupport} is responsible for creating handlers, channels and payloads for the benchmarks without
+ * needing a running openHAB or a real camera. It lives in the handler package so it can reach the package-private
+ * parts of {@link IpCameraHandler}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+public final class BenchmarkSupport {
+    // Most cameras send in segments of one TCP MSS.
+    public static final int TCP_SEGMENT = 1460;
+
+    private BenchmarkSupport() {
+    }
+
+    // Accepts every callback from the handler and does nothing, so only the binding's own work is measured.
+    public static ThingHandlerCallback noOpCallback() {
+        return (ThingHandlerCallback) Proxy.newProxyInstance(BenchmarkSupport.class.getClassLoader(),
+                new Class<?>[] { ThingHandlerCallback.class }, (proxy, method, args) -> {
+                    Class<?> returnType = method.getReturnType();
+                    if (returnType == boolean.class) {
+                        return false;
+                    } else if (returnType == int.class) {
+                        return 0;
+                    } else if ("toString".equals(method.getName())) {
+                        return "noOpCallback";
+                    }
+                    return null;
+                });
+    }
+
+    public static Map<String, Object> defaultConfig() {
+        Map<String, Object> config = new HashMap<>();
+        config.put(CONFIG_IPADDRESS, "127.0.0.1");
+        config.put(CONFIG_PORT, 80);
+        config.put(CONFIG_ONVIF_PORT, 80);
+        config.put(CONFIG_USERNAME, "admin");
+        config.put(CONFIG_PASSWORD, "password123");
+        config.put(CONFIG_IP_WHITELIST, "DISABLE");
+        config.put(CONFIG_IMAGE_UPDATE_EVENTS, "0");
+        config.put(CONFIG_NVR_CHANNEL, "1");
+        return config;
+    }
+
+    public static Thing createThing(String thingType, String id, Map<String, Object> config) {
+        return ThingBuilder.create(new ThingTypeUID("ipcamera", thingType), id)
+                .withConfiguration(new Configuration(config)).build();
+    }
+
+    /**
+     * Creates a camera handler that has not been initialised, so it will not try to reach the camera.
+     */
+    public static IpCameraHandler createCamera(String thingType, Map<String, Object> config) {
+        IpCameraHandler handler = new IpCameraHandler(createThing(thingType, "bench", config));
+        handler.setCallback(noOpCallback());
+        return handler;
+    }
+
+    public static IpCameraHandler createCamera(String thingType) {
+        return createCamera(thingType, defaultConfig());
+    }
+
+    public static IpCameraGroupHandler createGroup(Map<String, Object> config) {
+        IpCameraGroupHandler handler = new IpCameraGroupHandler(createThing("GROUPDISPLAY", "group", config));
+        handler.setCallback(noOpCallback());
+        return handler;
+    }
+
+    /**
+     * Builds the same pipeline a real camera connection gets, and sends one request so the HTTP codec expects a
+     * reply.
+     */
+    public static EmbeddedChannel clientChannel(IpCameraHandler handler, String url) {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        handler.setupClientPipeline(channel.pipeline());
+        IpCameraHandler.CommonCameraHandler commonHandler = (IpCameraHandler.CommonCameraHandler) channel.pipeline()
+                .get("commonHandler");
+        commonHandler.setURL(url);
+        DefaultFullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, url);
+        request.headers().set(HttpHeaderNames.HOST, "127.0.0.1");
+        channel.writeOutbound(request);
+        channel.releaseOutbound();
+        return channel;
+    }
+
+    /**
+     * Makes a JPEG close to the requested size. Noise is drawn over a gradient so the encoder cannot squeeze it much
+     * further, which is close to what a camera sends for a busy scene.
+     */
+    public static byte[] jpeg(int approximateBytes) {
+        Random random = new Random(42);
+        // roughly 0.5 bytes per pixel for a noisy image at the default quality.
+        int pixels = Math.max(64 * 64, approximateBytes * 2);
+        int width = (int) Math.sqrt(pixels * 16 / 9.0);
+        int height = Math.max(32, pixels / width);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        for (int y = 0; y < height; y += 8) {
+            graphics.setColor(new Color(y * 255 / height, 96, 255 - y * 255 / height));
+            graphics.fillRect(0, y, width, 8);
+        }
+        graphics.dispose();
+        for (int i = 0; i < width * height / 3; i++) {
+            image.setRGB(random.nextInt(width), random.nextInt(height), random.nextInt(0xFFFFFF));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(approximateBytes);
+        try {
+            ImageIO.write(image, "jpg", out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static byte[] httpMessage(String startLine, String contentType, byte[] body) {
+        byte[] header = (startLine + "\r\nContent-Type: " + contentType + "\r\nContent-Length: " + body.length
+                + "\r\nConnection: keep-alive\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] message = new byte[header.length + body.length];
+        System.arraycopy(header, 0, message, 0, header.length);
+        System.arraycopy(body, 0, message, header.length, body.length);
+        return message;
+    }
+
+    /**
+     * Splits a message into the pieces it would arrive in over TCP. Send a duplicate() of a segment so it can be
+     * reused.
+     */
+    public static ByteBuf[] segments(byte[] message, int segmentSize) {
+        int count = (message.length + segmentSize - 1) / segmentSize;
+        ByteBuf[] segments = new ByteBuf[count];
+        for (int i = 0; i < count; i++) {
+            int offset = i * segmentSize;
+            segments[i] = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(message, offset,
+                    Math.min(segmentSize, message.length - offset)));
+        }
+        return segments;
+    }
+
+    public static String payload(String name) {
+        try (InputStream in = BenchmarkSupport.class.getResourceAsStream("/payloads/" + name)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Missing payload " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            // payloads are stored with LF, cameras send CRLF.
+            return new String(out.toByteArray(), StandardCharsets.UTF_8).replace("\r\n", "\n").replace("\n",
+                    "\r\n");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ipcamera.handler;
+
+import static org.openhab.binding.ipcamera.IpCameraBindingConstants.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@link GroupPlaylistBenchmark} measures one group poll with a playlist that ffmpeg has written to disk. The
+ * camera's playlist is refreshed by createPlayList() and the group's playlist text is then fetched with getPlayList().
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupPlaylistBenchmark {
+    private IpCameraGroupHandler group = BenchmarkSupport.createGroup(new HashMap<>());
+    private Path folder = Paths.get(".");
+
+    @Setup(Level.Trial)
+    public void writePlaylist() throws IOException {
+        folder = Files.createTempDirectory("ipcamera-bench");
+        Files.write(folder.resolve("ipcamera.m3u8"),
+                BenchmarkSupport.payload("ipcamera.m3u8").getBytes(StandardCharsets.UTF_8));
+        Map<String, Object> config = BenchmarkSupport.defaultConfig();
+        config.put(CONFIG_FFMPEG_OUTPUT, folder.toString() + "/");
+        Map<String, Object> groupConfig = new HashMap<>();
+        groupConfig.put(CONFIG_IP_WHITELIST, "DISABLE");
+        group = BenchmarkSupport.createGroup(groupConfig);
+        group.cameraOrder.add(BenchmarkSupport.createCamera("HIKVISION", config));
+        group.cameraIndex = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void deletePlaylist() throws IOException {
+        Files.walk(folder).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+
+    @Benchmark
+    public String createPlayList() {
+        group.createPlayList();
+        return group.getPlayList();
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ipcamera.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+/**
+ * The {@link MjpegFanOutBenchmark} measures sendMjpegFrame() writing one frame to a number of viewers.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MjpegFanOutBenchmark {
+    @Param({ "1", "10", "50" })
+    public int viewers;
+
+    @Param({ "65536" })
+    public int jpegSize;
+
+    private IpCameraHandler camera = BenchmarkSupport.createCamera("HTTPONLY");
+    private final ChannelGroup group = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    private final List<EmbeddedChannel> channels = new ArrayList<>();
+    private byte[] jpeg = new byte[0];
+
+    @Setup(Level.Trial)
+    public void connectViewers() {
+        jpeg = BenchmarkSupport.jpeg(jpegSize);
+        for (int i = 0; i < viewers; i++) {
+            EmbeddedChannel channel = new EmbeddedChannel();
+            channels.add(channel);
+            group.add(channel);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnectViewers() {
+        for (EmbeddedChannel channel : channels) {
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    @Benchmark
+    public void sendFrame() {
+        camera.sendMjpegFrame(jpeg, group);
+        // what the socket would do once the bytes are sent.
+        for (EmbeddedChannel channel : channels) {
+            channel.releaseOutbound();
+        }
+    }
+}
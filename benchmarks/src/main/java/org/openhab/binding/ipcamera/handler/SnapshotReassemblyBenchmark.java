@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ipcamera.handler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * The {@link SnapshotReassemblyBenchmark} measures a JPEG snapshot reply arriving in TCP sized pieces and being put
+ * back together by the CommonCameraHandler, up to and including processSnapshot().
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotReassemblyBenchmark {
+    private static final String SNAPSHOT_URL = "/ISAPI/Streaming/channels/101/picture";
+
+    @Param({ "65536", "262144" })
+    public int jpegSize;
+
+    private IpCameraHandler camera = BenchmarkSupport.createCamera("HIKVISION");
+    private ByteBuf[] segments = new ByteBuf[0];
+    private EmbeddedChannel channel = new EmbeddedChannel();
+
+    @Setup(Level.Trial)
+    public void createReply() {
+        byte[] reply = BenchmarkSupport.httpMessage("HTTP/1.1 200 OK", "image/jpeg", BenchmarkSupport.jpeg(jpegSize));
+        segments = BenchmarkSupport.segments(reply, BenchmarkSupport.TCP_SEGMENT);
+    }
+
+    // The handler closes the channel once the snapshot is complete, so each reply needs a fresh one.
+    @Setup(Level.Invocation)
+    public void openChannel() {
+        channel = BenchmarkSupport.clientChannel(camera, SNAPSHOT_URL);
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeChannel() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public byte[] reassembleSnapshot() {
+        for (ByteBuf segment : segments) {
+            channel.writeInbound(segment.duplicate());
+        }
+        return camera.currentSnapshot;
+    }
+}
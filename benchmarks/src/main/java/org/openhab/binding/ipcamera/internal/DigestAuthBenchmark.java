@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openhab.binding.ipcamera.handler.BenchmarkSupport;
+import org.openhab.binding.ipcamera.handler.IpCameraHandler;
+
+/**
+ * The {@link DigestAuthBenchmark} measures the digest auth work done for a camera. Run it with "-prof gc" to see the
+ * bytes allocated for each authenticated request (gc.alloc.rate.norm).
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DigestAuthBenchmark {
+    private static final String SNAPSHOT_URL = "/ISAPI/Streaming/channels/101/picture";
+    private IpCameraHandler camera = BenchmarkSupport.createCamera("HIKVISION");
+    private MyNettyAuthHandler authHandler = new MyNettyAuthHandler("admin", "password123", camera);
+    private String challenge = "";
+
+    @Setup(Level.Trial)
+    public void receiveChallenge() {
+        challenge = BenchmarkSupport.payload("digest-challenge.txt").trim();
+        authHandler.processAuth(challenge, "GET", SNAPSHOT_URL, false);
+    }
+
+    // What happens when a camera replies with a 401.
+    @Benchmark
+    public String processChallenge() {
+        return authHandler.processAuth(challenge, "GET", SNAPSHOT_URL, false);
+    }
+
+    // What happens for every request once a challenge is known.
+    @Benchmark
+    public String authorizeRequest() {
+        String digest = camera.digestSession.authorize("GET", SNAPSHOT_URL);
+        return digest == null ? "" : digest;
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openhab.binding.ipcamera.handler.BenchmarkSupport;
+import org.openhab.binding.ipcamera.handler.IpCameraHandler;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * The {@link EventParsingBenchmark} measures the Hikvision alertStream and Dahua eventManager messages going through
+ * the brand handlers. The heartbeats arrive every few seconds from every camera, even when nothing is happening.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventParsingBenchmark {
+    private EmbeddedChannel hikvision = new EmbeddedChannel();
+    private EmbeddedChannel dahua = new EmbeddedChannel();
+    private String hikvisionMotion = "", hikvisionVideoLoss = "", dahuaMotion = "", dahuaHeartbeat = "";
+
+    @Setup(Level.Trial)
+    public void createHandlers() {
+        IpCameraHandler hikCamera = BenchmarkSupport.createCamera("HIKVISION");
+        IpCameraHandler dahuaCamera = BenchmarkSupport.createCamera("DAHUA");
+        hikvision = new EmbeddedChannel(new HikvisionHandler(hikCamera, "1"));
+        dahua = new EmbeddedChannel(new DahuaHandler(dahuaCamera, "0"));
+        hikvisionMotion = BenchmarkSupport.payload("hikvision-vmd.xml");
+        hikvisionVideoLoss = BenchmarkSupport.payload("hikvision-videoloss.xml");
+        dahuaMotion = BenchmarkSupport.payload("dahua-motion.txt");
+        dahuaHeartbeat = BenchmarkSupport.payload("dahua-heartbeat.txt");
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        hikvision.finishAndReleaseAll();
+        dahua.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public void hikvisionMotionEvent() {
+        hikvision.writeInbound(hikvisionMotion);
+        hikvision.releaseInbound();
+    }
+
+    @Benchmark
+    public void hikvisionHeartbeat() {
+        hikvision.writeInbound(hikvisionVideoLoss);
+        hikvision.releaseInbound();
+    }
+
+    @Benchmark
+    public void dahuaMotionEvent() {
+        dahua.writeInbound(dahuaMotion);
+        dahua.releaseInbound();
+    }
+
+    @Benchmark
+    public void dahuaHeartbeat() {
+        dahua.writeInbound(dahuaHeartbeat);
+        dahua.releaseInbound();
+    }
+}
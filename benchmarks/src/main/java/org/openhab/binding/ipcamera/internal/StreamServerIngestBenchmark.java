@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openhab.binding.ipcamera.handler.BenchmarkSupport;
+import org.openhab.binding.ipcamera.handler.IpCameraHandler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.stream.ChunkedWriteHandler;
+
+/**
+ * The {@link StreamServerIngestBenchmark} measures a JPEG being POSTed to the stream server at /snapshot.jpg, which
+ * is how ffmpeg hands over the snapshots it creates.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamServerIngestBenchmark {
+    @Param({ "65536", "262144" })
+    public int jpegSize;
+
+    private ByteBuf[] segments = new ByteBuf[0];
+    private EmbeddedChannel channel = new EmbeddedChannel();
+    private IpCameraHandler camera = BenchmarkSupport.createCamera("HTTPONLY");
+
+    @Setup(Level.Trial)
+    public void connect() {
+        byte[] post = BenchmarkSupport.httpMessage("POST /snapshot.jpg HTTP/1.1\r\nHost: 127.0.0.1", "image/jpeg",
+                BenchmarkSupport.jpeg(jpegSize));
+        segments = BenchmarkSupport.segments(post, BenchmarkSupport.TCP_SEGMENT);
+        // same pipeline as the cameras stream server, ffmpeg keeps the connection open between snapshots.
+        channel = new EmbeddedChannel(new HttpServerCodec(), new ChunkedWriteHandler(),
+                new StreamServerHandler(camera));
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public byte[] postSnapshot() {
+        for (ByteBuf segment : segments) {
+            channel.writeInbound(segment.duplicate());
+        }
+        channel.releaseOutbound();
+        return camera.currentSnapshot;
+    }
+}
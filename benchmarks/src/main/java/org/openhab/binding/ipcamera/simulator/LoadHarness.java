@@ -0,0 +1,383 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.simulator;
+
+import static org.openhab.binding.ipcamera.IpCameraBindingConstants.*;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.smarthome.core.thing.ChannelUID;
+import org.eclipse.smarthome.core.thing.binding.ThingHandlerCallback;
+import org.eclipse.smarthome.core.types.RefreshType;
+import org.openhab.binding.ipcamera.handler.BenchmarkSupport;
+import org.openhab.binding.ipcamera.handler.IpCameraHandler;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * The {@link LoadHarness} is responsible for starting a number of {@link SimulatedCamera}s, a real
+ * {@link IpCameraHandler} for each of them and a number of {@link SimulatedViewer}s watching the MJPEG streams, then
+ * reporting how the binding copes. Use it to size the hardware needed for a large number of cameras, or leave it
+ * running to look for leaks.
+ *
+ * <pre>
+ * java -cp benchmarks.jar org.openhab.binding.ipcamera.simulator.LoadHarness --cameras 100 --viewers 20
+ * </pre>
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class LoadHarness {
+    private final Map<String, String> options = new HashMap<>();
+    private final List<SimulatedCamera> cameras = new ArrayList<>();
+    private final List<IpCameraHandler> handlers = new ArrayList<>();
+    private final List<AtomicBoolean> online = new ArrayList<>();
+    private final List<SimulatedViewer> viewers = new ArrayList<>();
+    private final AtomicLong imageUpdates = new AtomicLong();
+    // nanoseconds from a camera sending an alarm to the binding updating the motion channel.
+    private final List<Long> eventLatencies = Collections.synchronizedList(new ArrayList<>());
+    private final List<Long> allEventLatencies = new ArrayList<>();
+    // JVM threads that were running before the harness started anything.
+    private int threadsAtStart = 0;
+
+    public static void main(String[] args) throws Exception {
+        LoadHarness harness = new LoadHarness();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            harness.options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        if (args.length % 2 != 0) {
+            harness.options.put(args[args.length - 1].replaceFirst("^--", ""), "true");
+        }
+        if (harness.options.containsKey("help")) {
+            printHelp();
+            return;
+        }
+        harness.run();
+    }
+
+    private static void printHelp() {
+        System.out.println("Options, with their defaults:");
+        System.out.println("  --cameras 10           number of simulated cameras");
+        System.out.println("  --viewers 0            number of MJPEG viewers, spread over the cameras");
+        System.out.println("  --duration 60          seconds to run for");
+        System.out.println("  --report 10            seconds between reports");
+        System.out.println("  --brand HIKVISION      HIKVISION, DAHUA, FOSCAM, AMCREST, INSTAR, DOORBIRD or HTTPONLY");
+        System.out.println("  --auth digest          none, basic or digest");
+        System.out.println("  --nonce 30000          ms a digest nonce lasts before the camera says it is stale");
+        System.out.println("  --jpeg 65536           approximate size of each snapshot and frame in bytes");
+        System.out.println("  --latency 20           ms the camera waits before answering a snapshot request");
+        System.out.println("  --fps 10               frames per second of the camera's MJPEG stream");
+        System.out.println("  --poll 1000            POLL_CAMERA_MS given to each camera thing");
+        System.out.println("  --events 5000          ms between motion alarms, 0 for none");
+        System.out.println("  --port 20000           first camera port, stream servers start at port + 10000");
+        System.out.println("  --simulate-only        only start the cameras, for testing a real openHAB");
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(option(name, Integer.toString(defaultValue)));
+    }
+
+    private void run() throws Exception {
+        int cameraCount = intOption("cameras", 10);
+        int viewerCount = intOption("viewers", 0);
+        int duration = intOption("duration", 60);
+        int reportEvery = intOption("report", 10);
+        int basePort = intOption("port", 20000);
+        boolean simulateOnly = options.containsKey("simulate-only");
+        String brand = option("brand", "HIKVISION").toUpperCase(Locale.ROOT);
+
+        threadsAtStart = otherThreads();
+        if (System.getProperty("openhab.userdata") == null) {
+            File userdata = Files.createTempDirectory("ipcamera-harness").toFile();
+            userdata.deleteOnExit();
+            System.setProperty("openhab.userdata", userdata.getAbsolutePath());
+        }
+
+        System.out.println("Creating a " + option("jpeg", "65536") + " byte JPEG for the cameras to send.");
+        byte[] jpeg = BenchmarkSupport.jpeg(intOption("jpeg", 65536));
+        EventLoopGroup simulatorGroup = new NioEventLoopGroup(Math.max(2, Runtime.getRuntime().availableProcessors()),
+                new DefaultThreadFactory("sim"));
+        EventLoopGroup viewerGroup = new NioEventLoopGroup(2, new DefaultThreadFactory("viewer"));
+
+        for (int i = 0; i < cameraCount; i++) {
+            SimulatedCamera.Settings settings = new SimulatedCamera.Settings();
+            settings.brand = brand;
+            settings.auth = SimulatedCamera.Auth.valueOf(option("auth", "digest").toUpperCase(Locale.ROOT));
+            settings.nonceLifetimeMs = intOption("nonce", 30000);
+            settings.snapshotLatencyMs = intOption("latency", 20);
+            settings.mjpegFps = intOption("fps", 10);
+            settings.eventIntervalMs = intOption("events", 5000);
+            SimulatedCamera camera = new SimulatedCamera(simulatorGroup, basePort + i, jpeg, settings);
+            camera.start();
+            cameras.add(camera);
+        }
+        System.out.println("Started " + cameraCount + " simulated " + brand + " cameras on 127.0.0.1 ports "
+                + basePort + " to " + (basePort + cameraCount - 1) + ".");
+
+        long started = System.nanoTime();
+        if (!simulateOnly) {
+            for (int i = 0; i < cameraCount; i++) {
+                startHandler(i, basePort + i, basePort + 10000 + i, brand);
+            }
+            waitForCameras(started);
+            for (int i = 0; i < viewerCount; i++) {
+                SimulatedViewer viewer = new SimulatedViewer(viewerGroup, "127.0.0.1",
+                        basePort + 10000 + (i % cameraCount), "/ipcamera.mjpeg");
+                if (!viewer.start()) {
+                    System.out.println("Viewer " + i + " could not connect to the stream server.");
+                }
+                viewers.add(viewer);
+            }
+        }
+
+        Totals last = new Totals();
+        long runUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+        long lastReport = System.nanoTime();
+        printHeader();
+        while (System.nanoTime() < runUntil) {
+            Thread.sleep(Math.min(TimeUnit.SECONDS.toMillis(reportEvery),
+                    Math.max(1, TimeUnit.NANOSECONDS.toMillis(runUntil - System.nanoTime()))));
+            long now = System.nanoTime();
+            Totals current = new Totals();
+            report((now - started) / 1e9, (now - lastReport) / 1e9, last, current);
+            last = current;
+            lastReport = now;
+        }
+
+        int stillConnected = 0;
+        for (SimulatedViewer viewer : viewers) {
+            if (viewer.isConnected()) {
+                stillConnected++;
+            }
+        }
+        summary((System.nanoTime() - started) / 1e9, stillConnected);
+        for (IpCameraHandler handler : handlers) {
+            handler.dispose();
+        }
+        for (SimulatedViewer viewer : viewers) {
+            viewer.stop();
+        }
+        for (SimulatedCamera camera : cameras) {
+            camera.stop();
+        }
+        viewerGroup.shutdownGracefully(0, 2, TimeUnit.SECONDS);
+        simulatorGroup.shutdownGracefully(0, 2, TimeUnit.SECONDS);
+        // The handlers leave some pools to finish in the background, so do not wait for them.
+        System.exit(0);
+    }
+
+    private void startHandler(int index, int cameraPort, int serverPort, String brand) {
+        SimulatedCamera camera = cameras.get(index);
+        Map<String, Object> config = BenchmarkSupport.defaultConfig();
+        config.put(CONFIG_PORT, cameraPort);
+        config.put(CONFIG_ONVIF_PORT, cameraPort);
+        config.put(CONFIG_SERVER_PORT, serverPort);
+        config.put(CONFIG_USERNAME, camera.settings.username);
+        config.put(CONFIG_PASSWORD, camera.settings.password);
+        config.put(CONFIG_POLL_CAMERA_MS, intOption("poll", 1000));
+        config.put(CONFIG_UPDATE_IMAGE, true);
+        config.put(CONFIG_GIF_PREROLL, 0);
+        config.put(CONFIG_GIF_POSTROLL, 0);
+        config.put(CONFIG_ONVIF_PROFILE_NUMBER, 0);
+        if ("HTTPONLY".equals(brand)) {
+            config.put(CONFIG_SNAPSHOT_URL_OVERRIDE, "http://127.0.0.1:" + cameraPort + "/snapshot.jpg");
+            config.put(CONFIG_STREAM_URL_OVERRIDE, "http://127.0.0.1:" + cameraPort + "/video.mjpg");
+        }
+        AtomicBoolean isOnline = new AtomicBoolean();
+        online.add(isOnline);
+        IpCameraHandler handler = new IpCameraHandler(
+                BenchmarkSupport.createThing(brand, "sim" + index, config));
+        handler.setCallback(callback(camera, isOnline));
+        handlers.add(handler);
+        handler.initialize();
+    }
+
+    // Does what openHAB would do with the updates, which is count them.
+    private ThingHandlerCallback callback(SimulatedCamera camera, AtomicBoolean isOnline) {
+        return (ThingHandlerCallback) Proxy.newProxyInstance(LoadHarness.class.getClassLoader(),
+                new Class<?>[] { ThingHandlerCallback.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "stateUpdated":
+                            String channel = ((ChannelUID) args[0]).getId();
+                            if (CHANNEL_IMAGE.equals(channel)) {
+                                imageUpdates.incrementAndGet();
+                            } else if (CHANNEL_MOTION_ALARM.equals(channel) && "ON".equals(args[1].toString())) {
+                                long latency = camera.takeEventLatency();
+                                if (latency >= 0) {
+                                    eventLatencies.add(latency);
+                                }
+                            }
+                            return null;
+                        case "statusUpdated":
+                            isOnline.set(args[1].toString().startsWith("ONLINE"));
+                            return null;
+                        case "isChannelLinked":
+                            return true;
+                        case "toString":
+                            return "LoadHarness callback";
+                        default:
+                            Class<?> returnType = method.getReturnType();
+                            if (returnType == boolean.class) {
+                                return false;
+                            } else if (returnType == int.class) {
+                                return 0;
+                            }
+                            return null;
+                    }
+                });
+    }
+
+    private int countOnline() {
+        int count = 0;
+        for (AtomicBoolean isOnline : online) {
+            if (isOnline.get()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void waitForCameras(long started) throws InterruptedException {
+        long giveUp = started + TimeUnit.SECONDS.toNanos(90);
+        while (countOnline() < handlers.size() && System.nanoTime() < giveUp) {
+            Thread.sleep(250);
+        }
+        System.out.printf(Locale.ROOT, "%d of %d cameras were online after %.1f seconds.%n", countOnline(),
+                handlers.size(), (System.nanoTime() - started) / 1e9);
+        // Ask for the alarm states the way openHAB does when the channels are linked.
+        for (IpCameraHandler handler : handlers) {
+            handler.handleCommand(new ChannelUID(handler.getThing().getUID(), CHANNEL_MOTION_ALARM),
+                    RefreshType.REFRESH);
+        }
+    }
+
+    private class Totals {
+        final long images = imageUpdates.get();
+        long snapshots, frames, events, unauthorized, connections, requests, viewerBytes, viewerFrames;
+
+        Totals() {
+            for (SimulatedCamera camera : cameras) {
+                snapshots += camera.getSnapshotsServed();
+                frames += camera.getFramesServed();
+                events += camera.getEventsSent();
+                unauthorized += camera.getUnauthorized();
+                connections += camera.getConnections();
+                requests += camera.getRequests();
+            }
+            for (SimulatedViewer viewer : viewers) {
+                viewerBytes += viewer.getBytesReceived();
+                viewerFrames += viewer.getFramesReceived();
+            }
+        }
+    }
+
+    private void printHeader() {
+        System.out.println(
+                "   time online  images/s snaps/s  reqs/s  conns/s 401s/s  frames/s viewerMB/s events  latency p50/p99/max ms  threads  heapMB");
+    }
+
+    private void report(double elapsed, double seconds, Totals last, Totals now) {
+        List<Long> latencies;
+        synchronized (eventLatencies) {
+            latencies = new ArrayList<>(eventLatencies);
+            eventLatencies.clear();
+        }
+        if (allEventLatencies.size() < 1_000_000) {
+            allEventLatencies.addAll(latencies);
+        }
+        Collections.sort(latencies);
+        System.out.printf(Locale.ROOT,
+                "%7.0f %6d %9.1f %7.1f %7.1f %8.1f %6.1f %9.1f %10.2f %6d  %7s/%7s/%7s  %4d/%-4d %6d%n", elapsed,
+                countOnline(), (now.images - last.images) / seconds, (now.snapshots - last.snapshots) / seconds,
+                (now.requests - last.requests) / seconds, (now.connections - last.connections) / seconds,
+                (now.unauthorized - last.unauthorized) / seconds, (now.viewerFrames - last.viewerFrames) / seconds,
+                (now.viewerBytes - last.viewerBytes) / seconds / 1048576.0, now.events - last.events,
+                percentile(latencies, 50), percentile(latencies, 99), percentile(latencies, 100), bindingThreads(),
+                ManagementFactory.getThreadMXBean().getThreadCount(), heapMb());
+    }
+
+    private static String percentile(List<Long> sorted, int percent) {
+        if (sorted.isEmpty()) {
+            return "-";
+        }
+        int index = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+        return String.format(Locale.ROOT, "%.1f", sorted.get(Math.max(0, index)) / 1e6);
+    }
+
+    private static int otherThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            String name = thread.getName();
+            if (!name.startsWith("sim-") && !name.startsWith("viewer-")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Threads started by the binding, which leaves out the simulated cameras, the viewers and the JVM's own.
+    private int bindingThreads() {
+        return otherThreads() - threadsAtStart;
+    }
+
+    private static long heapMb() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / 1048576;
+    }
+
+    private void summary(double seconds, int stillConnected) {
+        Totals totals = new Totals();
+        System.gc();
+        List<Long> latencies = new ArrayList<>(allEventLatencies);
+        latencies.addAll(eventLatencies);
+        Collections.sort(latencies);
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Ran %d cameras and %d viewers for %.0f seconds.%n", cameras.size(),
+                viewers.size(), seconds);
+        System.out.printf(Locale.ROOT, "Image updates: %d (%.1f/s), snapshots served: %d, requests: %d%n",
+                totals.images, totals.images / seconds, totals.snapshots, totals.requests);
+        System.out.printf(Locale.ROOT, "Connections opened: %d, 401 replies: %d (%.1f%% of requests)%n",
+                totals.connections, totals.unauthorized,
+                totals.requests == 0 ? 0.0 : 100.0 * totals.unauthorized / totals.requests);
+        System.out.printf(Locale.ROOT, "MJPEG frames sent by cameras: %d, received by viewers: %d, %.1f MB%n",
+                totals.frames, totals.viewerFrames, totals.viewerBytes / 1048576.0);
+        System.out.printf(Locale.ROOT, "Alarms sent: %d, reported: %d, latency ms p50 %s p90 %s p99 %s max %s%n",
+                totals.events, latencies.size(), percentile(latencies, 50), percentile(latencies, 90),
+                percentile(latencies, 99), percentile(latencies, 100));
+        System.out.printf(Locale.ROOT, "Threads started by the binding: %d, JVM peak %d. Heap after GC: %d MB%n",
+                bindingThreads(), ManagementFactory.getThreadMXBean().getPeakThreadCount(), heapMb());
+        if (!viewers.isEmpty()) {
+            System.out.println("Viewers still connected at the end: " + stillConnected + " of " + viewers.size());
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.simulator;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+
+/**
+ * The {@link SimulatedCamera} is responsible for pretending to be one camera on a local port, so the binding can be
+ * load and soak tested without real hardware. It answers the same URLs as the brand it is set to, including the
+ * snapshot, MJPEG, alarm stream and ONVIF SOAP requests, and counts what it has served.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class SimulatedCamera {
+    public enum Auth {
+        NONE,
+        BASIC,
+        DIGEST
+    }
+
+    /**
+     * How the camera behaves. Change these before calling {@link SimulatedCamera#start()}.
+     */
+    public static class Settings {
+        // HIKVISION, DAHUA, FOSCAM, AMCREST, INSTAR, DOORBIRD or HTTPONLY
+        public String brand = "HIKVISION";
+        public String username = "admin";
+        public String password = "password123";
+        public Auth auth = Auth.DIGEST;
+        // how long a digest nonce is accepted before the camera answers with stale=true.
+        public int nonceLifetimeMs = 30000;
+        public int snapshotLatencyMs = 20;
+        public int mjpegFps = 10;
+        // time between motion alarms, 0 turns them off.
+        public int eventIntervalMs = 5000;
+        public int heartbeatMs = 5000;
+    }
+
+    public final Settings settings;
+    public final int port;
+    final byte[] jpeg;
+    private final EventLoopGroup eventLoopGroup;
+    private @Nullable Channel serverChannel = null;
+    private @Nullable ScheduledFuture<?> motionJob = null;
+    // For brands that are polled for their alarm state instead of pushing events.
+    private volatile boolean motionActive = false;
+
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong connections = new AtomicLong();
+    final AtomicLong snapshotsServed = new AtomicLong();
+    final AtomicLong framesServed = new AtomicLong();
+    final AtomicLong eventsSent = new AtomicLong();
+    final AtomicLong unauthorized = new AtomicLong();
+    final AtomicLong bytesSent = new AtomicLong();
+    // System.nanoTime() of the last motion alarm that has not been matched to an updateState() yet, 0 for none.
+    private final AtomicLong pendingEventNanos = new AtomicLong();
+
+    // Replaced by whichever request first notices that it has expired.
+    private volatile String nonce = "";
+    private volatile long nonceCreated = 0;
+    final String opaque = Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+    public SimulatedCamera(EventLoopGroup eventLoopGroup, int port, byte[] jpeg, Settings settings) {
+        this.eventLoopGroup = eventLoopGroup;
+        this.port = port;
+        this.jpeg = jpeg;
+        this.settings = settings;
+        newNonce();
+    }
+
+    public void start() throws InterruptedException {
+        ServerBootstrap serverBootstrap = new ServerBootstrap();
+        serverBootstrap.group(eventLoopGroup);
+        serverBootstrap.channel(NioServerSocketChannel.class);
+        serverBootstrap.option(ChannelOption.SO_BACKLOG, 256);
+        serverBootstrap.childOption(ChannelOption.TCP_NODELAY, true);
+        serverBootstrap.localAddress(new InetSocketAddress("127.0.0.1", port));
+        serverBootstrap.childHandler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel socketChannel) throws Exception {
+                connections.incrementAndGet();
+                socketChannel.pipeline().addLast("HttpServerCodec", new HttpServerCodec());
+                socketChannel.pipeline().addLast("aggregator", new HttpObjectAggregator(64 * 1024));
+                socketChannel.pipeline().addLast("cameraHandler", new SimulatedCameraHandler(SimulatedCamera.this));
+            }
+        });
+        serverChannel = serverBootstrap.bind().sync().channel();
+        if ("FOSCAM".equals(settings.brand) && settings.eventIntervalMs > 0) {
+            // Motion is on for the first half of each interval.
+            motionJob = eventLoopGroup.next().scheduleAtFixedRate(() -> {
+                motionActive = !motionActive;
+                if (motionActive) {
+                    eventSent();
+                }
+            }, settings.eventIntervalMs / 2, settings.eventIntervalMs / 2, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void stop() {
+        ScheduledFuture<?> job = motionJob;
+        if (job != null) {
+            job.cancel(false);
+            motionJob = null;
+        }
+        Channel channel = serverChannel;
+        if (channel != null) {
+            channel.close().awaitUninterruptibly();
+            serverChannel = null;
+        }
+    }
+
+    String currentNonce() {
+        if (System.nanoTime() - nonceCreated > settings.nonceLifetimeMs * 1000000L) {
+            newNonce();
+        }
+        return nonce;
+    }
+
+    private void newNonce() {
+        nonce = Long.toHexString(ThreadLocalRandom.current().nextLong())
+                + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        nonceCreated = System.nanoTime();
+    }
+
+    boolean isMotionActive() {
+        return motionActive;
+    }
+
+    void eventSent() {
+        eventsSent.incrementAndGet();
+        pendingEventNanos.compareAndSet(0, System.nanoTime());
+    }
+
+    /**
+     * Call when the binding reports the alarm, to find out how long it took to get from the camera to the item.
+     *
+     * @return nanoseconds since the alarm was sent, or -1 if no alarm is waiting.
+     */
+    public long takeEventLatency() {
+        long sent = pendingEventNanos.getAndSet(0);
+        return (sent == 0) ? -1 : System.nanoTime() - sent;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getConnections() {
+        return connections.get();
+    }
+
+    public long getSnapshotsServed() {
+        return snapshotsServed.get();
+    }
+
+    public long getFramesServed() {
+        return framesServed.get();
+    }
+
+    public long getEventsSent() {
+        return eventsSent.get();
+    }
+
+    public long getUnauthorized() {
+        return unauthorized.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+}
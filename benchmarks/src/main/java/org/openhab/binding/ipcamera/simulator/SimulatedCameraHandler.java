@@ -0,0 +1,317 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.simulator;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.ipcamera.handler.BenchmarkSupport;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+
+/**
+ * The {@link SimulatedCameraHandler} is responsible for answering the requests to a {@link SimulatedCamera}. One is
+ * created for each connection the binding opens.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class SimulatedCameraHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+    private static final String REALM = "IP Camera(SIM01)";
+    private static final Pattern DIGEST_FIELD = Pattern.compile("(\\w+)=(?:\"([^\"]*)\"|([^,\\s]*))");
+    private static final String HIK_MOTION = BenchmarkSupport.payload("hikvision-vmd.xml");
+    private static final String HIK_HEARTBEAT = BenchmarkSupport.payload("hikvision-videoloss.xml");
+    private static final String DAHUA_MOTION_START = BenchmarkSupport.payload("dahua-motion.txt");
+    private static final String DAHUA_MOTION_STOP = DAHUA_MOTION_START.replace("action=Start", "action=Stop");
+    private static final String DAHUA_HEARTBEAT = BenchmarkSupport.payload("dahua-heartbeat.txt");
+    private static final String FOSCAM_DEV_STATE = BenchmarkSupport.payload("foscam-devstate.xml");
+    private static final String ONVIF_SERVICES = BenchmarkSupport.payload("onvif-services.xml");
+    private static final String ONVIF_PROFILES = BenchmarkSupport.payload("onvif-profiles.xml");
+    private static final String ONVIF_STREAM_URI = BenchmarkSupport.payload("onvif-stream-uri.xml");
+    private static final String ONVIF_SNAPSHOT_URI = BenchmarkSupport.payload("onvif-snapshot-uri.xml");
+    private static final String ONVIF_DEVICE_INFORMATION = BenchmarkSupport.payload("onvif-device-information.xml");
+    private static final String ONVIF_EMPTY = BenchmarkSupport.payload("onvif-empty.xml");
+    private final SimulatedCamera camera;
+
+    public SimulatedCameraHandler(SimulatedCamera camera) {
+        this.camera = camera;
+    }
+
+    @Override
+    protected void channelRead0(@Nullable ChannelHandlerContext ctx, @Nullable FullHttpRequest request) {
+        if (ctx == null || request == null) {
+            return;
+        }
+        camera.requests.incrementAndGet();
+        String uri = request.uri();
+        if (uri.startsWith("/onvif/")) {
+            // ONVIF uses WS-Security inside the SOAP body, which is not checked here.
+            onvifReply(ctx, request);
+            return;
+        }
+        // Foscam puts the user and password in the URL instead of using HTTP auth.
+        if (!"FOSCAM".equals(camera.settings.brand) && !authorised(ctx, request)) {
+            return;
+        }
+        if (uri.contains("/picture") || uri.contains("snapshot.cgi") || uri.contains("snapPicture2")
+                || uri.contains("snap.jpg") || uri.contains("image.cgi") || uri.startsWith("/snapshot.jpg")) {
+            snapshot(ctx, request);
+        } else if (uri.contains("/httppreview") || uri.contains("mjpg/video.cgi") || uri.contains("GetMJStream")
+                || uri.contains("mjpegstream.cgi") || uri.contains("bha-api/video.cgi")
+                || uri.startsWith("/video.mjpg")) {
+            mjpegStream(ctx);
+        } else if (uri.startsWith("/ISAPI/Event/notification/alertStream")) {
+            hikvisionAlertStream(ctx);
+        } else if (uri.contains("eventManager.cgi?action=attach")) {
+            dahuaEventStream(ctx);
+        } else if (uri.contains("cmd=getDevState")) {
+            reply(ctx, request, "text/plain",
+                    FOSCAM_DEV_STATE.replace("MOTION_STATE", camera.isMotionActive() ? "2" : "1"));
+        } else {
+            reply(ctx, request, "text/plain", "OK\r\n");
+        }
+    }
+
+    @Override
+    public void exceptionCaught(@Nullable ChannelHandlerContext ctx, @Nullable Throwable cause) {
+        if (ctx != null) {
+            ctx.close();
+        }
+    }
+
+    private boolean authorised(ChannelHandlerContext ctx, FullHttpRequest request) {
+        String authorization = request.headers().get(HttpHeaderNames.AUTHORIZATION);
+        switch (camera.settings.auth) {
+            case NONE:
+                return true;
+            case BASIC:
+                String expected = "Basic " + Base64.getEncoder().encodeToString(
+                        (camera.settings.username + ":" + camera.settings.password).getBytes(StandardCharsets.UTF_8));
+                if (expected.equals(authorization)) {
+                    return true;
+                }
+                unauthorised(ctx, request, "Basic realm=\"" + REALM + "\"");
+                return false;
+            default:
+                break;
+        }
+        String nonce = camera.currentNonce();
+        if (authorization == null || !authorization.startsWith("Digest ")) {
+            unauthorised(ctx, request, digestChallenge(nonce, false));
+            return false;
+        }
+        Map<String, String> fields = new HashMap<>();
+        Matcher matcher = DIGEST_FIELD.matcher(authorization.substring(7));
+        while (matcher.find()) {
+            fields.put(matcher.group(1), matcher.group(2) != null ? matcher.group(2) : matcher.group(3));
+        }
+        if (!nonce.equals(fields.get("nonce"))) {
+            unauthorised(ctx, request, digestChallenge(nonce, true));
+            return false;
+        }
+        String ha1 = md5(camera.settings.username + ":" + REALM + ":" + camera.settings.password);
+        String ha2 = md5(request.method().name() + ":" + fields.get("uri"));
+        String response = md5(ha1 + ":" + nonce + ":" + fields.get("nc") + ":" + fields.get("cnonce") + ":"
+                + fields.get("qop") + ":" + ha2);
+        if (camera.settings.username.equals(fields.get("username")) && response.equals(fields.get("response"))) {
+            return true;
+        }
+        unauthorised(ctx, request, digestChallenge(nonce, false));
+        return false;
+    }
+
+    private String digestChallenge(String nonce, boolean stale) {
+        return "Digest realm=\"" + REALM + "\", qop=\"auth\", nonce=\"" + nonce + "\", opaque=\"" + camera.opaque
+                + "\", stale=\"" + (stale ? "TRUE" : "FALSE") + "\"";
+    }
+
+    private void unauthorised(ChannelHandlerContext ctx, FullHttpRequest request, String challenge) {
+        camera.unauthorized.incrementAndGet();
+        ByteBuf body = Unpooled.copiedBuffer("<html><body>401 Unauthorized</body></html>", StandardCharsets.UTF_8);
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.UNAUTHORIZED,
+                body);
+        response.headers().set(HttpHeaderNames.WWW_AUTHENTICATE, challenge);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/html");
+        send(ctx, request, response);
+    }
+
+    private static String md5(String text) {
+        try {
+            byte[] hash = MessageDigest.getInstance("MD5").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(32);
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void reply(ChannelHandlerContext ctx, FullHttpRequest request, String contentType, String body) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                Unpooled.copiedBuffer(body, StandardCharsets.UTF_8));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+        send(ctx, request, response);
+    }
+
+    private void send(ChannelHandlerContext ctx, FullHttpRequest request, FullHttpResponse response) {
+        boolean keepAlive = HttpUtil.isKeepAlive(request);
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+        response.headers().set(HttpHeaderNames.CONNECTION,
+                keepAlive ? HttpHeaderValues.KEEP_ALIVE : HttpHeaderValues.CLOSE);
+        camera.bytesSent.addAndGet(response.content().readableBytes());
+        if (keepAlive) {
+            ctx.writeAndFlush(response);
+        } else {
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    private void snapshot(ChannelHandlerContext ctx, FullHttpRequest request) {
+        boolean keepAlive = HttpUtil.isKeepAlive(request);
+        ctx.executor().schedule(() -> {
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                    Unpooled.wrappedBuffer(camera.jpeg));
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "image/jpeg");
+            response.headers().set(HttpHeaderNames.CONTENT_LENGTH, camera.jpeg.length);
+            response.headers().set(HttpHeaderNames.CONNECTION,
+                    keepAlive ? HttpHeaderValues.KEEP_ALIVE : HttpHeaderValues.CLOSE);
+            camera.snapshotsServed.incrementAndGet();
+            camera.bytesSent.addAndGet(camera.jpeg.length);
+            if (keepAlive) {
+                ctx.writeAndFlush(response);
+            } else {
+                ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+            }
+        }, camera.settings.snapshotLatencyMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Starts a reply that never ends, the way cameras send their streams.
+    private void startStream(ChannelHandlerContext ctx, String contentType) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        ctx.writeAndFlush(response);
+    }
+
+    private void repeat(ChannelHandlerContext ctx, Runnable task, long periodMs) {
+        if (periodMs <= 0) {
+            return;
+        }
+        ScheduledFuture<?> future = ctx.executor().scheduleAtFixedRate(task, periodMs, periodMs,
+                TimeUnit.MILLISECONDS);
+        ctx.channel().closeFuture().addListener(closed -> future.cancel(false));
+    }
+
+    private void writePart(ChannelHandlerContext ctx, String boundary, String contentType, String text) {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        String header = "--" + boundary + "\r\nContent-Type: " + contentType + "\r\nContent-Length: " + body.length
+                + "\r\n\r\n";
+        ByteBuf part = ctx.alloc().buffer(header.length() + body.length + 2);
+        part.writeCharSequence(header, StandardCharsets.US_ASCII);
+        part.writeBytes(body);
+        part.writeCharSequence("\r\n", StandardCharsets.US_ASCII);
+        camera.bytesSent.addAndGet(part.readableBytes());
+        ctx.writeAndFlush(new DefaultHttpContent(part));
+    }
+
+    private void mjpegStream(ChannelHandlerContext ctx) {
+        startStream(ctx, "multipart/x-mixed-replace; boundary=myboundary");
+        ByteBuf jpeg = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(camera.jpeg));
+        String header = "--myboundary\r\nContent-Type: image/jpeg\r\nContent-Length: " + camera.jpeg.length
+                + "\r\n\r\n";
+        repeat(ctx, () -> {
+            // A real camera drops frames when the network can not keep up.
+            if (!ctx.channel().isWritable()) {
+                return;
+            }
+            camera.framesServed.incrementAndGet();
+            camera.bytesSent.addAndGet(camera.jpeg.length);
+            ctx.write(new DefaultHttpContent(Unpooled.copiedBuffer(header, StandardCharsets.US_ASCII)));
+            ctx.write(new DefaultHttpContent(jpeg.duplicate()));
+            ctx.writeAndFlush(new DefaultHttpContent(Unpooled.copiedBuffer("\r\n", StandardCharsets.US_ASCII)));
+        }, 1000 / Math.max(1, camera.settings.mjpegFps));
+    }
+
+    private void hikvisionAlertStream(ChannelHandlerContext ctx) {
+        startStream(ctx, "multipart/mixed; boundary=boundary");
+        String xmlType = "application/xml; charset=\"UTF-8\"";
+        repeat(ctx, () -> writePart(ctx, "boundary", xmlType, HIK_HEARTBEAT), camera.settings.heartbeatMs);
+        repeat(ctx, () -> {
+            camera.eventSent();
+            writePart(ctx, "boundary", xmlType, HIK_MOTION);
+        }, camera.settings.eventIntervalMs);
+    }
+
+    private void dahuaEventStream(ChannelHandlerContext ctx) {
+        startStream(ctx, "multipart/x-mixed-replace; boundary=myboundary");
+        repeat(ctx, () -> writePart(ctx, "myboundary", "text/plain", DAHUA_HEARTBEAT), camera.settings.heartbeatMs);
+        repeat(ctx, () -> {
+            camera.eventSent();
+            writePart(ctx, "myboundary", "text/plain", DAHUA_MOTION_START);
+            ctx.executor().schedule(() -> {
+                if (ctx.channel().isActive()) {
+                    writePart(ctx, "myboundary", "text/plain", DAHUA_MOTION_STOP);
+                }
+            }, camera.settings.eventIntervalMs / 2, TimeUnit.MILLISECONDS);
+        }, camera.settings.eventIntervalMs);
+    }
+
+    private void onvifReply(ChannelHandlerContext ctx, FullHttpRequest request) {
+        String soap = request.content().toString(StandardCharsets.UTF_8);
+        String reply;
+        if (soap.contains("GetServices")) {
+            reply = ONVIF_SERVICES;
+        } else if (soap.contains("GetProfiles")) {
+            reply = ONVIF_PROFILES;
+        } else if (soap.contains("GetStreamUri")) {
+            reply = ONVIF_STREAM_URI;
+        } else if (soap.contains("GetSnapshotUri")) {
+            reply = ONVIF_SNAPSHOT_URI;
+        } else if (soap.contains("GetDeviceInformation")) {
+            reply = ONVIF_DEVICE_INFORMATION;
+        } else {
+            reply = ONVIF_EMPTY;
+        }
+        reply(ctx, request, "application/soap+xml; charset=utf-8",
+                reply.replace("CAMERA_ADDRESS", "127.0.0.1:" + camera.port));
+    }
+}
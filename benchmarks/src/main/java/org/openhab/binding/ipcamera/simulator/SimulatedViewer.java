@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.simulator;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * The {@link SimulatedViewer} is responsible for acting like a browser or app that is watching a stream from the
+ * binding's stream server. It counts the bytes and the JPEG frames that arrive.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class SimulatedViewer {
+    private final EventLoopGroup eventLoopGroup;
+    private final String host;
+    private final int port;
+    private final String path;
+    private @Nullable Channel channel = null;
+    final AtomicLong bytesReceived = new AtomicLong();
+    final AtomicLong framesReceived = new AtomicLong();
+
+    public SimulatedViewer(EventLoopGroup eventLoopGroup, String host, int port, String path) {
+        this.eventLoopGroup = eventLoopGroup;
+        this.host = host;
+        this.port = port;
+        this.path = path;
+    }
+
+    private class ViewerHandler extends ChannelInboundHandlerAdapter {
+        // Frames are found by the JPEG start marker, which may be split across two reads.
+        private boolean lastByteWasFF = false;
+
+        @Override
+        public void channelRead(@Nullable ChannelHandlerContext ctx, @Nullable Object msg) {
+            try {
+                if (msg instanceof HttpContent) {
+                    ByteBuf content = ((HttpContent) msg).content();
+                    bytesReceived.addAndGet(content.readableBytes());
+                    for (int i = content.readerIndex(); i < content.writerIndex(); i++) {
+                        byte b = content.getByte(i);
+                        if (lastByteWasFF && b == (byte) 0xD8) {
+                            framesReceived.incrementAndGet();
+                        }
+                        lastByteWasFF = (b == (byte) 0xFF);
+                    }
+                }
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(@Nullable ChannelHandlerContext ctx, @Nullable Throwable cause) {
+            if (ctx != null) {
+                ctx.close();
+            }
+        }
+    }
+
+    public boolean start() {
+        Bootstrap bootstrap = new Bootstrap();
+        bootstrap.group(eventLoopGroup);
+        bootstrap.channel(NioSocketChannel.class);
+        bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 4000);
+        bootstrap.handler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel socketChannel) throws Exception {
+                socketChannel.pipeline().addLast("HttpClientCodec", new HttpClientCodec());
+                socketChannel.pipeline().addLast("viewerHandler", new ViewerHandler());
+            }
+        });
+        ChannelFuture future = bootstrap.connect(host, port).awaitUninterruptibly();
+        if (!future.isSuccess()) {
+            return false;
+        }
+        Channel localChannel = future.channel();
+        channel = localChannel;
+        DefaultFullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, path);
+        request.headers().set(HttpHeaderNames.HOST, host);
+        localChannel.writeAndFlush(request);
+        return true;
+    }
+
+    public boolean isConnected() {
+        Channel localChannel = channel;
+        return localChannel != null && localChannel.isActive();
+    }
+
+    public void stop() {
+        Channel localChannel = channel;
+        if (localChannel != null) {
+            localChannel.close().awaitUninterruptibly();
+            channel = null;
+        }
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public long getFramesReceived() {
+        return framesReceived.get();
+    }
+}
@@ -50,6 +50,14 @@ public class IpCameraBindingConstants {
     public static final String CONFIG_SNAPSHOT_URL_OVERRIDE = "SNAPSHOT_URL_OVERRIDE";
     public static final String CONFIG_IMAGE_UPDATE_EVENTS = "IMAGE_UPDATE_EVENTS";
     public static final String CONFIG_UPDATE_IMAGE = "UPDATE_IMAGE";
+    public static final String CONFIG_SNAPSHOT_MAX_AGE_MS = "SNAPSHOT_MAX_AGE_MS";
+    public static final String CONFIG_IMAGE_CHANNEL_WIDTH = "IMAGE_CHANNEL_WIDTH";
+    public static final String CONFIG_UNCHANGED_IMAGE_INTERVAL_S = "UNCHANGED_IMAGE_INTERVAL_S";
+    public static final String CONFIG_NVR_SEGMENT_S = "NVR_SEGMENT_S";
+    public static final String CONFIG_NVR_RETENTION_HOURS = "NVR_RETENTION_HOURS";
+    public static final String CONFIG_NVR_QUOTA_MB = "NVR_QUOTA_MB";
+    public static final String CONFIG_TIMELAPSE_INTERVAL_S = "TIMELAPSE_INTERVAL_S";
+    public static final String CONFIG_SNAPSHOT_HISTORY_MB = "SNAPSHOT_HISTORY_MB";
     public static final String CONFIG_NVR_CHANNEL = "NVR_CHANNEL";
     public static final String CONFIG_MOTION_URL_OVERRIDE = "MOTION_URL_OVERRIDE";
     public static final String CONFIG_AUDIO_URL_OVERRIDE = "AUDIO_URL_OVERRIDE";
@@ -64,11 +72,22 @@ public class IpCameraBindingConstants {
     public static final String CONFIG_FFMPEG_MOTION_ARGUMENTS = "FFMPEG_MOTION_ARGUMENTS";
     public static final String CONFIG_GIF_PREROLL = "GIF_PREROLL";
     public static final String CONFIG_GIF_POSTROLL = "GIF_POSTROLL";
+    public static final String CONFIG_GIF_JAVA_HEIGHT = "GIF_JAVA_HEIGHT";
+    public static final String CONFIG_MEDIA_PRIORITY = "MEDIA_PRIORITY";
     public static final String CONFIG_FIRST_CAM = "FIRST_CAM";
     public static final String CONFIG_SECOND_CAM = "SECOND_CAM";
     public static final String CONFIG_THIRD_CAM = "THIRD_CAM";
     public static final String CONFIG_FORTH_CAM = "FORTH_CAM";
+    public static final String CONFIG_CAMERAS = "CAMERAS";
     public static final String CONFIG_MOTION_CHANGES_ORDER = "MOTION_CHANGES_ORDER";
+    public static final String CONFIG_MOSAIC_WIDTH = "MOSAIC_WIDTH";
+    public static final String CONFIG_MOSAIC_HEIGHT = "MOSAIC_HEIGHT";
+    public static final String CONFIG_MOSAIC_FPS = "MOSAIC_FPS";
+
+    // List of all Binding Config items
+    public static final String CONFIG_SUBNET_SCAN = "SUBNET_SCAN";
+    public static final String CONFIG_SUBNET_SCAN_RATE = "SUBNET_SCAN_RATE";
+    public static final String CONFIG_MEDIA_JOBS = "MEDIA_JOBS";
 
     // List of all Channel ids
     public static final String CHANNEL_UPDATE_IMAGE_NOW = "updateImageNow";
@@ -116,4 +135,10 @@ public class IpCameraBindingConstants {
     public static final String CHANNEL_LAST_MOTION_TYPE = "lastMotionType";
     public static final String CHANNEL_GOTO_PRESET = "gotoPreset";
     public static final String CHANNEL_START_STREAM = "startStream";
+    public static final String CHANNEL_SNAPSHOT_LATENCY = "snapshotLatency";
+    public static final String CHANNEL_EVENT_LATENCY = "eventLatency";
+    public static final String CHANNEL_AUTH_FAILURES = "authFailures";
+    public static final String CHANNEL_CONNECTION_REUSE = "connectionReuse";
+    public static final String CHANNEL_VIEWERS = "viewers";
+    public static final String CHANNEL_FFMPEG_STARTS = "ffmpegStarts";
 }
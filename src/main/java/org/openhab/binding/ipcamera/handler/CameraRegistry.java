@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.handler;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link CameraRegistry} is responsible for knowing which cameras are online and which groups exist, by the
+ * 'Unique ID' of their thing. Groups subscribe to the IDs they were set up with and are told when a camera with that
+ * ID comes online or goes offline. A group's ID can be subscribed to as well, and the group passes on each camera it
+ * gains or loses, so groups can be put inside other groups. Only the listeners of that one ID are told, so the work
+ * does not grow with the number of cameras or groups.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class CameraRegistry {
+    private final Map<String, IpCameraHandler> cameras = new ConcurrentHashMap<>();
+    private final Map<String, IpCameraGroupHandler> groups = new ConcurrentHashMap<>();
+    private final Map<String, Set<Listener>> listeners = new ConcurrentHashMap<>();
+
+    public interface Listener {
+        /**
+         * @param member the ID that was subscribed to, which is the camera itself or a group it is in.
+         */
+        void memberOnline(String member, IpCameraHandler camera);
+
+        void memberOffline(String member, IpCameraHandler camera);
+    }
+
+    public void cameraOnline(IpCameraHandler camera) {
+        String uid = camera.getThing().getUID().getId();
+        cameras.put(uid, camera);
+        memberOnline(uid, camera);
+    }
+
+    public void cameraOffline(IpCameraHandler camera) {
+        String uid = camera.getThing().getUID().getId();
+        if (cameras.remove(uid, camera)) {
+            memberOffline(uid, camera);
+        }
+    }
+
+    public @Nullable IpCameraHandler getCamera(String uid) {
+        return cameras.get(uid);
+    }
+
+    public boolean isOnline(String uid) {
+        return cameras.containsKey(uid);
+    }
+
+    public void addGroup(String uid, IpCameraGroupHandler group) {
+        groups.put(uid, group);
+    }
+
+    public void removeGroup(String uid, IpCameraGroupHandler group) {
+        groups.remove(uid, group);
+    }
+
+    /**
+     * Starts telling the listener about the camera or group with this ID. Anything that is already online is passed
+     * to the listener straight away.
+     */
+    public void subscribe(String member, Listener listener) {
+        listeners.computeIfAbsent(member, key -> ConcurrentHashMap.newKeySet()).add(listener);
+        IpCameraHandler camera = cameras.get(member);
+        if (camera != null) {
+            listener.memberOnline(member, camera);
+        }
+        IpCameraGroupHandler group = groups.get(member);
+        if (group != null) {
+            for (IpCameraHandler groupCamera : group.cameraOrder) {
+                listener.memberOnline(member, groupCamera);
+            }
+        }
+    }
+
+    public void unsubscribe(String member, Listener listener) {
+        listeners.computeIfPresent(member, (key, set) -> {
+            set.remove(listener);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    /**
+     * Tells everything subscribed to the ID that the camera is now part of it.
+     */
+    public void memberOnline(String member, IpCameraHandler camera) {
+        Set<Listener> subscribed = listeners.get(member);
+        if (subscribed != null) {
+            for (Listener listener : subscribed) {
+                listener.memberOnline(member, camera);
+            }
+        }
+    }
+
+    public void memberOffline(String member, IpCameraHandler camera) {
+        Set<Listener> subscribed = listeners.get(member);
+        if (subscribed != null) {
+            for (Listener listener : subscribed) {
+                listener.memberOffline(member, camera);
+            }
+        }
+    }
+}
@@ -22,13 +22,21 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -45,12 +53,18 @@ import org.eclipse.smarthome.core.thing.ThingStatus;
 import org.eclipse.smarthome.core.thing.ThingTypeUID;
 import org.eclipse.smarthome.core.thing.binding.BaseThingHandler;
 import org.eclipse.smarthome.core.types.Command;
+import org.openhab.binding.ipcamera.internal.CameraHlsPlaylist;
+import org.openhab.binding.ipcamera.internal.CameraMetrics;
+import org.openhab.binding.ipcamera.internal.GroupHlsPlaylist;
+import org.openhab.binding.ipcamera.internal.GroupMosaic;
+import org.openhab.binding.ipcamera.internal.MjpegVariants;
 import org.openhab.binding.ipcamera.internal.StreamServerGroupHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
@@ -68,13 +82,26 @@ import io.netty.handler.timeout.IdleStateHandler;
  */
 
 @NonNullByDefault
-public class IpCameraGroupHandler extends BaseThingHandler {
+public class IpCameraGroupHandler extends BaseThingHandler implements CameraRegistry.Listener {
     private final Logger logger = LoggerFactory.getLogger(getClass());
     public static final Set<ThingTypeUID> SUPPORTED_THING_TYPES = new HashSet<ThingTypeUID>(
             Arrays.asList(THING_TYPE_GROUPDISPLAY));
     private Configuration config;
     BigDecimal pollTimeInSeconds = new BigDecimal(2);
-    public ArrayList<IpCameraHandler> cameraOrder = new ArrayList<IpCameraHandler>(2);
+    // Only changes when a camera joins or leaves, but is read by every poll and every request to the server.
+    public List<IpCameraHandler> cameraOrder = new CopyOnWriteArrayList<IpCameraHandler>();
+    // The same cameras by their thing UID, so a request for one camera's files does not search the list.
+    private final Map<String, IpCameraHandler> camerasByUid = new ConcurrentHashMap<>();
+    // Cameras this group gained or lost that the groups it is inside of still need to hear about. They are queued
+    // while holding this handler's lock and passed on after it is let go, so two groups never wait on each other.
+    private final Queue<Runnable> parentUpdates = new ConcurrentLinkedQueue<>();
+    private final Object parentUpdateLock = new Object();
+    // The IDs from the config, which can be cameras or other groups.
+    private List<String> members = new ArrayList<>();
+    // Which of the IDs each camera came from, as a camera can be in the group directly and through another group.
+    private final Map<IpCameraHandler, Set<String>> memberSources = new HashMap<>();
+    private volatile Map<IpCameraHandler, Integer> positions = new HashMap<>();
+    private final Set<IpCameraHandler> camerasWithMotion = ConcurrentHashMap.newKeySet();
     private EventLoopGroup serversLoopGroup = new NioEventLoopGroup();
     private final ScheduledExecutorService pollCameraGroup = Executors.newSingleThreadScheduledExecutor();
     private @Nullable ScheduledFuture<?> pollCameraGroupJob = null;
@@ -83,14 +110,24 @@ public class IpCameraGroupHandler extends BaseThingHandler {
     public String hostIp = "0.0.0.0";
     boolean motionChangesOrder = true;
     public int serverPort = 0;
-    public String playList = "";
-    String playingNow = "";
     public int cameraIndex = 0;
     public boolean hlsTurnedOn = false;
-    int entries = 0;
-    BigDecimal numberOfFiles = new BigDecimal(1);
-    int mediaSequence = 1;
-    int discontinuitySequence = 0;
+    private final GroupHlsPlaylist playList = new GroupHlsPlaylist();
+    private final Map<IpCameraHandler, CameraHlsPlaylist> cameraPlayLists = new ConcurrentHashMap<>();
+    // Clients of the group's MJPEG streams, sent the frames of whichever camera is being shown.
+    private final MjpegVariants mjpegClients = new MjpegVariants(scheduler, new CameraMetrics());
+    private volatile @Nullable IpCameraHandler shownCamera = null;
+    private volatile byte[] lastFrame = new byte[0];
+    // Made the first time a mosaic is asked for, as most groups never use one.
+    private @Nullable GroupMosaic mosaic = null;
+    private volatile @Nullable ScheduledFuture<?> mosaicJob = null;
+    private int mosaicWidth = 1280;
+    private int mosaicHeight = 720;
+    private int mosaicFps = 2;
+    // The newest picture each camera has passed on, which the mosaic stream is made from.
+    private final Map<IpCameraHandler, byte[]> latestFrames = new ConcurrentHashMap<>();
+    private byte[] lastMosaicSent = new byte[0];
+    private long lastMosaicSentTime = 0;
 
     public IpCameraGroupHandler(Thing thing) {
         super(thing);
@@ -102,89 +139,51 @@ public class IpCameraGroupHandler extends BaseThingHandler {
         return (config.get(CONFIG_IP_WHITELIST) == null) ? "" : config.get(CONFIG_IP_WHITELIST).toString();
     }
 
-    public String getPlayList() {
-        return playList;
-    }
-
-    public String getOutputFolder(int index) {
-        IpCameraHandler handle = cameraOrder.get(index);
-        return (String) handle.config.get(CONFIG_FFMPEG_OUTPUT);
+    /**
+     * @return the camera the group is showing now, or null if none of them are online.
+     */
+    public @Nullable IpCameraHandler getCurrentCamera() {
+        // One copy of the list and one read of the index, so a camera leaving cannot move it out of range.
+        IpCameraHandler[] order = cameraOrder.toArray(new IpCameraHandler[0]);
+        int index = cameraIndex;
+        return (index >= 0 && index < order.length) ? order[index] : null;
     }
 
-    private String readCamerasPlaylist(int cameraIndex) {
-        String camerasm3u8 = "";
-        IpCameraHandler handle = cameraOrder.get(cameraIndex);
-        try {
-            String file = handle.config.get(CONFIG_FFMPEG_OUTPUT).toString() + "ipcamera.m3u8";
-            camerasm3u8 = new String(Files.readAllBytes(Paths.get(file)));
-        } catch (IOException e) {
-            logger.error("Error occured fetching cameras m3u8 file :{}", e);
-        }
-        return camerasm3u8;
+    public int getViewerCount() {
+        return mjpegClients.size();
     }
 
-    String keepLast(String string, int numberToRetain) {
-        int start = string.length();
-        for (int loop = numberToRetain; loop > 0; loop--) {
-            start = string.lastIndexOf("#EXTINF:", start - 1);
-            if (start == -1) {
-                logger.error(
-                        "Playlist did not contain enough entries, check all cameras in groups use the same HLS settings.");
-                return "";
-            }
-        }
-        entries = entries + numberToRetain;
-        return string.substring(start);
+    public String getPlayList() {
+        return playList.toString();
     }
 
-    String removeFromStart(String string, int numberToRemove) {
-        int startingFrom = string.indexOf("#EXTINF:");
-        for (int loop = numberToRemove; loop > 0; loop--) {
-            startingFrom = string.indexOf("#EXTINF:", startingFrom + 27);
-            if (startingFrom == -1) {
-                logger.error(
-                        "Playlist failed to remove entries from start, check all cameras in groups use the same HLS settings.");
-                return string;
-            }
-        }
-        mediaSequence = mediaSequence + numberToRemove;
-        entries = entries - numberToRemove;
-        return string.substring(startingFrom);
-    }
-
-    int howManySegments(String m3u8File) {
-        int start = m3u8File.length();
-        int numberOfFiles = 0;
-        for (BigDecimal totalTime = new BigDecimal(0); totalTime.intValue() < pollTimeInSeconds
-                .intValue(); numberOfFiles++) {
-            start = m3u8File.lastIndexOf("#EXTINF:", start - 1);
-            if (start != -1) {
-                totalTime = totalTime.add(new BigDecimal(m3u8File.substring(start + 8, m3u8File.indexOf(",", start))));
-            } else {
-                logger.debug("Group did not find enough segments, lower the poll time if this message continues.");
-                break;
-            }
-        }
-        return numberOfFiles;
+    /**
+     * @return the FFMPEG_OUTPUT of the camera in the group with this thing UID, or null if it is not in the group now.
+     */
+    public @Nullable String getOutputFolder(String cameraUid) {
+        IpCameraHandler handle = camerasByUid.get(cameraUid);
+        return handle == null ? null : (String) handle.config.get(CONFIG_FFMPEG_OUTPUT);
     }
 
     public void createPlayList() {
-        String m3u8File = readCamerasPlaylist(cameraIndex);
-        if (m3u8File == "") {
-            return;
+        IpCameraHandler handle = cameraOrder.get(cameraIndex);
+        CameraHlsPlaylist cameraPlayList = cameraPlayLists.get(handle);
+        if (cameraPlayList == null) {
+            cameraPlayList = new CameraHlsPlaylist(
+                    Paths.get(handle.config.get(CONFIG_FFMPEG_OUTPUT).toString() + "ipcamera.m3u8"));
+            cameraPlayLists.put(handle, cameraPlayList);
         }
-        int numberOfSegments = howManySegments(m3u8File);
-        logger.debug("Using {} segmented files to make up a poll period.", numberOfSegments);
-        m3u8File = keepLast(m3u8File, numberOfSegments);
-        // logger.debug("replacing files to keep now");
-        m3u8File = m3u8File.replace("ipcamera", cameraIndex + "ipcamera"); // add index so we can then fetch output path
-        // logger.debug("There are {} segments, so we will remove {} from playlist.", entries, numberOfSegments);
-        if (entries > numberOfSegments * 3) {
-            playingNow = removeFromStart(playingNow, entries - (numberOfSegments * 3));
+        try {
+            cameraPlayList.refresh();
+        } catch (IOException e) {
+            logger.debug("Could not read the camera's m3u8 file yet:{}", e.getMessage());
+            return;
         }
-        playingNow = playingNow + "#EXT-X-DISCONTINUITY\n" + m3u8File;
-        playList = "#EXTM3U\n#EXT-X-VERSION:6\n#EXT-X-TARGETDURATION:5\n#EXT-X-ALLOW-CACHE:NO\n#EXT-X-DISCONTINUITY-SEQUENCE:"
-                + discontinuitySequence + "\n#EXT-X-MEDIA-SEQUENCE:" + mediaSequence + "\n" + playingNow;
+        double pollTime = pollTimeInSeconds.doubleValue();
+        List<CameraHlsPlaylist.Segment> segments = cameraPlayList.lastSegments(pollTime);
+        logger.debug("Using {} segmented files to make up a poll period.", segments.size());
+        // Three poll periods are kept so players have time to fetch them.
+        playList.add(handle.getThing().getUID().getAsString(), segments, pollTime * 3);
     }
 
     private IpCameraGroupHandler getHandle() {
@@ -256,102 +255,358 @@ public class IpCameraGroupHandler extends BaseThingHandler {
         }
     }
 
-    @SuppressWarnings("null")
-    void addCamera(String UniqueID) {
-        if (IpCameraHandler.listOfOnlineCameraUID.contains(UniqueID)) {
-            for (IpCameraHandler handler : IpCameraHandler.listOfOnlineCameraHandlers) {
-                if (handler.getThing().getUID().getId().equals(UniqueID)) {
-                    if (!cameraOrder.contains(handler)) {
-                        logger.info("Adding {} to a camera group.", UniqueID);
-                        if (hlsTurnedOn) {
-                            logger.info("Starting HLS for the new camera.");
-                            String channelPrefix = "ipcamera:" + handler.getThing().getThingTypeUID() + ":"
-                                    + handler.getThing().getUID().getId() + ":";
-                            handler.handleCommand(new ChannelUID(channelPrefix + CHANNEL_START_STREAM),
-                                    OnOffType.valueOf("ON"));
-                        }
-                        cameraOrder.add(handler);
-                    }
-                }
+    @Override
+    public void memberOnline(String member, IpCameraHandler camera) {
+        synchronized (this) {
+            Set<String> sources = memberSources.get(camera);
+            if (sources == null) {
+                sources = new HashSet<>();
+                memberSources.put(camera, sources);
+                addCamera(camera);
             }
+            sources.add(member);
         }
+        updateParents();
     }
 
-    // Event based. This is called as each camera comes online after the group handler is registered.
-    public void cameraOnline(String uid) {
-        logger.debug("New camera {} came online, checking if part of this group", uid);
-        if (config.get(CONFIG_FIRST_CAM).equals(uid)) {
-            addCamera(uid);
-        } else if (config.get(CONFIG_SECOND_CAM).equals(uid)) {
-            addCamera(uid);
-        } else if (config.get(CONFIG_THIRD_CAM).equals(uid)) {
-            addCamera(uid);
-        } else if (config.get(CONFIG_FORTH_CAM).equals(uid)) {
-            addCamera(uid);
+    @Override
+    public void memberOffline(String member, IpCameraHandler camera) {
+        synchronized (this) {
+            Set<String> sources = memberSources.get(camera);
+            if (sources != null && sources.remove(member) && sources.isEmpty()) {
+                removeCamera(camera);
+            }
         }
+        updateParents();
     }
 
-    // Event based. This is called as each camera comes online after the group handler is registered.
-    public void cameraOffline(IpCameraHandler handle) {
+    /**
+     * Passes the queued cameras on to the groups that have this group inside them. Must not hold this handler's lock.
+     * The updates are sent one at a time in the order they were queued, so a camera that leaves and comes back is
+     * never left out of the outer groups.
+     */
+    private void updateParents() {
+        synchronized (parentUpdateLock) {
+            Runnable update;
+            while ((update = parentUpdates.poll()) != null) {
+                update.run();
+            }
+        }
+    }
+
+    // Must hold this handler's lock.
+    private void addCamera(IpCameraHandler handler) {
+        logger.info("Adding {} to a camera group.", handler.getThing().getUID().getId());
+        if (hlsTurnedOn) {
+            logger.info("Starting HLS for the new camera.");
+            String channelPrefix = "ipcamera:" + handler.getThing().getThingTypeUID() + ":"
+                    + handler.getThing().getUID().getId() + ":";
+            handler.handleCommand(new ChannelUID(channelPrefix + CHANNEL_START_STREAM), OnOffType.valueOf("ON"));
+        }
+        cameraOrder.add(handler);
+        camerasByUid.put(handler.getThing().getUID().getAsString(), handler);
+        updatePositions();
+        handler.groups.add(this);
+        if (handler.motionDetected) {
+            camerasWithMotion.add(handler);
+        }
+        // Groups that have this group inside them get the camera as well.
+        String groupId = getThing().getUID().getId();
+        parentUpdates.add(() -> IpCameraHandler.REGISTRY.memberOnline(groupId, handler));
+    }
+
+    // Must hold this handler's lock.
+    private void removeCamera(IpCameraHandler handle) {
+        memberSources.remove(handle);
+        handle.groups.remove(this);
+        camerasWithMotion.remove(handle);
+        cameraPlayLists.remove(handle);
+        latestFrames.remove(handle);
+        if (shownCamera == handle) {
+            shownCamera = null;
+        }
         if (cameraOrder.remove(handle)) {
             logger.info("Camera {} is now offline, now removed from this group.", handle.getThing().getUID().getId());
+            camerasByUid.remove(handle.getThing().getUID().getAsString(), handle);
+            updatePositions();
+            String groupId = getThing().getUID().getId();
+            parentUpdates.add(() -> IpCameraHandler.REGISTRY.memberOffline(groupId, handle));
         }
     }
 
-    boolean addIfOnline(String UniqueID) {
-        if (IpCameraHandler.listOfOnlineCameraUID.contains(UniqueID)) {
-            addCamera(UniqueID);
-            return true;
+    private void updatePositions() {
+        Map<IpCameraHandler, Integer> newPositions = new HashMap<>();
+        int index = 0;
+        for (IpCameraHandler camera : cameraOrder) {
+            newPositions.put(camera, index++);
         }
-        return false;
+        positions = newPositions;
     }
 
-    void createCameraOrder() {
-        addIfOnline(config.get(CONFIG_FIRST_CAM).toString());
-        addIfOnline(config.get(CONFIG_SECOND_CAM).toString());
-        if (config.get(CONFIG_THIRD_CAM) != null) {
-            addIfOnline(config.get(CONFIG_THIRD_CAM).toString());
+    // Event based. This is called by the camera when it goes offline, even if it is in this group through another.
+    public void cameraOffline(IpCameraHandler handle) {
+        synchronized (this) {
+            removeCamera(handle);
         }
-        if (config.get(CONFIG_FORTH_CAM) != null) {
-            addIfOnline(config.get(CONFIG_FORTH_CAM).toString());
+        updateParents();
+    }
+
+    /**
+     * Called by each camera in the group when its motion starts or stops.
+     */
+    public void cameraMotion(IpCameraHandler camera, boolean detected) {
+        if (detected) {
+            camerasWithMotion.add(camera);
+        } else {
+            camerasWithMotion.remove(camera);
         }
-        // Cameras can now send events of when they go on and offline.
-        IpCameraHandler.listOfGroupHandlers.add(this);
     }
 
+    /**
+     * The IDs to show in order, which is FIRST_CAM to FORTH_CAM followed by the CAMERAS list. An ID can be that of
+     * another group.
+     */
+    private List<String> readMembers() {
+        List<String> uids = new ArrayList<>();
+        for (String key : new String[] { CONFIG_FIRST_CAM, CONFIG_SECOND_CAM, CONFIG_THIRD_CAM, CONFIG_FORTH_CAM }) {
+            Object value = config.get(key);
+            if (value != null) {
+                addMember(uids, value.toString());
+            }
+        }
+        Object cameras = config.get(CONFIG_CAMERAS);
+        if (cameras instanceof Collection) {
+            for (Object value : (Collection<?>) cameras) {
+                addMember(uids, String.valueOf(value));
+            }
+        } else if (cameras != null) {
+            for (String value : cameras.toString().split(",")) {
+                addMember(uids, value);
+            }
+        }
+        return uids;
+    }
+
+    private void addMember(List<String> uids, String uid) {
+        String trimmed = uid.trim();
+        if (!trimmed.isEmpty() && !trimmed.equals(getThing().getUID().getId()) && !uids.contains(trimmed)) {
+            uids.add(trimmed);
+        }
+    }
+
+    // Only the cameras that have motion are looked at, so this takes the same time however big the group is.
     int checkForMotion(int nextCamerasIndex) {
-        int checked = 0;
-        for (int index = nextCamerasIndex; checked < cameraOrder.size(); checked++) {
-            if (cameraOrder.get(index).motionDetected) {
-                // logger.trace("Motion detected on a camera in a group, the display order has changed.");
-                return index;
+        int size = cameraOrder.size();
+        if (camerasWithMotion.isEmpty() || size == 0) {
+            return nextCamerasIndex;
+        }
+        Map<IpCameraHandler, Integer> localPositions = positions;
+        int closest = -1, closestDistance = size;
+        for (IpCameraHandler camera : camerasWithMotion) {
+            Integer position = localPositions.get(camera);
+            if (position == null) {
+                continue;
+            }
+            int distance = Math.floorMod(position - nextCamerasIndex, size);
+            if (distance < closestDistance) {
+                closestDistance = distance;
+                closest = position;
+            }
+        }
+        // logger.trace("Motion detected on a camera in a group, the display order has changed.");
+        return closest == -1 ? nextCamerasIndex : closest;
+    }
+
+    /**
+     * Starts or stops one of the group's MJPEG streams. These never ask the cameras for anything extra, they are sent
+     * the frames the camera being shown already has.
+     *
+     * @param stream the path that was asked for, which is /ipcamera.mjpeg, /snapshots.mjpeg or /autofps.mjpeg
+     */
+    public void setupMjpegStreaming(boolean start, ChannelHandlerContext ctx, String stream,
+            MjpegVariants.@Nullable Variant variant) {
+        if (!start) {
+            if ("/mosaic.mjpeg".equals(mjpegClients.remove(ctx.channel()))) {
+                stopMosaicIfUnused();
+            }
+            return;
+        }
+        mjpegClients.add(ctx.channel(), stream, variant == null ? MjpegVariants.Variant.ORIGINAL : variant);
+        if ("/mosaic.mjpeg".equals(stream)) {
+            startMosaic();
+            return;
+        }
+        IpCameraHandler camera = shownCamera;
+        if (camera != null) {
+            camera.lockCurrentSnapshot.lock();
+            byte[] snapshot = camera.currentSnapshot;
+            camera.lockCurrentSnapshot.unlock();
+            if (snapshot.length > 1) {
+                // Gives the client a picture straight away instead of waiting for the next camera to be shown.
+                mjpegClients.frame(stream, snapshot);
             }
-            if (++index >= cameraOrder.size()) {
-                index = 0;
+        }
+    }
+
+    /**
+     * Called by every camera with each new picture it gets, which is passed on to the group's MJPEG clients if that
+     * camera is the one being shown.
+     *
+     * @param fromStream true when the picture came from the camera's own MJPEG stream instead of a snapshot.
+     */
+    public void cameraFrame(IpCameraHandler camera, byte[] jpeg, boolean fromStream) {
+        if (mosaicJob != null && jpeg.length > 1) {
+            latestFrames.put(camera, jpeg);
+        }
+        if (camera != shownCamera || mjpegClients.size() == 0 || jpeg.length <= 1) {
+            return;
+        }
+        lastFrame = jpeg;
+        mjpegClients.frame("/ipcamera.mjpeg", jpeg);
+        if (!fromStream) {
+            mjpegClients.frame("/snapshots.mjpeg", jpeg);
+        }
+        if (camera.motionDetected) {
+            mjpegClients.frame("/autofps.mjpeg", jpeg);
+        }
+    }
+
+    // Each poll the MJPEG clients are sent the picture the camera now shown already has. The cameras keep their own
+    // pictures fresh while the group has viewers and pass them on through cameraFrame(), so a camera is only asked
+    // here when it has no picture at all yet.
+    private void showCamera(IpCameraHandler camera) {
+        shownCamera = camera;
+        if (mjpegClients.size() == 0) {
+            return;
+        }
+        camera.lockCurrentSnapshot.lock();
+        byte[] snapshot = camera.currentSnapshot;
+        camera.lockCurrentSnapshot.unlock();
+        if (snapshot.length > 1) {
+            showFrame(camera, snapshot);
+        } else {
+            camera.getFreshSnapshot().thenAccept(jpeg -> showFrame(camera, jpeg));
+        }
+    }
+
+    private void showFrame(IpCameraHandler camera, byte[] jpeg) {
+        if (camera != shownCamera || jpeg.length <= 1) {
+            return;
+        }
+        if (jpeg != lastFrame) {
+            lastFrame = jpeg;
+            mjpegClients.frame("/ipcamera.mjpeg", jpeg);
+            mjpegClients.frame("/snapshots.mjpeg", jpeg);
+        }
+        mjpegClients.frame("/autofps.mjpeg", jpeg);
+    }
+
+    /**
+     * Makes a mosaic of every camera in the group for a single request. Each camera's picture is shared with any
+     * request it already has open, and is not asked for at all if the one it has is new enough.
+     */
+    public CompletableFuture<byte[]> getMosaic() {
+        List<CompletableFuture<byte[]>> fetches = new ArrayList<>(GroupMosaic.MAX_TILES);
+        for (IpCameraHandler camera : new ArrayList<>(cameraOrder)) {
+            if (fetches.size() == GroupMosaic.MAX_TILES) {
+                break;
             }
+            fetches.add(camera.getFreshSnapshot());
+        }
+        return CompletableFuture.allOf(fetches.toArray(new CompletableFuture<?>[0])).thenApplyAsync(done -> {
+            List<byte[]> snapshots = new ArrayList<>(fetches.size());
+            for (CompletableFuture<byte[]> fetch : fetches) {
+                snapshots.add(fetch.join());
+            }
+            return composeMosaic(snapshots);
+        }, scheduler);
+    }
+
+    // The mosaic stream is made from the pictures the cameras pass on through cameraFrame(), nothing is fetched.
+    private byte[] composeStreamedMosaic() {
+        List<byte[]> snapshots = new ArrayList<>(GroupMosaic.MAX_TILES);
+        for (IpCameraHandler camera : new ArrayList<>(cameraOrder)) {
+            if (snapshots.size() == GroupMosaic.MAX_TILES) {
+                break;
+            }
+            byte[] frame = latestFrames.get(camera);
+            if (frame == null) {
+                // Nothing new since the stream started, so use the picture the camera already had.
+                camera.lockCurrentSnapshot.lock();
+                frame = camera.currentSnapshot;
+                camera.lockCurrentSnapshot.unlock();
+            }
+            snapshots.add(frame);
+        }
+        return composeMosaic(snapshots);
+    }
+
+    private byte[] composeMosaic(List<byte[]> snapshots) {
+        try {
+            return getOrCreateMosaic().compose(snapshots);
+        } catch (IOException e) {
+            logger.debug("Could not create the mosaic: {}", e.getMessage());
+            return new byte[0];
+        }
+    }
+
+    private synchronized GroupMosaic getOrCreateMosaic() {
+        GroupMosaic localMosaic = mosaic;
+        if (localMosaic == null) {
+            localMosaic = new GroupMosaic(mosaicWidth, mosaicHeight, 80);
+            mosaic = localMosaic;
+        }
+        return localMosaic;
+    }
+
+    private synchronized void startMosaic() {
+        getOrCreateMosaic();
+        if (mosaicJob == null) {
+            mosaicJob = scheduler.scheduleWithFixedDelay(this::sendMosaic, 0, 1000 / mosaicFps,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void stopMosaicIfUnused() {
+        ScheduledFuture<?> job = mosaicJob;
+        if (job != null && !mjpegClients.hasClients("/mosaic.mjpeg")) {
+            job.cancel(false);
+            mosaicJob = null;
+            latestFrames.clear();
+        }
+    }
+
+    private void sendMosaic() {
+        byte[] jpeg = composeStreamedMosaic();
+        long now = System.nanoTime();
+        // A picture that has not changed is only sent again now and then, so clients do not close the stream.
+        if (jpeg.length > 0 && (jpeg != lastMosaicSent || now - lastMosaicSentTime > TimeUnit.SECONDS.toNanos(10))) {
+            lastMosaicSent = jpeg;
+            lastMosaicSentTime = now;
+            mjpegClients.frame("/mosaic.mjpeg", jpeg);
         }
-        return nextCamerasIndex;
     }
 
     Runnable pollingCameraGroup = new Runnable() {
         @Override
         public void run() {
-            if (cameraOrder.isEmpty()) {
-                createCameraOrder();
-            }
             if (++cameraIndex >= cameraOrder.size()) {
                 cameraIndex = 0;
             }
             if (motionChangesOrder) {
                 cameraIndex = checkForMotion(cameraIndex);
             }
-            if (hlsTurnedOn) {
-                discontinuitySequence++;
-                createPlayList();
-                if (mediaSequence > 2147000000) {
-                    mediaSequence = 0;
-                    discontinuitySequence = 0;
+            if (cameraOrder.isEmpty()) {
+                return;
+            }
+            try {
+                showCamera(cameraOrder.get(cameraIndex));
+                if (hlsTurnedOn) {
+                    createPlayList();
                 }
+            } catch (IndexOutOfBoundsException e) {
+                // A camera left the group during this poll, the next poll starts from the front again.
+                cameraIndex = 0;
             }
         }
     };
@@ -374,6 +629,7 @@ public class IpCameraGroupHandler extends BaseThingHandler {
                     } else {
                         // do we turn all off or do we remember the state before we turned them all on?
                         hlsTurnedOn = false;
+                        playList.clear();
                     }
             }
         }
@@ -385,6 +641,16 @@ public class IpCameraGroupHandler extends BaseThingHandler {
         serverPort = Integer.parseInt(config.get(CONFIG_SERVER_PORT).toString());
         pollTimeInSeconds = new BigDecimal(config.get(CONFIG_POLL_CAMERA_MS).toString());
         motionChangesOrder = (boolean) config.get(CONFIG_MOTION_CHANGES_ORDER);
+        members = readMembers();
+        if (members.isEmpty()) {
+            logger.warn("The group has no cameras, set FIRST_CAM or CAMERAS to the 'Unique ID' of the cameras.");
+        }
+        mosaicWidth = (config.get(CONFIG_MOSAIC_WIDTH) == null) ? 1280
+                : Integer.parseInt(config.get(CONFIG_MOSAIC_WIDTH).toString());
+        mosaicHeight = (config.get(CONFIG_MOSAIC_HEIGHT) == null) ? 720
+                : Integer.parseInt(config.get(CONFIG_MOSAIC_HEIGHT).toString());
+        mosaicFps = (config.get(CONFIG_MOSAIC_FPS) == null) ? 2
+                : Math.max(1, Math.min(30, Integer.parseInt(config.get(CONFIG_MOSAIC_FPS).toString())));
         pollTimeInSeconds = pollTimeInSeconds.divide(new BigDecimal(1000), 1, RoundingMode.HALF_UP);
         if (serverPort == -1) {
             logger.warn("The SERVER_PORT = -1 which disables a lot of features. See readme for more info.");
@@ -397,6 +663,11 @@ public class IpCameraGroupHandler extends BaseThingHandler {
             logger.warn("SERVER_PORT is -1 which disables all serving features of the camera group.");
         }
         updateStatus(ThingStatus.ONLINE);
+        // Cameras and groups that are already online are added straight away, the rest as they come online.
+        IpCameraHandler.REGISTRY.addGroup(getThing().getUID().getId(), this);
+        for (String member : members) {
+            IpCameraHandler.REGISTRY.subscribe(member, this);
+        }
         pollCameraGroupJob = pollCameraGroup.scheduleAtFixedRate(pollingCameraGroup, 10000,
                 Integer.parseInt(config.get(CONFIG_POLL_CAMERA_MS).toString()), TimeUnit.MILLISECONDS);
     }
@@ -404,11 +675,36 @@ public class IpCameraGroupHandler extends BaseThingHandler {
     @Override
     public void dispose() {
         startStreamServer(false);
-        IpCameraHandler.listOfGroupHandlers.remove(this);
+        for (String member : members) {
+            IpCameraHandler.REGISTRY.unsubscribe(member, this);
+        }
+        IpCameraHandler.REGISTRY.removeGroup(getThing().getUID().getId(), this);
+        synchronized (this) {
+            for (IpCameraHandler camera : cameraOrder) {
+                removeCamera(camera);
+            }
+        }
+        updateParents();
         if (pollCameraGroupJob != null) {
             pollCameraGroupJob.cancel(true);
             pollCameraGroupJob = null;
         }
         cameraOrder.clear();
+        camerasByUid.clear();
+        cameraPlayLists.clear();
+        shownCamera = null;
+        synchronized (this) {
+            ScheduledFuture<?> job = mosaicJob;
+            if (job != null) {
+                job.cancel(true);
+                mosaicJob = null;
+            }
+            latestFrames.clear();
+            GroupMosaic localMosaic = mosaic;
+            if (localMosaic != null) {
+                localMosaic.close();
+                mosaic = null;
+            }
+        }
     }
 }
@@ -29,6 +29,9 @@ import java.net.SocketException;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
@@ -36,6 +39,9 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -44,6 +50,7 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.smarthome.config.core.Configuration;
+import org.eclipse.smarthome.core.library.types.DecimalType;
 import org.eclipse.smarthome.core.library.types.OnOffType;
 import org.eclipse.smarthome.core.library.types.PercentType;
 import org.eclipse.smarthome.core.library.types.RawType;
@@ -57,26 +64,45 @@ import org.eclipse.smarthome.core.thing.binding.BaseThingHandler;
 import org.eclipse.smarthome.core.types.Command;
 import org.eclipse.smarthome.core.types.State;
 import org.openhab.binding.ipcamera.internal.AmcrestHandler;
+import org.openhab.binding.ipcamera.internal.CameraEvents;
+import org.openhab.binding.ipcamera.internal.CameraMetrics;
 import org.openhab.binding.ipcamera.internal.DahuaHandler;
+import org.openhab.binding.ipcamera.internal.DigestAuthSession;
 import org.openhab.binding.ipcamera.internal.DoorBirdHandler;
 import org.openhab.binding.ipcamera.internal.Ffmpeg;
 import org.openhab.binding.ipcamera.internal.FoscamHandler;
+import org.openhab.binding.ipcamera.internal.GifEncoder;
 import org.openhab.binding.ipcamera.internal.HikvisionHandler;
 import org.openhab.binding.ipcamera.internal.HttpOnlyHandler;
 import org.openhab.binding.ipcamera.internal.InstarHandler;
+import org.openhab.binding.ipcamera.internal.JpegScaler;
+import org.openhab.binding.ipcamera.internal.MediaJobScheduler;
+import org.openhab.binding.ipcamera.internal.MjpegFrameParser;
+import org.openhab.binding.ipcamera.internal.MjpegVariants;
 import org.openhab.binding.ipcamera.internal.MyNettyAuthHandler;
+import org.openhab.binding.ipcamera.internal.NvrStorage;
+import org.openhab.binding.ipcamera.internal.NvrTimeline;
+import org.openhab.binding.ipcamera.internal.ScaledSnapshotCache;
+import org.openhab.binding.ipcamera.internal.SnapshotChangeDetector;
+import org.openhab.binding.ipcamera.internal.SnapshotJournal;
+import org.openhab.binding.ipcamera.internal.SnapshotScheduler;
 import org.openhab.binding.ipcamera.internal.StreamServerHandler;
+import org.openhab.binding.ipcamera.internal.TimedLock;
+import org.openhab.binding.ipcamera.internal.Timelapse;
 import org.openhab.binding.ipcamera.onvif.GetSnapshotUri;
+import org.openhab.binding.ipcamera.onvif.OnvifCapabilityCache;
 import org.openhab.binding.ipcamera.onvif.PTZRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import be.teletask.onvif.OnvifManager;
+import be.teletask.onvif.listeners.OnvifDeviceInformationListener;
 import be.teletask.onvif.listeners.OnvifMediaProfilesListener;
 import be.teletask.onvif.listeners.OnvifMediaStreamURIListener;
 import be.teletask.onvif.listeners.OnvifResponseListener;
 import be.teletask.onvif.listeners.OnvifServicesListener;
 import be.teletask.onvif.models.OnvifDevice;
+import be.teletask.onvif.models.OnvifDeviceInformation;
 import be.teletask.onvif.models.OnvifMediaProfile;
 import be.teletask.onvif.models.OnvifServices;
 import be.teletask.onvif.responses.OnvifResponse;
@@ -90,6 +116,8 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
@@ -107,6 +135,7 @@ import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpMessage;
 import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpServerCodec;
@@ -133,9 +162,13 @@ public class IpCameraHandler extends BaseThingHandler {
     public static final Set<ThingTypeUID> SUPPORTED_THING_TYPES = new HashSet<ThingTypeUID>(
             Arrays.asList(THING_TYPE_ONVIF, THING_TYPE_HTTPONLY, THING_TYPE_AMCREST, THING_TYPE_DAHUA,
                     THING_TYPE_INSTAR, THING_TYPE_FOSCAM, THING_TYPE_DOORBIRD, THING_TYPE_HIKVISION));
-    public static ArrayList<IpCameraHandler> listOfOnlineCameraHandlers = new ArrayList<IpCameraHandler>(1);
-    public static ArrayList<IpCameraGroupHandler> listOfGroupHandlers = new ArrayList<IpCameraGroupHandler>(0);
-    public static ArrayList<String> listOfOnlineCameraUID = new ArrayList<String>(1);
+    public static final CameraRegistry REGISTRY = new CameraRegistry();
+    // Shared by every camera so only MEDIA_JOBS GIFs and MP4s are made at once.
+    public static final MediaJobScheduler MEDIA_JOBS = new MediaJobScheduler(2);
+    // While the picture is not changing the snapshot poll slows down to this many times POLL_CAMERA_MS.
+    private static final int MAX_POLL_BACKOFF = 8;
+    // The groups this camera is in, which are sent its pictures and motion.
+    final Set<IpCameraGroupHandler> groups = ConcurrentHashMap.newKeySet();
     public final Logger logger = LoggerFactory.getLogger(getClass());
     private ScheduledExecutorService cameraConnection = Executors.newScheduledThreadPool(1);
     private ScheduledExecutorService scheduledMovePTZ = Executors.newScheduledThreadPool(1);
@@ -148,6 +181,7 @@ public class IpCameraHandler extends BaseThingHandler {
     final ChannelGroup autoSnapshotMjpegChannelGroup = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
     public @Nullable Ffmpeg ffmpegHLS = null;
     public @Nullable Ffmpeg ffmpegDASH = null;
+    public @Nullable Ffmpeg ffmpegNvr = null;
     public @Nullable Ffmpeg ffmpegRecord = null;
     public @Nullable Ffmpeg ffmpegGIF = null;
     public @Nullable Ffmpeg ffmpegRtspHelper = null;
@@ -158,6 +192,22 @@ public class IpCameraHandler extends BaseThingHandler {
 
     private @Nullable ScheduledFuture<?> cameraConnectionJob = null;
     private @Nullable ScheduledFuture<?> pollCameraJob = null;
+    private @Nullable SnapshotScheduler snapshotScheduler = null;
+    private @Nullable NvrStorage nvrStorage = null;
+    private @Nullable NvrTimeline nvrTimeline = null;
+    private @Nullable Timelapse timelapse = null;
+    private int timelapseSeconds = 0;
+    private volatile long lastTimelapseFrame = 0;
+    private @Nullable SnapshotJournal snapshotHistory = null;
+    private int snapshotHistoryMb = 0;
+    private @Nullable ScheduledFuture<?> nvrJob = null;
+    // Held by each run of maintainNvr and by stopNvr, so a run never restarts FFmpeg or writes to the timeline after
+    // stopping has begun.
+    private final Object nvrLock = new Object();
+    private volatile boolean nvrStopped = true;
+    private int nvrSegmentSeconds = 0;
+    private int nvrRetentionHours = 168;
+    private long nvrQuotaBytes = 0;
     private @Nullable Bootstrap mainBootstrap;
     private @Nullable ServerBootstrap serverBootstrap;
 
@@ -178,6 +228,8 @@ public class IpCameraHandler extends BaseThingHandler {
     int mp4Preroll = 0;
     private LinkedList<byte[]> fifoSnapshotBuffer = new LinkedList<byte[]>();
     private int preroll, postroll, snapCount = 0;
+    private int gifJavaHeight = 0;
+    private int mediaPriority = 5;
     private boolean updateImage = true;
     private int updateCounter = 0;
     private byte lowPriorityCounter = 0;
@@ -191,18 +243,51 @@ public class IpCameraHandler extends BaseThingHandler {
     public ArrayList<Byte> listOfChStatus = new ArrayList<Byte>(18);
     public ArrayList<String> listOfReplies = new ArrayList<String>(18);
     public ArrayList<String> lowPriorityRequests = new ArrayList<String>(0);
-    public ReentrantLock lock = new ReentrantLock();
+    public ReentrantLock lock = new TimedLock(thing.getUID().getId(), "lock");
 
     // basicAuth MUST remain private as it holds the password
     private String basicAuth = "";
     public boolean useDigestAuth = false;
+    // shared by every channel to this camera so new channels do not need a 401 first.
+    public final DigestAuthSession digestSession = new DigestAuthSession();
+    public final CameraMetrics metrics = new CameraMetrics();
+    private final MjpegVariants mjpegVariants = new MjpegVariants(scheduler, metrics);
+    private long lastMetricsUpdate = 0;
     public String snapshotUri = "";
     public String mjpegUri = "";
     private @Nullable ChannelFuture serverFuture = null;
     public int serverPort = 0;
     private Object firstStreamedMsg = new Object();
     public byte[] currentSnapshot = new byte[] { (byte) 0x00 };
-    public ReentrantLock lockCurrentSnapshot = new ReentrantLock();
+    public ReentrantLock lockCurrentSnapshot = new TimedLock(thing.getUID().getId(), "lockCurrentSnapshot");
+    // These are guarded by lockCurrentSnapshot, see getFreshSnapshot().
+    private long currentSnapshotTime = 0;
+    private @Nullable CompletableFuture<byte[]> snapshotFetch = null;
+    private long snapshotFetchStarted = 0;
+    private long snapshotMaxAge = TimeUnit.MILLISECONDS.toNanos(1000);
+    private long lastStreamFrameTime = 0;
+    // Changes each time currentSnapshot is replaced, so the scaled copies of each snapshot can be told apart.
+    private long snapshotSequence = 0;
+    private byte[] sequencedSnapshot = currentSnapshot;
+    // About 250 tiles at 320 pixels wide, per camera.
+    private final ScaledSnapshotCache scaledSnapshots = new ScaledSnapshotCache(4 * 1024 * 1024);
+    private int imageChannelWidth = 0;
+    private final SnapshotChangeDetector changeDetector = new SnapshotChangeDetector();
+    // An unchanged snapshot is still sent this often so UIs and rules can tell the camera is working, 0 sends all.
+    private long unchangedImageInterval = TimeUnit.SECONDS.toNanos(60);
+    private long lastImageSent = 0;
+    // How many of the recent change checks found a change, from 0 to 1. Nothing is skipped until a check has run.
+    private volatile double snapshotChangeRate = 1;
+    private boolean sendNextImage = true;
+    private long lastAutoFpsSent = 0;
+    private boolean autoFpsChanged = true;
+    // The snapshot waiting for the change check on the scheduler. Only the newest is kept, so a slow decode never
+    // builds up a queue, and one check runs at a time so the snapshots are compared in order.
+    private final Object changeCheckLock = new Object();
+    private byte @Nullable [] changeCheckSnapshot = null;
+    private boolean changeCheckImage = false;
+    private boolean changeCheckAutoFps = false;
+    private boolean changeCheckRunning = false;
     private String rtspUri = "";
     public String ipAddress = "empty";
     public String updateImageEvents = "";
@@ -217,6 +302,10 @@ public class IpCameraHandler extends BaseThingHandler {
     private OnvifManager ptzManager = new OnvifManager(); // used so listener is in PTZ class.
     boolean movePTZ = false; // delay movements so all made at once
     PTZRequest ptzHandler = new PTZRequest("httponly");
+    private @Nullable OnvifCapabilityCache onvifCache = null;
+    // true while the URL in use came from the cache and has not yet been confirmed by the camera.
+    private boolean snapshotUriFromCache = false;
+    private boolean rtspUriFromCache = false;
     public Double motionThreshold = 0.0016;
     public int audioThreshold = 35;
     @SuppressWarnings("unused")
@@ -428,6 +517,39 @@ public class IpCameraHandler extends BaseThingHandler {
         return httpRequestURL;
     }
 
+    // Used for every channel opened to the camera. Package-private so the benchmarks can build the same pipeline.
+    void setupClientPipeline(ChannelPipeline pipeline) {
+        // HIK Alarm stream needs > 9sec idle to stop stream closing
+        pipeline.addLast("idleStateHandler", new IdleStateHandler(18, 0, 0));
+        pipeline.addLast("HttpClientCodec", new HttpClientCodec());
+        pipeline.addLast("authHandler", new MyNettyAuthHandler(username, password, getHandle()));
+        pipeline.addLast("commonHandler", new CommonCameraHandler());
+
+        switch (thing.getThingTypeUID().getId()) {
+            case "AMCREST":
+                pipeline.addLast("amcrestHandler", new AmcrestHandler(getHandle()));
+                break;
+            case "DAHUA":
+                pipeline.addLast("brandHandler", new DahuaHandler(getHandle(), nvrChannel));
+                break;
+            case "DOORBIRD":
+                pipeline.addLast("brandHandler", new DoorBirdHandler(getHandle()));
+                break;
+            case "FOSCAM":
+                pipeline.addLast("brandHandler", new FoscamHandler(getHandle(), username, password));
+                break;
+            case "HIKVISION":
+                pipeline.addLast("brandHandler", new HikvisionHandler(getHandle(), nvrChannel));
+                break;
+            case "INSTAR":
+                pipeline.addLast("instarHandler", new InstarHandler(getHandle()));
+                break;
+            default:
+                pipeline.addLast("brandHandler", new HttpOnlyHandler(getHandle()));
+                break;
+        }
+    }
+
     // Always use this as sendHttpGET(GET/POST/PUT/DELETE, "/foo/bar",null,false)//
     // The authHandler will use the url inside a digest string as needed.
     @SuppressWarnings("null")
@@ -456,42 +578,16 @@ public class IpCameraHandler extends BaseThingHandler {
 
                 @Override
                 public void initChannel(SocketChannel socketChannel) throws Exception {
-                    // HIK Alarm stream needs > 9sec idle to stop stream closing
-                    socketChannel.pipeline().addLast("idleStateHandler", new IdleStateHandler(18, 0, 0));
-                    socketChannel.pipeline().addLast("HttpClientCodec", new HttpClientCodec());
-                    socketChannel.pipeline().addLast("authHandler",
-                            new MyNettyAuthHandler(username, password, getHandle()));
-                    socketChannel.pipeline().addLast("commonHandler", new CommonCameraHandler());
-
-                    switch (thing.getThingTypeUID().getId()) {
-                        case "AMCREST":
-                            socketChannel.pipeline().addLast("amcrestHandler", new AmcrestHandler(getHandle()));
-                            break;
-                        case "DAHUA":
-                            socketChannel.pipeline().addLast("brandHandler", new DahuaHandler(getHandle(), nvrChannel));
-                            break;
-                        case "DOORBIRD":
-                            socketChannel.pipeline().addLast("brandHandler", new DoorBirdHandler(getHandle()));
-                            break;
-                        case "FOSCAM":
-                            socketChannel.pipeline().addLast("brandHandler",
-                                    new FoscamHandler(getHandle(), username, password));
-                            break;
-                        case "HIKVISION":
-                            socketChannel.pipeline().addLast("brandHandler",
-                                    new HikvisionHandler(getHandle(), nvrChannel));
-                            break;
-                        case "INSTAR":
-                            socketChannel.pipeline().addLast("instarHandler", new InstarHandler(getHandle()));
-                            break;
-                        default:
-                            socketChannel.pipeline().addLast("brandHandler", new HttpOnlyHandler(getHandle()));
-                            break;
-                    }
+                    setupClientPipeline(socketChannel.pipeline());
                 }
             });
         }
 
+        if (useDigestAuth && digestString == null) {
+            // Use the last challenge from the camera to save a 401 round trip.
+            digestString = digestSession.authorize(httpMethod, httpRequestURL);
+        }
+
         FullHttpRequest request;
         if (httpMethod.contentEquals("PUT")) {
             if (useDigestAuth && digestString == null) {
@@ -524,6 +620,7 @@ public class IpCameraHandler extends BaseThingHandler {
         }
 
         logger.trace("Sending camera: {}: http://{}{}", httpMethod, ipAddress, httpRequestURL);
+        metrics.requestsSent.increment();
         lock.lock();
 
         byte indexInLists = -1;
@@ -541,6 +638,9 @@ public class IpCameraHandler extends BaseThingHandler {
                                 commonHandler.setURL(httpRequestURLFull);
                                 authHandler = (MyNettyAuthHandler) ch.pipeline().get("authHandler");
                                 authHandler.setURL(httpMethod, httpRequestURL);
+                                metrics.connectionsReused.increment();
+                                CameraEvents.httpRequest(thing.getUID().getId(), httpMethod, httpRequestURL, true, true,
+                                        0);
                                 ch.writeAndFlush(request);
                                 request = null;
                                 return true;
@@ -564,11 +664,15 @@ public class IpCameraHandler extends BaseThingHandler {
             lock.unlock();
         }
 
+        long connectStarted = System.nanoTime();
         chFuture = mainBootstrap.connect(new InetSocketAddress(ipAddress, port));
         // ChannelOption.CONNECT_TIMEOUT_MILLIS means this will not hang here.
         chFuture.awaitUninterruptibly();
+        long connectTime = System.nanoTime() - connectStarted;
+        metrics.connectLatency.recordNanos(connectTime);
 
         if (!chFuture.isSuccess()) {
+            CameraEvents.httpRequest(thing.getUID().getId(), httpMethod, httpRequestURL, false, false, connectTime);
             updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
                     "Connection Timeout: Check your IP and PORT are correct and the camera can be reached.");
             restart();
@@ -583,6 +687,8 @@ public class IpCameraHandler extends BaseThingHandler {
             return false;
         }
 
+        metrics.connectionsOpened.increment();
+        CameraEvents.httpRequest(thing.getUID().getId(), httpMethod, httpRequestURL, false, true, connectTime);
         ch = chFuture.channel();
         commonHandler = (CommonCameraHandler) ch.pipeline().get("commonHandler");
         authHandler = (MyNettyAuthHandler) ch.pipeline().get("authHandler");
@@ -631,11 +737,12 @@ public class IpCameraHandler extends BaseThingHandler {
 
     public void processSnapshot() {
         lockCurrentSnapshot.lock();
-        if (updateImage) {
-            updateState(CHANNEL_IMAGE, new RawType(currentSnapshot, "image/jpeg"));
-        }
+        nextSnapshotSequence();
+        long now = System.nanoTime();
+        boolean autoFpsDue = false;
         if (streamingSnapshotMjpeg) {
             sendMjpegFrame(currentSnapshot, snapshotMjpegChannelGroup);
+            mjpegVariants.frame("/snapshots.mjpeg", currentSnapshot);
         }
         if (streamingAutoFps) {
             if (updateCounter++ > 200) {
@@ -643,9 +750,12 @@ public class IpCameraHandler extends BaseThingHandler {
             }
             if (motionDetected) {
                 sendMjpegFrame(currentSnapshot, autoSnapshotMjpegChannelGroup);
+                mjpegVariants.frame("/autofps.mjpeg", currentSnapshot);
+                autoFpsChanged = false;
+                lastAutoFpsSent = now;
                 updateCounter = 4;// when motion ends give it half the time before a new snapshot is used.
-            } else if (updateCounter % 8 == 0) {
-                sendMjpegFrame(currentSnapshot, autoSnapshotMjpegChannelGroup);
+            } else {
+                autoFpsDue = updateCounter % 8 == 0;
             }
         }
         if (preroll > 0) {
@@ -654,37 +764,278 @@ public class IpCameraHandler extends BaseThingHandler {
                 fifoSnapshotBuffer.removeFirst();
             }
         }
+        currentSnapshotTime = System.nanoTime();
+        CompletableFuture<byte[]> fetch = snapshotFetch;
+        snapshotFetch = null;
+        byte[] snapshot = currentSnapshot;
         lockCurrentSnapshot.unlock();
+        if (fetch != null) {
+            fetch.complete(snapshot);
+        }
+        if (updateImage || (streamingAutoFps && !motionDetected)) {
+            checkSnapshotChanged(snapshot, updateImage, autoFpsDue);
+        }
+        frameForGroups(snapshot, false);
+        timelapseFrame(snapshot);
+        historyFrame(snapshot);
+    }
+
+    private void frameForGroups(byte[] jpeg, boolean fromStream) {
+        for (IpCameraGroupHandler group : groups) {
+            group.cameraFrame(this, jpeg, fromStream);
+        }
+    }
+
+    /**
+     * Called with each JPEG found in the MJPEG stream while it is running. The picture is kept so the snapshot poll
+     * and ipcamera.jpg can use it instead of asking the camera, but it is not passed on at the stream's frame rate.
+     */
+    public void mjpegFrameReceived(byte[] jpeg) {
+        metrics.framesReceived.increment();
+        lockCurrentSnapshot.lock();
+        currentSnapshot = jpeg;
+        nextSnapshotSequence();
+        currentSnapshotTime = lastStreamFrameTime = System.nanoTime();
+        CompletableFuture<byte[]> fetch = snapshotFetch;
+        snapshotFetch = null;
+        lockCurrentSnapshot.unlock();
+        if (fetch != null) {
+            fetch.complete(jpeg);
+        }
+        mjpegVariants.frame("/ipcamera.mjpeg", jpeg);
+        frameForGroups(jpeg, true);
+    }
+
+    // Decoding takes a few milliseconds on large pictures, so it is done on the scheduler and not the camera's thread.
+    private void checkSnapshotChanged(byte[] jpeg, boolean image, boolean autoFps) {
+        // During an alarm every picture is sent, even if the camera is looking at something too small to be noticed.
+        if (unchangedImageInterval <= 0 || motionDetected || motionAlarmUpdateSnapshot || audioAlarmUpdateSnapshot) {
+            publishSnapshot(jpeg, true, image, autoFps);
+            return;
+        }
+        synchronized (changeCheckLock) {
+            changeCheckSnapshot = jpeg;
+            changeCheckImage |= image;
+            changeCheckAutoFps |= autoFps;
+            if (changeCheckRunning) {
+                return;
+            }
+            changeCheckRunning = true;
+        }
+        scheduler.execute(this::runChangeChecks);
+    }
+
+    private void runChangeChecks() {
+        while (true) {
+            byte[] jpeg;
+            boolean image, autoFps;
+            synchronized (changeCheckLock) {
+                jpeg = changeCheckSnapshot;
+                if (jpeg == null) {
+                    changeCheckRunning = false;
+                    return;
+                }
+                image = changeCheckImage;
+                autoFps = changeCheckAutoFps;
+                changeCheckSnapshot = null;
+                changeCheckImage = changeCheckAutoFps = false;
+            }
+            try {
+                publishSnapshot(jpeg, changeDetector.hasChanged(jpeg), image, autoFps);
+            } catch (RuntimeException e) {
+                logger.debug("Could not check if the snapshot changed:{}", e.getMessage());
+            }
+        }
+    }
+
+    private void publishSnapshot(byte[] jpeg, boolean changed, boolean image, boolean autoFps) {
+        long now = System.nanoTime();
+        snapshotChangeRate = snapshotChangeRate * 0.875 + (changed ? 0.125 : 0);
+        lockCurrentSnapshot.lock();
+        try {
+            if (image && updateImage) {
+                if (changed || sendNextImage || now - lastImageSent >= unchangedImageInterval) {
+                    sendNextImage = false;
+                    lastImageSent = now;
+                    updateImageChannel(jpeg);
+                } else {
+                    metrics.unchangedSnapshotsSkipped.increment();
+                }
+            }
+            if (streamingAutoFps) {
+                // A change that lands between the slow frames is kept until the next one is due.
+                autoFpsChanged |= changed;
+                if (autoFps) {
+                    if (autoFpsChanged || now - lastAutoFpsSent >= unchangedImageInterval) {
+                        sendMjpegFrame(jpeg, autoSnapshotMjpegChannelGroup);
+                        mjpegVariants.frame("/autofps.mjpeg", jpeg);
+                        autoFpsChanged = false;
+                        lastAutoFpsSent = now;
+                    } else {
+                        metrics.unchangedSnapshotsSkipped.increment();
+                    }
+                }
+            }
+        } finally {
+            lockCurrentSnapshot.unlock();
+        }
+    }
+
+    // Must hold lockCurrentSnapshot.
+    private void nextSnapshotSequence() {
+        if (currentSnapshot != sequencedSnapshot) {
+            sequencedSnapshot = currentSnapshot;
+            snapshotSequence++;
+        }
+    }
+
+    /**
+     * Gives a copy of the snapshot that is scaled down to width and/or saved at a lower JPEG quality. Copies of the
+     * current snapshot are kept, so every client asking for the same size shares one copy.
+     */
+    public byte[] getScaledSnapshot(byte[] jpeg, int width, int quality) {
+        if (jpeg.length == 1 || (width <= 0 && quality <= 0)) {
+            return jpeg;
+        }
+        lockCurrentSnapshot.lock();
+        long sequence = (jpeg == sequencedSnapshot) ? snapshotSequence : -1;
+        lockCurrentSnapshot.unlock();
+        try {
+            if (sequence == -1) {
+                // An old picture that is not worth keeping.
+                return JpegScaler.scale(jpeg, width, quality);
+            }
+            return scaledSnapshots.get(sequence, jpeg, width, quality);
+        } catch (IOException e) {
+            logger.debug("Could not scale the snapshot, sending it full size:{}", e.getMessage());
+            return jpeg;
+        }
+    }
+
+    /**
+     * The same as {@link #getFreshSnapshot()}, but scaled on the scheduler so the camera's network thread is not
+     * held up.
+     */
+    public CompletableFuture<byte[]> getFreshSnapshot(int width, int quality) {
+        if (width <= 0 && quality <= 0) {
+            return getFreshSnapshot();
+        }
+        return getFreshSnapshot().thenApplyAsync(jpeg -> getScaledSnapshot(jpeg, width, quality), scheduler);
+    }
+
+    private void updateImageChannel(byte[] jpeg) {
+        if (imageChannelWidth <= 0) {
+            updateState(CHANNEL_IMAGE, new RawType(jpeg, "image/jpeg"));
+            return;
+        }
+        int width = imageChannelWidth;
+        scheduler.execute(() -> updateState(CHANNEL_IMAGE,
+                new RawType(getScaledSnapshot(jpeg, width, 0), "image/jpeg")));
+    }
+
+    // Even slow MJPEG streams send a frame every second, so anything older means the stream has stopped.
+    private boolean isStreamGivingSnapshots() {
+        lockCurrentSnapshot.lock();
+        try {
+            return lastStreamFrameTime != 0
+                    && System.nanoTime() - lastStreamFrameTime < TimeUnit.SECONDS.toNanos(2);
+        } finally {
+            lockCurrentSnapshot.unlock();
+        }
+    }
+
+    /**
+     * Gives a snapshot that is no older than SNAPSHOT_MAX_AGE_MS. If the one in RAM is too old, only one request is
+     * sent to the camera no matter how many callers are waiting, and they are all given the new picture when it
+     * arrives. If the camera does not reply within 5 seconds, the waiters get the old picture instead.
+     */
+    public CompletableFuture<byte[]> getFreshSnapshot() {
+        return requestSnapshot(snapshotMaxAge);
+    }
+
+    private CompletableFuture<byte[]> requestSnapshot(long maxAge) {
+        CompletableFuture<byte[]> fetch;
+        lockCurrentSnapshot.lock();
+        try {
+            long now = System.nanoTime();
+            if (snapshotUri.equals("") || snapshotUri.equals("ffmpeg")
+                    || (currentSnapshot.length > 1 && now - currentSnapshotTime <= maxAge)) {
+                metrics.snapshotRequestsShared.increment();
+                return CompletableFuture.completedFuture(currentSnapshot);
+            }
+            fetch = snapshotFetch;
+            if (fetch != null && now - snapshotFetchStarted < TimeUnit.SECONDS.toNanos(5)) {
+                metrics.snapshotRequestsShared.increment();
+                return fetch;
+            }
+            fetch = new CompletableFuture<>();
+            snapshotFetch = fetch;
+            snapshotFetchStarted = now;
+        } finally {
+            lockCurrentSnapshot.unlock();
+        }
+        final CompletableFuture<byte[]> timedFetch = fetch;
+        mainEventLoopGroup.schedule(() -> {
+            lockCurrentSnapshot.lock();
+            if (snapshotFetch == timedFetch) {
+                snapshotFetch = null;
+            }
+            byte[] snapshot = currentSnapshot;
+            lockCurrentSnapshot.unlock();
+            timedFetch.complete(snapshot);
+        }, 5, TimeUnit.SECONDS);
+        sendHttpGET(snapshotUri);
+        return fetch;
     }
 
     // These methods handle the response from all Camera brands, nothing specific to
     // any brand should be in here //
 
-    private class CommonCameraHandler extends ChannelDuplexHandler {
+    class CommonCameraHandler extends ChannelDuplexHandler {
         private int bytesToRecieve = 0;
         private int bytesAlreadyRecieved = 0;
         private byte[] incomingJpeg = new byte[0];
         private String incomingMessage = "";
         private String contentType = "empty";
+        private @Nullable MjpegFrameParser mjpegParser = null;
         private Object reply = new Object();
         private String requestUrl = "";
         private boolean closeConnection = true;
         private boolean isChunked = false;
+        private boolean skipContent = false;
+        // System.nanoTime() when the last request went out on this channel.
+        private long requestSent = 0;
 
         public void setURL(String url) {
             requestUrl = url;
         }
 
+        @Override
+        public void write(@Nullable ChannelHandlerContext ctx, @Nullable Object msg, @Nullable ChannelPromise promise)
+                throws Exception {
+            if (msg instanceof HttpRequest) {
+                requestSent = System.nanoTime();
+            }
+            super.write(ctx, msg, promise);
+        }
+
         @Override
         public void channelRead(@Nullable ChannelHandlerContext ctx, @Nullable Object msg) throws Exception {
             if (msg == null || ctx == null) {
                 return;
             }
+            CameraMetrics.eventReceived();
             try {
                 logger.trace("{}", msg.toString());
                 if (msg instanceof HttpResponse) {
                     HttpResponse response = (HttpResponse) msg;
-                    if (response.status().code() != 401) {
+                    skipContent = (response.status().code() == 401);
+                    if (skipContent) {
+                        metrics.unauthorized.increment();
+                    } else {
+                        if (response.status().code() >= 400 && requestUrl.equals(getTinyUrl(snapshotUri))) {
+                            cachedUrlFailed(snapshotUri);
+                        }
                         if (!response.headers().isEmpty()) {
                             for (String name : response.headers().names()) {
                                 // Some cameras use first letter uppercase and others dont.
@@ -727,9 +1078,12 @@ public class IpCameraHandler extends BaseThingHandler {
                                         ReferenceCountUtil.retain(msg, 1);
                                         firstStreamedMsg = msg;
                                         streamToGroup(firstStreamedMsg, mjpegChannelGroup, true);
+                                        mjpegParser = new MjpegFrameParser(contentType,
+                                                IpCameraHandler.this::mjpegFrameReceived);
                                     }
                                 }
                             } else if (contentType.contains("image/jp")) {
+                                metrics.snapshotFirstByte.recordNanos(System.nanoTime() - requestSent);
                                 if (bytesToRecieve == 0) {
                                     bytesToRecieve = 768000; // 0.768 Mbyte when no Content-Length is sent
                                     logger.debug("Camera has no Content-Length header, we have to guess how much RAM.");
@@ -754,8 +1108,20 @@ public class IpCameraHandler extends BaseThingHandler {
                     }
                 }
                 if (msg instanceof HttpContent) {
+                    if (skipContent) {
+                        // body of a 401 which the authHandler has already dealt with.
+                        if (msg instanceof LastHttpContent) {
+                            skipContent = false;
+                        }
+                        return;
+                    }
+                    metrics.bytesReceived.add(((HttpContent) msg).content().readableBytes());
                     if (mjpegUri.contains(requestUrl)) {
                         // multiple MJPEG stream packets come back as this.
+                        MjpegFrameParser parser = mjpegParser;
+                        if (parser != null) {
+                            parser.feed(((HttpContent) msg).content());
+                        }
                         ReferenceCountUtil.retain(msg, 1);
                         streamToGroup(msg, mjpegChannelGroup, true);
                     } else {
@@ -766,6 +1132,11 @@ public class IpCameraHandler extends BaseThingHandler {
                                 incomingJpeg[bytesAlreadyRecieved++] = content.content().getByte(i);
                             }
                             if (content instanceof LastHttpContent) {
+                                long fetchTime = System.nanoTime() - requestSent;
+                                metrics.snapshotTotal.recordNanos(fetchTime);
+                                CameraEvents.snapshotReceived(thing.getUID().getId(), requestUrl, bytesAlreadyRecieved,
+                                        fetchTime);
+                                metrics.framesReceived.increment();
                                 lockCurrentSnapshot.lock();
                                 currentSnapshot = incomingJpeg;
                                 lockCurrentSnapshot.unlock();
@@ -830,6 +1201,7 @@ public class IpCameraHandler extends BaseThingHandler {
                     }
                 }
             } finally {
+                CameraMetrics.eventDone();
                 ReferenceCountUtil.release(msg);
             }
         }
@@ -1011,13 +1383,16 @@ public class IpCameraHandler extends BaseThingHandler {
                 lockCurrentSnapshot.unlock();
                 streamingSnapshotMjpeg = true;
             }
+            wakeSnapshotPoll();
         } else {
             snapshotMjpegChannelGroup.remove(ctx.channel());
             autoSnapshotMjpegChannelGroup.remove(ctx.channel());
-            if (streamingSnapshotMjpeg && snapshotMjpegChannelGroup.isEmpty()) {
+            if (streamingSnapshotMjpeg && snapshotMjpegChannelGroup.isEmpty()
+                    && !mjpegVariants.hasClients("/snapshots.mjpeg")) {
                 streamingSnapshotMjpeg = false;
                 logger.debug("All Snapshot based MJPEG streams have stopped.");
-            } else if (streamingAutoFps && autoSnapshotMjpegChannelGroup.isEmpty()) {
+            } else if (streamingAutoFps && autoSnapshotMjpegChannelGroup.isEmpty()
+                    && !mjpegVariants.hasClients("/autofps.mjpeg")) {
                 streamingAutoFps = false;
                 logger.debug("All AutoFps Snapshot based MJPEG streams have stopped.");
             }
@@ -1028,7 +1403,7 @@ public class IpCameraHandler extends BaseThingHandler {
     // the stream.
     public void setupMjpegStreaming(boolean start, ChannelHandlerContext ctx) {
         if (start) {
-            if (mjpegChannelGroup.isEmpty()) {
+            if (mjpegChannelGroup.isEmpty() && !mjpegVariants.hasClients("/ipcamera.mjpeg")) {
                 mjpegChannelGroup.add(ctx.channel());
                 if (mjpegUri.equals("") || mjpegUri.equals("ffmpeg")) {
                     sendMjpegFirstPacket(ctx);
@@ -1045,7 +1420,7 @@ public class IpCameraHandler extends BaseThingHandler {
             }
         } else {
             mjpegChannelGroup.remove(ctx.channel());
-            if (mjpegChannelGroup.isEmpty()) {
+            if (mjpegChannelGroup.isEmpty() && !mjpegVariants.hasClients("/ipcamera.mjpeg")) {
                 logger.debug("All MJPEG streams have stopped, so closing the MJPEG source stream now.");
                 if (mjpegUri.equals("ffmpeg")) {
                     if (ffmpegMjpeg != null) {
@@ -1062,6 +1437,57 @@ public class IpCameraHandler extends BaseThingHandler {
         }
     }
 
+    /**
+     * Starts or stops a stream for a client that asked for a lower frame rate, width or quality. These clients are
+     * sent frames from {@link MjpegVariants} instead of being in the normal channel groups, but they keep the
+     * camera's stream running the same way.
+     *
+     * @param stream the path that was asked for, which is /ipcamera.mjpeg, /snapshots.mjpeg or /autofps.mjpeg
+     */
+    public void setupMjpegVariant(boolean start, ChannelHandlerContext ctx, String stream,
+            MjpegVariants.@Nullable Variant variant) {
+        if (start && variant != null) {
+            boolean mjpegRunning = !mjpegChannelGroup.isEmpty() || mjpegVariants.hasClients("/ipcamera.mjpeg");
+            sendMjpegFirstPacket(ctx);
+            mjpegVariants.add(ctx.channel(), stream, variant);
+            switch (stream) {
+                case "/ipcamera.mjpeg":
+                    if (!mjpegRunning) {
+                        if (mjpegUri.equals("") || mjpegUri.equals("ffmpeg")) {
+                            setupFfmpegFormat("MJPEG");
+                        } else {
+                            sendHttpGET(mjpegUri);
+                        }
+                    }
+                    break;
+                case "/autofps.mjpeg":
+                    streamingAutoFps = true;
+                    wakeSnapshotPoll();
+                    break;
+                default:
+                    streamingSnapshotMjpeg = true;
+                    wakeSnapshotPoll();
+            }
+            lockCurrentSnapshot.lock();
+            byte[] snapshot = currentSnapshot;
+            lockCurrentSnapshot.unlock();
+            if (snapshot.length > 1) {
+                // Gives the client a picture straight away instead of waiting for the next frame.
+                mjpegVariants.frame(stream, snapshot);
+            }
+        } else if (!start) {
+            String stopped = mjpegVariants.remove(ctx.channel());
+            if (stopped == null) {
+                return;
+            }
+            if (stopped.equals("/ipcamera.mjpeg")) {
+                setupMjpegStreaming(false, ctx);
+            } else {
+                setupSnapshotStreaming(false, ctx, false);
+            }
+        }
+    }
+
     // sends direct to ctx so can be either snapshots.mjpeg or normal mjpeg stream
     public void sendMjpegFirstPacket(ChannelHandlerContext ctx) {
         final String BOUNDARY = "thisMjpegStream";
@@ -1089,18 +1515,31 @@ public class IpCameraHandler extends BaseThingHandler {
     }
 
     public void streamToGroup(Object msg, ChannelGroup channelGroup, boolean flush) {
+        if (msg instanceof ByteBuf) {
+            metrics.viewerBytesSent.add((long) ((ByteBuf) msg).readableBytes() * channelGroup.size());
+        } else if (msg instanceof HttpContent) {
+            metrics.viewerBytesSent.add((long) ((HttpContent) msg).content().readableBytes() * channelGroup.size());
+        }
         channelGroup.write(msg);
         if (flush) {
             channelGroup.flush();
         }
     }
 
-    private void storeSnapshots() {
+    private List<byte[]> copySnapshotBuffer() {
+        lockCurrentSnapshot.lock();
+        try {
+            return new ArrayList<>(fifoSnapshotBuffer);
+        } finally {
+            lockCurrentSnapshot.unlock();
+        }
+    }
+
+    private void storeSnapshots(List<byte[]> snapshots) {
         // setupFfmpegFormat() will create an error if the output location is not set
         int count = 0;
         OutputStream fos = null;
-        for (Object incomingJpeg : fifoSnapshotBuffer) {
-            byte[] foo = (byte[]) incomingJpeg;
+        for (byte[] foo : snapshots) {
             File file = new File(ffmpegOutputFolder + "snapshot" + count + ".jpg");
             count++;
             try {
@@ -1115,6 +1554,34 @@ public class IpCameraHandler extends BaseThingHandler {
         }
     }
 
+    private void createGifInJava() {
+        if (ffmpegOutputFolder.equals("")) {
+            logger.error("The camera tried to create a GIF when the output folder is not set.");
+            setChannelState(CHANNEL_UPDATE_GIF, OnOffType.valueOf("OFF"));
+            return;
+        }
+        List<byte[]> snapshots = copySnapshotBuffer();
+        File output = new File(ffmpegOutputFolder + gifFilename + ".gif");
+        MEDIA_JOBS.submit(getThing().getUID().getId(), "GIF", mediaPriority, finished -> scheduler.execute(() -> {
+            // The frames are worked on by threads of this GIF's own, so a long GIF can not hold up the rest of
+            // openHAB or the other cameras. MEDIA_JOBS already limits how many GIFs are made at once.
+            ExecutorService workers = Executors
+                    .newFixedThreadPool(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+            try {
+                // 500ms a frame plays the snapshots at twice the speed, the same as FFMPEG_GIF_OUT_ARGUMENTS does.
+                int frames = GifEncoder.write(snapshots, output, gifJavaHeight, 500, workers);
+                logger.debug("Animated GIF has been created from {} snapshots and is ready for use.", frames);
+            } catch (IOException e) {
+                logger.warn("Could not create the animated GIF:{}", e.getMessage());
+            } finally {
+                workers.shutdownNow();
+            }
+            // The file was renamed into place once complete, so there is no need to wait before saying it is ready.
+            setChannelState(CHANNEL_UPDATE_GIF, OnOffType.valueOf("OFF"));
+            finished.run();
+        }), () -> setChannelState(CHANNEL_UPDATE_GIF, OnOffType.valueOf("OFF")));
+    }
+
     public void setupFfmpegFormat(String format) {
         String inOptions = "";
         if (ffmpegOutputFolder.equals("")) {
@@ -1188,26 +1655,64 @@ public class IpCameraHandler extends BaseThingHandler {
                                 ffmpegOutputFolder + gifFilename + ".gif", username, password);
                     }
                 }
-                if (preroll > 0) {
-                    storeSnapshots();
-                }
-                if (ffmpegGIF != null) {
-                    ffmpegGIF.startConverting();
-                }
+                // The snapshots are taken now, as the job may have to wait for other cameras.
+                List<byte[]> snapshots = preroll > 0 ? copySnapshotBuffer() : new ArrayList<>();
+                MEDIA_JOBS.submit(getThing().getUID().getId(), format, mediaPriority, finished -> {
+                    if (preroll > 0) {
+                        storeSnapshots(snapshots);
+                    }
+                    Ffmpeg localGif = ffmpegGIF;
+                    if (localGif != null) {
+                        localGif.startConverting(finished);
+                    } else {
+                        finished.run();
+                    }
+                }, () -> setChannelState(CHANNEL_UPDATE_GIF, OnOffType.valueOf("OFF")), () -> {
+                    Ffmpeg localGif = ffmpegGIF;
+                    if (localGif != null) {
+                        localGif.stopConverting();
+                    }
+                });
                 break;
             case "RECORD":
                 inOptions = "-y -t " + mp4RecordTime + " -rtsp_transport tcp -hide_banner -loglevel warning";
                 if (!rtspUri.contains("rtsp")) {
                     inOptions = "-y -t " + mp4RecordTime;
                 }
-                ffmpegRecord = new Ffmpeg(this, format, config.get(CONFIG_FFMPEG_LOCATION).toString(), inOptions,
-                        rtspUri, "-acodec copy -vcodec copy", ffmpegOutputFolder + mp4Filename + ".mp4", username,
-                        password);
+                // Made when the job starts, so one that is waiting does not replace the one that is recording.
+                String recordOptions = inOptions, recordOutput = ffmpegOutputFolder + mp4Filename + ".mp4";
+                MEDIA_JOBS.submit(getThing().getUID().getId(), format, mediaPriority, finished -> {
+                    Ffmpeg localRecord = new Ffmpeg(this, format, config.get(CONFIG_FFMPEG_LOCATION).toString(),
+                            recordOptions, rtspUri, "-acodec copy -vcodec copy", recordOutput, username, password);
+                    ffmpegRecord = localRecord;
+                    localRecord.startConverting(finished);
+                }, () -> setChannelState(CHANNEL_RECORD_MP4, OnOffType.valueOf("OFF")), () -> {
+                    Ffmpeg localRecord = ffmpegRecord;
+                    if (localRecord != null) {
+                        localRecord.stopConverting();
+                    }
+                });
                 if (mp4Preroll > 0) {
                     // fetchFromHLS();
                 }
-                if (ffmpegRecord != null) {
-                    ffmpegRecord.startConverting();
+                break;
+            case "NVR":
+                if (ffmpegNvr == null) {
+                    inOptions = "-rtsp_transport tcp -hide_banner -loglevel warning";
+                    if (!rtspUri.contains("rtsp")) {
+                        inOptions = "-hide_banner -loglevel warning";
+                    }
+                    // Fragmented MP4 is written from front to back in large pieces and can be played while it is
+                    // still being written, or after FFmpeg was killed.
+                    ffmpegNvr = new Ffmpeg(this, format, config.get(CONFIG_FFMPEG_LOCATION).toString(), inOptions,
+                            rtspUri,
+                            "-map 0 -c copy -flush_packets 0 -f segment -segment_time " + nvrSegmentSeconds
+                                    + " -segment_atclocktime 1 -reset_timestamps 1 -strftime 1 -segment_format mp4"
+                                    + " -segment_format_options movflags=+frag_keyframe+empty_moov+default_base_moof",
+                            ffmpegOutputFolder + "nvr/" + NvrStorage.FFMPEG_PATTERN, username, password);
+                }
+                if (ffmpegNvr != null) {
+                    ffmpegNvr.startConverting();
                 }
                 break;
             case "RTSPHELPER":
@@ -1277,12 +1782,25 @@ public class IpCameraHandler extends BaseThingHandler {
         firstMotionAlarm = false;
         motionAlarmUpdateSnapshot = false;
         motionDetected = false;
+        for (IpCameraGroupHandler group : groups) {
+            group.cameraMotion(this, false);
+        }
     }
 
     public void motionDetected(String thisAlarmsChannel) {
         updateState(CHANNEL_LAST_MOTION_TYPE, new StringType(thisAlarmsChannel));
         updateState(thisAlarmsChannel, OnOffType.valueOf("ON"));
+        metrics.eventHandled();
         motionDetected = true;
+        sendNextImage = true;
+        wakeSnapshotPoll();
+        for (IpCameraGroupHandler group : groups) {
+            group.cameraMotion(this, true);
+        }
+        NvrTimeline timeline = nvrTimeline;
+        if (timeline != null) {
+            timeline.event(thisAlarmsChannel);
+        }
         if (updateImageEvents.contains("2")) {
             if (!firstMotionAlarm) {
                 sendHttpGET(snapshotUri);
@@ -1296,6 +1814,13 @@ public class IpCameraHandler extends BaseThingHandler {
 
     public void audioDetected() {
         updateState(CHANNEL_AUDIO_ALARM, OnOffType.valueOf("ON"));
+        metrics.eventHandled();
+        sendNextImage = true;
+        wakeSnapshotPoll();
+        NvrTimeline timeline = nvrTimeline;
+        if (timeline != null) {
+            timeline.event(CHANNEL_AUDIO_ALARM);
+        }
         if (updateImageEvents.contains("3")) {
             if (!firstAudioAlarm) {
                 sendHttpGET(snapshotUri);
@@ -1430,7 +1955,15 @@ public class IpCameraHandler extends BaseThingHandler {
                             setupFfmpegFormat("SNAPSHOT");
                         } else {
                             updateImage = true;
-                            sendHttpGET(snapshotUri);// Allows this to change Image FPS on demand
+                            // Asked for, so send it even if nothing in the picture changed.
+                            sendNextImage = true;
+                            // Allows this to change Image FPS on demand
+                            CompletableFuture<byte[]> snapshot = getFreshSnapshot();
+                            if (snapshot.isDone()) {
+                                // A recent picture was used instead of asking the camera, so processSnapshot() will
+                                // not be called.
+                                updateImageChannel(snapshot.join());
+                            }
                         }
                     } else {
                         if (ffmpegSnapshot != null) {
@@ -1552,8 +2085,6 @@ public class IpCameraHandler extends BaseThingHandler {
             startStreamServer(true);
         }
         updateStatus(ThingStatus.ONLINE);
-        listOfOnlineCameraHandlers.add(this);
-        listOfOnlineCameraUID.add(getThing().getUID().getId());
         isOnline = true;
         if (cameraConnectionJob != null) {
             cameraConnectionJob.cancel(true);
@@ -1562,16 +2093,45 @@ public class IpCameraHandler extends BaseThingHandler {
         }
         pollCameraJob = pollCamera.scheduleAtFixedRate(pollingCamera, 4000,
                 Integer.parseInt(config.get(CONFIG_POLL_CAMERA_MS).toString()), TimeUnit.MILLISECONDS);
+        int pollTime = Integer.parseInt(config.get(CONFIG_POLL_CAMERA_MS).toString());
+        SnapshotScheduler localScheduler = new SnapshotScheduler(this::pollSnapshot, scheduler, pollTime,
+                pollTime * MAX_POLL_BACKOFF);
+        snapshotScheduler = localScheduler;
+        localScheduler.start();
+        if (nvrSegmentSeconds > 0) {
+            startNvr();
+        }
+        if (timelapseSeconds > 0) {
+            if (ffmpegOutputFolder.equals("")) {
+                logger.warn("TIMELAPSE_INTERVAL_S needs FFMPEG_OUTPUT to be set before it can make a timelapse.");
+            } else {
+                Timelapse localTimelapse = new Timelapse(Paths.get(ffmpegOutputFolder, "timelapse"),
+                        config.get(CONFIG_FFMPEG_LOCATION).toString(), getThing().getUID().getId(), mediaPriority,
+                        MEDIA_JOBS, scheduler);
+                timelapse = localTimelapse;
+                // Finishes anything left from before openHAB was restarted.
+                localTimelapse.submit();
+            }
+        }
+        if (snapshotHistoryMb > 0) {
+            if (ffmpegOutputFolder.equals("")) {
+                logger.warn("SNAPSHOT_HISTORY_MB needs FFMPEG_OUTPUT to be set before it can keep snapshots.");
+            } else {
+                try {
+                    snapshotHistory = new SnapshotJournal(Paths.get(ffmpegOutputFolder, "history.dat"),
+                            snapshotHistoryMb * 1024L * 1024);
+                } catch (IOException e) {
+                    logger.warn("Could not open the snapshot history in {}:{}", ffmpegOutputFolder, e.getMessage());
+                }
+            }
+        }
         // logger.info("IP Camera at {} is now online.", ipAddress);
 
         if (!rtspUri.equals("")) {
             updateState(CHANNEL_RTSP_URL, new StringType(rtspUri));
         }
-        if (!listOfGroupHandlers.isEmpty()) {
-            for (IpCameraGroupHandler handle : listOfGroupHandlers) {
-                handle.cameraOnline(getThing().getUID().getId());
-            }
-        }
+        // Groups this camera is in are told it is online.
+        REGISTRY.cameraOnline(this);
     }
 
     void snapshotIsFfmpeg() {
@@ -1625,7 +2185,11 @@ public class IpCameraHandler extends BaseThingHandler {
                     if (response.request().toString().contains("org.openhab.binding.ipcamera.onvif.GetSnapshotUri")) {
                         snapshotUri = getCorrectUrlFormat(
                                 org.openhab.binding.ipcamera.onvif.GetSnapshotUri.getParsedResult(response.getXml()));
-                        cameraConnectionJob = cameraConnection.schedule(pollingCameraConnection, 2, TimeUnit.SECONDS);
+                        cacheOnvifResult(OnvifCapabilityCache.SNAPSHOT_URI, snapshotUri);
+                        if (!isOnline) {
+                            cameraConnectionJob = cameraConnection.schedule(pollingCameraConnection, 2,
+                                    TimeUnit.SECONDS);
+                        }
                         logger.debug("snapshotUri is {}", snapshotUri);
                     }
 
@@ -1658,6 +2222,11 @@ public class IpCameraHandler extends BaseThingHandler {
                 }
             });
 
+            if (!isOnline && onvifCache != null) {
+                useOnvifCache(onvifCache);
+            }
+
+            // When the cache was used, these requests run in the background to confirm the cached answers.
             onvifManager.getServices(thisOnvifCamera, new OnvifServicesListener() {
                 @Override
                 public void onServicesReceived(@Nullable OnvifDevice thisOnvifCamera, @Nullable OnvifServices paths) {
@@ -1665,6 +2234,21 @@ public class IpCameraHandler extends BaseThingHandler {
                         return;
                     }
                     logger.debug("We sucessfully connected to a ONVIF SERVICE:{}", paths.getDeviceInformationPath());
+                    onvifManager.getDeviceInformation(thisOnvifCamera, new OnvifDeviceInformationListener() {
+                        @Override
+                        public void onDeviceInformationReceived(@Nullable OnvifDevice device,
+                                @Nullable OnvifDeviceInformation deviceInformation) {
+                            OnvifCapabilityCache localCache = onvifCache;
+                            if (deviceInformation == null || localCache == null) {
+                                return;
+                            }
+                            String firmware = deviceInformation.getFirmwareVersion();
+                            if (firmware != null && localCache.checkFirmware(firmware)) {
+                                logger.info("Camera at {} has new firmware {}, the cached ONVIF details are dropped.",
+                                        ipAddress, firmware);
+                            }
+                        }
+                    });
                     onvifManager.getMediaProfiles(thisOnvifCamera, new OnvifMediaProfilesListener() {
                         @Override
                         public void onMediaProfilesReceived(@Nullable OnvifDevice device,
@@ -1678,10 +2262,16 @@ public class IpCameraHandler extends BaseThingHandler {
                                 selectedMediaProfile = 0;
                             }
                             mediaProfileToken = mediaProfiles.get(selectedMediaProfile).getToken();
+                            cacheOnvifResult(OnvifCapabilityCache.MEDIA_PROFILE_TOKEN, mediaProfileToken);
                             if (thisOnvifCamera != null) {
-                                ptzHandler = new PTZRequest(ptzManager, thisOnvifCamera, mediaProfileToken);
+                                if (onvifCache != null) {
+                                    ptzHandler = new PTZRequest(ptzManager, thisOnvifCamera, mediaProfileToken,
+                                            onvifCache);
+                                } else {
+                                    ptzHandler = new PTZRequest(ptzManager, thisOnvifCamera, mediaProfileToken);
+                                }
                             }
-                            if (rtspUri.equals("")) {
+                            if (rtspUri.equals("") || rtspUriFromCache) {
                                 onvifManager.getMediaStreamURI(thisOnvifCamera, mediaProfiles.get(selectedMediaProfile),
                                         new OnvifMediaStreamURIListener() {
                                             @Override
@@ -1689,6 +2279,7 @@ public class IpCameraHandler extends BaseThingHandler {
                                                     @Nullable OnvifMediaProfile profile, @Nullable String uri) {
                                                 if (uri != null) {
                                                     rtspUri = uri;
+                                                    cacheOnvifResult(OnvifCapabilityCache.RTSP_URI, rtspUri);
                                                     if (ffmpegSnapshotGeneration) {
                                                         setupFfmpegFormat("SNAPSHOT");
                                                         updateState(CHANNEL_UPDATE_IMAGE_NOW, OnOffType.valueOf("ON"));
@@ -1698,10 +2289,12 @@ public class IpCameraHandler extends BaseThingHandler {
                                             }
                                         });
                             }
-                            if (snapshotUri.equals("") && !ffmpegSnapshotGeneration) {
+                            if ((snapshotUri.equals("") || snapshotUriFromCache) && !ffmpegSnapshotGeneration) {
                                 onvifManager.sendOnvifRequest(thisOnvifCamera,
                                         new GetSnapshotUri(mediaProfiles.get(selectedMediaProfile)));
                             }
+                            snapshotUriFromCache = false;
+                            rtspUriFromCache = false;
                             // disable this in case it causes issues until proven.
                             // onvifManager.sendOnvifRequest(thisOnvifCamera, new
                             // EventsRequest("CreatePullPointSubscription",
@@ -1718,6 +2311,8 @@ public class IpCameraHandler extends BaseThingHandler {
                     if (updateImage) {
                         updateState(CHANNEL_UPDATE_IMAGE_NOW, OnOffType.valueOf("ON"));
                     }
+                } else {
+                    cachedUrlFailed(snapshotUri);
                 }
             } else if (!rtspUri.equals("")) {
                 snapshotIsFfmpeg();
@@ -1730,6 +2325,59 @@ public class IpCameraHandler extends BaseThingHandler {
         }
     };
 
+    /**
+     * Called when a URL did not work. If it was taken from the ONVIF cache and the camera has not confirmed it yet,
+     * the cache is deleted and the URL forgotten, so the camera is asked for it again.
+     */
+    public void cachedUrlFailed(String url) {
+        boolean snapshotFailed = snapshotUriFromCache && url.equals(snapshotUri);
+        boolean rtspFailed = rtspUriFromCache && url.equals(rtspUri);
+        OnvifCapabilityCache localCache = onvifCache;
+        if ((!snapshotFailed && !rtspFailed) || localCache == null) {
+            return;
+        }
+        logger.debug("Cached ONVIF URL {} failed, the cache for camera at {} is deleted.", url, ipAddress);
+        localCache.delete();
+        if (snapshotFailed) {
+            snapshotUri = "";
+        }
+        if (rtspFailed) {
+            rtspUri = "";
+        }
+        snapshotUriFromCache = false;
+        rtspUriFromCache = false;
+    }
+
+    private void cacheOnvifResult(String key, String value) {
+        OnvifCapabilityCache localCache = onvifCache;
+        if (localCache != null) {
+            localCache.put(key, value);
+            localCache.save();
+        }
+    }
+
+    // Fills in anything the user has not provided with what the camera reported the last time it connected.
+    private void useOnvifCache(OnvifCapabilityCache localCache) {
+        if (!localCache.load()) {
+            return;
+        }
+        logger.debug("Using the cached ONVIF details for camera at {}, they will be checked in the background.",
+                ipAddress);
+        mediaProfileToken = localCache.get(OnvifCapabilityCache.MEDIA_PROFILE_TOKEN);
+        if (snapshotUri.equals("") && !ffmpegSnapshotGeneration) {
+            snapshotUri = localCache.get(OnvifCapabilityCache.SNAPSHOT_URI);
+            snapshotUriFromCache = !snapshotUri.equals("");
+        }
+        if (rtspUri.equals("")) {
+            rtspUri = localCache.get(OnvifCapabilityCache.RTSP_URI);
+            rtspUriFromCache = !rtspUri.equals("");
+        }
+        PTZRequest cachedPtz = PTZRequest.fromCache(ptzManager, thisOnvifCamera, mediaProfileToken, localCache);
+        if (cachedPtz != null) {
+            ptzHandler = cachedPtz;
+        }
+    }
+
     boolean streamIsStopped(String url) {
         byte indexInLists = 0;
         lock.lock();
@@ -1754,20 +2402,6 @@ public class IpCameraHandler extends BaseThingHandler {
     Runnable pollingCamera = new Runnable() {
         @Override
         public void run() {
-            // Snapshot should be first to keep consistent time between shots
-            if (!snapshotUri.equals("")) {
-                if (updateImageEvents.contains("1") || updateImage) {
-                    sendHttpGET(snapshotUri);
-                } else if (audioAlarmUpdateSnapshot || shortAudioAlarm) {
-                    sendHttpGET(snapshotUri);
-                    updateCounter = 5;
-                    shortAudioAlarm = false;
-                } else if (motionAlarmUpdateSnapshot || shortMotionAlarm) {
-                    sendHttpGET(snapshotUri);
-                    updateCounter = 5;
-                    shortMotionAlarm = false;
-                }
-            }
             // NOTE: Use lowPriorityRequests if get request is not needed every poll.
             switch (thing.getThingTypeUID().getId()) {
                 case "HTTPONLY":
@@ -1819,12 +2453,154 @@ public class IpCameraHandler extends BaseThingHandler {
             }
             if (snapCount > 0) {
                 if (--snapCount == 0) {
-                    setupFfmpegFormat("GIF");
+                    if (gifJavaHeight > 0) {
+                        createGifInJava();
+                    } else {
+                        setupFfmpegFormat("GIF");
+                    }
                 }
             }
+            if (System.currentTimeMillis() - lastMetricsUpdate >= 60000) {
+                lastMetricsUpdate = System.currentTimeMillis();
+                updateMetricChannels();
+            }
         }
     };
 
+    /**
+     * Called by the {@link SnapshotScheduler} every POLL_CAMERA_MS. A picture is only asked for when something is
+     * going to use it, ipcamera.jpg requests fetch their own when the one in RAM is too old.
+     */
+    private void pollSnapshot() {
+        // While the MJPEG stream is running it already has a newer picture than the camera would send.
+        boolean fromStream = isStreamGivingSnapshots();
+        if (snapshotUri.equals("") && !fromStream) {
+            return;
+        }
+        if (isSnapshotWanted()) {
+            nextSnapshot(fromStream);
+        } else if (audioAlarmUpdateSnapshot || shortAudioAlarm) {
+            nextSnapshot(fromStream);
+            updateCounter = 5;
+            shortAudioAlarm = false;
+        } else if (motionAlarmUpdateSnapshot || shortMotionAlarm) {
+            nextSnapshot(fromStream);
+            updateCounter = 5;
+            shortMotionAlarm = false;
+        } else if (isTimelapseDue()) {
+            nextSnapshot(fromStream);
+        }
+        SnapshotScheduler localScheduler = snapshotScheduler;
+        if (localScheduler != null) {
+            localScheduler.setBackoff(snapshotPollBackoff());
+        }
+    }
+
+    /**
+     * The poll runs every POLL_CAMERA_MS while anything needs every picture. Otherwise it slows down as the picture
+     * stops changing, by less for each viewer, and all the way when nothing is watching.
+     *
+     * @return 0 for POLL_CAMERA_MS up to 1 for MAX_POLL_BACKOFF times it.
+     */
+    private double snapshotPollBackoff() {
+        if (motionDetected || motionAlarmUpdateSnapshot || audioAlarmUpdateSnapshot || preroll > 0
+                || snapshotHistory != null) {
+            return 0;
+        }
+        int viewers = snapshotMjpegChannelGroup.size() + autoSnapshotMjpegChannelGroup.size()
+                + mjpegVariants.count("/snapshots.mjpeg") + mjpegVariants.count("/autofps.mjpeg");
+        viewers += getGroupViewerCount();
+        if (updateImage && isLinked(CHANNEL_IMAGE)) {
+            viewers++;
+        }
+        if (viewers == 0) {
+            return 1;
+        }
+        return (1 - snapshotChangeRate) / viewers;
+    }
+
+    // Something needs a picture now, so a backed off poll is brought forward.
+    private void wakeSnapshotPoll() {
+        SnapshotScheduler localScheduler = snapshotScheduler;
+        if (localScheduler != null) {
+            localScheduler.wake();
+        }
+    }
+
+    private boolean isTimelapseDue() {
+        return timelapse != null && System.currentTimeMillis() - lastTimelapseFrame >= timelapseSeconds * 1000L;
+    }
+
+    // Only one snapshot each TIMELAPSE_INTERVAL_S is kept, whatever it was fetched for.
+    private void timelapseFrame(byte[] jpeg) {
+        Timelapse localTimelapse = timelapse;
+        if (localTimelapse == null || jpeg.length <= 1 || !isTimelapseDue()) {
+            return;
+        }
+        lastTimelapseFrame = System.currentTimeMillis();
+        scheduler.execute(() -> {
+            try {
+                localTimelapse.addFrame(jpeg, LocalDate.now());
+            } catch (IOException e) {
+                logger.warn("Could not save a snapshot for the timelapse:{}", e.getMessage());
+            }
+        });
+    }
+
+    // The write is done off the camera's network thread, it is only a copy into the mapped file.
+    private void historyFrame(byte[] jpeg) {
+        SnapshotJournal journal = snapshotHistory;
+        if (journal == null || jpeg.length <= 1) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        scheduler.execute(() -> journal.append(now, jpeg));
+    }
+
+    private void nextSnapshot(boolean fromStream) {
+        if (fromStream) {
+            processSnapshot();
+        } else {
+            requestSnapshot(0);
+        }
+    }
+
+    private boolean isSnapshotWanted() {
+        // the GIF preroll and the snapshot history need a picture every poll to fill their buffers.
+        return streamingSnapshotMjpeg || streamingAutoFps || preroll > 0 || snapshotHistory != null
+                || (updateImage && isLinked(CHANNEL_IMAGE)) || getGroupViewerCount() > 0;
+    }
+
+    // Groups show the pictures their cameras already have, so a camera polls while any of its groups are watched.
+    private int getGroupViewerCount() {
+        int viewers = 0;
+        for (IpCameraGroupHandler group : groups) {
+            viewers += group.getViewerCount();
+        }
+        return viewers;
+    }
+
+    // The diagnostic channels show what happened in the last minute, the /metrics page has the totals.
+    private void updateMetricChannels() {
+        CameraMetrics.Interval interval = metrics.nextInterval();
+        updateState(CHANNEL_SNAPSHOT_LATENCY, new DecimalType(interval.snapshotMs));
+        updateState(CHANNEL_EVENT_LATENCY, new DecimalType(interval.eventMs));
+        updateState(CHANNEL_AUTH_FAILURES, new DecimalType(interval.authFailurePercent));
+        updateState(CHANNEL_CONNECTION_REUSE, new DecimalType(interval.connectionReusePercent));
+        updateState(CHANNEL_VIEWERS, new DecimalType(getViewerCount()));
+        updateState(CHANNEL_FFMPEG_STARTS, new DecimalType(metrics.ffmpegStarts.sum()));
+    }
+
+    public int getViewerCount() {
+        return mjpegChannelGroup.size() + snapshotMjpegChannelGroup.size() + autoSnapshotMjpegChannelGroup.size()
+                + mjpegVariants.size() + metrics.getHlsViewers();
+    }
+
+    public String getMetricsText() {
+        return metrics.toPrometheus(getThing().getUID().getId(), getViewerCount(), listOfRequests.size(), isOnline)
+                + MEDIA_JOBS.toPrometheus(getThing().getUID().getId());
+    }
+
     @Override
     public void initialize() {
         logger.debug("BINDING initialize()");
@@ -1836,6 +2612,10 @@ public class IpCameraHandler extends BaseThingHandler {
         password = (config.get(CONFIG_PASSWORD) == null) ? "" : config.get(CONFIG_PASSWORD).toString();
         preroll = Integer.parseInt(config.get(CONFIG_GIF_PREROLL).toString());
         postroll = Integer.parseInt(config.get(CONFIG_GIF_POSTROLL).toString());
+        gifJavaHeight = (config.get(CONFIG_GIF_JAVA_HEIGHT) == null) ? 0
+                : Integer.parseInt(config.get(CONFIG_GIF_JAVA_HEIGHT).toString());
+        mediaPriority = (config.get(CONFIG_MEDIA_PRIORITY) == null) ? 5
+                : Integer.parseInt(config.get(CONFIG_MEDIA_PRIORITY).toString());
         updateImageEvents = config.get(CONFIG_IMAGE_UPDATE_EVENTS).toString();
         updateImage = (boolean) config.get(CONFIG_UPDATE_IMAGE);
 
@@ -1850,6 +2630,26 @@ public class IpCameraHandler extends BaseThingHandler {
         selectedMediaProfile = (config.get(CONFIG_ONVIF_PROFILE_NUMBER) == null) ? 0
                 : Integer.parseInt(config.get(CONFIG_ONVIF_PROFILE_NUMBER).toString());
 
+        snapshotMaxAge = TimeUnit.MILLISECONDS.toNanos((config.get(CONFIG_SNAPSHOT_MAX_AGE_MS) == null) ? 1000
+                : Integer.parseInt(config.get(CONFIG_SNAPSHOT_MAX_AGE_MS).toString()));
+
+        imageChannelWidth = (config.get(CONFIG_IMAGE_CHANNEL_WIDTH) == null) ? 0
+                : Integer.parseInt(config.get(CONFIG_IMAGE_CHANNEL_WIDTH).toString());
+
+        nvrSegmentSeconds = (config.get(CONFIG_NVR_SEGMENT_S) == null) ? 0
+                : Integer.parseInt(config.get(CONFIG_NVR_SEGMENT_S).toString());
+        nvrRetentionHours = (config.get(CONFIG_NVR_RETENTION_HOURS) == null) ? 168
+                : Integer.parseInt(config.get(CONFIG_NVR_RETENTION_HOURS).toString());
+        nvrQuotaBytes = ((config.get(CONFIG_NVR_QUOTA_MB) == null) ? 0
+                : Long.parseLong(config.get(CONFIG_NVR_QUOTA_MB).toString())) * 1024 * 1024;
+        timelapseSeconds = (config.get(CONFIG_TIMELAPSE_INTERVAL_S) == null) ? 0
+                : Integer.parseInt(config.get(CONFIG_TIMELAPSE_INTERVAL_S).toString());
+        snapshotHistoryMb = (config.get(CONFIG_SNAPSHOT_HISTORY_MB) == null) ? 0
+                : Integer.parseInt(config.get(CONFIG_SNAPSHOT_HISTORY_MB).toString());
+
+        unchangedImageInterval = TimeUnit.SECONDS.toNanos((config.get(CONFIG_UNCHANGED_IMAGE_INTERVAL_S) == null) ? 60
+                : Integer.parseInt(config.get(CONFIG_UNCHANGED_IMAGE_INTERVAL_S).toString()));
+
         serverPort = Integer.parseInt(config.get(CONFIG_SERVER_PORT).toString());
         if (serverPort == -1) {
             logger.warn("The SERVER_PORT = -1 which disables a lot of features. See readme for more info.");
@@ -1862,6 +2662,11 @@ public class IpCameraHandler extends BaseThingHandler {
         ffmpegOutputFolder = (config.get(CONFIG_FFMPEG_OUTPUT) == null) ? ""
                 : config.get(CONFIG_FFMPEG_OUTPUT).toString();
 
+        if (!thing.getThingTypeUID().getId().equals("HTTPONLY")) {
+            onvifCache = new OnvifCapabilityCache(getThing().getUID().getAsString(),
+                    ipAddress + ":" + config.get(CONFIG_ONVIF_PORT) + "/" + selectedMediaProfile);
+        }
+
         // Known cameras will connect quicker if we skip ONVIF questions.
         switch (thing.getThingTypeUID().getId()) {
             case "AMCREST":
@@ -1917,9 +2722,136 @@ public class IpCameraHandler extends BaseThingHandler {
         cameraConnectionJob = cameraConnection.scheduleWithFixedDelay(pollingCameraConnection, 1, 58, TimeUnit.SECONDS);
     }
 
+    private void startNvr() {
+        if (ffmpegOutputFolder.equals("") || rtspUri.equals("")) {
+            logger.warn("NVR_SEGMENT_S needs FFMPEG_OUTPUT and FFMPEG_INPUT to be set before it can record.");
+            return;
+        }
+        NvrStorage storage = new NvrStorage(Paths.get(ffmpegOutputFolder, "nvr"));
+        try {
+            storage.prepare(LocalDateTime.now());
+        } catch (IOException e) {
+            logger.warn("Could not create the folders for continuous recording:{}", e.getMessage());
+            return;
+        }
+        synchronized (nvrLock) {
+            nvrStorage = storage;
+            try {
+                nvrTimeline = new NvrTimeline(storage.getRoot());
+            } catch (IOException e) {
+                logger.warn(
+                        "Could not open the timeline for continuous recording, /timeline and /clip will not work:{}",
+                        e.getMessage());
+            }
+            nvrStopped = false;
+            setupFfmpegFormat("NVR");
+            // Runs on the scheduler so deleting old recordings never holds up the camera.
+            nvrJob = scheduler.scheduleWithFixedDelay(this::maintainNvr, 60, 60, TimeUnit.SECONDS);
+        }
+    }
+
+    private void maintainNvr() {
+        synchronized (nvrLock) {
+            NvrStorage storage = nvrStorage;
+            if (nvrStopped || storage == null) {
+                return;
+            }
+            maintainNvr(storage);
+        }
+    }
+
+    // Must hold nvrLock.
+    private void maintainNvr(NvrStorage storage) {
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            storage.prepare(now);
+        } catch (IOException e) {
+            logger.warn("Could not create the folders for continuous recording:{}", e.getMessage());
+        }
+        NvrTimeline timeline = nvrTimeline;
+        if (timeline != null) {
+            try {
+                timeline.addFinishedSegments(now);
+            } catch (IOException e) {
+                logger.debug("Could not add recordings to the timeline:{}", e.getMessage());
+            }
+        }
+        int deleted = storage.enforce(now, nvrRetentionHours, nvrQuotaBytes);
+        if (deleted > 0) {
+            logger.debug("Deleted {} old recordings to stay inside NVR_RETENTION_HOURS and NVR_QUOTA_MB.", deleted);
+        }
+        Ffmpeg localNvr = ffmpegNvr;
+        if (localNvr != null && !localNvr.isProcessAlive()) {
+            logger.info("Continuous recording for camera {} stopped, starting it again.", ipAddress);
+            localNvr.startConverting();
+        }
+    }
+
+    private void stopNvr() {
+        // Set before waiting for the lock, so a run that is about to start gives up straight away.
+        nvrStopped = true;
+        synchronized (nvrLock) {
+            ScheduledFuture<?> job = nvrJob;
+            if (job != null) {
+                job.cancel(false);
+                nvrJob = null;
+            }
+            Ffmpeg localNvr = ffmpegNvr;
+            if (localNvr != null) {
+                localNvr.stopConverting();
+                ffmpegNvr = null;
+            }
+            nvrStorage = null;
+            NvrTimeline timeline = nvrTimeline;
+            nvrTimeline = null;
+            if (timeline != null) {
+                try {
+                    timeline.close();
+                } catch (IOException e) {
+                    logger.debug("Could not close the timeline:{}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Used by the stream server for work that reads files, which should not be done on its network thread.
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    public @Nullable NvrTimeline getNvrTimeline() {
+        return nvrTimeline;
+    }
+
+    public @Nullable Timelapse getTimelapse() {
+        return timelapse;
+    }
+
+    public @Nullable SnapshotJournal getSnapshotHistory() {
+        return snapshotHistory;
+    }
+
     private void restart() {
         onvifManager.destroy();
         ptzManager.destroy();
+        stopNvr();
+        timelapse = null;
+        SnapshotJournal journal = snapshotHistory;
+        snapshotHistory = null;
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.debug("Could not close the snapshot history:{}", e.getMessage());
+            }
+        }
+        MEDIA_JOBS.cancel(getThing().getUID().getId());
+        if (snapshotScheduler != null) {
+            snapshotScheduler.stop();
+            snapshotScheduler = null;
+        }
         if (pollCameraJob != null) {
             pollCameraJob.cancel(true);
             pollCamera.shutdown();
@@ -1933,14 +2865,14 @@ public class IpCameraHandler extends BaseThingHandler {
             cameraConnectionJob = null;
         }
 
-        listOfOnlineCameraHandlers.remove(this);
-        listOfOnlineCameraUID.remove(getThing().getUID().getId());
-        // inform all group handlers that this camera has gone offline
-        for (IpCameraGroupHandler handle : listOfGroupHandlers) {
+        REGISTRY.cameraOffline(this);
+        // inform all group handlers that this camera has gone offline, including groups it is in through another group
+        for (IpCameraGroupHandler handle : groups) {
             handle.cameraOffline(this);
         }
         basicAuth = ""; // clear out stored password hash
         useDigestAuth = false;
+        digestSession.reset();
         // firstStreamedMsg = null;
         startStreamServer(false);
 
@@ -1991,6 +2923,14 @@ public class IpCameraHandler extends BaseThingHandler {
         restart();
     }
 
+    @Override
+    public void handleRemoval() {
+        if (onvifCache != null) {
+            onvifCache.delete();
+        }
+        super.handleRemoval();
+    }
+
     public void setStreamServerHandler(StreamServerHandler streamServerHandler2) {
         streamServerHandler = streamServerHandler2;
     }
@@ -0,0 +1,275 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.util.CharsetUtil;
+
+/**
+ * The {@link CameraBrandProbe} is responsible for working out which brand a camera is, using its HTTP headers, its
+ * login page and the ONVIF GetDeviceInformation reply. Many cameras can be probed at once, but only a limited number
+ * of connections are ever open at the same time so a large site does not flood the network.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class CameraBrandProbe {
+    public static final int MAX_OPEN_CONNECTIONS = 16;
+    private static final String GET_DEVICE_INFORMATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\"><s:Body><GetDeviceInformation xmlns=\"http://www.onvif.org/ver10/device/wsdl\"/></s:Body></s:Envelope>";
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Semaphore openConnections = new Semaphore(MAX_OPEN_CONNECTIONS);
+    private final ConcurrentLinkedQueue<Probe> waitingProbes = new ConcurrentLinkedQueue<>();
+    private final Bootstrap bootstrap;
+
+    public interface BrandListener {
+        /**
+         * @param brand the thing type id ie HIKVISION, or "" if nothing gave the brand away.
+         */
+        void brandFound(String ipAddress, int httpPort, String brand);
+    }
+
+    private class Probe {
+        final String ipAddress;
+        final int httpPort;
+        final String onvifUrl;
+        final BrandListener listener;
+        boolean askedOnvif = false;
+
+        Probe(String ipAddress, int httpPort, String onvifUrl, BrandListener listener) {
+            this.ipAddress = ipAddress;
+            this.httpPort = httpPort;
+            this.onvifUrl = onvifUrl;
+            this.listener = listener;
+        }
+    }
+
+    public CameraBrandProbe(EventLoopGroup eventLoopGroup) {
+        bootstrap = new Bootstrap();
+        bootstrap.group(eventLoopGroup);
+        bootstrap.channel(NioSocketChannel.class);
+        bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 2000);
+        bootstrap.option(ChannelOption.TCP_NODELAY, true);
+        bootstrap.handler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            public void initChannel(SocketChannel socketChannel) throws Exception {
+                socketChannel.pipeline().addLast("readTimeoutHandler", new ReadTimeoutHandler(3));
+                socketChannel.pipeline().addLast("HttpClientCodec", new HttpClientCodec());
+                socketChannel.pipeline().addLast("aggregator", new HttpObjectAggregator(256 * 1024));
+            }
+        });
+    }
+
+    /**
+     * Works out the brand from any text the camera has given, ie a login page, HTTP headers or ONVIF scopes.
+     *
+     * @return the thing type id to use, or "" when the text does not match any brand.
+     */
+    public static String checkForBrand(String response) {
+        String text = response.toLowerCase();
+        if (text.contains("amcrest")) {
+            return "DAHUA";
+        } else if (text.contains("dahua")) {
+            return "DAHUA";
+        } else if (text.contains("foscam")) {
+            return "FOSCAM";
+        } else if (text.contains("/doc/page/login.asp") || text.contains("hikvision")
+                || text.contains("dnvrs-webs")) {
+            return "HIKVISION";
+        } else if (text.contains("instar")) {
+            return "INSTAR";
+        } else if (text.contains("doorbird")) {
+            return "DOORBIRD";
+        }
+        return "";
+    }
+
+    /**
+     * Queues a camera to be fingerprinted. The listener is called from one of the event loop threads once the camera
+     * has answered or timed out.
+     *
+     * @param onvifUrl the ONVIF device service address, or "" if the camera was not found with ONVIF.
+     * @param hint any text already known about the camera (ie ONVIF scopes) that may give away the brand for free.
+     */
+    public void probe(String ipAddress, int httpPort, String onvifUrl, String hint, BrandListener listener) {
+        String brand = checkForBrand(hint);
+        if (!brand.isEmpty()) {
+            listener.brandFound(ipAddress, httpPort, brand);
+            return;
+        }
+        waitingProbes.add(new Probe(ipAddress, httpPort, onvifUrl, listener));
+        startWaitingProbes();
+    }
+
+    /**
+     * Forgets any probes that have not started yet.
+     */
+    public void cancel() {
+        waitingProbes.clear();
+    }
+
+    private void startWaitingProbes() {
+        while (openConnections.tryAcquire()) {
+            Probe probe = waitingProbes.poll();
+            if (probe == null) {
+                openConnections.release();
+                // a probe may have been added between the poll and the release.
+                if (waitingProbes.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            sendGet(probe);
+        }
+    }
+
+    private void finished(Probe probe, String brand) {
+        openConnections.release();
+        try {
+            probe.listener.brandFound(probe.ipAddress, probe.httpPort, brand);
+        } finally {
+            startWaitingProbes();
+        }
+    }
+
+    private void sendGet(Probe probe) {
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+        request.headers().set(HttpHeaderNames.HOST, probe.ipAddress);
+        request.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        send(probe, probe.httpPort, request);
+    }
+
+    // Cameras that do not give their brand away on the login page nearly always give it here.
+    private void sendGetDeviceInformation(Probe probe) {
+        probe.askedOnvif = true;
+        int port = 80;
+        String path = "/onvif/device_service";
+        try {
+            URL url = new URL(probe.onvifUrl);
+            port = (url.getPort() == -1) ? 80 : url.getPort();
+            path = url.getFile().isEmpty() ? path : url.getFile();
+        } catch (MalformedURLException e) {
+            logger.debug("ONVIF address {} is not valid, trying the default one.", probe.onvifUrl);
+        }
+        byte[] body = GET_DEVICE_INFORMATION.getBytes(CharsetUtil.UTF_8);
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, path,
+                Unpooled.wrappedBuffer(body));
+        request.headers().set(HttpHeaderNames.HOST, probe.ipAddress);
+        request.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        request.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/soap+xml; charset=utf-8");
+        request.headers().set(HttpHeaderNames.CONTENT_LENGTH, body.length);
+        send(probe, port, request);
+    }
+
+    private void send(Probe probe, int port, FullHttpRequest request) {
+        bootstrap.connect(new InetSocketAddress(probe.ipAddress, port)).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(@Nullable ChannelFuture future) {
+                if (future == null) {
+                    return;
+                }
+                if (!future.isSuccess()) {
+                    request.release();
+                    nextStep(probe, "");
+                    return;
+                }
+                future.channel().pipeline().addLast("probeHandler", new ProbeHandler(probe));
+                future.channel().writeAndFlush(request);
+            }
+        });
+    }
+
+    // Called once for each request, with whatever the camera sent back.
+    private void nextStep(Probe probe, String reply) {
+        String brand = checkForBrand(reply);
+        if (brand.isEmpty() && !probe.askedOnvif && !probe.onvifUrl.isEmpty()) {
+            sendGetDeviceInformation(probe);
+            return;
+        }
+        finished(probe, brand);
+    }
+
+    private class ProbeHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+        private final Probe probe;
+        private boolean done = false;
+
+        ProbeHandler(Probe probe) {
+            this.probe = probe;
+        }
+
+        @Override
+        protected void channelRead0(@Nullable ChannelHandlerContext ctx, @Nullable FullHttpResponse response) {
+            if (ctx == null || response == null || done) {
+                return;
+            }
+            done = true;
+            StringBuilder reply = new StringBuilder();
+            for (Map.Entry<String, String> header : response.headers()) {
+                reply.append(header.getKey()).append(':').append(header.getValue()).append('\n');
+            }
+            reply.append(response.content().toString(CharsetUtil.UTF_8));
+            logger.trace("Camera at {} replied to the brand probe with:{}", probe.ipAddress, reply);
+            ctx.close();
+            nextStep(probe, reply.toString());
+        }
+
+        @Override
+        public void channelInactive(@Nullable ChannelHandlerContext ctx) {
+            if (!done) {
+                done = true;
+                nextStep(probe, "");
+            }
+        }
+
+        @Override
+        public void exceptionCaught(@Nullable ChannelHandlerContext ctx, @Nullable Throwable cause) {
+            logger.trace("Brand probe of {} failed:{}", probe.ipAddress, cause == null ? "" : cause.getMessage());
+            if (ctx != null) {
+                ctx.close();
+            }
+        }
+    }
+}
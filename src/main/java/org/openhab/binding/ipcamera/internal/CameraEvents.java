@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link CameraEvents} is responsible for sending Java Flight Recorder events about what the binding is doing, so
+ * a continuous recording can show where the time goes across all cameras without any debug logging. JFR is only in
+ * Java 11 and newer, so every method here does nothing when it is missing and {@link JfrCameraEvents} is never loaded.
+ * When JFR is there but not recording, the cost is a check that the JIT removes.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public final class CameraEvents {
+    private static final boolean JFR_AVAILABLE = isJfrAvailable();
+
+    private CameraEvents() {
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            // false so the class is only looked up, the import of jdk.jfr is optional in the bundle.
+            Class.forName("jdk.jfr.Event", false, CameraEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    public static boolean isAvailable() {
+        return JFR_AVAILABLE;
+    }
+
+    /**
+     * @param connected is false when a new channel was needed and the connect failed, so nothing was sent.
+     */
+    public static void httpRequest(String camera, String method, String url, boolean reused, boolean connected,
+            long connectNanos) {
+        if (JFR_AVAILABLE) {
+            JfrCameraEvents.httpRequest(camera, method, url, reused, connected, connectNanos);
+        }
+    }
+
+    public static void snapshotReceived(String camera, String url, int bytes, long durationNanos) {
+        if (JFR_AVAILABLE) {
+            JfrCameraEvents.snapshotReceived(camera, url, bytes, durationNanos);
+        }
+    }
+
+    public static void digestChallenge(String camera, String url, String realm, boolean stale) {
+        if (JFR_AVAILABLE) {
+            JfrCameraEvents.digestChallenge(camera, url, realm, stale);
+        }
+    }
+
+    /**
+     * @param action is start, stop or exit. Exit is when FFmpeg stopped by itself.
+     */
+    public static void ffmpeg(String camera, String format, String action) {
+        if (JFR_AVAILABLE) {
+            JfrCameraEvents.ffmpeg(camera, format, action);
+        }
+    }
+
+    /**
+     * @return the event to pass to {@link #endServerRequest}, or null if it is not being recorded.
+     */
+    public static @Nullable Object beginServerRequest() {
+        return JFR_AVAILABLE ? JfrCameraEvents.beginServerRequest() : null;
+    }
+
+    public static void endServerRequest(@Nullable Object event, String camera, String path, String client) {
+        if (event != null) {
+            JfrCameraEvents.endServerRequest(event, camera, path, client);
+        }
+    }
+
+    /**
+     * @return the event to pass to {@link #endLockHold}, or null if it is not being recorded.
+     */
+    public static @Nullable Object beginLockHold() {
+        return JFR_AVAILABLE ? JfrCameraEvents.beginLockHold() : null;
+    }
+
+    public static void endLockHold(@Nullable Object event, String camera, String lock) {
+        if (event != null) {
+            JfrCameraEvents.endLockHold(event, camera, lock);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link CameraHlsPlaylist} is responsible for keeping the segments of one camera's ipcamera.m3u8 that FFmpeg
+ * creates. The file is only read again when its size or time changes, and segments that were already known are kept
+ * instead of being parsed again.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class CameraHlsPlaylist {
+    private final Path file;
+    private long lastModified = -1;
+    private long lastSize = -1;
+    // Goes up each time FFmpeg is restarted and its media sequence starts again.
+    private int restarts = 0;
+    private List<Segment> segments = Collections.emptyList();
+
+    /**
+     * One media segment, which is never changed once created.
+     */
+    public static class Segment {
+        public final int restart;
+        public final long sequence;
+        public final double duration;
+        // Kept as FFmpeg wrote it, so it is put in the group's playlist without being formatted again.
+        public final String durationText;
+        public final String uri;
+
+        Segment(int restart, long sequence, String durationText, String uri) {
+            this.restart = restart;
+            this.sequence = sequence;
+            this.durationText = durationText;
+            this.uri = uri;
+            double value;
+            try {
+                value = Double.parseDouble(durationText);
+            } catch (NumberFormatException e) {
+                value = 0;
+            }
+            this.duration = value;
+        }
+    }
+
+    public CameraHlsPlaylist(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the playlist again if the file has changed.
+     *
+     * @return true if there are new segments.
+     */
+    public boolean refresh() throws IOException {
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        long size = Files.size(file);
+        if (modified == lastModified && size == lastSize) {
+            return false;
+        }
+        List<Segment> parsed = parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        if (parsed.isEmpty()) {
+            // FFmpeg may be part way through writing it, try again next time.
+            return false;
+        }
+        lastModified = modified;
+        lastSize = size;
+        boolean changed = segments.isEmpty()
+                || parsed.get(parsed.size() - 1) != segments.get(segments.size() - 1);
+        segments = parsed;
+        return changed;
+    }
+
+    private List<Segment> parse(String m3u8) {
+        List<String> durations = new ArrayList<>();
+        List<String> uris = new ArrayList<>();
+        long firstSequence = 0;
+        String duration = "";
+        for (String line : m3u8.split("\n")) {
+            line = line.trim();
+            if (line.startsWith("#EXT-X-MEDIA-SEQUENCE:")) {
+                try {
+                    firstSequence = Long.parseLong(line.substring(22).trim());
+                } catch (NumberFormatException e) {
+                    firstSequence = 0;
+                }
+            } else if (line.startsWith("#EXTINF:")) {
+                int comma = line.indexOf(',');
+                duration = (comma == -1 ? line.substring(8) : line.substring(8, comma)).trim();
+            } else if (!line.isEmpty() && !line.startsWith("#") && !duration.isEmpty()) {
+                durations.add(duration);
+                uris.add(line);
+                duration = "";
+            }
+        }
+        List<Segment> parsed = new ArrayList<>(uris.size());
+        if (uris.isEmpty()) {
+            return parsed;
+        }
+        List<Segment> old = segments;
+        long oldFirst = old.isEmpty() ? 0 : old.get(0).sequence;
+        if (!old.isEmpty() && isRestart(old, firstSequence, uris)) {
+            restarts++;
+            old = Collections.emptyList();
+        }
+        for (int i = 0; i < uris.size(); i++) {
+            long sequence = firstSequence + i;
+            long index = sequence - oldFirst;
+            if (index >= 0 && index < old.size() && old.get((int) index).uri.equals(uris.get(i))) {
+                parsed.add(old.get((int) index));
+            } else {
+                parsed.add(new Segment(restarts, sequence, durations.get(i), uris.get(i)));
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * FFmpeg was started again if the sequence went backwards, if a sequence that was already seen now has another
+     * file, or if a file that was already seen now has another sequence.
+     */
+    private static boolean isRestart(List<Segment> old, long firstSequence, List<String> uris) {
+        long oldFirst = old.get(0).sequence;
+        if (firstSequence < oldFirst || firstSequence + uris.size() < old.get(old.size() - 1).sequence + 1) {
+            return true;
+        }
+        Map<String, Long> oldSequences = new HashMap<>();
+        for (Segment segment : old) {
+            oldSequences.put(segment.uri, segment.sequence);
+        }
+        for (int i = 0; i < uris.size(); i++) {
+            long sequence = firstSequence + i;
+            long index = sequence - oldFirst;
+            if (index < old.size() && !old.get((int) index).uri.equals(uris.get(i))) {
+                return true;
+            }
+            Long seenAs = oldSequences.get(uris.get(i));
+            if (seenAs != null && seenAs != sequence) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The newest segments that add up to at least the given number of seconds, oldest first.
+     */
+    public List<Segment> lastSegments(double seconds) {
+        List<Segment> current = segments;
+        double total = 0;
+        int start = current.size();
+        while (start > 0 && total < seconds) {
+            total += current.get(--start).duration;
+        }
+        return current.subList(start, current.size());
+    }
+}
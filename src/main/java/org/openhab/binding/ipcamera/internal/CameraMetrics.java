@@ -0,0 +1,232 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link CameraMetrics} is responsible for counting and timing what one camera does, so slow or misbehaving
+ * cameras can be found without turning on TRACE logging. Everything here is safe to call from any thread and does not
+ * lock or create garbage, as most of it is called for every request or packet. The results are shown in the diagnostic
+ * channels and on the /metrics page of the camera's stream server.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class CameraMetrics {
+    // How long an HLS client is counted as a viewer after its last request.
+    private static final long HLS_VIEWER_TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+    // Set when a packet from a camera starts being processed, so the time taken to report any alarm it holds is known.
+    private static final ThreadLocal<long[]> EVENT_RECEIVED = ThreadLocal.withInitial(() -> new long[1]);
+
+    public final LatencyHistogram connectLatency = new LatencyHistogram();
+    public final LatencyHistogram snapshotFirstByte = new LatencyHistogram();
+    public final LatencyHistogram snapshotTotal = new LatencyHistogram();
+    public final LatencyHistogram eventLatency = new LatencyHistogram();
+
+    public final LongAdder requestsSent = new LongAdder();
+    public final LongAdder unauthorized = new LongAdder();
+    public final LongAdder connectionsOpened = new LongAdder();
+    public final LongAdder connectionsReused = new LongAdder();
+    public final LongAdder bytesReceived = new LongAdder();
+    public final LongAdder framesReceived = new LongAdder();
+    public final LongAdder snapshotRequestsShared = new LongAdder();
+    public final LongAdder unchangedSnapshotsSkipped = new LongAdder();
+    public final LongAdder viewerBytesSent = new LongAdder();
+    public final LongAdder hlsRequests = new LongAdder();
+    public final LongAdder hlsBytesSent = new LongAdder();
+    public final LongAdder ffmpegStarts = new LongAdder();
+    public final LongAdder ffmpegExits = new LongAdder();
+
+    private final Map<String, Long> hlsClients = new ConcurrentHashMap<>();
+
+    // Values at the end of the last interval, only touched by the thread that updates the channels.
+    private long[] lastSnapshotTotal = new long[LatencyHistogram.BUCKETS];
+    private long[] lastEventLatency = new long[LatencyHistogram.BUCKETS];
+    private long lastRequests = 0, lastUnauthorized = 0, lastOpened = 0, lastReused = 0;
+
+    /**
+     * The interval values shown in the diagnostic channels.
+     */
+    public static class Interval {
+        public double snapshotMs = 0;
+        public double eventMs = 0;
+        public double authFailurePercent = 0;
+        public double connectionReusePercent = 0;
+    }
+
+    public static void eventReceived() {
+        EVENT_RECEIVED.get()[0] = System.nanoTime();
+    }
+
+    public static void eventDone() {
+        EVENT_RECEIVED.get()[0] = 0;
+    }
+
+    /**
+     * Called just after an alarm has been passed to openHAB. Only the first alarm found in a packet is timed, and
+     * alarms that did not come from a camera packet are ignored.
+     */
+    public void eventHandled() {
+        long[] received = EVENT_RECEIVED.get();
+        if (received[0] != 0) {
+            eventLatency.recordNanos(System.nanoTime() - received[0]);
+            received[0] = 0;
+        }
+    }
+
+    public void hlsRequest(String clientIp) {
+        hlsRequests.increment();
+        hlsClients.put(clientIp, System.nanoTime());
+    }
+
+    public int getHlsViewers() {
+        long now = System.nanoTime();
+        int viewers = 0;
+        for (Iterator<Long> iterator = hlsClients.values().iterator(); iterator.hasNext();) {
+            if (now - iterator.next() > HLS_VIEWER_TIMEOUT) {
+                iterator.remove();
+            } else {
+                viewers++;
+            }
+        }
+        return viewers;
+    }
+
+    /**
+     * Works out the values for the diagnostic channels from what happened since the last time this was called.
+     */
+    public synchronized Interval nextInterval() {
+        Interval interval = new Interval();
+        long[] snapshots = snapshotTotal.snapshot();
+        long[] events = eventLatency.snapshot();
+        interval.snapshotMs = LatencyHistogram.quantile(subtract(snapshots, lastSnapshotTotal), 0.9) / 1000.0;
+        interval.eventMs = LatencyHistogram.quantile(subtract(events, lastEventLatency), 0.9) / 1000.0;
+        lastSnapshotTotal = snapshots;
+        lastEventLatency = events;
+
+        long requests = requestsSent.sum(), denied = unauthorized.sum();
+        long opened = connectionsOpened.sum(), reused = connectionsReused.sum();
+        interval.authFailurePercent = percent(denied - lastUnauthorized, requests - lastRequests);
+        interval.connectionReusePercent = percent(reused - lastReused, (reused - lastReused) + (opened - lastOpened));
+        lastRequests = requests;
+        lastUnauthorized = denied;
+        lastOpened = opened;
+        lastReused = reused;
+        return interval;
+    }
+
+    private static long[] subtract(long[] now, long[] before) {
+        long[] difference = new long[now.length];
+        for (int i = 0; i < now.length; i++) {
+            difference[i] = now[i] - before[i];
+        }
+        return difference;
+    }
+
+    private static double percent(long part, long total) {
+        if (total <= 0) {
+            return 0;
+        }
+        return Math.round(part * 1000.0 / total) / 10.0;
+    }
+
+    /**
+     * Creates the Prometheus text format for this camera. Latencies are in seconds as Prometheus expects.
+     *
+     * @param camera the thing ID, used as the camera label.
+     * @param viewers how many MJPEG and HLS clients are connected right now.
+     * @param trackedChannels how many channels to the camera are in the tracking lists.
+     */
+    public String toPrometheus(String camera, int viewers, int trackedChannels, boolean online) {
+        StringBuilder text = new StringBuilder(4096);
+        String label = cameraLabel(camera);
+        summary(text, "ipcamera_connect_seconds", "Time taken to open a TCP connection to the camera.", label,
+                connectLatency);
+        summary(text, "ipcamera_snapshot_first_byte_seconds",
+                "Time from sending a snapshot request to the start of the reply.", label, snapshotFirstByte);
+        summary(text, "ipcamera_snapshot_seconds", "Time from sending a snapshot request to having the whole image.",
+                label, snapshotTotal);
+        summary(text, "ipcamera_event_seconds", "Time from an alarm arriving to it being passed to openHAB.", label,
+                eventLatency);
+        counter(text, "ipcamera_requests_total", "HTTP requests sent to the camera.", label, requestsSent);
+        counter(text, "ipcamera_unauthorized_total", "Replies from the camera that were 401 Unauthorized.", label,
+                unauthorized);
+        counter(text, "ipcamera_connections_opened_total", "New connections opened to the camera.", label,
+                connectionsOpened);
+        counter(text, "ipcamera_connections_reused_total", "Requests sent on a connection that was already open.",
+                label, connectionsReused);
+        counter(text, "ipcamera_received_bytes_total", "Bytes of HTTP content received from the camera.", label,
+                bytesReceived);
+        counter(text, "ipcamera_frames_received_total", "JPEG images received from the camera.", label,
+                framesReceived);
+        counter(text, "ipcamera_snapshot_requests_shared_total",
+                "Snapshot requests answered without asking the camera for a new picture.", label,
+                snapshotRequestsShared);
+        counter(text, "ipcamera_unchanged_snapshots_skipped_total",
+                "Snapshots not sent to the Image channel or autofps.mjpeg as nothing in the picture changed.", label,
+                unchangedSnapshotsSkipped);
+        counter(text, "ipcamera_viewer_sent_bytes_total", "Bytes sent to MJPEG viewers.", label, viewerBytesSent);
+        counter(text, "ipcamera_hls_requests_total", "HLS playlist and segment requests.", label, hlsRequests);
+        counter(text, "ipcamera_hls_sent_bytes_total", "Bytes of HLS playlists and segments sent.", label,
+                hlsBytesSent);
+        counter(text, "ipcamera_ffmpeg_starts_total", "Times an FFmpeg process was started.", label, ffmpegStarts);
+        counter(text, "ipcamera_ffmpeg_exits_total", "Times an FFmpeg process stopped without being asked to.", label,
+                ffmpegExits);
+        gauge(text, "ipcamera_viewers", "MJPEG and HLS clients connected now.", label, viewers);
+        gauge(text, "ipcamera_tracked_channels", "Connections to the camera in the tracking lists.", label,
+                trackedChannels);
+        gauge(text, "ipcamera_online", "1 if the camera is online.", label, online ? 1 : 0);
+        return text.toString();
+    }
+
+    private static void header(StringBuilder text, String name, String help, String type) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void summary(StringBuilder text, String name, String help, String label,
+            LatencyHistogram histogram) {
+        header(text, name, help, "summary");
+        long[] buckets = histogram.snapshot();
+        for (double quantile : new double[] { 0.5, 0.9, 0.99 }) {
+            text.append(name).append('{').append(label).append(",quantile=\"").append(quantile).append("\"} ")
+                    .append(LatencyHistogram.quantile(buckets, quantile) / 1000000.0).append('\n');
+        }
+        text.append(name).append("_sum{").append(label).append("} ").append(histogram.getSumMicros() / 1000000.0)
+                .append('\n');
+        text.append(name).append("_count{").append(label).append("} ").append(histogram.getCount()).append('\n');
+    }
+
+    static String cameraLabel(String camera) {
+        return "camera=\"" + camera.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    static void counter(StringBuilder text, String name, String help, String label, LongAdder value) {
+        header(text, name, help, "counter");
+        text.append(name).append('{').append(label).append("} ").append(value.sum()).append('\n');
+    }
+
+    static void gauge(StringBuilder text, String name, String help, String label, long value) {
+        header(text, name, help, "gauge");
+        text.append(name).append('{').append(label).append("} ").append(value).append('\n');
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link DigestAuthSession} is responsible for remembering the last digest challenge a camera gave, so that every
+ * channel to that camera can send the Authorization header with its first request instead of waiting for a 401.
+ * One of these is shared by all of the channels that a camera has open. The hashes and the header are built in
+ * reused buffers as this runs for every request a digest camera is sent.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class DigestAuthSession {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final char[] HEX_UPPER = "0123456789ABCDEF".toCharArray();
+    private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not supported by this JVM", e);
+        }
+    });
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private String realm = "", nonce = "", opaque = "", qop = "";
+    private String username = "";
+    private boolean haveHa1 = false;
+    // Must go up by one for every request that reuses a nonce, and starts again at 1 when the nonce changes.
+    private long nonceCount = 0;
+    // All of these are only used while holding the lock on this object.
+    private final byte[] ha1 = new byte[32];
+    private final byte[] ha2 = new byte[32];
+    private final byte[] response = new byte[32];
+    private final byte[] md5 = new byte[16];
+    private final char[] nc = new char[8];
+    private final char[] cnonce = new char[16];
+    private byte[] ascii = new byte[256];
+    private final StringBuilder header = new StringBuilder(512);
+
+    /**
+     * Stores a new challenge from a WWW-Authenticate header. The hash of the username and password is only worked out
+     * again if the realm or user changes.
+     */
+    public synchronized void setChallenge(String user, String pass, String realm, String nonce, String opaque,
+            String qop) {
+        if (!realm.equals(this.realm) || !user.equals(username) || !haveHa1) {
+            MessageDigest messageDigest = MD5.get();
+            update(messageDigest, user, true);
+            update(messageDigest, realm, true);
+            update(messageDigest, pass, false);
+            haveHa1 = finish(messageDigest, ha1);
+        }
+        if (!nonce.equals(this.nonce)) {
+            nonceCount = 0;
+        }
+        username = user;
+        this.realm = realm;
+        this.nonce = nonce;
+        this.opaque = opaque;
+        this.qop = qop;
+    }
+
+    /**
+     * Creates the value for an Authorization header, without the leading "Digest ".
+     *
+     * @return null until a challenge has been received from the camera.
+     */
+    public synchronized @Nullable String authorize(String httpMethod, String requestURI) {
+        if (nonce.isEmpty()) {
+            return null;
+        }
+        if (++nonceCount > 0xFFFFFFFFL) {
+            nonceCount = 1;
+        }
+        toHex(nonceCount, nc, HEX_UPPER); // 8 digit hex number
+        toHex(ThreadLocalRandom.current().nextLong(), cnonce, HEX);
+
+        MessageDigest messageDigest = MD5.get();
+        update(messageDigest, httpMethod, true);
+        update(messageDigest, requestURI, false);
+        if (!finish(messageDigest, ha2)) {
+            return null;
+        }
+        messageDigest.update(ha1);
+        messageDigest.update((byte) ':');
+        update(messageDigest, nonce, true);
+        update(messageDigest, nc, true);
+        update(messageDigest, cnonce, true);
+        update(messageDigest, qop, true);
+        messageDigest.update(ha2);
+        if (!finish(messageDigest, response)) {
+            return null;
+        }
+
+        header.setLength(0);
+        header.append("username=\"").append(username).append("\", realm=\"").append(realm).append("\", nonce=\"")
+                .append(nonce).append("\", uri=\"").append(requestURI).append("\", cnonce=\"").append(cnonce)
+                .append("\", nc=").append(nc).append(", qop=\"").append(qop).append("\", response=\"");
+        for (byte hexDigit : response) {
+            header.append((char) hexDigit);
+        }
+        header.append("\", opaque=\"").append(opaque).append('"');
+        return header.toString();
+    }
+
+    /**
+     * Forgets the challenge and the stored hash of the password.
+     */
+    public synchronized void reset() {
+        realm = "";
+        nonce = "";
+        opaque = "";
+        qop = "";
+        username = "";
+        haveHa1 = false;
+        Arrays.fill(ha1, (byte) 0);
+        nonceCount = 0;
+    }
+
+    private static void toHex(long value, char[] out, char[] digits) {
+        for (int i = out.length - 1; i >= 0; i--) {
+            out[i] = digits[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+
+    // Feeds the text to the digest without creating a byte[] for it, unless it has non ASCII characters.
+    private void update(MessageDigest messageDigest, CharSequence text, boolean addColon) {
+        int length = text.length();
+        if (ascii.length < length + 1) {
+            ascii = new byte[length + 64];
+        }
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c > 0x7F) {
+                messageDigest.update(text.toString().getBytes(StandardCharsets.UTF_8));
+                if (addColon) {
+                    messageDigest.update((byte) ':');
+                }
+                return;
+            }
+            ascii[i] = (byte) c;
+        }
+        if (addColon) {
+            ascii[length++] = (byte) ':';
+        }
+        messageDigest.update(ascii, 0, length);
+    }
+
+    private void update(MessageDigest messageDigest, char[] text, boolean addColon) {
+        for (int i = 0; i < text.length; i++) {
+            ascii[i] = (byte) text[i];
+        }
+        int length = text.length;
+        if (addColon) {
+            ascii[length++] = (byte) ':';
+        }
+        messageDigest.update(ascii, 0, length);
+    }
+
+    // Writes the hash as 32 lower case hex digits, which is the form digest auth hashes it in again.
+    private boolean finish(MessageDigest messageDigest, byte[] hexOut) {
+        try {
+            messageDigest.digest(md5, 0, md5.length);
+        } catch (DigestException e) {
+            logger.error("DigestException error when calculating MD5 hash:{}", e.getMessage());
+            messageDigest.reset();
+            return false;
+        }
+        for (int i = 0; i < md5.length; i++) {
+            hexOut[i * 2] = (byte) HEX[(md5[i] >> 4) & 0xF];
+            hexOut[i * 2 + 1] = (byte) HEX[md5[i] & 0xF];
+        }
+        return true;
+    }
+}
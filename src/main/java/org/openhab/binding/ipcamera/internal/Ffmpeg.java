@@ -40,10 +40,11 @@ public class Ffmpeg {
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private IpCameraHandler ipCameraHandler;
     private @Nullable Process process = null;
-    private String ffmpegCommand = "", format = "";
+    private String ffmpegCommand = "", format = "", input = "";
     private String[] commandArray;
     private StreamRunning streamRunning = new StreamRunning();
     private int keepAlive = 60;
+    private @Nullable Runnable onExit = null;
     boolean running = false;
 
     public void setKeepAlive(int seconds) {
@@ -69,6 +70,7 @@ public class Ffmpeg {
     public Ffmpeg(IpCameraHandler handle, String format, String ffmpegLocation, String inputArguments, String input,
             String outArguments, String output, String username, String password) {
         this.format = format;
+        this.input = input;
         ipCameraHandler = handle;
         String altInput = input;
         // Input can be snapshots not just rtsp or http
@@ -81,6 +83,14 @@ public class Ffmpeg {
         commandArray = ffmpegCommand.trim().split("\\s+");
     }
 
+    /**
+     * @return the line for one file in a list read by FFmpeg's concat demuxer. A ' in the path would end the quoted
+     *         string, so it is closed, written as \' and opened again.
+     */
+    public static String concatLine(String path) {
+        return "file '" + path.replace("'", "'\\''") + "'";
+    }
+
     @NonNullByDefault
     private class StreamRunning extends Thread {
         public int countOfMotions = 0;
@@ -125,6 +135,14 @@ public class Ffmpeg {
             } catch (IOException e) {
                 logger.error("{}", e.toString());
             } finally {
+                // GIF and MP4 files end by themselves, anything else stopping that was not asked to is a crash.
+                if (running && !format.equals("GIF") && !format.equals("RECORD")) {
+                    ipCameraHandler.metrics.ffmpegExits.increment();
+                    ipCameraHandler.cachedUrlFailed(input);
+                }
+                if (running) {
+                    CameraEvents.ffmpeg(ipCameraHandler.getThing().getUID().getId(), format, "exit");
+                }
                 switch (format) {
                     case "GIF":
                         logger.debug("Animated GIF has been created and is ready for use.");
@@ -144,6 +162,11 @@ public class Ffmpeg {
                         ipCameraHandler.setChannelState(CHANNEL_RECORD_MP4, DecimalType.ZERO);
                         break;
                 }
+                Runnable exit = onExit;
+                onExit = null;
+                if (exit != null) {
+                    exit.run();
+                }
             }
         }
     }
@@ -154,6 +177,8 @@ public class Ffmpeg {
             logger.debug("Starting ffmpeg with this command now:{}", ffmpegCommand);
             streamRunning.start();
             running = true;
+            ipCameraHandler.metrics.ffmpegStarts.increment();
+            CameraEvents.ffmpeg(ipCameraHandler.getThing().getUID().getId(), format, "start");
             if (format.equals("HLS")) {
                 ipCameraHandler.setChannelState(CHANNEL_START_STREAM, OnOffType.valueOf("ON"));
                 if (keepAlive > -1) {
@@ -169,14 +194,35 @@ public class Ffmpeg {
         }
     }
 
+    /**
+     * Starts FFmpeg and runs onExit once it ends, for jobs such as GIF and RECORD that stop by themselves. If FFmpeg
+     * is already running nothing new is started, so onExit is run straight away.
+     */
+    public void startConverting(Runnable onExit) {
+        if (streamRunning.isAlive()) {
+            onExit.run();
+            return;
+        }
+        this.onExit = onExit;
+        startConverting();
+    }
+
     public boolean getIsAlive() {
         return running;
     }
 
+    /**
+     * @return false if FFmpeg has exited, even when it was not asked to stop.
+     */
+    public boolean isProcessAlive() {
+        return streamRunning.isAlive();
+    }
+
     public void stopConverting() {
         if (streamRunning.isAlive()) {
             logger.debug("Stopping ffmpeg now");
             running = false;
+            CameraEvents.ffmpeg(ipCameraHandler.getThing().getUID().getId(), format, "stop");
             if (process != null) {
                 process.destroyForcibly();
             }
@@ -0,0 +1,375 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link GifEncoder} is responsible for making an animated GIF from the snapshots kept for GIF_PREROLL, without
+ * saving them to disk or starting FFmpeg. Each snapshot is decoded at a reduced size, one palette of 256 colours is
+ * picked for the whole GIF with a median cut, and each frame is compressed on its own thread.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class GifEncoder {
+    // Colours are counted with 5 bits for each of red, green and blue.
+    private static final int COLOURS = 1 << 15;
+    private static final int PALETTE_SIZE = 256;
+    private static final int MAX_CODE = 4096;
+    private static final int HASH_SIZE = 5003;
+
+    private GifEncoder() {
+    }
+
+    private static class Frame {
+        final int[] pixels;
+        final int[] histogram = new int[COLOURS];
+
+        Frame(int[] pixels) {
+            this.pixels = pixels;
+            for (int rgb : pixels) {
+                histogram[colour(rgb)]++;
+            }
+        }
+    }
+
+    private static int colour(int rgb) {
+        return ((rgb >> 9) & 0x7C00) | ((rgb >> 6) & 0x03E0) | ((rgb >> 3) & 0x001F);
+    }
+
+    /**
+     * Writes the GIF to a temporary file next to the output and then renames it, so whatever is watching the file
+     * never reads one that is only part written.
+     *
+     * @param height the height of the GIF, the width keeps the shape of the first snapshot.
+     * @param delayMs how long each frame is shown for.
+     * @return how many frames were written, 0 if none of the snapshots could be decoded and no file was made.
+     */
+    public static int write(List<byte[]> snapshots, File output, int height, int delayMs, Executor executor)
+            throws IOException {
+        List<CompletableFuture<@Nullable Frame>> decoding = new ArrayList<>();
+        int[] size = null;
+        for (byte[] snapshot : snapshots) {
+            if (size == null) {
+                BufferedImage first = snapshot.length > 1 ? JpegScaler.decode(snapshot, 0, height) : null;
+                if (first == null) {
+                    continue;
+                }
+                int width = (int) Math.round((double) first.getWidth() * height / first.getHeight());
+                size = new int[] { Math.max(1, width), height };
+            }
+            int width = size[0];
+            decoding.add(CompletableFuture.supplyAsync(() -> decode(snapshot, width, height), executor));
+        }
+        List<Frame> frames = new ArrayList<>();
+        for (CompletableFuture<@Nullable Frame> future : decoding) {
+            Frame frame = join(future);
+            if (frame != null) {
+                frames.add(frame);
+            }
+        }
+        if (size == null || frames.isEmpty()) {
+            return 0;
+        }
+        int[] histogram = new int[COLOURS];
+        for (Frame frame : frames) {
+            for (int i = 0; i < COLOURS; i++) {
+                histogram[i] += frame.histogram[i];
+            }
+        }
+        int[] palette = palette(histogram);
+        byte[] lookup = lookup(histogram, palette);
+        List<CompletableFuture<byte[]>> compressing = new ArrayList<>();
+        for (Frame frame : frames) {
+            compressing.add(CompletableFuture.supplyAsync(() -> compress(frame.pixels, lookup), executor));
+        }
+        File temp = new File(output.getPath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), 65536)) {
+            writeHeader(out, size[0], size[1], palette);
+            int delay = Math.max(2, Math.min(65535, delayMs / 10));
+            for (CompletableFuture<byte[]> future : compressing) {
+                // Graphic control extension with the delay, then an image that fills the whole GIF.
+                out.write(new byte[] { 0x21, (byte) 0xF9, 4, 4, (byte) delay, (byte) (delay >> 8), 0, 0, 0x2C, 0, 0, 0,
+                        0, (byte) size[0], (byte) (size[0] >> 8), (byte) size[1], (byte) (size[1] >> 8), 0, 8 });
+                out.write(join(future));
+            }
+            out.write(0x3B);
+        }
+        Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return frames.size();
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw new IOException("Could not create the GIF", e.getCause());
+        }
+    }
+
+    private static @Nullable Frame decode(byte[] snapshot, int width, int height) {
+        BufferedImage picture;
+        try {
+            picture = snapshot.length > 1 ? JpegScaler.decode(snapshot, width, height) : null;
+        } catch (IOException e) {
+            return null;
+        }
+        if (picture == null) {
+            return null;
+        }
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(picture, 0, 0, width, height, null);
+        graphics.dispose();
+        return new Frame(scaled.getRGB(0, 0, width, height, null, 0, width));
+    }
+
+    /**
+     * Median cut: the box of colours with the most pixels is split in half along its widest channel until there are
+     * 256 boxes, and each box becomes the average of the pixels in it.
+     */
+    private static int[] palette(int[] histogram) {
+        int used = 0;
+        for (int count : histogram) {
+            if (count > 0) {
+                used++;
+            }
+        }
+        int[] colours = new int[used];
+        for (int i = 0, next = 0; i < COLOURS; i++) {
+            if (histogram[i] > 0) {
+                colours[next++] = i;
+            }
+        }
+        List<int[]> boxes = new ArrayList<>();
+        boxes.add(new int[] { 0, used });
+        while (boxes.size() < PALETTE_SIZE) {
+            int[] largest = null;
+            long largestPixels = 0;
+            for (int[] box : boxes) {
+                long pixels = 0;
+                for (int i = box[0]; i < box[1]; i++) {
+                    pixels += histogram[colours[i]];
+                }
+                if (box[1] - box[0] > 1 && pixels > largestPixels) {
+                    largest = box;
+                    largestPixels = pixels;
+                }
+            }
+            if (largest == null) {
+                break;
+            }
+            int shift = widestChannel(colours, largest[0], largest[1]);
+            // Sorts by the channel by putting it in the top bits, then takes them off again.
+            for (int i = largest[0]; i < largest[1]; i++) {
+                colours[i] |= ((colours[i] >> shift) & 0x1F) << 15;
+            }
+            Arrays.sort(colours, largest[0], largest[1]);
+            long counted = 0;
+            int split = largest[1] - 1;
+            for (int i = largest[0]; i < largest[1]; i++) {
+                colours[i] &= 0x7FFF;
+                counted += histogram[colours[i]];
+                if (counted * 2 >= largestPixels && split == largest[1] - 1) {
+                    split = Math.max(largest[0] + 1, Math.min(i + 1, largest[1] - 1));
+                }
+            }
+            boxes.add(new int[] { split, largest[1] });
+            largest[1] = split;
+        }
+        int[] palette = new int[boxes.size()];
+        for (int b = 0; b < boxes.size(); b++) {
+            long red = 0, green = 0, blue = 0, pixels = 0;
+            for (int i = boxes.get(b)[0]; i < boxes.get(b)[1]; i++) {
+                int count = histogram[colours[i]];
+                red += ((colours[i] >> 10) & 0x1F) * (long) count;
+                green += ((colours[i] >> 5) & 0x1F) * (long) count;
+                blue += (colours[i] & 0x1F) * (long) count;
+                pixels += count;
+            }
+            pixels = Math.max(1, pixels);
+            palette[b] = (int) ((red * 255 / 31 / pixels) << 16 | (green * 255 / 31 / pixels) << 8
+                    | (blue * 255 / 31 / pixels));
+        }
+        return palette;
+    }
+
+    private static int widestChannel(int[] colours, int from, int to) {
+        int bestShift = 0, bestRange = -1;
+        for (int shift = 0; shift <= 10; shift += 5) {
+            int min = 31, max = 0;
+            for (int i = from; i < to; i++) {
+                int value = (colours[i] >> shift) & 0x1F;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > bestRange) {
+                bestRange = max - min;
+                bestShift = shift;
+            }
+        }
+        return bestShift;
+    }
+
+    // The nearest palette entry for every colour that is used in the GIF.
+    private static byte[] lookup(int[] histogram, int[] palette) {
+        byte[] lookup = new byte[COLOURS];
+        for (int i = 0; i < COLOURS; i++) {
+            if (histogram[i] == 0) {
+                continue;
+            }
+            int red = ((i >> 10) & 0x1F) * 255 / 31, green = ((i >> 5) & 0x1F) * 255 / 31, blue = (i & 0x1F) * 255 / 31;
+            int best = 0, bestDistance = Integer.MAX_VALUE;
+            for (int p = 0; p < palette.length; p++) {
+                int dr = red - ((palette[p] >> 16) & 0xFF), dg = green - ((palette[p] >> 8) & 0xFF),
+                        db = blue - (palette[p] & 0xFF);
+                int distance = dr * dr + dg * dg + db * db;
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = p;
+                }
+            }
+            lookup[i] = (byte) best;
+        }
+        return lookup;
+    }
+
+    private static void writeHeader(OutputStream out, int width, int height, int[] palette) throws IOException {
+        out.write("GIF89a".getBytes(StandardCharsets.US_ASCII));
+        // A global colour table of 256 entries follows the screen size.
+        out.write(new byte[] { (byte) width, (byte) (width >> 8), (byte) height, (byte) (height >> 8), (byte) 0xF7, 0,
+                0 });
+        byte[] table = new byte[PALETTE_SIZE * 3];
+        for (int i = 0; i < palette.length; i++) {
+            table[i * 3] = (byte) (palette[i] >> 16);
+            table[i * 3 + 1] = (byte) (palette[i] >> 8);
+            table[i * 3 + 2] = (byte) palette[i];
+        }
+        out.write(table);
+        // Loops forever, the same as FFmpeg's GIFs.
+        out.write(new byte[] { 0x21, (byte) 0xFF, 11 });
+        out.write("NETSCAPE2.0".getBytes(StandardCharsets.US_ASCII));
+        out.write(new byte[] { 3, 1, 0, 0, 0 });
+    }
+
+    /**
+     * LZW compresses one frame's palette indexes the way GIF needs, starting at 9 bit codes, in blocks of up to 255
+     * bytes.
+     */
+    static byte[] compress(int[] pixels, byte[] lookup) {
+        BlockWriter out = new BlockWriter(pixels.length / 2);
+        int clear = PALETTE_SIZE, end = PALETTE_SIZE + 1;
+        int[] keys = new int[HASH_SIZE];
+        int[] codes = new int[HASH_SIZE];
+        Arrays.fill(keys, -1);
+        int codeSize = 9, nextCode = end + 1;
+        out.write(clear, codeSize);
+        int prefix = pixels.length == 0 ? 0 : lookup[colour(pixels[0])] & 0xFF;
+        for (int i = 1; i < pixels.length; i++) {
+            int index = lookup[colour(pixels[i])] & 0xFF;
+            int key = (prefix << 8) | index;
+            int slot = (key * 31 + index) % HASH_SIZE;
+            while (keys[slot] != -1 && keys[slot] != key) {
+                slot = (slot + 1) % HASH_SIZE;
+            }
+            if (keys[slot] == key) {
+                prefix = codes[slot];
+                continue;
+            }
+            out.write(prefix, codeSize);
+            if (nextCode < MAX_CODE) {
+                keys[slot] = key;
+                codes[slot] = nextCode++;
+                if (nextCode > (1 << codeSize) && codeSize < 12) {
+                    codeSize++;
+                }
+            } else {
+                out.write(clear, codeSize);
+                Arrays.fill(keys, -1);
+                codeSize = 9;
+                nextCode = end + 1;
+            }
+            prefix = index;
+        }
+        out.write(prefix, codeSize);
+        out.write(end, codeSize);
+        return out.finish();
+    }
+
+    private static class BlockWriter {
+        private final ByteArrayOutputStream bytes;
+        private final byte[] block = new byte[255];
+        private int blockLength = 0;
+        private int bits = 0;
+        private int bitCount = 0;
+
+        BlockWriter(int expectedSize) {
+            bytes = new ByteArrayOutputStream(Math.max(1024, expectedSize));
+        }
+
+        void write(int code, int size) {
+            bits |= code << bitCount;
+            bitCount += size;
+            while (bitCount >= 8) {
+                add(bits & 0xFF);
+                bits >>>= 8;
+                bitCount -= 8;
+            }
+        }
+
+        private void add(int value) {
+            block[blockLength++] = (byte) value;
+            if (blockLength == block.length) {
+                bytes.write(blockLength);
+                bytes.write(block, 0, blockLength);
+                blockLength = 0;
+            }
+        }
+
+        byte[] finish() {
+            if (bitCount > 0) {
+                add(bits & 0xFF);
+            }
+            if (blockLength > 0) {
+                bytes.write(blockLength);
+                bytes.write(block, 0, blockLength);
+            }
+            bytes.write(0);
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.ipcamera.internal.CameraHlsPlaylist.Segment;
+
+/**
+ * The {@link GroupHlsPlaylist} is responsible for the live playlist of a group, made from segments of whichever
+ * camera is being shown. A discontinuity is marked each time the segments come from a different camera or skip
+ * ahead, and the media and discontinuity sequences count what has been removed from the front, as HLS players
+ * expect. The playlist text is only built again after it has changed.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class GroupHlsPlaylist {
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    // The last segment added from each camera by thing UID, so the same one is never added twice. Cameras can join
+    // and leave the group while it runs, so their place in the group can not be used for this.
+    private final Map<String, Segment> lastAdded = new HashMap<>();
+    private @Nullable Entry newest = null;
+    private double totalDuration = 0;
+    private long mediaSequence = 0;
+    private long discontinuitySequence = 0;
+    private @Nullable String text = null;
+
+    private static class Entry {
+        final String camera;
+        final Segment segment;
+        final boolean discontinuity;
+
+        Entry(String camera, Segment segment, boolean discontinuity) {
+            this.camera = camera;
+            this.segment = segment;
+            this.discontinuity = discontinuity;
+        }
+    }
+
+    /**
+     * Adds the segments that have not been added before, then removes the oldest until what is left lasts
+     * windowSeconds.
+     *
+     * @param camera the camera's thing UID, which is put in front of each file name so the server knows which folder
+     *            to find it in.
+     */
+    public synchronized void add(String camera, List<Segment> segments, double windowSeconds) {
+        Segment last = lastAdded.get(camera);
+        for (Segment segment : segments) {
+            if (last != null && segment.restart == last.restart && segment.sequence <= last.sequence) {
+                continue;
+            }
+            Entry previous = newest;
+            boolean discontinuity = previous == null || !previous.camera.equals(camera)
+                    || previous.segment.restart != segment.restart
+                    || previous.segment.sequence + 1 != segment.sequence;
+            Entry entry = new Entry(camera, segment, discontinuity);
+            entries.addLast(entry);
+            newest = entry;
+            totalDuration += segment.duration;
+            lastAdded.put(camera, segment);
+            last = segment;
+            text = null;
+        }
+        while (entries.size() > 3 && totalDuration - entries.getFirst().segment.duration >= windowSeconds) {
+            removeFirst();
+        }
+    }
+
+    private void removeFirst() {
+        Entry removed = entries.removeFirst();
+        totalDuration -= removed.segment.duration;
+        mediaSequence++;
+        if (removed.discontinuity) {
+            discontinuitySequence++;
+        }
+        if (entries.isEmpty()) {
+            newest = null;
+            totalDuration = 0;
+        }
+        text = null;
+    }
+
+    /**
+     * Empties the playlist, the sequences carry on so a player that is still connected is not confused.
+     */
+    public synchronized void clear() {
+        while (!entries.isEmpty()) {
+            removeFirst();
+        }
+        lastAdded.clear();
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    @Override
+    public synchronized String toString() {
+        String playlist = text;
+        if (playlist != null) {
+            return playlist;
+        }
+        double longest = 1;
+        for (Entry entry : entries) {
+            longest = Math.max(longest, entry.segment.duration);
+        }
+        StringBuilder builder = new StringBuilder(128 + entries.size() * 64);
+        builder.append("#EXTM3U\n#EXT-X-VERSION:6\n#EXT-X-TARGETDURATION:").append((long) Math.ceil(longest))
+                .append("\n#EXT-X-ALLOW-CACHE:NO\n#EXT-X-DISCONTINUITY-SEQUENCE:").append(discontinuitySequence)
+                .append("\n#EXT-X-MEDIA-SEQUENCE:").append(mediaSequence).append('\n');
+        for (Entry entry : entries) {
+            if (entry.discontinuity) {
+                builder.append("#EXT-X-DISCONTINUITY\n");
+            }
+            builder.append("#EXTINF:").append(entry.segment.durationText).append(",\n").append('/')
+                    .append(entry.camera).append('/').append(entry.segment.uri).append('\n');
+        }
+        playlist = builder.toString();
+        text = playlist;
+        return playlist;
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link GroupMosaic} is responsible for joining the snapshots of a group's cameras into one picture, laid out as
+ * a grid of 1, 4, 9 or 16 tiles, so a low powered display only has to decode one picture. Each tile keeps its own
+ * image that is drawn into again, and only tiles whose camera has a new snapshot are decoded and scaled, which is
+ * done on a small pool of threads. If no tile changed, the last JPEG is given again without encoding anything.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class GroupMosaic {
+    public static final int MAX_TILES = 16;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final int width;
+    private final int height;
+    private final int quality;
+    private final ExecutorService pool;
+    private final BufferedImage canvas;
+    private Tile[] tiles = new Tile[0];
+    private byte[] jpeg = new byte[0];
+
+    private static class Tile {
+        final int x;
+        final int y;
+        final BufferedImage image;
+        // The snapshot that is drawn in the tile, snapshots are never changed once made so the array is compared.
+        byte[] source = new byte[0];
+
+        Tile(int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+    }
+
+    /**
+     * @param quality JPEG quality from 1 to 100, or 0 to use the encoder's default.
+     */
+    public GroupMosaic(int width, int height, int quality) {
+        this.width = Math.max(16, width);
+        this.height = Math.max(16, height);
+        this.quality = quality;
+        canvas = new BufferedImage(this.width, this.height, BufferedImage.TYPE_INT_RGB);
+        pool = Executors.newFixedThreadPool(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+    }
+
+    /**
+     * @param snapshots the newest snapshot of each camera in the order they are shown. Cameras after the first
+     *            {@value #MAX_TILES} are left out.
+     * @return the mosaic, which is the same array as last time if none of the snapshots changed.
+     */
+    public synchronized byte[] compose(List<byte[]> snapshots) throws IOException {
+        int count = Math.min(MAX_TILES, snapshots.size());
+        int columns = Math.max(1, (int) Math.ceil(Math.sqrt(count)));
+        if (tiles.length != columns * columns) {
+            layout(columns);
+        }
+        List<Tile> changed = new ArrayList<>();
+        List<byte[]> sources = new ArrayList<>();
+        List<Future<?>> jobs = new ArrayList<>();
+        for (int index = 0; index < tiles.length; index++) {
+            Tile tile = tiles[index];
+            byte[] snapshot = index < count ? snapshots.get(index) : new byte[0];
+            if (snapshot == tile.source || (snapshot.length <= 1 && tile.source.length <= 1)) {
+                continue;
+            }
+            changed.add(tile);
+            sources.add(snapshot);
+            jobs.add(pool.submit(() -> {
+                draw(tile, snapshot);
+                return Boolean.TRUE;
+            }));
+        }
+        if (changed.isEmpty() && jpeg.length > 0) {
+            return jpeg;
+        }
+        List<Tile> drawn = new ArrayList<>(changed.size());
+        for (int index = 0; index < jobs.size(); index++) {
+            try {
+                jobs.get(index).get();
+                // Only now is the tile known to show the snapshot, a failed one is tried again next time.
+                Tile tile = changed.get(index);
+                tile.source = sources.get(index);
+                drawn.add(tile);
+            } catch (ExecutionException e) {
+                logger.debug("Could not draw a camera into the mosaic: {}", e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return jpeg;
+            }
+        }
+        if (drawn.isEmpty() && jpeg.length > 0) {
+            return jpeg;
+        }
+        Graphics2D graphics = canvas.createGraphics();
+        try {
+            for (Tile tile : drawn) {
+                graphics.drawImage(tile.image, tile.x, tile.y, null);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        byte[] encoded = JpegScaler.encode(canvas, quality, jpeg.length);
+        if (encoded.length > 0) {
+            jpeg = encoded;
+        }
+        return jpeg;
+    }
+
+    private void layout(int columns) {
+        Tile[] newTiles = new Tile[columns * columns];
+        for (int row = 0; row < columns; row++) {
+            for (int column = 0; column < columns; column++) {
+                int x = column * width / columns, y = row * height / columns;
+                newTiles[row * columns + column] = new Tile(x, y, (column + 1) * width / columns - x,
+                        (row + 1) * height / columns - y);
+            }
+        }
+        tiles = newTiles;
+        jpeg = new byte[0];
+        Graphics2D graphics = canvas.createGraphics();
+        graphics.setColor(Color.BLACK);
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+    }
+
+    // Runs on the pool. The picture keeps its shape and is centred in the tile with black bars.
+    private static void draw(Tile tile, byte[] snapshot) throws IOException {
+        int tileWidth = tile.image.getWidth(), tileHeight = tile.image.getHeight();
+        BufferedImage picture = snapshot.length > 1 ? JpegScaler.decode(snapshot, tileWidth, tileHeight) : null;
+        Graphics2D graphics = tile.image.createGraphics();
+        try {
+            graphics.setColor(Color.BLACK);
+            graphics.fillRect(0, 0, tileWidth, tileHeight);
+            if (picture == null) {
+                return;
+            }
+            double scale = Math.min((double) tileWidth / picture.getWidth(), (double) tileHeight / picture.getHeight());
+            int drawWidth = Math.max(1, (int) Math.round(picture.getWidth() * scale));
+            int drawHeight = Math.max(1, (int) Math.round(picture.getHeight() * scale));
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(picture, (tileWidth - drawWidth) / 2, (tileHeight - drawHeight) / 2, drawWidth,
+                    drawHeight, null);
+        } finally {
+            graphics.dispose();
+        }
+    }
+
+    public void close() {
+        pool.shutdownNow();
+    }
+}
@@ -20,14 +20,15 @@
 
 package org.openhab.binding.ipcamera.internal;
 
-import static org.openhab.binding.ipcamera.IpCameraBindingConstants.CONFIG_IPADDRESS;
+import static org.openhab.binding.ipcamera.IpCameraBindingConstants.*;
 
-import java.io.IOException;
-import java.net.URL;
-import java.net.URLConnection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.io.IOUtils;
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.smarthome.config.discovery.AbstractDiscoveryService;
 import org.eclipse.smarthome.config.discovery.DiscoveryResult;
@@ -36,13 +37,14 @@ import org.eclipse.smarthome.config.discovery.DiscoveryService;
 import org.eclipse.smarthome.core.thing.ThingTypeUID;
 import org.eclipse.smarthome.core.thing.ThingUID;
 import org.openhab.binding.ipcamera.handler.IpCameraHandler;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import be.teletask.onvif.DiscoveryManager;
-import be.teletask.onvif.listeners.DiscoveryListener;
-import be.teletask.onvif.models.Device;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
 
 /**
  * The {@link IpCameraDiscoveryService} is responsible for auto finding cameras that have Onvif
@@ -55,92 +57,204 @@ import be.teletask.onvif.models.Device;
 @Component(service = DiscoveryService.class, immediate = true, configurationPid = "binding.ipcamera")
 public class IpCameraDiscoveryService extends AbstractDiscoveryService {
 
+    private static final int WS_DISCOVERY_LISTEN_MS = 4000;
+    private static final int BACKGROUND_SCAN_MINUTES = 5;
     private final Logger logger = LoggerFactory.getLogger(IpCameraDiscoveryService.class);
-    public @Nullable List<Device> devices2 = null;
-    private int numberOfCameras = 0;
+    private final AtomicInteger numberOfCameras = new AtomicInteger();
+    // Keyed by IP so a camera keeps the same thing UID every time it is found.
+    private final Map<String, Integer> cameraNumbers = new ConcurrentHashMap<>();
+    private final Map<String, String> knownBrands = new ConcurrentHashMap<>();
+    private @Nullable EventLoopGroup discoveryLoopGroup = null;
+    private @Nullable CameraBrandProbe brandProbe = null;
+    private @Nullable ScheduledFuture<?> backgroundJob = null;
+    private @Nullable SubnetScanner subnetScanner = null;
+    private String subnetScan = "";
+    private int subnetScanRate = 500;
 
     public IpCameraDiscoveryService() {
         super(IpCameraHandler.SUPPORTED_THING_TYPES, 30, false);
     }
 
     @Override
-    protected void startBackgroundDiscovery() {
+    @Activate
+    protected void activate(@Nullable Map<String, @Nullable Object> configProperties) {
+        super.activate(configProperties);
+        readConfig(configProperties);
+    }
+
+    @Override
+    @Modified
+    protected void modified(@Nullable Map<String, @Nullable Object> configProperties) {
+        super.modified(configProperties);
+        readConfig(configProperties);
+    }
+
+    private void readConfig(@Nullable Map<String, @Nullable Object> configProperties) {
+        if (configProperties == null) {
+            return;
+        }
+        Object value = configProperties.get(CONFIG_SUBNET_SCAN);
+        subnetScan = (value == null) ? "" : value.toString().trim();
+        value = configProperties.get(CONFIG_SUBNET_SCAN_RATE);
+        try {
+            subnetScanRate = (value == null) ? 500 : Integer.parseInt(value.toString());
+        } catch (NumberFormatException e) {
+            logger.warn("{} must be a number, using 500.", CONFIG_SUBNET_SCAN_RATE);
+            subnetScanRate = 500;
+        }
+    }
 
+    private synchronized EventLoopGroup getEventLoopGroup() {
+        EventLoopGroup group = discoveryLoopGroup;
+        if (group == null) {
+            group = new NioEventLoopGroup(1);
+            discoveryLoopGroup = group;
+            brandProbe = new CameraBrandProbe(group);
+        }
+        return group;
+    }
+
+    @Override
+    protected void startBackgroundDiscovery() {
+        ScheduledFuture<?> job = backgroundJob;
+        if (job == null || job.isCancelled()) {
+            backgroundJob = scheduler.scheduleWithFixedDelay(() -> {
+                findCameras(true);
+                scanSubnets();
+            }, 0, BACKGROUND_SCAN_MINUTES, TimeUnit.MINUTES);
+        }
     };
 
     @Override
-    protected void deactivate() {
-        super.deactivate();
+    protected void stopBackgroundDiscovery() {
+        ScheduledFuture<?> job = backgroundJob;
+        if (job != null) {
+            job.cancel(true);
+            backgroundJob = null;
+        }
     }
 
-    private String getCameraBrand(String hostname) throws IOException {
-        URL url = new URL(hostname);
-        URLConnection connection = url.openConnection();
-        connection.setConnectTimeout(2000);
-        connection.setReadTimeout(2000);
-        try {
-            connection.connect();
-            logger.debug("Getting stream now");
-            String response = IOUtils.toString(connection.getInputStream());
-            logger.trace("Camera response:{}", response);
-            if (response.contains("amcrest")) {
-                return "DAHUA";
-            } else if (response.contains("dahua")) {
-                return "DAHUA";
-            } else if (response.contains("foscam")) {
-                return "FOSCAM";
-            } else if (response.contains("/doc/page/login.asp")) {
-                return "HIKVISION";
-            } else if (response.contains("instar")) {
-                return "INSTAR";
+    @Override
+    protected void deactivate() {
+        stopBackgroundDiscovery();
+        super.deactivate();
+        synchronized (this) {
+            if (subnetScanner != null) {
+                subnetScanner.stop();
+                subnetScanner = null;
+            }
+            if (brandProbe != null) {
+                brandProbe.cancel();
+                brandProbe = null;
+            }
+            if (discoveryLoopGroup != null) {
+                discoveryLoopGroup.shutdownGracefully();
+                discoveryLoopGroup = null;
             }
-            return "ONVIF";// generic camera
-        } finally {
-            logger.debug("Closing inputstream now");
-            IOUtils.closeQuietly(connection.getInputStream());
         }
     }
 
-    private void newCameraFound(String brand, String hostname) {
+    private void newCameraFound(String brand, String ipAddress) {
+        newCameraFound(brand, ipAddress, 80);
+    }
+
+    private void newCameraFound(String brand, String ipAddress, int httpPort) {
+        int number = cameraNumbers.computeIfAbsent(ipAddress, ip -> numberOfCameras.incrementAndGet());
         ThingTypeUID thingtypeuid = new ThingTypeUID("ipcamera", brand);
-        ThingUID thingUID = new ThingUID(thingtypeuid, "Camera" + ++numberOfCameras);
+        ThingUID thingUID = new ThingUID(thingtypeuid, "Camera" + number);
         DiscoveryResult discoveryResult = DiscoveryResultBuilder.create(thingUID)
-                .withProperty(CONFIG_IPADDRESS, hostname.substring(7))
-                .withLabel(brand + " Camera" + numberOfCameras + " @ " + hostname.substring(7)).build();
+                .withProperty(CONFIG_IPADDRESS, ipAddress).withProperty(CONFIG_PORT, httpPort)
+                .withLabel(brand + " Camera" + number + " @ " + ipAddress).build();
         thingDiscovered(discoveryResult);
     }
 
-    private void findCameras() {
-
-        DiscoveryManager manager = new DiscoveryManager();
-        manager.setDiscoveryTimeout(10000);
-        manager.discover(new DiscoveryListener() {
-
-            @Override
-            public void onDiscoveryStarted() {
-                logger.info("IpCameraDiscovery started");
+    // In the background only cameras that have not been seen before are fingerprinted, the rest are just refreshed.
+    private void findCameras(boolean background) {
+        EventLoopGroup group = getEventLoopGroup();
+        CameraBrandProbe localProbe = brandProbe;
+        if (localProbe == null) {
+            return;
+        }
+        logger.debug("IpCameraDiscovery started");
+        new OnvifDiscovery(group).discover(WS_DISCOVERY_LISTEN_MS, (ipAddress, onvifUrl, scopes) -> {
+            String brand = knownBrands.get(ipAddress);
+            if (background && brand != null) {
+                newCameraFound(brand, ipAddress);
+                return;
             }
+            localProbe.probe(ipAddress, 80, onvifUrl, scopes, (ip, httpPort, foundBrand) -> {
+                cameraFound(ip, foundBrand.isEmpty() ? "ONVIF" : foundBrand, httpPort);// ONVIF is a generic camera
+            });
+        });
+    }
 
-            @Override
-            public void onDevicesFound(List<Device> devices) {
-                for (Device device : devices) {
-                    logger.info("Device found Hostname:{}", device.getHostName());
-                    try {
-                        String brand;
-                        brand = getCameraBrand(device.getHostName());
-                        newCameraFound(brand, device.getHostName());
-                    } catch (IOException e) {
-                        logger.debug("Error trying to fetch cameras login page:{}", e);
-                    }
-                }
+    // Finds cameras with ONVIF turned off. Anything WS-Discovery already found keeps the brand it was given.
+    private synchronized void scanSubnets() {
+        if (subnetScan.isEmpty()) {
+            return;
+        }
+        EventLoopGroup group = getEventLoopGroup();
+        CameraBrandProbe localProbe = brandProbe;
+        if (localProbe == null) {
+            return;
+        }
+        if (subnetScanner != null) {
+            subnetScanner.stop();
+        }
+        SubnetScanner scanner = new SubnetScanner(group, subnetScan, subnetScanRate, (ipAddress, openPorts) -> {
+            int httpPort = getHttpPort(openPorts);
+            String brand = knownBrands.get(ipAddress);
+            if (brand != null) {
+                newCameraFound(brand, ipAddress, (httpPort == -1) ? 80 : httpPort);
+                return;
+            }
+            if (httpPort == -1) {
+                // only RTSP is open, so nothing can be learnt over HTTP.
+                cameraFound(ipAddress, "HTTPONLY", 80);
+                return;
             }
+            localProbe.probe(ipAddress, httpPort, "", "", (ip, port, foundBrand) -> {
+                if (foundBrand.isEmpty() && !openPorts.contains(SubnetScanner.RTSP_PORT)) {
+                    logger.trace("{} has a web server but does not look like a camera.", ip);
+                    return;
+                }
+                cameraFound(ip, foundBrand.isEmpty() ? "HTTPONLY" : foundBrand, port);
+            });
         });
+        if (!scanner.hasRanges()) {
+            logger.warn("{} does not contain any valid CIDR ranges:{}", CONFIG_SUBNET_SCAN, subnetScan);
+            return;
+        }
+        subnetScanner = scanner;
+        scanner.start();
+    }
+
+    private static int getHttpPort(List<Integer> openPorts) {
+        // 8000 is last as on some brands it is not HTTP.
+        for (int port : new int[] { 80, 8080, 8000 }) {
+            if (openPorts.contains(port)) {
+                return port;
+            }
+        }
+        return -1;
+    }
+
+    // WS-Discovery and the subnet scan both report here, so an address is only ever offered with one brand.
+    private void cameraFound(String ipAddress, String thingType, int httpPort) {
+        String existing = knownBrands.putIfAbsent(ipAddress, thingType);
+        if (existing == null) {
+            logger.info("Camera found at {}:{}, brand is {}", ipAddress, httpPort, thingType);
+            newCameraFound(thingType, ipAddress, httpPort);
+        } else {
+            // Found twice in one scan, or probed again by a manual scan. Keep the brand it was first given.
+            newCameraFound(existing, ipAddress, httpPort);
+        }
     }
 
     @Override
     protected void startScan() {
         removeOlderResults(getTimestampOfLastScan());
-        numberOfCameras = 0;
-        findCameras();
+        findCameras(false);
+        scanSubnets();
     }
 }
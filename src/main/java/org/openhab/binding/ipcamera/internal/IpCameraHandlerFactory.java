@@ -13,6 +13,10 @@
 
 package org.openhab.binding.ipcamera.internal;
 
+import static org.openhab.binding.ipcamera.IpCameraBindingConstants.CONFIG_MEDIA_JOBS;
+
+import java.util.Map;
+
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.smarthome.core.thing.Thing;
@@ -22,7 +26,13 @@ import org.eclipse.smarthome.core.thing.binding.ThingHandler;
 import org.eclipse.smarthome.core.thing.binding.ThingHandlerFactory;
 import org.openhab.binding.ipcamera.handler.IpCameraGroupHandler;
 import org.openhab.binding.ipcamera.handler.IpCameraHandler;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * The {@link IpCameraHandlerFactory} is responsible for creating things and thing
@@ -33,6 +43,37 @@ import org.osgi.service.component.annotations.Component;
 @Component(service = ThingHandlerFactory.class, immediate = true, configurationPid = "binding.ipcamera")
 @NonNullByDefault
 public class IpCameraHandlerFactory extends BaseThingHandlerFactory {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Override
+    @Activate
+    protected void activate(ComponentContext componentContext) {
+        super.activate(componentContext);
+        readConfig(componentContext.getProperties().get(CONFIG_MEDIA_JOBS));
+    }
+
+    @Override
+    @Deactivate
+    protected void deactivate(ComponentContext componentContext) {
+        IpCameraHandler.MEDIA_JOBS.shutdown();
+        super.deactivate(componentContext);
+    }
+
+    @Modified
+    protected void modified(@Nullable Map<String, @Nullable Object> configProperties) {
+        if (configProperties != null) {
+            readConfig(configProperties.get(CONFIG_MEDIA_JOBS));
+        }
+    }
+
+    private void readConfig(@Nullable Object mediaJobs) {
+        try {
+            IpCameraHandler.MEDIA_JOBS.setLimit((mediaJobs == null) ? 2 : Integer.parseInt(mediaJobs.toString()));
+        } catch (NumberFormatException e) {
+            logger.warn("{} must be a number, using 2.", CONFIG_MEDIA_JOBS);
+            IpCameraHandler.MEDIA_JOBS.setLimit(2);
+        }
+    }
 
     @Override
     public boolean supportsThingType(ThingTypeUID thingTypeUID) {
@@ -0,0 +1,221 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * The {@link JfrCameraEvents} is responsible for the Java Flight Recorder event types. Only {@link CameraEvents} may
+ * use this class, as loading it on a JVM without JFR will fail.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+final class JfrCameraEvents {
+    private JfrCameraEvents() {
+    }
+
+    @Name("org.openhab.binding.ipcamera.HttpRequest")
+    @Label("Camera HTTP Request")
+    @Description("A request sent to a camera, with how long it took to connect if a new channel was opened. "
+            + "Connected is false when the connect failed and nothing was sent.")
+    @Category({ "openHAB", "IpCamera" })
+    @StackTrace(false)
+    static class HttpRequestEvent extends Event {
+        @Label("Camera")
+        String camera = "";
+        @Label("Method")
+        String method = "";
+        @Label("URL")
+        String url = "";
+        @Label("Reused Channel")
+        boolean reused;
+        @Label("Connected")
+        boolean connected;
+        @Label("Connect Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long connectTime;
+    }
+
+    @Name("org.openhab.binding.ipcamera.Snapshot")
+    @Label("Camera Snapshot")
+    @Description("A JPEG that has been fully received from a camera.")
+    @Category({ "openHAB", "IpCamera" })
+    @StackTrace(false)
+    static class SnapshotEvent extends Event {
+        @Label("Camera")
+        String camera = "";
+        @Label("URL")
+        String url = "";
+        @Label("Size")
+        @DataAmount
+        int size;
+        @Label("Fetch Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long fetchTime;
+    }
+
+    @Name("org.openhab.binding.ipcamera.DigestChallenge")
+    @Label("Camera Digest Challenge")
+    @Description("A camera replied 401 with a digest challenge.")
+    @Category({ "openHAB", "IpCamera" })
+    @StackTrace(false)
+    static class DigestChallengeEvent extends Event {
+        @Label("Camera")
+        String camera = "";
+        @Label("URL")
+        String url = "";
+        @Label("Realm")
+        String realm = "";
+        @Label("Stale Nonce")
+        boolean stale;
+    }
+
+    @Name("org.openhab.binding.ipcamera.Ffmpeg")
+    @Label("FFmpeg Process")
+    @Description("An FFmpeg process was started, stopped, or exited by itself.")
+    @Category({ "openHAB", "IpCamera" })
+    @StackTrace(false)
+    static class FfmpegEvent extends Event {
+        @Label("Camera")
+        String camera = "";
+        @Label("Format")
+        String format = "";
+        @Label("Action")
+        String action = "";
+    }
+
+    @Name("org.openhab.binding.ipcamera.StreamServerRequest")
+    @Label("Stream Server Request")
+    @Description("A GET request to a camera's stream server. Streams are counted until they are set up, not until they end.")
+    @Category({ "openHAB", "IpCamera" })
+    @StackTrace(false)
+    static class ServerRequestEvent extends Event {
+        @Label("Camera")
+        String camera = "";
+        @Label("Path")
+        String path = "";
+        @Label("Client")
+        String client = "";
+    }
+
+    @Name("org.openhab.binding.ipcamera.LockHeld")
+    @Label("Camera Lock Held")
+    @Description("A camera's channel tracking or snapshot lock was held for longer than the threshold.")
+    @Category({ "openHAB", "IpCamera" })
+    @Threshold("1 ms")
+    static class LockHeldEvent extends Event {
+        @Label("Camera")
+        String camera = "";
+        @Label("Lock")
+        String lock = "";
+    }
+
+    static void httpRequest(String camera, String method, String url, boolean reused, boolean connected,
+            long connectNanos) {
+        HttpRequestEvent event = new HttpRequestEvent();
+        if (event.shouldCommit()) {
+            event.camera = camera;
+            event.method = method;
+            event.url = url;
+            event.reused = reused;
+            event.connected = connected;
+            event.connectTime = connectNanos;
+            event.commit();
+        }
+    }
+
+    static void snapshotReceived(String camera, String url, int bytes, long durationNanos) {
+        SnapshotEvent event = new SnapshotEvent();
+        if (event.shouldCommit()) {
+            event.camera = camera;
+            event.url = url;
+            event.size = bytes;
+            event.fetchTime = durationNanos;
+            event.commit();
+        }
+    }
+
+    static void digestChallenge(String camera, String url, String realm, boolean stale) {
+        DigestChallengeEvent event = new DigestChallengeEvent();
+        if (event.shouldCommit()) {
+            event.camera = camera;
+            event.url = url;
+            event.realm = realm;
+            event.stale = stale;
+            event.commit();
+        }
+    }
+
+    static void ffmpeg(String camera, String format, String action) {
+        FfmpegEvent event = new FfmpegEvent();
+        if (event.shouldCommit()) {
+            event.camera = camera;
+            event.format = format;
+            event.action = action;
+            event.commit();
+        }
+    }
+
+    static @Nullable Object beginServerRequest() {
+        ServerRequestEvent event = new ServerRequestEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void endServerRequest(Object begun, String camera, String path, String client) {
+        ServerRequestEvent event = (ServerRequestEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.camera = camera;
+            event.path = path;
+            event.client = client;
+            event.commit();
+        }
+    }
+
+    static @Nullable Object beginLockHold() {
+        LockHeldEvent event = new LockHeldEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void endLockHold(Object begun, String camera, String lock) {
+        LockHeldEvent event = (LockHeldEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.camera = camera;
+            event.lock = lock;
+            event.commit();
+        }
+    }
+}
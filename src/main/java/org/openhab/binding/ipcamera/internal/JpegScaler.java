@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link JpegScaler} is responsible for making smaller copies of a camera's JPEG for clients that do not need the
+ * full picture, such as a phone on a slow connection.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class JpegScaler {
+    private JpegScaler() {
+    }
+
+    /**
+     * The width a client asked for with ?width= or ?w=, or 0 if it did not ask.
+     */
+    public static int requestedWidth(Map<String, List<String>> parameters) {
+        int width = (int) Math.min(7680, Math.max(0, number(parameters, "width", "w")));
+        return width > 0 ? Math.max(16, width) : 0;
+    }
+
+    /**
+     * The JPEG quality a client asked for with ?quality= or ?q=, or 0 if it did not ask.
+     */
+    public static int requestedQuality(Map<String, List<String>> parameters) {
+        return (int) Math.min(100, Math.max(0, number(parameters, "quality", "q")));
+    }
+
+    static double number(Map<String, List<String>> parameters, String... names) {
+        for (String name : names) {
+            List<String> values = parameters.get(name);
+            if (values != null && !values.isEmpty()) {
+                try {
+                    return Double.parseDouble(values.get(0));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param width the width in pixels to scale down to, keeping the aspect ratio. 0 or a width larger than the
+     *            picture keeps the size.
+     * @param quality JPEG quality from 1 to 100, or 0 to use the encoder's default.
+     * @return the new JPEG, or the one given if it could not be decoded.
+     */
+    public static byte[] scale(byte[] jpeg, int width, int quality) throws IOException {
+        // A width of half the picture or less is decoded with rows and columns skipped, which leaves less to scale.
+        int[] fullWidth = new int[1];
+        BufferedImage image = (width > 0) ? decode(jpeg, width, 0, fullWidth)
+                : ImageIO.read(new ByteArrayInputStream(jpeg));
+        if (image == null) {
+            return jpeg;
+        }
+        boolean subsampled = image.getWidth() < fullWidth[0];
+        if (width > 0 && width < image.getWidth()) {
+            int height = Math.max(1, (int) Math.round((double) image.getHeight() * width / image.getWidth()));
+            BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = scaled.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, width, height, null);
+            graphics.dispose();
+            image = scaled;
+        } else if (quality <= 0 && !subsampled) {
+            // Nothing would change, so there is no point in encoding it again.
+            return jpeg;
+        }
+        byte[] encoded = encode(image, quality, jpeg.length / 2);
+        return encoded.length == 0 ? jpeg : encoded;
+    }
+
+    /**
+     * Decodes the picture at the smallest whole fraction of its size that is still at least width by height.
+     * Skipping rows and columns while decoding is far quicker than decoding the whole picture only to shrink it.
+     *
+     * @param height 0 to only go by the width.
+     * @return the picture, or null if it could not be decoded.
+     */
+    static @Nullable BufferedImage decode(byte[] jpeg, int width, int height) throws IOException {
+        return decode(jpeg, width, height, new int[1]);
+    }
+
+    /**
+     * @param fullWidth set to the width of the whole picture, so the caller can tell if rows and columns were skipped.
+     */
+    private static @Nullable BufferedImage decode(byte[] jpeg, int width, int height, int[] fullWidth)
+            throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(jpeg))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                fullWidth[0] = reader.getWidth(0);
+                int step = Math.max(1, fullWidth[0] / Math.max(1, width));
+                if (height > 0) {
+                    step = Math.max(1, Math.min(step, reader.getHeight(0) / height));
+                }
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * @param quality JPEG quality from 1 to 100, or 0 to use the encoder's default.
+     * @return the JPEG, or an empty array if there is no JPEG encoder.
+     */
+    static byte[] encode(BufferedImage image, int quality, int expectedSize) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) {
+            return new byte[0];
+        }
+        ImageWriter writer = writers.next();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(1024, expectedSize));
+        try (ImageOutputStream imageOutput = new MemoryCacheImageOutputStream(output)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (quality > 0) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(Math.min(100, quality) / 100f);
+            }
+            writer.setOutput(imageOutput);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+}
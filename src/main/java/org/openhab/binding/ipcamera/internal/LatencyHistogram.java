@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link LatencyHistogram} is responsible for recording how long something took, in the same way HdrHistogram
+ * does but without the extra dependency. Values are kept in microseconds in buckets that double in width every 16
+ * buckets, so any value is stored to within about 6% and recording is one array increment with no locking or garbage.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class LatencyHistogram {
+    // Every value below this has its own bucket.
+    private static final int LINEAR = 32;
+    private static final int SUB_BUCKETS = 16;
+    // Enough buckets for 2^36 microseconds (19 hours), anything longer goes in the last one.
+    public static final int BUCKETS = 33 * SUB_BUCKETS + 16;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+
+    static int bucketOf(long micros) {
+        if (micros < LINEAR) {
+            return (int) Math.max(0, micros);
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - 4;
+        return shift * SUB_BUCKETS + (int) (micros >>> shift);
+    }
+
+    // The largest value that lands in the bucket, so quantiles are never reported as better than they were.
+    static long highestValueIn(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = bucket - shift * SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    public void recordMicros(long micros) {
+        counts.incrementAndGet(Math.min(bucketOf(micros), BUCKETS - 1));
+        count.increment();
+        sumMicros.add(Math.max(0, micros));
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSumMicros() {
+        return sumMicros.sum();
+    }
+
+    /**
+     * Takes a copy of the buckets, which can be passed to {@link #quantile(long[], double)} or subtracted from a later
+     * copy to look at just the values recorded in between.
+     */
+    public long[] snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    public long quantileMicros(double quantile) {
+        return quantile(snapshot(), quantile);
+    }
+
+    /**
+     * @return the value in microseconds that the given fraction (0 to 1) of recordings were at or below, or 0 if
+     *         nothing has been recorded.
+     */
+    public static long quantile(long[] buckets, double quantile) {
+        long total = 0;
+        for (long bucketCount : buckets) {
+            total += bucketCount;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long wanted = Math.max(1, (long) Math.ceil(total * quantile));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= wanted) {
+                return highestValueIn(i);
+            }
+        }
+        return highestValueIn(buckets.length - 1);
+    }
+}
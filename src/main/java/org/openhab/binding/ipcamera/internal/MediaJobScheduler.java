@@ -0,0 +1,326 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link MediaJobScheduler} is responsible for limiting how many GIFs, MP4s and timelapses are being made at
+ * once across all cameras, so a motion alarm in every room does not start an FFmpeg for every camera at the same
+ * moment. Jobs wait in a queue ordered by the camera's priority and then by when they were asked for. Asking for a job
+ * that is already waiting or running for the same camera does nothing, as the file it makes would be the same.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class MediaJobScheduler {
+    // A job that never says it finished, such as an FFmpeg that hangs, gives up its place after this long.
+    private static final long MAX_RUN_MS = 10 * 60 * 1000;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final long maxRunMs;
+    private final PriorityQueue<Queued> queue = new PriorityQueue<>();
+    // The jobs running now by camera and type.
+    private final Map<String, Queued> running = new HashMap<>();
+    private int limit;
+    private long sequence = 0;
+    // Gives up the place of a job that has run too long, even if no other job is asked for to notice it. Made when
+    // first needed and stopped by shutdown, so the thread does not outlive the binding.
+    private @Nullable ScheduledThreadPoolExecutor timer = null;
+    // The totals for each camera, so adding up every camera's /metrics gives the total for the binding.
+    private final Map<String, Counts> counts = new ConcurrentHashMap<>();
+
+    /**
+     * A piece of work that may finish on another thread, such as FFmpeg. It must call finished once it is done,
+     * whether it worked or not, so the next job can start.
+     */
+    public interface Job {
+        void start(Runnable finished);
+    }
+
+    private static class Counts {
+        final LongAdder started = new LongAdder();
+        final LongAdder coalesced = new LongAdder();
+        final LongAdder expired = new LongAdder();
+        final LongAdder cancelled = new LongAdder();
+    }
+
+    private static class Queued implements Comparable<Queued> {
+        final String camera;
+        final String key;
+        final int priority;
+        final long order;
+        final Job job;
+        final Runnable cancelled;
+        final Runnable stop;
+
+        Queued(String camera, String key, int priority, long order, Job job, Runnable cancelled, Runnable stop) {
+            this.camera = camera;
+            this.key = key;
+            this.priority = priority;
+            this.order = order;
+            this.job = job;
+            this.cancelled = cancelled;
+            this.stop = stop;
+        }
+
+        @Override
+        public int compareTo(Queued other) {
+            return priority != other.priority ? Integer.compare(priority, other.priority)
+                    : Long.compare(order, other.order);
+        }
+    }
+
+    public MediaJobScheduler(int limit) {
+        this(limit, MAX_RUN_MS);
+    }
+
+    MediaJobScheduler(int limit, long maxRunMs) {
+        this.limit = Math.max(1, limit);
+        this.maxRunMs = maxRunMs;
+    }
+
+    private synchronized ScheduledThreadPoolExecutor timer() {
+        ScheduledThreadPoolExecutor localTimer = timer;
+        if (localTimer == null) {
+            localTimer = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "IpCameraMediaJobs");
+                thread.setDaemon(true);
+                return thread;
+            });
+            localTimer.setRemoveOnCancelPolicy(true);
+            timer = localTimer;
+        }
+        return localTimer;
+    }
+
+    /**
+     * Stops the thread that watches for jobs that run too long, used when the binding is stopped. Jobs that are
+     * running are left to finish, and the thread is made again if another job starts.
+     */
+    public synchronized void shutdown() {
+        ScheduledThreadPoolExecutor localTimer = timer;
+        timer = null;
+        if (localTimer != null) {
+            localTimer.shutdownNow();
+        }
+    }
+
+    /**
+     * Changes how many jobs can run at once. Jobs that are already running are left to finish.
+     */
+    public void setLimit(int limit) {
+        List<Queued> ready;
+        synchronized (this) {
+            this.limit = Math.max(1, limit);
+            ready = takeReady();
+        }
+        start(ready);
+    }
+
+    /**
+     * @param camera the thing ID of the camera the job is for.
+     * @param type what the job makes, only one job of each type can be waiting or running for a camera.
+     * @param priority lower numbers start first, such as 1 for a doorbell.
+     * @return false if the same job was already waiting or running so this one was dropped.
+     */
+    public boolean submit(String camera, String type, int priority, Job job) {
+        return submit(camera, type, priority, job, () -> {
+        });
+    }
+
+    /**
+     * @param cancelled run instead of the job if it is dropped by {@link #cancel(String)} before its turn, so
+     *            whatever is waiting for the job, such as a channel that is ON, can be put back.
+     */
+    public boolean submit(String camera, String type, int priority, Job job, Runnable cancelled) {
+        return submit(camera, type, priority, job, cancelled, () -> {
+        });
+    }
+
+    /**
+     * @param stop run when the job has run for too long, before its place is given up, so the FFmpeg it started can
+     *            be stopped instead of carrying on beside the job that takes its place.
+     */
+    public boolean submit(String camera, String type, int priority, Job job, Runnable cancelled, Runnable stop) {
+        String key = camera + "/" + type;
+        List<Queued> ready;
+        synchronized (this) {
+            if (running.containsKey(key) || isQueued(key)) {
+                counts(camera).coalesced.increment();
+                return false;
+            }
+            queue.add(new Queued(camera, key, priority, sequence++, job, cancelled, stop));
+            ready = takeReady();
+        }
+        start(ready);
+        return true;
+    }
+
+    /**
+     * Drops the jobs that are waiting for a camera, used when it goes offline. Jobs that are running are left to
+     * finish.
+     */
+    public void cancel(String camera) {
+        List<Queued> dropped = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<Queued> iterator = queue.iterator(); iterator.hasNext();) {
+                Queued queued = iterator.next();
+                if (queued.camera.equals(camera)) {
+                    iterator.remove();
+                    dropped.add(queued);
+                }
+            }
+        }
+        for (Queued queued : dropped) {
+            counts(camera).cancelled.increment();
+            try {
+                queued.cancelled.run();
+            } catch (RuntimeException e) {
+                logger.debug("Could not cancel {}:{}", queued.key, e.getMessage());
+            }
+        }
+    }
+
+    private Counts counts(String camera) {
+        return counts.computeIfAbsent(camera, key -> new Counts());
+    }
+
+    private boolean isQueued(String key) {
+        for (Queued queued : queue) {
+            if (queued.key.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Takes the jobs that can start now off the queue. They are started after the lock is released.
+    private List<Queued> takeReady() {
+        List<Queued> ready = new ArrayList<>();
+        while (running.size() < limit && !queue.isEmpty()) {
+            Queued next = queue.poll();
+            running.put(next.key, next);
+            ready.add(next);
+        }
+        return ready;
+    }
+
+    private void start(List<Queued> ready) {
+        for (Queued queued : ready) {
+            counts(queued.camera).started.increment();
+            AtomicBoolean done = new AtomicBoolean();
+            ScheduledFuture<?> expiry = timer().schedule(() -> {
+                if (done.compareAndSet(false, true)) {
+                    logger.debug("{} has run for too long and has given up its place.", queued.key);
+                    counts(queued.camera).expired.increment();
+                    try {
+                        queued.stop.run();
+                    } catch (RuntimeException e) {
+                        logger.debug("Could not stop {}:{}", queued.key, e.getMessage());
+                    }
+                    finished(queued);
+                }
+            }, maxRunMs, TimeUnit.MILLISECONDS);
+            Runnable finished = () -> {
+                if (done.compareAndSet(false, true)) {
+                    expiry.cancel(false);
+                    finished(queued);
+                }
+            };
+            try {
+                queued.job.start(finished);
+            } catch (RuntimeException e) {
+                logger.warn("Could not start {}:{}", queued.key, e.getMessage());
+                finished.run();
+            }
+        }
+    }
+
+    private void finished(Queued queued) {
+        List<Queued> ready;
+        synchronized (this) {
+            // An expired job may already have been replaced by a new one for the same camera.
+            running.remove(queued.key, queued);
+            ready = takeReady();
+        }
+        start(ready);
+    }
+
+    /**
+     * @param camera the thing ID, or null for the jobs of all cameras.
+     */
+    public synchronized int getQueued(@Nullable String camera) {
+        int count = 0;
+        for (Queued queued : queue) {
+            if (camera == null || queued.camera.equals(camera)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param camera the thing ID, or null for the jobs of all cameras.
+     */
+    public synchronized int getRunning(@Nullable String camera) {
+        int count = 0;
+        for (Queued queued : running.values()) {
+            if (camera == null || queued.camera.equals(camera)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Creates the Prometheus text format for one camera's jobs. The queue is shared, but only this camera's part of
+     * it is given, so the /metrics of every camera can be added up without counting a job more than once.
+     */
+    public String toPrometheus(String camera) {
+        StringBuilder text = new StringBuilder(1024);
+        String label = CameraMetrics.cameraLabel(camera);
+        Counts cameraCounts = counts(camera);
+        CameraMetrics.gauge(text, "ipcamera_media_jobs_queued", "GIF and MP4 jobs waiting for a free place.", label,
+                getQueued(camera));
+        CameraMetrics.gauge(text, "ipcamera_media_jobs_running", "GIF and MP4 jobs being made now.", label,
+                getRunning(camera));
+        CameraMetrics.counter(text, "ipcamera_media_jobs_started_total", "GIF and MP4 jobs started.", label,
+                cameraCounts.started);
+        CameraMetrics.counter(text, "ipcamera_media_jobs_coalesced_total",
+                "GIF and MP4 requests dropped as the same job was already waiting or running.", label,
+                cameraCounts.coalesced);
+        CameraMetrics.counter(text, "ipcamera_media_jobs_expired_total",
+                "Jobs that gave up their place after running for too long.", label, cameraCounts.expired);
+        CameraMetrics.counter(text, "ipcamera_media_jobs_cancelled_total",
+                "Jobs dropped before their turn because the camera went offline.", label, cameraCounts.cancelled);
+        return text.toString();
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * The {@link MjpegFrameParser} is responsible for finding each JPEG in a camera's multipart/x-mixed-replace stream,
+ * as the packets arrive. Parts with a Content-Length are copied straight into a frame of that size. Cameras that do
+ * not send one are handled by looking for the boundary. The buffer that is fed in is only read, so it can still be
+ * forwarded to the MJPEG viewers.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class MjpegFrameParser {
+    private static final int MAX_HEADER = 2048;
+    private static final int MAX_FRAME = 8 * 1024 * 1024;
+
+    private enum State {
+        HEADERS,
+        BODY_LENGTH,
+        BODY_SCAN
+    }
+
+    private final Consumer<byte[]> frameListener;
+    // Cameras do not agree on if the boundary in the header has the leading dashes or not, so search without them.
+    private final byte[] boundary;
+    private State state = State.HEADERS;
+    private final byte[] header = new byte[MAX_HEADER];
+    private int headerLength = 0;
+    private boolean partIsJpeg = false;
+    private byte[] frame = new byte[0];
+    private int frameLength = 0;
+    private int bodyLength = 0;
+    private int scanFrom = 0;
+
+    public MjpegFrameParser(String contentType, Consumer<byte[]> frameListener) {
+        this.frameListener = frameListener;
+        boundary = boundaryFrom(contentType).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static String boundaryFrom(String contentType) {
+        int index = contentType.toLowerCase().indexOf("boundary=");
+        if (index == -1) {
+            return "boundary";
+        }
+        String value = contentType.substring(index + 9).trim();
+        int end = value.indexOf(';');
+        if (end != -1) {
+            value = value.substring(0, end).trim();
+        }
+        value = value.replace("\"", "");
+        while (value.startsWith("-")) {
+            value = value.substring(1);
+        }
+        return value.isEmpty() ? "boundary" : value;
+    }
+
+    /**
+     * Reads the bytes between the reader and writer index without moving either of them.
+     */
+    public void feed(ByteBuf content) {
+        int index = content.readerIndex();
+        int end = content.writerIndex();
+        while (index < end) {
+            switch (state) {
+                case HEADERS:
+                    index = readHeader(content, index, end);
+                    break;
+                case BODY_LENGTH:
+                    int length = Math.min(end - index, bodyLength - frameLength);
+                    content.getBytes(index, frame, frameLength, length);
+                    frameLength += length;
+                    index += length;
+                    if (frameLength == bodyLength) {
+                        if (partIsJpeg) {
+                            emit(frame, frameLength);
+                        }
+                        frame = new byte[0];
+                        state = State.HEADERS;
+                    }
+                    break;
+                case BODY_SCAN:
+                    index = scanBody(content, index, end);
+                    break;
+            }
+        }
+    }
+
+    private int readHeader(ByteBuf content, int index, int end) {
+        while (index < end) {
+            byte b = content.getByte(index++);
+            // Skip the CRLF that ends the last part before the boundary line.
+            if (headerLength == 0 && (b == '\r' || b == '\n')) {
+                continue;
+            }
+            if (headerLength == MAX_HEADER) {
+                // Not a header, throw it away until one is found again.
+                headerLength = 0;
+            }
+            header[headerLength++] = b;
+            if (b == '\n' && endOfHeader()) {
+                startBody();
+                headerLength = 0;
+                return index;
+            }
+        }
+        return index;
+    }
+
+    private boolean endOfHeader() {
+        return (headerLength >= 4 && header[headerLength - 4] == '\r' && header[headerLength - 3] == '\n'
+                && header[headerLength - 2] == '\r') || (headerLength >= 2 && header[headerLength - 2] == '\n');
+    }
+
+    private void startBody() {
+        String text = new String(header, 0, headerLength, StandardCharsets.US_ASCII);
+        boolean haveContentType = false;
+        partIsJpeg = false;
+        int contentLength = -1;
+        for (String line : text.split("\r?\n")) {
+            int colon = line.indexOf(':');
+            if (colon == -1) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim().toLowerCase();
+            String value = line.substring(colon + 1).trim();
+            if ("content-type".equals(name)) {
+                haveContentType = true;
+                partIsJpeg = value.toLowerCase().contains("image/jp");
+            } else if ("content-length".equals(name)) {
+                try {
+                    contentLength = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    contentLength = -1;
+                }
+            }
+        }
+        if (!haveContentType) {
+            // checked for the JPEG start marker before it is used.
+            partIsJpeg = true;
+        }
+        if (contentLength > 0 && contentLength <= MAX_FRAME) {
+            frame = new byte[contentLength];
+            bodyLength = contentLength;
+            frameLength = 0;
+            state = State.BODY_LENGTH;
+        } else {
+            if (frame.length < 64 * 1024) {
+                frame = new byte[64 * 1024];
+            }
+            frameLength = 0;
+            scanFrom = 0;
+            state = State.BODY_SCAN;
+        }
+    }
+
+    private int scanBody(ByteBuf content, int index, int end) {
+        int length = end - index;
+        if (frameLength + length > frame.length) {
+            if (frameLength + length > MAX_FRAME) {
+                // No boundary found in a sane amount of data, start looking for a header again.
+                frameLength = 0;
+                state = State.HEADERS;
+                return index;
+            }
+            frame = Arrays.copyOf(frame, Math.max(frame.length * 2, frameLength + length));
+        }
+        content.getBytes(index, frame, frameLength, length);
+        frameLength += length;
+        int found = indexOfBoundary(Math.max(0, scanFrom - boundary.length));
+        if (found == -1) {
+            scanFrom = frameLength;
+            return end;
+        }
+        // The body ends before the dashes and the CRLF that come before the boundary.
+        int bodyEnd = found;
+        if (bodyEnd >= 2 && frame[bodyEnd - 1] == '-' && frame[bodyEnd - 2] == '-') {
+            bodyEnd -= 2;
+        }
+        if (bodyEnd >= 1 && frame[bodyEnd - 1] == '\n') {
+            bodyEnd--;
+            if (bodyEnd >= 1 && frame[bodyEnd - 1] == '\r') {
+                bodyEnd--;
+            }
+        }
+        if (partIsJpeg) {
+            emit(frame, bodyEnd);
+        }
+        // Hand back what came after the body so it is read as the next part's header. If the boundary started in an
+        // earlier packet only the rest of that line is lost, which is not needed.
+        int unread = frameLength - bodyEnd;
+        frameLength = 0;
+        state = State.HEADERS;
+        return Math.max(index, end - unread);
+    }
+
+    private int indexOfBoundary(int from) {
+        outer: for (int i = from; i <= frameLength - boundary.length; i++) {
+            for (int j = 0; j < boundary.length; j++) {
+                if (frame[i + j] != boundary[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private void emit(byte[] data, int length) {
+        if (length < 4 || data[0] != (byte) 0xFF || data[1] != (byte) 0xD8) {
+            return;
+        }
+        frameListener.accept(length == data.length ? data : Arrays.copyOf(data, length));
+    }
+}
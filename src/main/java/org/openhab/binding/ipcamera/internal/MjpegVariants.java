@@ -0,0 +1,265 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+
+/**
+ * The {@link MjpegVariants} is responsible for the MJPEG clients that asked for a lower frame rate, width or quality
+ * with a query string like ?fps=2&width=640&quality=70. Each client is only sent a frame once its own interval has
+ * passed, and clients that asked for the same width and quality share one scaled copy of each frame. Scaling runs on
+ * the executor and only one frame per variant is scaled at a time, so frames are dropped instead of queued if the
+ * server can not keep up.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class MjpegVariants {
+    private static final String BOUNDARY = "thisMjpegStream";
+    private static final byte[] FOOTER = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Executor executor;
+    private final CameraMetrics metrics;
+    private final Map<Channel, Client> clients = new ConcurrentHashMap<>();
+    private final Map<String, Encoding> encodings = new HashMap<>();
+
+    /**
+     * What a client asked for. A value of 0 means the client did not ask to change it.
+     */
+    public static class Variant {
+        // Every frame at full size, for servers that always send their MJPEG through here.
+        public static final Variant ORIGINAL = new Variant(0, 0, 0);
+        public final double fps;
+        public final int width;
+        public final int quality;
+
+        Variant(double fps, int width, int quality) {
+            this.fps = fps;
+            this.width = width;
+            this.quality = quality;
+        }
+
+        /**
+         * Returns null when none of fps, width or quality were given, so the stream can be sent as it always was.
+         */
+        public static @Nullable Variant fromQuery(Map<String, List<String>> parameters) {
+            double fps = Math.min(60, Math.max(0, JpegScaler.number(parameters, "fps")));
+            int width = JpegScaler.requestedWidth(parameters);
+            int quality = JpegScaler.requestedQuality(parameters);
+            if (fps == 0 && width == 0 && quality == 0) {
+                return null;
+            }
+            return new Variant(fps, width, quality);
+        }
+
+        String encodingKey() {
+            return width + "x" + quality;
+        }
+    }
+
+    private static class Encoding {
+        final int width;
+        final int quality;
+        final AtomicBoolean busy = new AtomicBoolean();
+        int users = 0;
+        // The last frame that was scaled and the result, so clients due on the same frame share it.
+        volatile byte[] source = new byte[0];
+        volatile byte[] scaled = new byte[0];
+
+        Encoding(int width, int quality) {
+            this.width = width;
+            this.quality = quality;
+        }
+
+        boolean isOriginal() {
+            return width == 0 && quality == 0;
+        }
+    }
+
+    private static class Client {
+        final Channel channel;
+        final String stream;
+        final long intervalNanos;
+        final Encoding encoding;
+        // Written by send() on the executor and read by frame() on the camera's thread.
+        volatile long lastSent = 0;
+
+        Client(Channel channel, String stream, long intervalNanos, Encoding encoding) {
+            this.channel = channel;
+            this.stream = stream;
+            this.intervalNanos = intervalNanos;
+            this.encoding = encoding;
+        }
+    }
+
+    public MjpegVariants(Executor executor, CameraMetrics metrics) {
+        this.executor = executor;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param stream the path of the stream the client asked for, such as /snapshots.mjpeg
+     */
+    public void add(Channel channel, String stream, Variant variant) {
+        Encoding encoding;
+        synchronized (encodings) {
+            encoding = encodings.get(variant.encodingKey());
+            if (encoding == null) {
+                encoding = new Encoding(variant.width, variant.quality);
+                encodings.put(variant.encodingKey(), encoding);
+            }
+            encoding.users++;
+        }
+        long interval = variant.fps > 0 ? (long) (1000000000L / variant.fps) : 0;
+        clients.put(channel, new Client(channel, stream, interval, encoding));
+    }
+
+    /**
+     * @return the stream the channel was watching, or null if it was not a client here.
+     */
+    public @Nullable String remove(Channel channel) {
+        Client client = clients.remove(channel);
+        if (client == null) {
+            return null;
+        }
+        synchronized (encodings) {
+            if (--client.encoding.users <= 0) {
+                encodings.remove(client.encoding.width + "x" + client.encoding.quality);
+            }
+        }
+        return client.stream;
+    }
+
+    public boolean hasClients(String stream) {
+        for (Client client : clients.values()) {
+            if (client.stream.equals(stream)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int count(String stream) {
+        int count = 0;
+        for (Client client : clients.values()) {
+            if (client.stream.equals(stream)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int size() {
+        return clients.size();
+    }
+
+    /**
+     * Called with every frame of a stream. Clients that are not due yet, or that have not taken the last frame from
+     * their socket, skip this one.
+     */
+    public void frame(String stream, byte[] jpeg) {
+        if (clients.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        Map<Encoding, List<Client>> due = new HashMap<>();
+        for (Client client : clients.values()) {
+            if (!client.stream.equals(stream) || !client.channel.isWritable()
+                    || now - client.lastSent < client.intervalNanos) {
+                continue;
+            }
+            List<Client> waiting = due.get(client.encoding);
+            if (waiting == null) {
+                waiting = new ArrayList<>();
+                due.put(client.encoding, waiting);
+            }
+            waiting.add(client);
+        }
+        for (Map.Entry<Encoding, List<Client>> entry : due.entrySet()) {
+            Encoding encoding = entry.getKey();
+            List<Client> waiting = entry.getValue();
+            if (encoding.isOriginal()) {
+                send(waiting, jpeg, now);
+            } else if (encoding.source == jpeg) {
+                send(waiting, encoding.scaled, now);
+            } else if (encoding.busy.compareAndSet(false, true)) {
+                scale(encoding, waiting, jpeg, now);
+            }
+        }
+    }
+
+    private void scale(Encoding encoding, List<Client> waiting, byte[] jpeg, long now) {
+        try {
+            executor.execute(() -> {
+                try {
+                    byte[] scaled = JpegScaler.scale(jpeg, encoding.width, encoding.quality);
+                    encoding.scaled = scaled;
+                    encoding.source = jpeg;
+                    send(waiting, scaled, now);
+                } catch (IOException | RuntimeException e) {
+                    logger.debug("Could not scale a frame for an MJPEG client: {}", e.getMessage());
+                } finally {
+                    encoding.busy.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            encoding.busy.set(false);
+        }
+    }
+
+    private void send(List<Client> waiting, byte[] jpeg, long now) {
+        String header = "--" + BOUNDARY + "\r\n" + "content-type: image/jpeg" + "\r\n" + "content-length: "
+                + jpeg.length + "\r\n\r\n";
+        // The arrays are never changed once made, so every client can be sent the same bytes without copying.
+        ByteBuf part = Unpooled.wrappedBuffer(header.getBytes(StandardCharsets.US_ASCII), jpeg, FOOTER);
+        int bytes = part.readableBytes();
+        // Only frames that reached the socket are counted, not ones dropped because the client went away.
+        ChannelFutureListener counter = future -> {
+            if (future.isSuccess()) {
+                metrics.viewerBytesSent.add(bytes);
+            }
+        };
+        try {
+            for (Client client : waiting) {
+                // Keeps the average rate right when frames do not arrive exactly on the client's interval.
+                client.lastSent = (now - client.lastSent < 2 * client.intervalNanos)
+                        ? client.lastSent + client.intervalNanos
+                        : now;
+                client.channel.writeAndFlush(part.retainedDuplicate()).addListener(counter);
+            }
+        } finally {
+            part.release();
+        }
+    }
+}
@@ -13,9 +13,6 @@
 
 package org.openhab.binding.ipcamera.internal;
 
-import java.security.MessageDigest;
-import java.util.Random;
-
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.smarthome.core.thing.binding.ThingHandler;
@@ -25,11 +22,15 @@ import org.slf4j.LoggerFactory;
 
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
 
 /**
- * The {@link MyNettyAuthHandler} is responsible for handling the basic and digest auths
- *
+ * The {@link MyNettyAuthHandler} is responsible for handling the basic and digest auths. The digest challenge is
+ * stored in the cameras {@link DigestAuthSession} so other channels can use it without getting a 401 first.
  *
  * @author Matthew Skinner - Initial contribution
  */
@@ -41,7 +42,10 @@ public class MyNettyAuthHandler extends ChannelDuplexHandler {
     private IpCameraHandler myHandler;
     private String username, password;
     private String httpMethod = "", httpUrl = "";
-    private byte ncCounter = 0;
+    // the nonce the last request on this channel was authorised with, "" if it had no digest header.
+    private String sentNonce = "";
+    // WWW-Authenticate of a keep-alive 401 whose body has not all arrived yet, "" if it had no header.
+    private @Nullable String pendingChallenge = null;
     String nonce = "", opaque = "", qop = "";
     String realm = "";
 
@@ -64,23 +68,6 @@ public class MyNettyAuthHandler extends ChannelDuplexHandler {
         httpMethod = method;
     }
 
-    private String calcMD5Hash(String toHash) {
-        try {
-            MessageDigest messageDigest = MessageDigest.getInstance("MD5");
-            byte[] array = messageDigest.digest(toHash.getBytes());
-            StringBuffer stringBuffer = new StringBuffer();
-            for (int i = 0; i < array.length; ++i) {
-                stringBuffer.append(Integer.toHexString((array[i] & 0xFF) | 0x100).substring(1, 3));
-            }
-            messageDigest = null;
-            array = null;
-            return stringBuffer.toString();
-        } catch (java.security.NoSuchAlgorithmException e) {
-            logger.error("NoSuchAlgorithmException error when calculating MD5 hash");
-        }
-        return "";
-    }
-
     private String searchString(String rawString, String searchedString) {
         String result = "";
         int index = 0;
@@ -147,28 +134,20 @@ public class MyNettyAuthHandler extends ChannelDuplexHandler {
                     qop, realm);
         }
 
-        String stale = searchString(authenticate, "stale=\"");
-        if (stale == "") {
-        } else if (stale.equalsIgnoreCase("true")) {
+        String lowerCase = authenticate.toLowerCase();
+        boolean stale = lowerCase.contains("stale=true") || lowerCase.contains("stale=\"true\"");
+        CameraEvents.digestChallenge(myHandler.getThing().getUID().getId(), requestURI, realm, stale);
+        if (stale) {
             logger.debug("Camera reported stale=true which normally means the NONCE has expired.");
+        } else if (reSend && !sentNonce.isEmpty() && sentNonce.equals(nonce)) {
+            logger.warn("Camera is reporting your username and/or password is wrong!");
+            return "Error";
+        }
+        myHandler.digestSession.setChallenge(username, password, realm, nonce, opaque, qop);
+        String digestString = myHandler.digestSession.authorize(httpMethod, requestURI);
+        if (digestString == null) {
+            return "Error";
         }
-        // create the MD5 hashes
-        String ha1 = username + ":" + realm + ":" + password;
-        ha1 = calcMD5Hash(ha1);
-        Random random = new Random();
-        String cnonce = Integer.toHexString(random.nextInt());
-        random = null;
-        ncCounter = (ncCounter > 125) ? 1 : ++ncCounter;
-        String nc = String.format("%08X", ncCounter); // 8 digit hex number
-        String ha2 = httpMethod + ":" + requestURI;
-        ha2 = calcMD5Hash(ha2);
-
-        String response = ha1 + ":" + nonce + ":" + nc + ":" + cnonce + ":" + qop + ":" + ha2;
-        response = calcMD5Hash(response);
-
-        String digestString = "username=\"" + username + "\", realm=\"" + realm + "\", nonce=\"" + nonce + "\", uri=\""
-                + requestURI + "\", cnonce=\"" + cnonce + "\", nc=" + nc + ", qop=\"" + qop + "\", response=\""
-                + response + "\", opaque=\"" + opaque + "\"";
 
         if (reSend) {
             myHandler.sendHttpRequest(httpMethod, requestURI, digestString);
@@ -195,44 +174,71 @@ public class MyNettyAuthHandler extends ChannelDuplexHandler {
                             }
                             if (name.toString().equalsIgnoreCase("Connection")
                                     && value.toString().contains("keep-alive")) {
-                                // closeConnection = false;
-                                // trial this for a while to see if it solves too many bytes with digest turned on.
-                                closeConnection = true;
-                            }
-                        }
-                    }
-                    myHandler.lock.lock();
-                    try {
-                        byte indexInLists = (byte) myHandler.listOfChannels.indexOf(ctx.channel());
-                        if (indexInLists >= 0) {
-                            if (closeConnection) {
-                                // Need to mark the channel as closing so the digest gets a new ch
-                                myHandler.listOfChStatus.set(indexInLists, (byte) 0);
-                            } else {
-                                myHandler.listOfChStatus.set(indexInLists, (byte) 2);
+                                // the commonHandler skips the body of a 401 so the channel can be reused.
+                                closeConnection = false;
                             }
-                        } else {
-                            logger.warn("!!!! 401: Could not find the channel to mark as closing or reusable");
                         }
-                    } finally {
-                        myHandler.lock.unlock();
-                    }
-                    if (authenticate != null) {
-                        processAuth(authenticate, httpMethod, httpUrl, true);
-                    } else {
-                        logger.warn("Camera gave a 401 reply and did not provide a WWW-Authenticate header");
                     }
                     if (closeConnection) {
+                        // Need to mark the channel as closing so the digest gets a new ch
+                        setChannelStatus(ctx, (byte) 0);
+                        answerChallenge(authenticate);
                         ctx.close();// needs to be here
+                    } else {
+                        // The retry waits for the end of the body, or it could be sent on this channel mid reply.
+                        pendingChallenge = (authenticate == null) ? "" : authenticate;
                     }
                 }
             }
         }
+        String challenge = pendingChallenge;
+        if (challenge != null && msg instanceof LastHttpContent) {
+            pendingChallenge = null;
+            super.channelRead(ctx, msg);
+            setChannelStatus(ctx, (byte) 2);
+            answerChallenge(challenge.isEmpty() ? null : challenge);
+            return;
+        }
         // Pass the Message back to the pipeline for the next handler to process//
-        authenticate = null;
         super.channelRead(ctx, msg);
     }
 
+    private void setChannelStatus(ChannelHandlerContext ctx, byte status) {
+        myHandler.lock.lock();
+        try {
+            byte indexInLists = (byte) myHandler.listOfChannels.indexOf(ctx.channel());
+            if (indexInLists >= 0) {
+                myHandler.listOfChStatus.set(indexInLists, status);
+            } else {
+                logger.warn("!!!! 401: Could not find the channel to mark as closing or reusable");
+            }
+        } finally {
+            myHandler.lock.unlock();
+        }
+    }
+
+    private void answerChallenge(@Nullable String authenticate) {
+        if (authenticate != null) {
+            processAuth(authenticate, httpMethod, httpUrl, true);
+        } else {
+            logger.warn("Camera gave a 401 reply and did not provide a WWW-Authenticate header");
+        }
+    }
+
+    @Override
+    public void write(@Nullable ChannelHandlerContext ctx, @Nullable Object msg, @Nullable ChannelPromise promise)
+            throws Exception {
+        if (msg instanceof HttpRequest) {
+            String authorization = ((HttpRequest) msg).headers().get(HttpHeaderNames.AUTHORIZATION);
+            if (authorization != null && authorization.startsWith("Digest ")) {
+                sentNonce = searchString(authorization, "nonce=\"");
+            } else {
+                sentNonce = "";
+            }
+        }
+        super.write(ctx, msg, promise);
+    }
+
     @Override
     public void handlerAdded(@Nullable ChannelHandlerContext ctx) {
     }
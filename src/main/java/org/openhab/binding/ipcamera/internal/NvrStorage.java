@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link NvrStorage} is responsible for the folders that continuous recording is written into, one folder per day
+ * holding one folder per hour, and for deleting the oldest recordings once they are older than the retention time or
+ * use more than the disk quota. The size of each hour is remembered, so only the hours that FFmpeg is still writing
+ * are measured again each time.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class NvrStorage {
+    // The folder and file names FFmpeg is given, in strftime form, and the same layout for Java.
+    public static final String FFMPEG_PATTERN = "%Y-%m-%d/%H/%Y%m%d-%H%M%S.mp4";
+    public static final DateTimeFormatter FILE_NAME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss'.mp4'");
+    private static final DateTimeFormatter HOUR_FOLDER = DateTimeFormatter.ofPattern("yyyy-MM-dd'/'HH");
+    private final Path root;
+    // Bytes used by each hour, keyed by "day/hour" which sorts oldest first.
+    private final TreeMap<String, Long> hours = new TreeMap<>();
+    private boolean scanned = false;
+
+    public NvrStorage(Path root) {
+        this.root = root;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * FFmpeg will not create folders for its segments, so the folder for this hour and the next are made ahead of
+     * time.
+     */
+    public void prepare(LocalDateTime now) throws IOException {
+        Files.createDirectories(root.resolve(HOUR_FOLDER.format(now)));
+        Files.createDirectories(root.resolve(HOUR_FOLDER.format(now.plusHours(1))));
+    }
+
+    /**
+     * Deletes whole hours that are older than maxAgeHours, then the oldest files until the recordings fit in
+     * quotaBytes. The hour being written is never deleted.
+     *
+     * @param maxAgeHours 0 keeps recordings for any age.
+     * @param quotaBytes 0 lets recordings use any amount of disk.
+     * @return how many files were deleted.
+     */
+    public synchronized int enforce(LocalDateTime now, int maxAgeHours, long quotaBytes) {
+        String currentHour = HOUR_FOLDER.format(now);
+        if (!scanned) {
+            scan();
+            scanned = true;
+        } else {
+            // Only these hours can have grown since the last time.
+            measure(HOUR_FOLDER.format(now.minusHours(1)));
+            measure(currentHour);
+        }
+        int deleted = 0;
+        if (maxAgeHours > 0) {
+            String oldestKept = HOUR_FOLDER.format(now.minusHours(maxAgeHours));
+            while (!hours.isEmpty() && hours.firstKey().compareTo(oldestKept) < 0) {
+                deleted += deleteHour(hours.firstKey());
+            }
+        }
+        if (quotaBytes > 0) {
+            long total = 0;
+            for (long bytes : hours.values()) {
+                total += bytes;
+            }
+            while (total > quotaBytes && !hours.isEmpty() && hours.firstKey().compareTo(currentHour) < 0) {
+                String oldest = hours.firstKey();
+                File[] files = root.resolve(oldest).toFile().listFiles();
+                if (files == null || files.length == 0) {
+                    deleteHour(oldest);
+                    continue;
+                }
+                Arrays.sort(files);
+                long freed = 0;
+                for (File file : files) {
+                    if (total - freed <= quotaBytes) {
+                        break;
+                    }
+                    long length = file.length();
+                    if (file.delete()) {
+                        freed += length;
+                        deleted++;
+                    }
+                }
+                total -= freed;
+                if (freed == 0) {
+                    break;
+                }
+                measure(oldest);
+                Long left = hours.get(oldest);
+                if (left != null && left == 0) {
+                    deleteHour(oldest);
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private void scan() {
+        hours.clear();
+        File[] days = root.toFile().listFiles(File::isDirectory);
+        if (days == null) {
+            return;
+        }
+        for (File day : days) {
+            File[] dayHours = day.listFiles(File::isDirectory);
+            if (dayHours == null) {
+                continue;
+            }
+            for (File hour : dayHours) {
+                String key = day.getName() + "/" + hour.getName();
+                if (parseHour(key) != null) {
+                    measure(key);
+                }
+            }
+        }
+    }
+
+    private void measure(String key) {
+        File[] files = root.resolve(key).toFile().listFiles(File::isFile);
+        if (files == null) {
+            hours.remove(key);
+            return;
+        }
+        long bytes = 0;
+        for (File file : files) {
+            bytes += file.length();
+        }
+        hours.put(key, bytes);
+    }
+
+    private int deleteHour(String key) {
+        hours.remove(key);
+        File folder = root.resolve(key).toFile();
+        int deleted = 0;
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.delete()) {
+                    deleted++;
+                }
+            }
+        }
+        folder.delete();
+        // Only succeeds once the last hour of the day is gone.
+        File day = folder.getParentFile();
+        if (day != null) {
+            day.delete();
+        }
+        return deleted;
+    }
+
+    static @Nullable LocalDateTime parseHour(String key) {
+        try {
+            return LocalDateTime.parse(key + ":00", DateTimeFormatter.ofPattern("yyyy-MM-dd'/'HH:mm"));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.ipcamera.internal.TimelineIndex.Entry;
+
+/**
+ * The {@link NvrTimeline} is responsible for finding continuous recordings by time. Each finished segment and each
+ * alarm is added to its own {@link TimelineIndex} in the nvr folder, which is what /timeline and /clip search.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class NvrTimeline implements Closeable {
+    public static final int MAX_RESULTS = 10000;
+    // Longer clips are cut short, which also stops one request from keeping FFmpeg busy for days of video.
+    public static final long MAX_CLIP_MS = 2 * 3600000;
+    // Each clip runs its own FFmpeg, so only this many are made at once across all cameras.
+    public static final int MAX_CLIPS = 2;
+    private static final DateTimeFormatter HOUR_FOLDER = DateTimeFormatter.ofPattern("yyyy-MM-dd'/'HH");
+    // The same alarm is sent many times while it is on, it is only added again once this has passed.
+    private static final long EVENT_REPEAT_MS = 10000;
+    private final Path root;
+    private final TimelineIndex segments;
+    private final TimelineIndex events;
+    private final Map<String, Long> lastEvent = new ConcurrentHashMap<>();
+    private boolean caughtUp = false;
+    private boolean closed = false;
+
+    /**
+     * A recording that was found, with the path to it from the nvr folder.
+     */
+    public static class Segment {
+        public final long start;
+        public final int duration;
+        public final long size;
+        public final String file;
+
+        Segment(long start, int duration, long size, String file) {
+            this.start = start;
+            this.duration = duration;
+            this.size = size;
+            this.file = file;
+        }
+    }
+
+    public NvrTimeline(Path root) throws IOException {
+        this.root = root;
+        segments = new TimelineIndex(root.resolve("segments.idx"));
+        events = new TimelineIndex(root.resolve("events.idx"));
+    }
+
+    /**
+     * Records an alarm, such as the channel ID that motionDetected() was called with.
+     */
+    public void event(String type) {
+        long now = System.currentTimeMillis();
+        Long last = lastEvent.put(type, now);
+        if (last != null && now - last < EVENT_REPEAT_MS) {
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            try {
+                events.append(now, 0, 0, type);
+            } catch (IOException e) {
+                // The alarm still works, it is just not in the timeline.
+            }
+        }
+    }
+
+    /**
+     * Adds the segments FFmpeg has finished since the last call. The newest file in a folder is still being written,
+     * so it is added once the next one starts. Only the last two hours are looked at, apart from the first call which
+     * catches up on anything recorded while openHAB was not running.
+     *
+     * @return how many segments were added.
+     */
+    public synchronized int addFinishedSegments(LocalDateTime now) throws IOException {
+        if (closed) {
+            return 0;
+        }
+        List<File> files = new ArrayList<>();
+        if (!caughtUp) {
+            String after = segments.size() == 0 ? ""
+                    : HOUR_FOLDER.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(segments.getLastTime()),
+                            ZoneId.systemDefault()));
+            File[] days = root.toFile().listFiles(File::isDirectory);
+            if (days != null) {
+                Arrays.sort(days);
+                for (File day : days) {
+                    File[] hours = day.listFiles(File::isDirectory);
+                    if (hours == null) {
+                        continue;
+                    }
+                    Arrays.sort(hours);
+                    for (File hour : hours) {
+                        if ((day.getName() + "/" + hour.getName()).compareTo(after) >= 0) {
+                            addFiles(files, hour);
+                        }
+                    }
+                }
+            }
+            caughtUp = true;
+        } else {
+            addFiles(files, root.resolve(HOUR_FOLDER.format(now.minusHours(1))).toFile());
+            addFiles(files, root.resolve(HOUR_FOLDER.format(now)).toFile());
+        }
+        int added = 0;
+        long last = segments.size() == 0 ? Long.MIN_VALUE : segments.getLastTime();
+        for (int i = 0; i < files.size() - 1; i++) {
+            long start = startOf(files.get(i));
+            long next = startOf(files.get(i + 1));
+            if (start > last && start != -1 && next > start) {
+                segments.append(start, (int) Math.min(Integer.MAX_VALUE, next - start), files.get(i).length(), "");
+                last = start;
+                added++;
+            }
+        }
+        return added;
+    }
+
+    private static void addFiles(List<File> files, File folder) {
+        File[] found = folder.listFiles((dir, name) -> name.endsWith(".mp4"));
+        if (found != null) {
+            Arrays.sort(found);
+            files.addAll(Arrays.asList(found));
+        }
+    }
+
+    private static long startOf(File file) {
+        try {
+            return LocalDateTime.parse(file.getName(), NvrStorage.FILE_NAME).atZone(ZoneId.systemDefault())
+                    .toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static String fileOf(long start) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(start), ZoneId.systemDefault());
+        return HOUR_FOLDER.format(time) + "/" + NvrStorage.FILE_NAME.format(time);
+    }
+
+    /**
+     * @return the recordings that cover any part of from to to, in order. Ones that have been deleted to keep within
+     *         the retention settings are left out.
+     */
+    public List<Segment> findSegments(long from, long to) {
+        List<Segment> found = new ArrayList<>();
+        for (Entry entry : segments.find(from, to, true, MAX_RESULTS)) {
+            if (entry.time + entry.duration <= from) {
+                continue;
+            }
+            String file = fileOf(entry.time);
+            if (root.resolve(file).toFile().exists()) {
+                found.add(new Segment(entry.time, entry.duration, entry.size, file));
+            }
+        }
+        return found;
+    }
+
+    public List<Entry> findEvents(long from, long to) {
+        return events.find(from, to, false, MAX_RESULTS);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the JSON for /timeline, with times in milliseconds since 1970 and paths the stream server can send.
+     */
+    public String toJson(long from, long to) {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"from\":").append(from).append(",\"to\":").append(to).append(",\"segments\":[");
+        String separator = "";
+        for (Segment segment : findSegments(from, to)) {
+            json.append(separator).append("{\"start\":").append(segment.start).append(",\"duration\":")
+                    .append(segment.duration).append(",\"size\":").append(segment.size).append(",\"url\":\"/nvr/")
+                    .append(segment.file).append("\"}");
+            separator = ",";
+        }
+        json.append("],\"events\":[");
+        separator = "";
+        for (Entry event : findEvents(from, to)) {
+            json.append(separator).append("{\"time\":").append(event.time).append(",\"type\":\"")
+                    .append(event.tag.replace("\"", "")).append("\"}");
+            separator = ",";
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Reads a time from a query string, as milliseconds since 1970 or a local time like 2020-05-31T13:00:00.
+     */
+    public static long parseTime(@Nullable String text, long defaultTime) {
+        if (text == null || text.isEmpty()) {
+            return defaultTime;
+        }
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            try {
+                return LocalDateTime.parse(text).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e2) {
+                return defaultTime;
+            }
+        }
+    }
+
+    // Takes the same lock as event() and addFinishedSegments(), so nothing is added once the files are closed.
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        segments.close();
+        events.close();
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.util.CharsetUtil;
+
+/**
+ * The {@link OnvifDiscovery} is responsible for sending WS-Discovery probes and collecting the ProbeMatches that come
+ * back. Each camera is reported to the listener as soon as its reply arrives instead of waiting for the whole timeout.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class OnvifDiscovery {
+    private static final InetSocketAddress WS_DISCOVERY_ADDRESS = new InetSocketAddress("239.255.255.250", 3702);
+    // Some cameras only answer one of these, so both are sent.
+    private static final String[] PROBE_TYPES = { "dn:NetworkVideoTransmitter", "tds:Device" };
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final EventLoopGroup eventLoopGroup;
+
+    public interface CameraListener {
+        /**
+         * @param onvifUrl the first IPv4 address from the XAddrs of the ProbeMatch.
+         * @param scopes the raw Scopes text, which often contains the brand or model.
+         */
+        void cameraFound(String ipAddress, String onvifUrl, String scopes);
+    }
+
+    public OnvifDiscovery(EventLoopGroup eventLoopGroup) {
+        this.eventLoopGroup = eventLoopGroup;
+    }
+
+    private String probeMessage(String type) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\" xmlns:a=\"http://schemas.xmlsoap.org/ws/2004/08/addressing\" xmlns:d=\"http://schemas.xmlsoap.org/ws/2005/04/discovery\" xmlns:dn=\"http://www.onvif.org/ver10/network/wsdl\" xmlns:tds=\"http://www.onvif.org/ver10/device/wsdl\">"
+                + "<s:Header><a:Action s:mustUnderstand=\"1\">http://schemas.xmlsoap.org/ws/2005/04/discovery/Probe</a:Action>"
+                + "<a:MessageID>uuid:" + UUID.randomUUID() + "</a:MessageID>"
+                + "<a:To s:mustUnderstand=\"1\">urn:schemas-xmlsoap-org:ws:2005:04:discovery</a:To></s:Header>"
+                + "<s:Body><d:Probe><d:Types>" + type + "</d:Types></d:Probe></s:Body></s:Envelope>";
+    }
+
+    // Returns the text between <prefix:tag> and the next '<', ignoring whatever namespace prefix the camera used.
+    static String getTagValue(String xml, String tag) {
+        int index = xml.indexOf(":" + tag + ">");
+        if (index == -1) {
+            return "";
+        }
+        int start = index + tag.length() + 2;
+        int end = xml.indexOf('<', start);
+        if (end == -1) {
+            return "";
+        }
+        return xml.substring(start, end).trim();
+    }
+
+    /**
+     * Sends the probes and listens for replies for the given time. Each camera is only reported once per call even
+     * if it answers more than one probe.
+     */
+    public void discover(int listenForMs, CameraListener listener) {
+        Set<String> camerasFound = ConcurrentHashMap.newKeySet();
+        Bootstrap bootstrap = new Bootstrap();
+        bootstrap.group(eventLoopGroup);
+        bootstrap.channel(NioDatagramChannel.class);
+        bootstrap.option(ChannelOption.SO_BROADCAST, true);
+        bootstrap.option(ChannelOption.SO_RCVBUF, 256 * 1024);
+        bootstrap.handler(new SimpleChannelInboundHandler<DatagramPacket>() {
+            @Override
+            protected void channelRead0(@Nullable ChannelHandlerContext ctx, @Nullable DatagramPacket packet) {
+                if (packet == null) {
+                    return;
+                }
+                String xml = packet.content().toString(CharsetUtil.UTF_8);
+                if (!xml.contains("ProbeMatch")) {
+                    return;
+                }
+                String onvifUrl = "";
+                for (String address : getTagValue(xml, "XAddrs").split("\\s+")) {
+                    // skip IPv6 addresses as the handler can not use them.
+                    if (address.startsWith("http://") && !address.contains("[")) {
+                        onvifUrl = address;
+                        break;
+                    }
+                }
+                String ipAddress = packet.sender().getAddress().getHostAddress();
+                if (!onvifUrl.isEmpty()) {
+                    try {
+                        ipAddress = new URL(onvifUrl).getHost();
+                    } catch (MalformedURLException e) {
+                        logger.debug("Camera at {} replied with an invalid XAddrs:{}", ipAddress, onvifUrl);
+                    }
+                }
+                if (camerasFound.add(ipAddress)) {
+                    logger.debug("WS-Discovery found a device at {}, ONVIF url:{}", ipAddress, onvifUrl);
+                    listener.cameraFound(ipAddress, onvifUrl, getTagValue(xml, "Scopes"));
+                }
+            }
+        });
+
+        bootstrap.bind(0).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(@Nullable ChannelFuture future) {
+                if (future == null) {
+                    return;
+                }
+                if (!future.isSuccess()) {
+                    logger.warn("Could not open a UDP socket for ONVIF discovery:{}",
+                            future.cause() == null ? "" : future.cause().getMessage());
+                    return;
+                }
+                Channel channel = future.channel();
+                for (String type : PROBE_TYPES) {
+                    channel.writeAndFlush(new DatagramPacket(
+                            Unpooled.copiedBuffer(probeMessage(type), CharsetUtil.UTF_8), WS_DISCOVERY_ADDRESS));
+                }
+                // UDP can be lost, so repeat once in case a camera did not hear the first lot.
+                channel.eventLoop().schedule(() -> {
+                    for (String type : PROBE_TYPES) {
+                        channel.writeAndFlush(new DatagramPacket(
+                                Unpooled.copiedBuffer(probeMessage(type), CharsetUtil.UTF_8), WS_DISCOVERY_ADDRESS));
+                    }
+                }, 500, TimeUnit.MILLISECONDS);
+                channel.eventLoop().schedule(() -> {
+                    channel.close();
+                }, listenForMs, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link ScaledSnapshotCache} is responsible for keeping the smaller copies of a camera's snapshots that have
+ * been asked for, such as ipcamera.jpg?w=320 for a UI tile. Each copy is made the first time it is asked for and is
+ * shared by everyone asking for the same snapshot at the same size. The cache holds at most maxBytes and throws away
+ * the least recently used copies first.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class ScaledSnapshotCache {
+    private final long maxBytes;
+    private long bytes = 0;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static class Entry {
+        // Null until the first caller has scaled it, the others wait on the entry.
+        @Nullable
+        byte[] jpeg = null;
+    }
+
+    public ScaledSnapshotCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param sequence the snapshot's number, which changes each time the camera's snapshot changes.
+     * @param jpeg the full size snapshot with that number, only used when the copy has not been made yet.
+     */
+    public byte[] get(long sequence, byte[] jpeg, int width, int quality) throws IOException {
+        String key = sequence + ":" + width + "x" + quality;
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+        }
+        synchronized (entry) {
+            byte[] scaled = entry.jpeg;
+            if (scaled != null) {
+                return scaled;
+            }
+            try {
+                scaled = JpegScaler.scale(jpeg, width, quality);
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    entries.remove(key, entry);
+                }
+                throw e;
+            }
+            entry.jpeg = scaled;
+            add(key, entry, scaled.length);
+            return scaled;
+        }
+    }
+
+    private synchronized void add(String key, Entry entry, int length) {
+        if (entries.get(key) != entry) {
+            // Thrown away while it was being made, so it is not counted.
+            return;
+        }
+        bytes += length;
+        for (Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator(); bytes > maxBytes
+                && iterator.hasNext();) {
+            Map.Entry<String, Entry> oldest = iterator.next();
+            byte[] evicted = oldest.getValue().jpeg;
+            if (evicted != null) {
+                // Entries still being made have nothing counted yet and are left for their caller.
+                bytes -= evicted.length;
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+}
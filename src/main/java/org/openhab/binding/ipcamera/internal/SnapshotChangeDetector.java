@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.zip.CRC32;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link SnapshotChangeDetector} is responsible for telling if a snapshot shows anything different to the last
+ * one that changed, so the same empty scene is not sent to openHAB all night. Cameras never send the same bytes twice
+ * because of sensor noise, so the picture is decoded at a fraction of its size and compared as a 16 x 16 grid of
+ * brightness values. Small changes such as the clock in the corner of the picture are not enough to count, but slow
+ * changes like the sun coming up add up until they do. The other side of this is that something covering only a small
+ * part of one cell, such as a person far away on a 4K camera, can be missed, which is why the interval can be set to 0.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class SnapshotChangeDetector {
+    private static final int GRID = 16;
+    // Out of 255, how much the average brightness of one cell has to move to count as a change.
+    private static final int CELL_THRESHOLD = 10;
+    // Far quicker than a full decode, and enough samples in each cell that the clock's digits do not count.
+    private static final int DECODE_WIDTH = 320;
+    private final CRC32 crc = new CRC32();
+    private byte[] lastJpeg = new byte[0];
+    private long lastCrc = -1;
+    private int @Nullable [] referenceGrid = null;
+
+    /**
+     * @return false only when the snapshot is close enough to the last snapshot that was reported as changed.
+     */
+    public synchronized boolean hasChanged(byte[] jpeg) {
+        if (jpeg == lastJpeg) {
+            return false;
+        }
+        lastJpeg = jpeg;
+        crc.reset();
+        crc.update(jpeg, 0, jpeg.length);
+        long value = crc.getValue();
+        if (value == lastCrc) {
+            return false;
+        }
+        lastCrc = value;
+        int[] grid;
+        try {
+            grid = lumaGrid(jpeg);
+        } catch (IOException | RuntimeException e) {
+            grid = null;
+        }
+        int[] reference = referenceGrid;
+        if (grid == null || reference == null) {
+            referenceGrid = grid;
+            return true;
+        }
+        for (int i = 0; i < grid.length; i++) {
+            if (Math.abs(grid[i] - reference[i]) > CELL_THRESHOLD) {
+                referenceGrid = grid;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void reset() {
+        lastJpeg = new byte[0];
+        lastCrc = -1;
+        referenceGrid = null;
+    }
+
+    private static int @Nullable [] lumaGrid(byte[] jpeg) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(jpeg))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, reader.getWidth(0) / DECODE_WIDTH);
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage image = reader.read(0, param);
+                return average(image);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static int[] average(BufferedImage image) {
+        int width = image.getWidth(), height = image.getHeight();
+        int[] sums = new int[GRID * GRID];
+        int[] counts = new int[GRID * GRID];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int cellRow = y * GRID / height * GRID;
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                int luma = (299 * ((rgb >> 16) & 0xFF) + 587 * ((rgb >> 8) & 0xFF) + 114 * (rgb & 0xFF)) / 1000;
+                int cell = cellRow + x * GRID / width;
+                sums[cell] += luma;
+                counts[cell]++;
+            }
+        }
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] = counts[i] == 0 ? 0 : sums[i] / counts[i];
+        }
+        return sums;
+    }
+}
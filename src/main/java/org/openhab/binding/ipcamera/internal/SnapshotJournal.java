@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link SnapshotJournal} is responsible for keeping the recent snapshots of a camera in one file of a fixed size,
+ * so they can be looked back through after an alarm. The file is memory mapped and used as a ring: new snapshots are
+ * written over the oldest ones, so the disk used never grows and no file is made for each snapshot. An index of the
+ * time and position of each snapshot is kept at the front of the file, so any time is found with a binary search.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class SnapshotJournal implements Closeable {
+    private static final int MAGIC = 0x49504A4E;
+    private static final int HEADER = 64;
+    private static final int SLOT = 24;
+    // Room in the index for a snapshot of this size on average, smaller snapshots just mean less time is kept.
+    private static final int AVERAGE_SNAPSHOT = 16 * 1024;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final int slots;
+    private final long dataStart;
+    private final long dataSize;
+    // How many snapshots have ever been added, and where the next one goes counting from the first ever written.
+    private long count;
+    private long head;
+    private long lastTime = Long.MIN_VALUE;
+    private boolean closed = false;
+
+    /**
+     * A snapshot from the journal. The index can be given to {@link #next(long)} to step through them.
+     */
+    public static class Frame {
+        public final long index;
+        public final long time;
+        public final byte[] jpeg;
+
+        Frame(long index, long time, byte[] jpeg) {
+            this.index = index;
+            this.time = time;
+            this.jpeg = jpeg;
+        }
+    }
+
+    /**
+     * Opens the journal, carrying on from what it held before if it was made with the same size.
+     *
+     * @param sizeBytes the size of the file, up to 2GB.
+     */
+    public SnapshotJournal(Path file, long sizeBytes) throws IOException {
+        long size = Math.max(1024 * 1024, Math.min(Integer.MAX_VALUE, sizeBytes));
+        slots = (int) Math.max(1024, size / AVERAGE_SNAPSHOT);
+        dataStart = HEADER + (long) slots * SLOT;
+        dataSize = size - dataStart;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean sameLayout = channel.size() == size;
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (!sameLayout || map.getInt(0) != MAGIC || map.getInt(4) != slots || map.getLong(8) != dataSize) {
+            map.putInt(0, MAGIC);
+            map.putInt(4, slots);
+            map.putLong(8, dataSize);
+            map.putLong(16, 0);
+            map.putLong(24, 0);
+        }
+        count = map.getLong(16);
+        head = map.getLong(24);
+        if (count > 0) {
+            lastTime = map.getLong(slotPosition(count - 1));
+        }
+    }
+
+    private int slotPosition(long index) {
+        return (int) (HEADER + (index % slots) * SLOT);
+    }
+
+    /**
+     * Adds a snapshot, writing over the oldest ones if there is not enough room.
+     */
+    public synchronized void append(long time, byte[] jpeg) {
+        if (closed || jpeg.length == 0 || jpeg.length > dataSize) {
+            return;
+        }
+        long start = head;
+        // A snapshot is never split, if it does not fit before the end it goes to the start.
+        if (start % dataSize + jpeg.length > dataSize) {
+            start += dataSize - start % dataSize;
+        }
+        // The head moves first, so the snapshots about to be written over are never read again, even after a crash.
+        head = start + jpeg.length;
+        map.putLong(24, head);
+        ByteBuffer data = map.duplicate();
+        data.position((int) (dataStart + start % dataSize));
+        data.put(jpeg);
+        long orderedTime = Math.max(time, lastTime);
+        int slot = slotPosition(count);
+        map.putLong(slot, orderedTime);
+        map.putLong(slot + 8, start);
+        map.putInt(slot + 16, jpeg.length);
+        lastTime = orderedTime;
+        // Written last, so a snapshot only counts once all of it is there.
+        map.putLong(16, ++count);
+    }
+
+    // The oldest snapshot that is still in the index and has not been written over.
+    private long oldestIndex() {
+        long low = Math.max(0, count - slots), high = count;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (map.getLong(slotPosition(middle) + 8) < head - dataSize) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the last snapshot taken at or before the time, or the oldest there is if the time is before that.
+     */
+    public synchronized @Nullable Frame find(long time) {
+        long oldest = oldestIndex();
+        if (closed || oldest >= count) {
+            return null;
+        }
+        long low = oldest, high = count;
+        // The first snapshot after the time, the one before it is the answer.
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (map.getLong(slotPosition(middle)) <= time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return read(Math.max(oldest, low - 1));
+    }
+
+    /**
+     * @return the snapshot after the one with this index, or null if there is no newer one yet.
+     */
+    public synchronized @Nullable Frame next(long index) {
+        if (closed || index + 1 >= count) {
+            return null;
+        }
+        return read(Math.max(index + 1, oldestIndex()));
+    }
+
+    private Frame read(long index) {
+        int slot = slotPosition(index);
+        long start = map.getLong(slot + 8);
+        byte[] jpeg = new byte[map.getInt(slot + 16)];
+        ByteBuffer data = map.duplicate();
+        data.position((int) (dataStart + start % dataSize));
+        data.get(jpeg);
+        return new Frame(index, map.getLong(slot), jpeg);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            map.force();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * The {@link SnapshotScheduler} is responsible for running a camera's snapshot poll every POLL_CAMERA_MS, or
+ * slower while the poll reports through {@link #setBackoff(double)} that little is watching or changing. All cameras
+ * share one timing wheel thread instead of a scheduled executor each, and every camera starts at a random point in
+ * the interval with a little jitter on each run, so cameras with the same poll time do not all ask for a picture at
+ * the same moment. The poll itself decides if anything needs a picture, and runs on the given executor as it may
+ * block while connecting to the camera.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class SnapshotScheduler {
+    private static @Nullable HashedWheelTimer timer = null;
+    private static int timerUsers = 0;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Runnable poll;
+    private final Executor executor;
+    private final long intervalMs;
+    private final long maxIntervalMs;
+    private volatile long currentIntervalMs;
+    private boolean running = false;
+    private int generation = 0;
+    private @Nullable Timeout timeout = null;
+
+    /**
+     * @param intervalMs the time between polls while the camera is busy.
+     * @param maxIntervalMs the most the time between polls can be backed off to.
+     */
+    public SnapshotScheduler(Runnable poll, Executor executor, long intervalMs, long maxIntervalMs) {
+        this.poll = poll;
+        this.executor = executor;
+        this.intervalMs = Math.max(100, intervalMs);
+        this.maxIntervalMs = Math.max(this.intervalMs, maxIntervalMs);
+        currentIntervalMs = this.intervalMs;
+    }
+
+    /**
+     * @param backoff from 0 to poll every intervalMs, up to 1 to poll every maxIntervalMs. Used from the next poll.
+     */
+    public void setBackoff(double backoff) {
+        double clamped = Math.max(0, Math.min(1, backoff));
+        currentIntervalMs = intervalMs + Math.round((maxIntervalMs - intervalMs) * clamped);
+    }
+
+    public long getInterval() {
+        return currentIntervalMs;
+    }
+
+    /**
+     * Goes back to polling every intervalMs, and runs the next poll straight away if it was backed off, for when
+     * something needs a picture sooner than the slowed down poll would get one.
+     */
+    public synchronized void wake() {
+        boolean backedOff = currentIntervalMs > intervalMs;
+        currentIntervalMs = intervalMs;
+        Timeout localTimeout = timeout;
+        // cancel() is false once the poll is already on its way, it will then use the new interval itself.
+        if (backedOff && running && localTimeout != null && localTimeout.cancel()) {
+            schedule(generation, 0);
+        }
+    }
+
+    private static synchronized void useTimer() {
+        if (timer == null) {
+            // A 10ms tick is far finer than any poll time and costs next to nothing while idle.
+            timer = new HashedWheelTimer(new DefaultThreadFactory("ipcamera-snapshots", true), 10,
+                    TimeUnit.MILLISECONDS, 512);
+        }
+        timerUsers++;
+    }
+
+    private static synchronized void releaseTimer() {
+        HashedWheelTimer localTimer = timer;
+        if (--timerUsers <= 0 && localTimer != null) {
+            localTimer.stop();
+            timer = null;
+            timerUsers = 0;
+        }
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        useTimer();
+        schedule(++generation, ThreadLocalRandom.current().nextLong(intervalMs));
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        Timeout localTimeout = timeout;
+        if (localTimeout != null) {
+            localTimeout.cancel();
+            timeout = null;
+        }
+        releaseTimer();
+    }
+
+    private static synchronized @Nullable HashedWheelTimer currentTimer() {
+        return timer;
+    }
+
+    // A poll that was still running when stop() and start() were called must not carry on its old chain.
+    private synchronized void schedule(int chain, long delayMs) {
+        HashedWheelTimer wheel = currentTimer();
+        if (running && chain == generation && wheel != null) {
+            timeout = wheel.newTimeout(expired -> run(chain), delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void run(int chain) {
+        try {
+            executor.execute(() -> {
+                long started = System.nanoTime();
+                try {
+                    poll.run();
+                } catch (RuntimeException e) {
+                    logger.warn("Snapshot poll failed: {}", e.getMessage());
+                } finally {
+                    // +-10% so cameras that started together drift apart.
+                    long interval = currentIntervalMs;
+                    long jitter = interval / 10;
+                    long delay = interval - jitter + ThreadLocalRandom.current().nextLong(2 * jitter + 1)
+                            - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+                    schedule(chain, Math.max(0, delay));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("Snapshot poll could not be run as the executor is shutting down.");
+        }
+    }
+}
@@ -25,11 +25,13 @@ import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.smarthome.core.library.types.OnOffType;
 import org.eclipse.smarthome.core.thing.ChannelUID;
 import org.openhab.binding.ipcamera.handler.IpCameraGroupHandler;
+import org.openhab.binding.ipcamera.handler.IpCameraHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.handler.codec.http.DefaultHttpResponse;
@@ -62,6 +64,7 @@ public class StreamServerGroupHandler extends ChannelInboundHandlerAdapter {
     int recievedBytes = 0;
     int count = 0;
     boolean updateSnapshot = false;
+    private boolean handlingMjpeg = false;
 
     public StreamServerGroupHandler(IpCameraGroupHandler ipCameraGroupHandler) {
         this.ipCameraGroupHandler = ipCameraGroupHandler;
@@ -72,12 +75,14 @@ public class StreamServerGroupHandler extends ChannelInboundHandlerAdapter {
     public void handlerAdded(@Nullable ChannelHandlerContext ctx) {
     }
 
-    private String resolveIndexToPath(String uri) {
-        if (!uri.substring(1, 2).equals("i")) {
-            return ipCameraGroupHandler.getOutputFolder(Integer.parseInt(uri.substring(1, 2)));
+    // example is /ipcamera:HIKVISION:frontdoor/ipcamera12.ts, found in the FFMPEG_OUTPUT of that camera.
+    private @Nullable String resolveSegmentPath(String path) {
+        int slash = path.indexOf('/', 1);
+        if (slash < 0 || path.indexOf('/', slash + 1) >= 0 || path.contains("..")) {
+            return null;
         }
-        return "notFound";
-        // example is /1ipcameraxx.ts
+        String folder = ipCameraGroupHandler.getOutputFolder(path.substring(1, slash));
+        return folder == null ? null : folder + path.substring(slash + 1);
     }
 
     @Override
@@ -114,28 +119,52 @@ public class StreamServerGroupHandler extends ChannelInboundHandlerAdapter {
                             }
                             break;
                         case "/ipcamera.jpg":
-                            sendSnapshotImage(ctx, "image/jpg");
+                            IpCameraHandler camera = ipCameraGroupHandler.getCurrentCamera();
+                            if (camera == null) {
+                                logger.debug(
+                                        "WARN: Openhab may still be starting, or all cameras in the group are OFFLINE.");
+                                sendError(ctx, HttpResponseStatus.SERVICE_UNAVAILABLE);
+                                break;
+                            }
+                            // Cameras only poll for pictures when something uses them, so ask for a fresh one.
+                            ChannelHandlerContext waitingCtx = ctx;
+                            camera.getFreshSnapshot(JpegScaler.requestedWidth(queryStringDecoder.parameters()),
+                                    JpegScaler.requestedQuality(queryStringDecoder.parameters())).thenAccept(jpg -> {
+                                        if (jpg.length > 1) {
+                                            sendSnapshotImage(waitingCtx, "image/jpg", jpg);
+                                        } else {
+                                            sendError(waitingCtx, HttpResponseStatus.SERVICE_UNAVAILABLE);
+                                        }
+                                    });
                             break;
-                        case "/snapshots.mjpeg":
-                            logger.warn("snapshots.mjpeg is not yet implemented, use ipcamera.jpg or HLS.");
-                            // ipCameraGroupHandler.setupSnapshotStreaming(true, ctx, false);
-                            // handlingSnapshotStream = true;
+                        case "/mosaic.jpg":
+                            ChannelHandlerContext mosaicCtx = ctx;
+                            ipCameraGroupHandler.getMosaic().thenAccept(jpg -> {
+                                if (jpg.length > 0) {
+                                    sendSnapshotImage(mosaicCtx, "image/jpg", jpg);
+                                } else {
+                                    mosaicCtx.close();
+                                }
+                            });
                             break;
+                        case "/snapshots.mjpeg":
                         case "/ipcamera.mjpeg":
-                            logger.warn("ipcamera.mjpeg is not yet implemented, use ipcamera.jpg or HLS.");
-                            // ipCameraGroupHandler.setupMjpegStreaming(true, ctx);
-                            // handlingMjpeg = true;
-                            break;
                         case "/autofps.mjpeg":
-                            logger.warn("autofps.mjpeg is not yet implemented, use ipcamera.jpg or HLS.");
-                            // ipCameraGroupHandler.setupSnapshotStreaming(true, ctx, true);
-                            // handlingSnapshotStream = true;
+                        case "/mosaic.mjpeg":
+                            sendMjpegFirstPacket(ctx);
+                            handlingMjpeg = true;
+                            ipCameraGroupHandler.setupMjpegStreaming(true, ctx, queryStringDecoder.path(),
+                                    MjpegVariants.Variant.fromQuery(queryStringDecoder.parameters()));
                             break;
                         default:
                             if (httpRequest.uri().contains(".ts")) {
-                                // String path = resolveIndexToPath(httpRequest.uri());
-                                sendFile(ctx, resolveIndexToPath(httpRequest.uri()) + httpRequest.uri().substring(2),
-                                        "video/MP2T");
+                                String segmentPath = resolveSegmentPath(queryStringDecoder.path());
+                                if (segmentPath == null) {
+                                    // The camera has left the group, so its segments are no longer offered.
+                                    ctx.close();
+                                } else {
+                                    sendFile(ctx, segmentPath, "video/MP2T");
+                                }
                             } else if (httpRequest.uri().contains(".jpg")) {
                                 // Allow access to the preroll and postroll jpg files
                                 sendFile(ctx, httpRequest.uri(), "image/jpg");
@@ -152,16 +181,9 @@ public class StreamServerGroupHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
-    private void sendSnapshotImage(ChannelHandlerContext ctx, String contentType) throws IOException {
+    private void sendSnapshotImage(ChannelHandlerContext ctx, String contentType, byte[] jpg) {
         HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
-        if (ipCameraGroupHandler.cameraIndex >= ipCameraGroupHandler.cameraOrder.size()) {
-            logger.debug("WARN: Openhab may still be starting, or all cameras in the group are OFFLINE.");
-            return;
-        }
-        ipCameraGroupHandler.cameraOrder.get(ipCameraGroupHandler.cameraIndex).lockCurrentSnapshot.lock();
-        ByteBuf snapshotData = Unpooled
-                .copiedBuffer(ipCameraGroupHandler.cameraOrder.get(ipCameraGroupHandler.cameraIndex).currentSnapshot);
-        ipCameraGroupHandler.cameraOrder.get(ipCameraGroupHandler.cameraIndex).lockCurrentSnapshot.unlock();
+        ByteBuf snapshotData = Unpooled.wrappedBuffer(jpg);
         response.headers().add(HttpHeaderNames.CONTENT_TYPE, contentType);
         response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
         response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
@@ -174,6 +196,25 @@ public class StreamServerGroupHandler extends ChannelInboundHandlerAdapter {
         ctx.channel().writeAndFlush(footerBbuf);
     }
 
+    private void sendError(ChannelHandlerContext ctx, HttpResponseStatus status) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        response.headers().add(HttpHeaderNames.CONTENT_LENGTH, 0);
+        ctx.channel().writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    private void sendMjpegFirstPacket(ChannelHandlerContext ctx) {
+        final String BOUNDARY = "thisMjpegStream";
+        String contentType = "multipart/x-mixed-replace; boundary=" + BOUNDARY;
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().add(HttpHeaderNames.CONTENT_TYPE, contentType);
+        response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
+        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        response.headers().add("Access-Control-Allow-Origin", "*");
+        response.headers().add("Access-Control-Expose-Headers", "*");
+        ctx.channel().writeAndFlush(response);
+    }
+
     private void sendFile(ChannelHandlerContext ctx, String fileUri, String contentType) throws IOException {
         logger.debug("file is :{}", fileUri);
         File file = new File(fileUri);
@@ -246,5 +287,9 @@ public class StreamServerGroupHandler extends ChannelInboundHandlerAdapter {
 
     @Override
     public void handlerRemoved(@Nullable ChannelHandlerContext ctx) {
+        if (ctx != null && handlingMjpeg) {
+            handlingMjpeg = false;
+            ipCameraGroupHandler.setupMjpegStreaming(false, ctx, "", null);
+        }
     }
 }
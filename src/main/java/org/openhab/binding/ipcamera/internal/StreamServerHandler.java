@@ -13,12 +13,19 @@
 
 package org.openhab.binding.ipcamera.internal;
 
-import static org.openhab.binding.ipcamera.IpCameraBindingConstants.CONFIG_FFMPEG_OUTPUT;
+import static org.openhab.binding.ipcamera.IpCameraBindingConstants.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
@@ -29,8 +36,11 @@ import org.slf4j.LoggerFactory;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultHttpContent;
 import io.netty.handler.codec.http.DefaultHttpResponse;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpHeaderNames;
@@ -56,9 +66,20 @@ import io.netty.util.ReferenceCountUtil;
 @NonNullByDefault
 public class StreamServerHandler extends ChannelInboundHandlerAdapter {
     private final Logger logger = LoggerFactory.getLogger(getClass());
+    // Nothing waits for a place, a clip asked for while these are all busy gets a 503.
+    private static final ThreadPoolExecutor CLIPS = new ThreadPoolExecutor(NvrTimeline.MAX_CLIPS,
+            NvrTimeline.MAX_CLIPS, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "IpCameraClip");
+                thread.setDaemon(true);
+                return thread;
+            });
+    static {
+        CLIPS.allowCoreThreadTimeOut(true);
+    }
     private IpCameraHandler ipCameraHandler;
     private boolean handlingMjpeg = false; // used to remove ctx from group when handler is removed.
     private boolean handlingSnapshotStream = false; // used to remove ctx from group when handler is removed.
+    private boolean handlingVariant = false; // stream that was asked for with fps, width or quality.
     private byte[] incomingJpeg = new byte[0];
     String whiteList = "";
     int recievedBytes = 0;
@@ -99,6 +120,7 @@ public class StreamServerHandler extends ChannelInboundHandlerAdapter {
                     logger.debug("Stream Server recieved request \tGET:{}", httpRequest.uri());
                     // Some browsers send a query string after the path when refreshing a picture.
                     QueryStringDecoder queryStringDecoder = new QueryStringDecoder(httpRequest.uri());
+                    Object requestEvent = CameraEvents.beginServerRequest();
                     switch (queryStringDecoder.path()) {
                         case "/ipcamera.m3u8":
                             if (ipCameraHandler.ffmpegHLS != null) {
@@ -124,29 +146,65 @@ public class StreamServerHandler extends ChannelInboundHandlerAdapter {
                             sendFile(ctx, httpRequest.uri(), "image/gif");
                             break;
                         case "/ipcamera.jpg":
-                            if (!ipCameraHandler.updateImageEvents.contentEquals("1")) {
-                                if (ipCameraHandler.snapshotUri != "") {
-                                    ipCameraHandler.sendHttpGET(ipCameraHandler.snapshotUri);
-                                }
-                                if (ipCameraHandler.currentSnapshot.length == 1) {// no jpg received from camera.
+                            // Shares one camera request with every other client that asks before it replies.
+                            ChannelHandlerContext waitingCtx = ctx;
+                            // ?w=320 gives a smaller copy for UI tiles.
+                            int width = JpegScaler.requestedWidth(queryStringDecoder.parameters());
+                            int quality = JpegScaler.requestedQuality(queryStringDecoder.parameters());
+                            ipCameraHandler.getFreshSnapshot(width, quality).thenAccept(jpg -> {
+                                if (jpg.length == 1) {// no jpg received from camera.
                                     logger.debug("No jpg in ram to send");
-                                    break;
+                                    waitingCtx.close();
+                                } else {
+                                    sendSnapshotImage(waitingCtx, "image/jpg", jpg);
                                 }
-                            }
-                            sendSnapshotImage(ctx, "image/jpg");
+                            });
                             break;
                         case "/snapshots.mjpeg":
+                            if (startVariant(ctx, queryStringDecoder)) {
+                                break;
+                            }
                             handlingSnapshotStream = true;
                             ipCameraHandler.setupSnapshotStreaming(true, ctx, false);
                             break;
                         case "/ipcamera.mjpeg":
+                            if (startVariant(ctx, queryStringDecoder)) {
+                                break;
+                            }
                             ipCameraHandler.setupMjpegStreaming(true, ctx);
                             handlingMjpeg = true;
                             break;
                         case "/autofps.mjpeg":
+                            if (startVariant(ctx, queryStringDecoder)) {
+                                break;
+                            }
                             handlingSnapshotStream = true;
                             ipCameraHandler.setupSnapshotStreaming(true, ctx, true);
                             break;
+                        case "/metrics":
+                            sendMetrics(ctx);
+                            break;
+                        case "/timeline":
+                            sendTimeline(ctx, queryStringDecoder);
+                            break;
+                        case "/clip":
+                            sendClip(ctx, queryStringDecoder);
+                            break;
+                        case "/timelapse":
+                            Timelapse timelapse = ipCameraHandler.getTimelapse();
+                            if (timelapse == null) {
+                                sendError(ctx, HttpResponseStatus.NOT_FOUND);
+                            } else {
+                                // Lists the files of every day, so it is not done on this thread.
+                                ipCameraHandler.getScheduler().execute(() -> sendJson(ctx, timelapse.toJson()));
+                            }
+                            break;
+                        case "/history.jpg":
+                            sendHistoryImage(ctx, queryStringDecoder);
+                            break;
+                        case "/history.mjpeg":
+                            sendHistoryStream(ctx, queryStringDecoder);
+                            break;
                         case "/instar":
                             InstarHandler instar = new InstarHandler(ipCameraHandler);
                             instar.alarmTriggered(httpRequest.uri().toString());
@@ -164,8 +222,16 @@ public class StreamServerHandler extends ChannelInboundHandlerAdapter {
                                 sendFile(ctx, queryStringDecoder.path(), "video/mp4");
                             } else if (httpRequest.uri().contains(".mp4")) {
                                 sendFile(ctx, queryStringDecoder.path(), "video/mp4");
+                            } else if (httpRequest.uri().contains(".m3u8")) {
+                                // The timelapse of the day that is still being made.
+                                sendFile(ctx, queryStringDecoder.path(), "application/x-mpegurl");
                             }
                     }
+                    if (requestEvent != null) {
+                        CameraEvents.endServerRequest(requestEvent, ipCameraHandler.getThing().getUID().getId(),
+                                queryStringDecoder.path(),
+                                ((InetSocketAddress) ctx.channel().remoteAddress()).getAddress().getHostAddress());
+                    }
                 } else if ("POST".equalsIgnoreCase(httpRequest.method().toString())) {
                     switch (httpRequest.uri()) {
                         case "/ipcamera.jpg":
@@ -203,6 +269,7 @@ public class StreamServerHandler extends ChannelInboundHandlerAdapter {
                     } else {
                         if (recievedBytes > 1000) {
                             ipCameraHandler.sendMjpegFrame(incomingJpeg, ipCameraHandler.mjpegChannelGroup);
+                            ipCameraHandler.mjpegFrameReceived(incomingJpeg);
                         }
                     }
                     recievedBytes = 0;
@@ -213,11 +280,21 @@ public class StreamServerHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
-    private void sendSnapshotImage(ChannelHandlerContext ctx, String contentType) throws IOException {
+    // ?fps=2&width=640&quality=70 gives a stream made for this client instead of the one everyone else gets.
+    private boolean startVariant(ChannelHandlerContext ctx, QueryStringDecoder queryStringDecoder) {
+        MjpegVariants.Variant variant = MjpegVariants.Variant.fromQuery(queryStringDecoder.parameters());
+        if (variant == null) {
+            return false;
+        }
+        handlingVariant = true;
+        ipCameraHandler.setupMjpegVariant(true, ctx, queryStringDecoder.path(), variant);
+        return true;
+    }
+
+    private void sendSnapshotImage(ChannelHandlerContext ctx, String contentType, byte[] jpg) {
         HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
-        ipCameraHandler.lockCurrentSnapshot.lock();
-        ByteBuf snapshotData = Unpooled.copiedBuffer(ipCameraHandler.currentSnapshot);
-        ipCameraHandler.lockCurrentSnapshot.unlock();
+        // The array is never changed once it has been received, so it can be sent without copying.
+        ByteBuf snapshotData = Unpooled.wrappedBuffer(jpg);
         response.headers().add(HttpHeaderNames.CONTENT_TYPE, contentType);
         response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
         response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
@@ -230,9 +307,257 @@ public class StreamServerHandler extends ChannelInboundHandlerAdapter {
         ctx.channel().writeAndFlush(footerBbuf);
     }
 
+    private void sendMetrics(ChannelHandlerContext ctx) {
+        ByteBuf metricsData = Unpooled.copiedBuffer(ipCameraHandler.getMetricsText(), StandardCharsets.UTF_8);
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().add(HttpHeaderNames.CONTENT_TYPE, "text/plain; version=0.0.4; charset=utf-8");
+        response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
+        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        response.headers().add(HttpHeaderNames.CONTENT_LENGTH, metricsData.readableBytes());
+        ctx.channel().write(response);
+        ctx.channel().writeAndFlush(metricsData).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    private static @Nullable String getParameter(QueryStringDecoder queryStringDecoder, String name) {
+        List<String> values = queryStringDecoder.parameters().get(name);
+        return (values == null || values.isEmpty()) ? null : values.get(0);
+    }
+
+    // ?from=&to= are milliseconds since 1970 or local times like 2020-05-31T13:00, the last hour if left out.
+    private void sendTimeline(ChannelHandlerContext ctx, QueryStringDecoder queryStringDecoder) {
+        NvrTimeline timeline = ipCameraHandler.getNvrTimeline();
+        if (timeline == null) {
+            sendError(ctx, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
+        long to = NvrTimeline.parseTime(getParameter(queryStringDecoder, "to"), System.currentTimeMillis());
+        long from = NvrTimeline.parseTime(getParameter(queryStringDecoder, "from"), to - 3600000);
+        // Checking that each recording still exists can mean thousands of files, so it is not done on this thread.
+        ipCameraHandler.getScheduler().execute(() -> sendJson(ctx, timeline.toJson(from, to)));
+    }
+
+    private void sendJson(ChannelHandlerContext ctx, String text) {
+        ByteBuf json = Unpooled.copiedBuffer(text, StandardCharsets.UTF_8);
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().add(HttpHeaderNames.CONTENT_TYPE, "application/json; charset=utf-8");
+        response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
+        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        response.headers().add(HttpHeaderNames.CONTENT_LENGTH, json.readableBytes());
+        response.headers().add("Access-Control-Allow-Origin", "*");
+        ctx.channel().write(response);
+        ctx.channel().writeAndFlush(json).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    private void sendError(ChannelHandlerContext ctx, HttpResponseStatus status) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        response.headers().add(HttpHeaderNames.CONTENT_LENGTH, 0);
+        ctx.channel().writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    // ?t= is milliseconds since 1970 or a local time like 2020-05-31T13:00:05, the newest snapshot if left out.
+    private void sendHistoryImage(ChannelHandlerContext ctx, QueryStringDecoder queryStringDecoder) {
+        SnapshotJournal journal = ipCameraHandler.getSnapshotHistory();
+        if (journal == null) {
+            sendError(ctx, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
+        long time = NvrTimeline.parseTime(getParameter(queryStringDecoder, "t"), Long.MAX_VALUE);
+        // Reading the file can wait on the disk, so it is done on the scheduler and only the reply is sent from here.
+        ipCameraHandler.getScheduler().execute(() -> {
+            SnapshotJournal.Frame frame = journal.find(time);
+            ctx.executor().execute(() -> {
+                if (frame == null) {
+                    sendError(ctx, HttpResponseStatus.NOT_FOUND);
+                } else {
+                    sendSnapshotImage(ctx, "image/jpg", frame.jpeg);
+                }
+            });
+        });
+    }
+
+    /**
+     * Plays the snapshot history from ?from= at ?speed= times the speed it was taken, carrying on with the new
+     * snapshots once it catches up. Each frame is read from the journal on the scheduler just before it is due and
+     * written from the channel's own thread, so a slow viewer only falls behind instead of building up frames in
+     * memory, and the network thread never waits on the disk.
+     */
+    private void sendHistoryStream(ChannelHandlerContext ctx, QueryStringDecoder queryStringDecoder) {
+        SnapshotJournal journal = ipCameraHandler.getSnapshotHistory();
+        if (journal == null) {
+            sendError(ctx, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
+        long from = NvrTimeline.parseTime(getParameter(queryStringDecoder, "from"), System.currentTimeMillis() - 60000);
+        double speed = 1;
+        try {
+            String text = getParameter(queryStringDecoder, "speed");
+            if (text != null) {
+                speed = Math.max(0.1, Math.min(100, Double.parseDouble(text)));
+            }
+        } catch (NumberFormatException e) {
+            // Plays at the speed it was taken.
+        }
+        double playSpeed = speed;
+        ipCameraHandler.getScheduler().execute(() -> {
+            SnapshotJournal.Frame frame = journal.find(from);
+            ctx.executor().execute(() -> {
+                if (frame == null) {
+                    sendError(ctx, HttpResponseStatus.NOT_FOUND);
+                } else {
+                    ipCameraHandler.sendMjpegFirstPacket(ctx);
+                    sendHistoryFrame(ctx, journal, frame, playSpeed);
+                }
+            });
+        });
+    }
+
+    private void sendHistoryFrame(ChannelHandlerContext ctx, SnapshotJournal journal, SnapshotJournal.Frame frame,
+            double speed) {
+        if (!isHistoryOpen(ctx, journal)) {
+            return;
+        }
+        if (!ctx.channel().isWritable()) {
+            ctx.executor().schedule(() -> sendHistoryFrame(ctx, journal, frame, speed), 100, TimeUnit.MILLISECONDS);
+            return;
+        }
+        String header = "--thisMjpegStream\r\ncontent-type: image/jpeg\r\ncontent-length: " + frame.jpeg.length
+                + "\r\n\r\n";
+        ctx.write(Unpooled.copiedBuffer(header, StandardCharsets.UTF_8));
+        ctx.write(Unpooled.wrappedBuffer(frame.jpeg));
+        ctx.writeAndFlush(Unpooled.copiedBuffer("\r\n", StandardCharsets.UTF_8));
+        readNextHistoryFrame(ctx, journal, frame, speed);
+    }
+
+    private boolean isHistoryOpen(ChannelHandlerContext ctx, SnapshotJournal journal) {
+        if (!ctx.channel().isActive()) {
+            return false;
+        }
+        if (ipCameraHandler.getSnapshotHistory() != journal) {
+            // The camera was restarted, the viewer can ask again.
+            ctx.close();
+            return false;
+        }
+        return true;
+    }
+
+    // Long gaps, such as when the camera was offline, are shortened so the viewer is not left waiting.
+    private void readNextHistoryFrame(ChannelHandlerContext ctx, SnapshotJournal journal,
+            SnapshotJournal.Frame frame, double speed) {
+        ipCameraHandler.getScheduler().execute(() -> {
+            SnapshotJournal.Frame next = journal.next(frame.index);
+            if (next == null) {
+                // Caught up with the camera, so wait for its next snapshot.
+                ctx.executor().schedule(() -> {
+                    if (isHistoryOpen(ctx, journal)) {
+                        readNextHistoryFrame(ctx, journal, frame, speed);
+                    }
+                }, 500, TimeUnit.MILLISECONDS);
+                return;
+            }
+            long delay = Math.min(2000, (long) ((next.time - frame.time) / speed));
+            ctx.executor().schedule(() -> sendHistoryFrame(ctx, journal, next, speed), delay, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /**
+     * Joins the recorded segments that cover ?from=&to= into one MP4. FFmpeg only copies the video, so this costs
+     * about the same as sending the files, and what it outputs is sent as it arrives instead of being saved first.
+     * Only {@value NvrTimeline#MAX_CLIPS} clips are made at once, as each one runs FFmpeg.
+     */
+    private void sendClip(ChannelHandlerContext ctx, QueryStringDecoder queryStringDecoder) {
+        NvrTimeline timeline = ipCameraHandler.getNvrTimeline();
+        Object ffmpegLocation = ipCameraHandler.config.get(CONFIG_FFMPEG_LOCATION);
+        if (timeline == null || ffmpegLocation == null) {
+            sendError(ctx, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
+        long to = NvrTimeline.parseTime(getParameter(queryStringDecoder, "to"), System.currentTimeMillis());
+        long from = NvrTimeline.parseTime(getParameter(queryStringDecoder, "from"), to - 60000);
+        long end = Math.min(to, from + NvrTimeline.MAX_CLIP_MS);
+        try {
+            CLIPS.execute(() -> {
+                try {
+                    makeClip(ctx, timeline, ffmpegLocation.toString(), from, end);
+                } catch (IOException e) {
+                    logger.debug("Could not make a clip:{}", e.getMessage());
+                    sendError(ctx, HttpResponseStatus.INTERNAL_SERVER_ERROR);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            sendError(ctx, HttpResponseStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    // Runs on one of the CLIPS threads, which waits here until FFmpeg has finished or the viewer has gone.
+    private void makeClip(ChannelHandlerContext ctx, NvrTimeline timeline, String ffmpegLocation, long from, long to)
+            throws IOException {
+        List<NvrTimeline.Segment> segments = timeline.findSegments(from, to);
+        if (segments.isEmpty() || to <= from) {
+            sendError(ctx, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
+        File list = File.createTempFile("ipcameraclip", ".txt");
+        List<String> lines = new ArrayList<>();
+        for (NvrTimeline.Segment segment : segments) {
+            lines.add(Ffmpeg.concatLine(timeline.getRoot().resolve(segment.file).toAbsolutePath().toString()));
+        }
+        try {
+            Files.write(list.toPath(), lines, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            list.delete();
+            throw e;
+        }
+        long offset = Math.max(0, from - segments.get(0).start);
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegLocation);
+        for (String argument : ("-hide_banner -loglevel quiet -f concat -safe 0 -ss " + (offset / 1000.0) + " -i "
+                + "LIST -t " + ((to - from) / 1000.0)
+                + " -c copy -movflags +frag_keyframe+empty_moov+default_base_moof -f mp4 pipe:1").split(" ")) {
+            command.add("LIST".equals(argument) ? list.getAbsolutePath() : argument);
+        }
+        Process process;
+        try {
+            process = new ProcessBuilder(command).start();
+        } catch (IOException e) {
+            list.delete();
+            throw e;
+        }
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().add(HttpHeaderNames.CONTENT_TYPE, "video/mp4");
+        response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
+        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        response.headers().set(HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderValues.CHUNKED);
+        response.headers().add("Access-Control-Allow-Origin", "*");
+        ctx.channel().writeAndFlush(response);
+        try (InputStream output = process.getInputStream()) {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = output.read(buffer)) != -1 && ctx.channel().isActive()) {
+                ChannelFuture written = ctx.channel()
+                        .writeAndFlush(new DefaultHttpContent(Unpooled.copiedBuffer(buffer, 0, read)));
+                // Waits for slow clients here instead of holding the whole clip in RAM.
+                if (!ctx.channel().isWritable()) {
+                    written.awaitUninterruptibly();
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("Stopped sending a clip:{}", e.getMessage());
+        } finally {
+            process.destroy();
+            list.delete();
+            ctx.channel().writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
     private void sendFile(ChannelHandlerContext ctx, String fileUri, String contentType) throws IOException {
         File file = new File(ipCameraHandler.config.get(CONFIG_FFMPEG_OUTPUT).toString() + fileUri);
         ChunkedFile chunkedFile = new ChunkedFile(file);
+        if ("application/x-mpegurl".equals(contentType) || "video/MP2T".equals(contentType)) {
+            ipCameraHandler.metrics
+                    .hlsRequest(((InetSocketAddress) ctx.channel().remoteAddress()).getAddress().getHostAddress());
+            ipCameraHandler.metrics.hlsBytesSent.add(chunkedFile.length());
+        }
         HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
         response.headers().add(HttpHeaderNames.CONTENT_TYPE, contentType);
         response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
@@ -290,7 +615,10 @@ public class StreamServerHandler extends ChannelInboundHandlerAdapter {
             return;
         }
         logger.debug("Closing a StreamServerHandler.");
-        if (handlingMjpeg) {
+        if (handlingVariant) {
+            handlingVariant = false;
+            ipCameraHandler.setupMjpegVariant(false, ctx, "", null);
+        } else if (handlingMjpeg) {
             ipCameraHandler.setupMjpegStreaming(false, ctx);
         } else if (handlingSnapshotStream) {
             handlingSnapshotStream = false;
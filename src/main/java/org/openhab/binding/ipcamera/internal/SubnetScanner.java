@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+/**
+ * The {@link SubnetScanner} is responsible for finding cameras that do not answer WS-Discovery, by trying to connect
+ * to the ports cameras normally use on every address of the configured CIDR ranges. Connects are non blocking and are
+ * started at a limited rate, so a /24 takes a few seconds without flooding the network.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class SubnetScanner {
+    public static final int[] CAMERA_PORTS = { 80, 554, 8000, 8080 };
+    public static final int RTSP_PORT = 554;
+    // Stops a typo like /8 from trying to scan millions of addresses.
+    private static final int MAX_HOSTS = 65536;
+    private static final int MAX_PENDING_CONNECTS = 256;
+    private static final int TICKS_PER_SECOND = 100;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Bootstrap bootstrap;
+    private final EventLoop eventLoop;
+    private final List<long[]> ranges = new ArrayList<>();
+    private final HostListener listener;
+    // Can be below 1, the remainder is carried over in connectBudget so low rates are kept to.
+    private final double connectsPerTick;
+    private double connectBudget = 0;
+    private final AtomicInteger pendingConnects = new AtomicInteger();
+    private @Nullable ScheduledFuture<?> scanJob = null;
+    private int rangeIndex = 0;
+    private long nextAddress = 0;
+    private int portIndex = 0;
+    private @Nullable Host currentHost = null;
+
+    public interface HostListener {
+        /**
+         * Called once for each address that had at least one of {@link #CAMERA_PORTS} open.
+         */
+        void hostFound(String ipAddress, List<Integer> openPorts);
+    }
+
+    private class Host {
+        final String ipAddress;
+        final List<Integer> openPorts = new ArrayList<>(CAMERA_PORTS.length);
+        int portsLeft = CAMERA_PORTS.length;
+
+        Host(String ipAddress) {
+            this.ipAddress = ipAddress;
+        }
+
+        // only called from the event loop, so no locking is needed.
+        void portChecked(int port, boolean open) {
+            if (open) {
+                openPorts.add(port);
+            }
+            if (--portsLeft == 0 && !openPorts.isEmpty()) {
+                listener.hostFound(ipAddress, openPorts);
+            }
+        }
+    }
+
+    /**
+     * @param subnets comma separated CIDR ranges, ie 192.168.1.0/24,10.0.0.0/28
+     * @param connectsPerSecond the most new TCP connections to start each second.
+     */
+    public SubnetScanner(EventLoopGroup eventLoopGroup, String subnets, int connectsPerSecond, HostListener listener) {
+        this.listener = listener;
+        eventLoop = eventLoopGroup.next();
+        connectsPerTick = Math.max(1, connectsPerSecond) / (double) TICKS_PER_SECOND;
+        long hosts = 0;
+        for (String subnet : subnets.split(",")) {
+            long[] range = parseCidr(subnet.trim());
+            if (range.length == 0) {
+                continue;
+            }
+            hosts += range[1] - range[0] + 1;
+            if (hosts > MAX_HOSTS) {
+                logger.warn("Subnet scan is limited to {} addresses, ignoring {} and any ranges after it.", MAX_HOSTS,
+                        subnet);
+                break;
+            }
+            ranges.add(range);
+        }
+        bootstrap = new Bootstrap();
+        bootstrap.group(eventLoop);
+        bootstrap.channel(NioSocketChannel.class);
+        bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 1500);
+        bootstrap.option(ChannelOption.SO_LINGER, 0);
+        bootstrap.handler(new ChannelInboundHandlerAdapter() {
+            @Override
+            public void exceptionCaught(@Nullable ChannelHandlerContext ctx, @Nullable Throwable cause) {
+                if (ctx != null) {
+                    ctx.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the first and last usable address as unsigned ints, or an empty array if the text is not valid.
+     */
+    static long[] parseCidr(String cidr) {
+        if (cidr.isEmpty()) {
+            return new long[0];
+        }
+        String[] parts = cidr.split("/");
+        String[] octets = parts[0].split("\\.");
+        if (octets.length != 4 || parts.length > 2) {
+            return new long[0];
+        }
+        try {
+            long address = 0;
+            for (String octet : octets) {
+                int value = Integer.parseInt(octet);
+                if (value < 0 || value > 255) {
+                    return new long[0];
+                }
+                address = (address << 8) | value;
+            }
+            int prefix = (parts.length == 2) ? Integer.parseInt(parts[1]) : 32;
+            if (prefix < 0 || prefix > 32) {
+                return new long[0];
+            }
+            long mask = (prefix == 0) ? 0 : (0xFFFFFFFFL << (32 - prefix)) & 0xFFFFFFFFL;
+            long first = address & mask;
+            long last = first | (~mask & 0xFFFFFFFFL);
+            if (prefix < 31) {
+                // skip the network and broadcast addresses.
+                first++;
+                last--;
+            }
+            return new long[] { first, last };
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static String toIpAddress(long address) {
+        return ((address >> 24) & 0xFF) + "." + ((address >> 16) & 0xFF) + "." + ((address >> 8) & 0xFF) + "."
+                + (address & 0xFF);
+    }
+
+    public boolean hasRanges() {
+        return !ranges.isEmpty();
+    }
+
+    public void start() {
+        if (ranges.isEmpty()) {
+            return;
+        }
+        eventLoop.execute(() -> {
+            rangeIndex = 0;
+            nextAddress = ranges.get(0)[0];
+            portIndex = 0;
+            currentHost = null;
+            connectBudget = 0;
+            logger.debug("Subnet scan started for {} ranges.", ranges.size());
+            scanJob = eventLoop.scheduleAtFixedRate(this::tick, 0, 1000 / TICKS_PER_SECOND, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    public void stop() {
+        eventLoop.execute(() -> {
+            ScheduledFuture<?> job = scanJob;
+            if (job != null) {
+                job.cancel(false);
+                scanJob = null;
+            }
+        });
+    }
+
+    // Runs on the event loop, so the connect listeners and this never run at the same time.
+    private void tick() {
+        // A tick that could not use its share does not save it up for a burst later.
+        connectBudget = Math.min(connectBudget + connectsPerTick, Math.max(1, connectsPerTick));
+        for (; connectBudget >= 1; connectBudget--) {
+            if (pendingConnects.get() >= MAX_PENDING_CONNECTS) {
+                return;
+            }
+            if (rangeIndex >= ranges.size()) {
+                if (pendingConnects.get() == 0) {
+                    logger.debug("Subnet scan finished.");
+                    stop();
+                }
+                return;
+            }
+            Host host = currentHost;
+            if (host == null) {
+                host = new Host(toIpAddress(nextAddress));
+                currentHost = host;
+            }
+            connect(host, CAMERA_PORTS[portIndex]);
+            if (++portIndex == CAMERA_PORTS.length) {
+                portIndex = 0;
+                currentHost = null;
+                if (++nextAddress > ranges.get(rangeIndex)[1] && ++rangeIndex < ranges.size()) {
+                    nextAddress = ranges.get(rangeIndex)[0];
+                }
+            }
+        }
+    }
+
+    private void connect(Host host, int port) {
+        pendingConnects.incrementAndGet();
+        bootstrap.connect(new InetSocketAddress(host.ipAddress, port)).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(@Nullable ChannelFuture future) {
+                pendingConnects.decrementAndGet();
+                if (future == null) {
+                    return;
+                }
+                boolean open = future.isSuccess();
+                if (open) {
+                    future.channel().close();
+                }
+                host.portChecked(port, open);
+            }
+        });
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link TimedLock} is responsible for being a normal {@link ReentrantLock} that also sends a JFR event when it
+ * has been held for too long, so a camera that blocks the others can be found.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class TimedLock extends ReentrantLock {
+    private static final long serialVersionUID = 1L;
+    private final String camera;
+    private final String name;
+    // Only used by the thread that holds the lock.
+    private transient @Nullable Object holdEvent = null;
+
+    public TimedLock(String camera, String name) {
+        this.camera = camera;
+        this.name = name;
+    }
+
+    @Override
+    public void lock() {
+        super.lock();
+        if (getHoldCount() == 1) {
+            holdEvent = CameraEvents.beginLockHold();
+        }
+    }
+
+    @Override
+    public void unlock() {
+        if (getHoldCount() == 1) {
+            Object event = holdEvent;
+            holdEvent = null;
+            CameraEvents.endLockHold(event, camera, name);
+        }
+        super.unlock();
+    }
+}
@@ -0,0 +1,345 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link Timelapse} is responsible for building a timelapse video for each day out of one snapshot every so
+ * often. Each snapshot is saved to the day's folder as it arrives, and once {@value #FRAMES_PER_SEGMENT} have built
+ * up FFmpeg encodes just those into a short segment that is added to the day's HLS playlist. When the day is over
+ * the segments are joined into one MP4 without encoding them again, so the work is spread over the day instead of
+ * happening all at once at midnight.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class Timelapse {
+    public static final int FPS = 25;
+    public static final int FRAMES_PER_SEGMENT = 60;
+    private static final String FRAME_NAME = "%06d.jpg";
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Path root;
+    private final String ffmpegLocation;
+    private final String camera;
+    private final int priority;
+    private final MediaJobScheduler jobs;
+    private final Executor executor;
+    private String day = "";
+    private int nextFrame = 1;
+    private int waitingFrames = 0;
+    private final AtomicBoolean runAgain = new AtomicBoolean();
+    // The FFmpeg of the job that is running, so it can be stopped if the job runs for too long.
+    private volatile @Nullable Process process = null;
+
+    /**
+     * @param camera the thing ID, used so the jobs of one camera are not done twice at once.
+     */
+    public Timelapse(Path root, String ffmpegLocation, String camera, int priority, MediaJobScheduler jobs,
+            Executor executor) {
+        this.root = root;
+        this.ffmpegLocation = ffmpegLocation;
+        this.camera = camera;
+        this.priority = priority;
+        this.jobs = jobs;
+        this.executor = executor;
+        // The newest day is the one that was being made when openHAB stopped. It carries on from where it got to,
+        // instead of its last few frames being made into a short segment as if the day were over.
+        File[] days = root.toFile().listFiles(File::isDirectory);
+        if (days != null && days.length > 0) {
+            Arrays.sort(days);
+            openDay(days[days.length - 1].getName());
+        }
+    }
+
+    private synchronized void openDay(String name) {
+        File folder = root.resolve(name).toFile();
+        nextFrame = lastNumber(folder) + 1;
+        File[] waiting = folder.listFiles((dir, file) -> file.endsWith(".jpg"));
+        waitingFrames = waiting == null ? 0 : waiting.length;
+        day = name;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Saves the snapshot as the next frame of today's timelapse. This writes a file, so should not be called on the
+     * camera's network thread.
+     */
+    public synchronized void addFrame(byte[] jpeg, LocalDate date) throws IOException {
+        String today = date.toString();
+        if (!today.equals(day)) {
+            boolean dayOver = !day.isEmpty();
+            Files.createDirectories(root.resolve(today));
+            openDay(today);
+            if (dayOver) {
+                // Yesterday's last frames and the joining of its segments.
+                submit();
+            }
+        }
+        Path temp = root.resolve(today).resolve(String.format(FRAME_NAME, nextFrame) + ".tmp");
+        Files.write(temp, jpeg);
+        // Renamed once complete, so an encode that is running never reads part of a picture.
+        Files.move(temp, root.resolve(today).resolve(String.format(FRAME_NAME, nextFrame)),
+                StandardCopyOption.REPLACE_EXISTING);
+        nextFrame++;
+        if (++waitingFrames >= FRAMES_PER_SEGMENT) {
+            waitingFrames = 0;
+            submit();
+        }
+    }
+
+    /**
+     * Encodes any frames that are waiting and finishes the days that are over. If this is already waiting for its
+     * turn it is not added again, as the job takes all the frames there are when it starts. If it is already running
+     * it runs once more afterwards.
+     */
+    public void submit() {
+        boolean added = jobs.submit(camera, "TIMELAPSE", priority, finished -> executor.execute(() -> {
+            runAgain.set(false);
+            try {
+                catchUp();
+            } finally {
+                finished.run();
+            }
+            if (runAgain.get()) {
+                submit();
+            }
+        }), () -> {
+        }, () -> {
+            Process localProcess = process;
+            if (localProcess != null) {
+                localProcess.destroyForcibly();
+            }
+        });
+        if (!added) {
+            runAgain.set(true);
+        }
+    }
+
+    private void catchUp() {
+        String today;
+        synchronized (this) {
+            today = day;
+        }
+        File[] days = root.toFile().listFiles(File::isDirectory);
+        if (days == null) {
+            return;
+        }
+        Arrays.sort(days);
+        for (File folder : days) {
+            try {
+                if (!folder.getName().equals(today)) {
+                    encodeFrames(folder, 1);
+                    if (!today.isEmpty()) {
+                        finishDay(folder);
+                    }
+                } else {
+                    // A few frames left from a restart wait for the rest of their segment.
+                    encodeFrames(folder, FRAMES_PER_SEGMENT);
+                }
+            } catch (IOException e) {
+                logger.warn("Could not add to the timelapse for {}:{}", folder.getName(), e.getMessage());
+            }
+        }
+    }
+
+    private void encodeFrames(File folder, int minimum) throws IOException {
+        File[] frames = folder.listFiles((dir, name) -> name.endsWith(".jpg"));
+        if (frames == null || frames.length == 0 || frames.length < minimum) {
+            return;
+        }
+        Arrays.sort(frames);
+        int before = 0;
+        for (File segment : segments(folder)) {
+            before = Math.max(before, number(segment));
+        }
+        // A backlog, such as the frames of a day that was not finished before a restart, is split into segments of
+        // no more than FRAMES_PER_SEGMENT frames, so none is longer than the playlist's TARGETDURATION.
+        boolean encoded = false;
+        for (int start = 0; start < frames.length; start += FRAMES_PER_SEGMENT) {
+            File[] segment = Arrays.copyOfRange(frames, start, Math.min(frames.length, start + FRAMES_PER_SEGMENT));
+            if (segment.length < minimum) {
+                break;
+            }
+            encodeSegment(folder, segment, before);
+            before = number(segment[segment.length - 1]);
+            encoded = true;
+        }
+        if (encoded) {
+            writePlaylist(folder);
+        }
+    }
+
+    private void encodeSegment(File folder, File[] frames, int before) throws IOException {
+        int first = number(frames[0]), last = number(frames[frames.length - 1]);
+        File output = new File(folder, String.format("%06d.ts", last));
+        File temp = new File(folder, String.format("%06d.ts.tmp", last));
+        // The timestamps carry on from the segment before, so the playlist and the joined MP4 play smoothly.
+        List<String> command = Arrays.asList(ffmpegLocation, "-hide_banner", "-loglevel", "error",
+                "-y", "-f", "image2pipe", "-framerate", Integer.toString(FPS), "-i", "pipe:0", "-vf",
+                "scale=trunc(iw/2)*2:trunc(ih/2)*2", "-c:v", "libx264", "-preset", "veryfast", "-pix_fmt", "yuv420p",
+                "-output_ts_offset", Double.toString((double) before / FPS), "-f", "mpegts",
+                temp.getAbsolutePath());
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        this.process = process;
+        try (OutputStream input = process.getOutputStream()) {
+            for (File frame : frames) {
+                input.write(Files.readAllBytes(frame.toPath()));
+            }
+        }
+        if (!waitFor(process) || !temp.exists()) {
+            throw new IOException("FFmpeg could not encode frames " + first + " to " + last);
+        }
+        Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        for (File frame : frames) {
+            frame.delete();
+        }
+    }
+
+    private void finishDay(File folder) throws IOException {
+        List<File> segments = segments(folder);
+        File output = new File(folder.getParentFile(), folder.getName() + ".mp4");
+        if (!segments.isEmpty()) {
+            File list = new File(folder, "segments.txt");
+            List<String> lines = new ArrayList<>();
+            for (File segment : segments) {
+                lines.add(Ffmpeg.concatLine(segment.getAbsolutePath()));
+            }
+            Files.write(list.toPath(), lines, StandardCharsets.UTF_8);
+            File temp = new File(folder, "joined.mp4");
+            Process process = new ProcessBuilder(ffmpegLocation, "-hide_banner", "-loglevel", "error", "-y", "-f",
+                    "concat", "-safe", "0", "-i", list.getAbsolutePath(), "-c", "copy", "-movflags", "+faststart",
+                    temp.getAbsolutePath()).redirectErrorStream(true).start();
+            this.process = process;
+            process.getOutputStream().close();
+            if (!waitFor(process) || !temp.exists()) {
+                throw new IOException("FFmpeg could not join the segments");
+            }
+            Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            logger.debug("The timelapse for {} is ready at {}", folder.getName(), output);
+        }
+        File[] left = folder.listFiles();
+        if (left != null) {
+            for (File file : left) {
+                file.delete();
+            }
+        }
+        folder.delete();
+        new File(folder.getParentFile(), folder.getName() + ".m3u8").delete();
+    }
+
+    // Reads what FFmpeg prints so it can never block on a full pipe.
+    private static boolean waitFor(Process process) throws IOException {
+        try (InputStream output = process.getInputStream()) {
+            byte[] buffer = new byte[4096];
+            while (output.read(buffer) != -1) {
+            }
+        }
+        try {
+            return process.waitFor() == 0;
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void writePlaylist(File folder) throws IOException {
+        StringBuilder playlist = new StringBuilder(1024);
+        playlist.append("#EXTM3U\n#EXT-X-VERSION:3\n#EXT-X-PLAYLIST-TYPE:EVENT\n#EXT-X-TARGETDURATION:")
+                .append((FRAMES_PER_SEGMENT + FPS - 1) / FPS + 1).append("\n#EXT-X-MEDIA-SEQUENCE:0\n");
+        int before = 0;
+        for (File segment : segments(folder)) {
+            int last = number(segment);
+            playlist.append("#EXTINF:").append((double) (last - before) / FPS).append(",\n").append(folder.getName())
+                    .append('/').append(segment.getName()).append('\n');
+            before = last;
+        }
+        Path file = root.resolve(folder.getName() + ".m3u8");
+        Path temp = root.resolve(folder.getName() + ".m3u8.tmp");
+        Files.write(temp, playlist.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static List<File> segments(File folder) {
+        File[] segments = folder.listFiles((dir, name) -> name.endsWith(".ts"));
+        if (segments == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(segments);
+        return Arrays.asList(segments);
+    }
+
+    private static int lastNumber(File folder) {
+        int last = 0;
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(".jpg") || name.endsWith(".ts"));
+        if (files != null) {
+            for (File file : files) {
+                last = Math.max(last, number(file));
+            }
+        }
+        return last;
+    }
+
+    private static int number(File file) {
+        String name = file.getName();
+        try {
+            return Integer.parseInt(name.substring(0, name.indexOf('.')));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the JSON for /timelapse, listing the finished days and the one still being made.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"days\":[");
+        File[] files = root.toFile().listFiles((dir, name) -> name.endsWith(".mp4") || name.endsWith(".m3u8"));
+        if (files != null) {
+            Arrays.sort(files);
+            String separator = "";
+            for (File file : files) {
+                String name = file.getName();
+                json.append(separator).append("{\"day\":\"").append(name.substring(0, name.indexOf('.')))
+                        .append("\",\"url\":\"/timelapse/").append(name).append("\",\"finished\":")
+                        .append(name.endsWith(".mp4")).append('}');
+                separator = ",";
+            }
+        }
+        return json.append("]}").toString();
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link TimelineIndex} is responsible for a file of fixed size records that are only ever added to the end, in
+ * time order, so any time can be found with a binary search instead of looking through folders. The file is memory
+ * mapped, so adding a record is a write to RAM that the OS saves in the background.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class TimelineIndex implements Closeable {
+    private static final int MAGIC = 0x49504354;
+    private static final int HEADER = 16;
+    private static final int RECORD = 48;
+    private static final int TAG_LENGTH = 28;
+    // Enough for a little over 20,000 records each time the file has to grow.
+    private static final long GROW = 1024 * 1024;
+    private final FileChannel channel;
+    private MappedByteBuffer map;
+    private long count;
+    private long lastTime = Long.MIN_VALUE;
+
+    /**
+     * One record. What the numbers mean is up to whoever added it.
+     */
+    public static class Entry {
+        public final long time;
+        public final int duration;
+        public final long size;
+        public final String tag;
+
+        Entry(long time, int duration, long size, String tag) {
+            this.time = time;
+            this.duration = duration;
+            this.size = size;
+            this.tag = tag;
+        }
+    }
+
+    public TimelineIndex(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        boolean isNew = channel.size() < HEADER;
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), HEADER + GROW));
+        if (isNew || map.getInt(0) != MAGIC) {
+            map.putInt(0, MAGIC);
+            map.putLong(8, 0);
+        }
+        // A count past the end means the file was cut short, so only what is there is used.
+        count = Math.max(0, Math.min(map.getLong(8), (map.capacity() - HEADER) / RECORD));
+        if (count > 0) {
+            lastTime = map.getLong(offset(count - 1));
+        }
+    }
+
+    private static int offset(long index) {
+        return (int) (HEADER + index * RECORD);
+    }
+
+    /**
+     * Adds a record to the end. A time earlier than the last record, which happens when the clock is set back, is
+     * moved up to the last record's time so the file stays in order.
+     */
+    public synchronized void append(long time, int duration, long size, String tag) throws IOException {
+        int position = offset(count);
+        if (position + RECORD > map.capacity()) {
+            map.force();
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, map.capacity() + GROW);
+        }
+        long orderedTime = Math.max(time, lastTime);
+        map.putLong(position, orderedTime);
+        map.putInt(position + 8, duration);
+        map.putLong(position + 12, size);
+        byte[] tagBytes = tag.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < TAG_LENGTH; i++) {
+            map.put(position + 20 + i, i < tagBytes.length ? tagBytes[i] : 0);
+        }
+        // The count is written last, so a reader never sees a record that is only half written.
+        map.putLong(8, ++count);
+        lastTime = orderedTime;
+    }
+
+    public synchronized long getLastTime() {
+        return lastTime;
+    }
+
+    public synchronized long size() {
+        return count;
+    }
+
+    /**
+     * @param includeEarlier also gives the last record before from, which is the segment that from lands in.
+     * @return up to limit records from the time from to the time to, oldest first.
+     */
+    public synchronized List<Entry> find(long from, long to, boolean includeEarlier, int limit) {
+        long low = 0, high = count;
+        // The first record at or after from.
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (map.getLong(offset(middle)) < from) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        // A record that starts exactly at from is the one it lands in, so the one before is not needed.
+        boolean exact = low < count && map.getLong(offset(low)) == from;
+        long index = (includeEarlier && low > 0 && !exact) ? low - 1 : low;
+        List<Entry> entries = new ArrayList<>();
+        for (; index < count && entries.size() < limit; index++) {
+            Entry entry = read(index);
+            if (entry.time > to) {
+                break;
+            }
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    private Entry read(long index) {
+        int position = offset(index);
+        byte[] tagBytes = new byte[TAG_LENGTH];
+        int length = 0;
+        while (length < TAG_LENGTH && map.get(position + 20 + length) != 0) {
+            tagBytes[length] = map.get(position + 20 + length);
+            length++;
+        }
+        return new Entry(map.getLong(position), map.getInt(position + 8), map.getLong(position + 12),
+                new String(tagBytes, 0, length, StandardCharsets.US_ASCII));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        map.force();
+        channel.close();
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.onvif;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.smarthome.config.core.ConfigConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link OnvifCapabilityCache} stores what was learnt over ONVIF (URLs, profile tokens, PTZ tokens, ranges and
+ * presets) in a small file per thing, so a camera can come ONLINE after a reboot without waiting for all of the SOAP
+ * requests to be answered again.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class OnvifCapabilityCache {
+    // Entries older than this are ignored and the camera is asked again before coming online.
+    public static final long VALID_FOR_MS = TimeUnit.DAYS.toMillis(7);
+    public static final String SNAPSHOT_URI = "snapshotUri";
+    public static final String RTSP_URI = "rtspUri";
+    public static final String MEDIA_PROFILE_TOKEN = "mediaProfileToken";
+    public static final String PTZ_NODE_TOKEN = "ptzNodeToken";
+    public static final String PTZ_CONFIG_TOKEN = "ptzConfigToken";
+    public static final String PTZ_PRESETS = "ptzPresets";
+    public static final String PTZ_RANGES = "ptzRanges";
+    private static final String SAVED_TIME = "savedTime";
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String FIRMWARE = "firmware";
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Properties properties = new Properties();
+    private final File file;
+    private final String fingerprint;
+    private boolean changed = false;
+
+    /**
+     * @param thingUID used to name the file the cache is kept in.
+     * @param fingerprint anything that would make the cached answers wrong if it changed, ie the ONVIF address and
+     *            the selected media profile.
+     */
+    public OnvifCapabilityCache(String thingUID, String fingerprint) {
+        this.fingerprint = fingerprint;
+        file = new File(ConfigConstants.getUserDataFolder() + File.separator + "ipcamera" + File.separator
+                + thingUID.replace(':', '_') + ".onvif");
+    }
+
+    /**
+     * Reads the cache from disk.
+     *
+     * @return true only if the file exists, was created for the same fingerprint and is still within
+     *         {@link #VALID_FOR_MS}.
+     */
+    public synchronized boolean load() {
+        properties.clear();
+        changed = false;
+        if (!file.exists()) {
+            return false;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            logger.debug("Could not read the ONVIF cache {}:{}", file, e.getMessage());
+            properties.clear();
+            return false;
+        }
+        if (!fingerprint.equals(properties.getProperty(FINGERPRINT))) {
+            logger.debug("ONVIF cache {} was made for a different setup and will be ignored.", file);
+            properties.clear();
+            return false;
+        }
+        long saved = 0;
+        try {
+            saved = Long.parseLong(properties.getProperty(SAVED_TIME, "0"));
+        } catch (NumberFormatException e) {
+        }
+        if (System.currentTimeMillis() - saved > VALID_FOR_MS) {
+            logger.debug("ONVIF cache {} has expired and will be refreshed from the camera.", file);
+            properties.clear();
+            return false;
+        }
+        return !get(MEDIA_PROFILE_TOKEN).isEmpty();
+    }
+
+    /**
+     * Compares the firmware the camera reports with the one the cache was made for. An update can move the URLs
+     * around, so everything cached for an older firmware is dropped.
+     *
+     * @return true if cached answers were dropped. The new firmware is written with the next {@link #save()}.
+     */
+    public synchronized boolean checkFirmware(String firmware) {
+        String cached = properties.getProperty(FIRMWARE, "");
+        if (cached.equals(firmware)) {
+            return false;
+        }
+        boolean dropped = !cached.isEmpty();
+        if (dropped) {
+            properties.clear();
+            file.delete();
+        }
+        properties.setProperty(FIRMWARE, firmware);
+        changed = true;
+        return dropped;
+    }
+
+    public synchronized String get(String key) {
+        return properties.getProperty(key, "");
+    }
+
+    public synchronized void put(String key, String value) {
+        if (!value.equals(properties.getProperty(key))) {
+            properties.setProperty(key, value);
+            changed = true;
+        }
+    }
+
+    /**
+     * Writes the cache to disk if anything has changed, or the current contents are about to expire.
+     */
+    public synchronized void save() {
+        long saved = 0;
+        try {
+            saved = Long.parseLong(properties.getProperty(SAVED_TIME, "0"));
+        } catch (NumberFormatException e) {
+        }
+        if (!changed && System.currentTimeMillis() - saved < VALID_FOR_MS / 2) {
+            return;
+        }
+        properties.setProperty(FINGERPRINT, fingerprint);
+        properties.setProperty(SAVED_TIME, Long.toString(System.currentTimeMillis()));
+        file.getParentFile().mkdirs();
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            properties.store(out, "ONVIF answers cached by the ipcamera binding");
+        } catch (IOException e) {
+            logger.debug("Could not write the ONVIF cache {}:{}", file, e.getMessage());
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            // Windows will not rename over an existing file.
+            file.delete();
+            temp.renameTo(file);
+        }
+        changed = false;
+    }
+
+    public synchronized void delete() {
+        properties.clear();
+        file.delete();
+    }
+}
@@ -61,6 +61,7 @@ public class PTZRequest implements OnvifRequest {
     OnvifManager ptzManager = new OnvifManager();
     boolean ptzDevice = false;
     private OnvifDevice thisOnvifCamera;
+    private @Nullable OnvifCapabilityCache onvifCache = null;
 
     public PTZRequest(OnvifManager ptzManager, OnvifDevice thisOnvifCamera, String mediaProfileToken) {
         this.ptzManager = ptzManager;
@@ -71,6 +72,58 @@ public class PTZRequest implements OnvifRequest {
         ptzDevice = true;
     }
 
+    // Asks the camera for everything, and stores the answers in the cache as they arrive.
+    public PTZRequest(OnvifManager ptzManager, OnvifDevice thisOnvifCamera, String mediaProfileToken,
+            OnvifCapabilityCache onvifCache) {
+        this.onvifCache = onvifCache;
+        this.ptzManager = ptzManager;
+        this.thisOnvifCamera = thisOnvifCamera;
+        this.mediaProfileToken = mediaProfileToken;
+        setupListener();
+        sendRequest("GetNodes");
+        ptzDevice = true;
+    }
+
+    /**
+     * Restores the PTZ tokens, ranges and presets that were cached from an earlier connection, so only the current
+     * location needs to be requested. Returns null if the cache holds no PTZ details.
+     */
+    public static @Nullable PTZRequest fromCache(OnvifManager ptzManager, OnvifDevice thisOnvifCamera,
+            String mediaProfileToken, OnvifCapabilityCache onvifCache) {
+        if (onvifCache.get(OnvifCapabilityCache.PTZ_NODE_TOKEN).isEmpty()
+                || onvifCache.get(OnvifCapabilityCache.PTZ_CONFIG_TOKEN).isEmpty()) {
+            return null;
+        }
+        PTZRequest ptz = new PTZRequest("GetStatus");
+        ptz.ptzManager = ptzManager;
+        ptz.thisOnvifCamera = thisOnvifCamera;
+        ptz.mediaProfileToken = mediaProfileToken;
+        ptz.ptzNodeToken = onvifCache.get(OnvifCapabilityCache.PTZ_NODE_TOKEN);
+        ptz.ptzConfigToken = onvifCache.get(OnvifCapabilityCache.PTZ_CONFIG_TOKEN);
+        String presets = onvifCache.get(OnvifCapabilityCache.PTZ_PRESETS);
+        if (!presets.isEmpty()) {
+            for (String token : presets.split(",")) {
+                ptz.presetTokens.add(token);
+            }
+        }
+        String[] ranges = onvifCache.get(OnvifCapabilityCache.PTZ_RANGES).split(",");
+        if (ranges.length == 6) {
+            try {
+                ptz.panRangeMin = Float.valueOf(ranges[0]);
+                ptz.panRangeMax = Float.valueOf(ranges[1]);
+                ptz.tiltRangeMin = Float.valueOf(ranges[2]);
+                ptz.tiltRangeMax = Float.valueOf(ranges[3]);
+                ptz.zoomMin = Float.valueOf(ranges[4]);
+                ptz.zoomMax = Float.valueOf(ranges[5]);
+            } catch (NumberFormatException e) {
+            }
+        }
+        ptz.setupListener();
+        ptz.sendRequest("GetStatus");
+        ptz.ptzDevice = true;
+        return ptz;
+    }
+
     public PTZRequest(String request) {
         requestType = request;
         this.thisOnvifCamera = new OnvifDevice("none");
@@ -123,10 +176,14 @@ public class PTZRequest implements OnvifRequest {
                 } else if (response.getXml().contains("GetPresetsResponse")) {
                     // collectPrestTokens(response.getXml());
                     presetTokens = listOfResults(response.getXml(), "Preset token=\"");
+                    cacheResult(OnvifCapabilityCache.PTZ_PRESETS, String.join(",", presetTokens));
+                } else if (response.getXml().contains("GetConfigurationOptionsResponse")) {
+                    processRanges(response.getXml());
                 } else if (response.getXml().contains("GetConfigurationsResponse")) {
                     sendRequest("GetPresets");
                     ptzConfigToken = searchString(response.getXml(), "PTZConfiguration token=\"");
                     logger.debug("ptzConfigToken={}", ptzConfigToken);
+                    cacheResult(OnvifCapabilityCache.PTZ_CONFIG_TOKEN, ptzConfigToken);
                     sendRequest("GetConfigurationOptions");
                     // sendRequest("AddPTZConfiguration");
                     // sendRequest("SetConfiguration");
@@ -134,6 +191,7 @@ public class PTZRequest implements OnvifRequest {
                     sendRequest("GetStatus");
                     ptzNodeToken = searchString(response.getXml(), "token=\"");
                     logger.debug("ptzNodeToken={}", ptzNodeToken);
+                    cacheResult(OnvifCapabilityCache.PTZ_NODE_TOKEN, ptzNodeToken);
                     sendRequest("GetConfigurations");
                 }
             }
@@ -145,6 +203,60 @@ public class PTZRequest implements OnvifRequest {
         });
     }
 
+    private void cacheResult(String key, String value) {
+        OnvifCapabilityCache localCache = onvifCache;
+        if (localCache != null) {
+            localCache.put(key, value);
+            localCache.save();
+        }
+    }
+
+    // Returns the Min and Max found inside the range tag that follows the space, or null if not found.
+    private Float @Nullable [] findRange(String xml, String space, String rangeTag) {
+        int index = xml.indexOf(space);
+        if (index == -1) {
+            return null;
+        }
+        index = xml.indexOf(rangeTag, index);
+        if (index == -1) {
+            return null;
+        }
+        int minStart = xml.indexOf("Min>", index);
+        int maxStart = xml.indexOf("Max>", index);
+        if (minStart == -1 || maxStart == -1) {
+            return null;
+        }
+        try {
+            Float min = Float.valueOf(xml.substring(minStart + 4, xml.indexOf("<", minStart)).trim());
+            Float max = Float.valueOf(xml.substring(maxStart + 4, xml.indexOf("<", maxStart)).trim());
+            return new Float[] { min, max };
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    void processRanges(String result) {
+        Float[] range = findRange(result, "AbsolutePanTiltPositionSpace>", "XRange>");
+        if (range != null) {
+            panRangeMin = range[0];
+            panRangeMax = range[1];
+        }
+        range = findRange(result, "AbsolutePanTiltPositionSpace>", "YRange>");
+        if (range != null) {
+            tiltRangeMin = range[0];
+            tiltRangeMax = range[1];
+        }
+        range = findRange(result, "AbsoluteZoomPositionSpace>", "XRange>");
+        if (range != null) {
+            zoomMin = range[0];
+            zoomMax = range[1];
+        }
+        logger.debug("PTZ ranges are pan:{} to {}, tilt:{} to {}, zoom:{} to {}", panRangeMin, panRangeMax,
+                tiltRangeMin, tiltRangeMax, zoomMin, zoomMax);
+        cacheResult(OnvifCapabilityCache.PTZ_RANGES, panRangeMin + "," + panRangeMax + "," + tiltRangeMin + ","
+                + tiltRangeMax + "," + zoomMin + "," + zoomMax);
+    }
+
     public void getStatus() {
         sendRequest("GetStatus");
     }
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.binding.ipcamera.internal.CameraHlsPlaylist.Segment;
+
+/**
+ * Tests for {@link CameraHlsPlaylist}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class CameraHlsPlaylistTest {
+    private @NonNullByDefault({}) Path folder;
+    private @NonNullByDefault({}) Path file;
+    private long time = 1_000_000;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("ipcamera");
+        file = folder.resolve("ipcamera.m3u8");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(folder);
+    }
+
+    // Like FFmpeg, each write changes the time of the file.
+    private void write(long firstSequence, String... uris) throws IOException {
+        StringBuilder m3u8 = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n#EXT-X-TARGETDURATION:2\n");
+        m3u8.append("#EXT-X-MEDIA-SEQUENCE:").append(firstSequence).append('\n');
+        for (String uri : uris) {
+            m3u8.append("#EXTINF:2.000000,\n").append(uri).append('\n');
+        }
+        Files.write(file, m3u8.toString().getBytes(StandardCharsets.UTF_8));
+        time += 1000;
+        Files.setLastModifiedTime(file, FileTime.fromMillis(time));
+    }
+
+    @Test
+    public void readsTheSegmentsInOrder() throws IOException {
+        CameraHlsPlaylist playlist = new CameraHlsPlaylist(file);
+        write(5, "ipcamera5.ts", "ipcamera6.ts", "ipcamera7.ts");
+        assertTrue(playlist.refresh());
+        List<Segment> segments = playlist.lastSegments(100);
+        assertEquals(3, segments.size());
+        assertEquals(5, segments.get(0).sequence);
+        assertEquals("ipcamera7.ts", segments.get(2).uri);
+        assertEquals(2.0, segments.get(2).duration, 0.0001);
+        assertEquals("2.000000", segments.get(2).durationText);
+    }
+
+    @Test
+    public void lastSegmentsCoverAtLeastTheTimeAskedFor() throws IOException {
+        CameraHlsPlaylist playlist = new CameraHlsPlaylist(file);
+        write(0, "ipcamera0.ts", "ipcamera1.ts", "ipcamera2.ts", "ipcamera3.ts");
+        playlist.refresh();
+        List<Segment> segments = playlist.lastSegments(3);
+        assertEquals(2, segments.size());
+        assertEquals("ipcamera2.ts", segments.get(0).uri);
+        assertEquals(0, playlist.lastSegments(0).size());
+    }
+
+    @Test
+    public void unchangedFileIsNotReadAgain() throws IOException {
+        CameraHlsPlaylist playlist = new CameraHlsPlaylist(file);
+        write(0, "ipcamera0.ts");
+        assertTrue(playlist.refresh());
+        assertFalse(playlist.refresh());
+    }
+
+    @Test
+    public void emptyFileKeepsTheSegmentsAlreadyRead() throws IOException {
+        CameraHlsPlaylist playlist = new CameraHlsPlaylist(file);
+        write(0, "ipcamera0.ts");
+        playlist.refresh();
+        write(0);
+        assertFalse(playlist.refresh());
+        assertEquals(1, playlist.lastSegments(100).size());
+    }
+
+    @Test
+    public void segmentsThatSlideAlongAreKept() throws IOException {
+        CameraHlsPlaylist playlist = new CameraHlsPlaylist(file);
+        write(0, "ipcamera0.ts", "ipcamera1.ts", "ipcamera2.ts");
+        playlist.refresh();
+        Segment kept = playlist.lastSegments(100).get(1);
+        write(1, "ipcamera1.ts", "ipcamera2.ts", "ipcamera3.ts");
+        assertTrue(playlist.refresh());
+        List<Segment> segments = playlist.lastSegments(100);
+        assertSame(kept, segments.get(0));
+        assertEquals(kept.restart, segments.get(2).restart);
+        assertEquals(3, segments.get(2).sequence);
+    }
+
+    @Test
+    public void sequenceGoingBackIsARestart() throws IOException {
+        CameraHlsPlaylist playlist = new CameraHlsPlaylist(file);
+        write(10, "ipcamera10.ts", "ipcamera11.ts");
+        playlist.refresh();
+        int before = playlist.lastSegments(100).get(0).restart;
+        write(0, "ipcamera0.ts");
+        assertTrue(playlist.refresh());
+        assertEquals(before + 1, playlist.lastSegments(100).get(0).restart);
+    }
+
+    @Test
+    public void seenSequenceWithAnotherFileIsARestart() throws IOException {
+        CameraHlsPlaylist playlist = new CameraHlsPlaylist(file);
+        write(0, "a0.ts", "a1.ts");
+        playlist.refresh();
+        Segment old = playlist.lastSegments(100).get(1);
+        // FFmpeg started again with other names and had got to the same sequence numbers.
+        write(0, "b0.ts", "b1.ts", "b2.ts");
+        assertTrue(playlist.refresh());
+        Segment replaced = playlist.lastSegments(100).get(1);
+        assertNotSame(old, replaced);
+        assertEquals(old.restart + 1, replaced.restart);
+    }
+
+    @Test
+    public void seenFileWithAnotherSequenceIsARestart() throws IOException {
+        CameraHlsPlaylist playlist = new CameraHlsPlaylist(file);
+        write(0, "ipcamera0.ts", "ipcamera1.ts");
+        playlist.refresh();
+        int before = playlist.lastSegments(100).get(0).restart;
+        write(5, "ipcamera0.ts", "ipcamera1.ts", "ipcamera2.ts");
+        assertTrue(playlist.refresh());
+        assertEquals(before + 1, playlist.lastSegments(100).get(0).restart);
+    }
+}
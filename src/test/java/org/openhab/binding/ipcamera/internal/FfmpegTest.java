@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+
+/**
+ * Tests for {@link Ffmpeg}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class FfmpegTest {
+
+    @Test
+    public void concatLineQuotesThePath() {
+        assertEquals("file '/etc/openhab2/html/nvr/2020-05-31/13-00-00.mp4'",
+                Ffmpeg.concatLine("/etc/openhab2/html/nvr/2020-05-31/13-00-00.mp4"));
+    }
+
+    @Test
+    public void concatLineEscapesQuotesInThePath() {
+        assertEquals("file '/cameras/Bob'\\''s door/000060.ts'", Ffmpeg.concatLine("/cameras/Bob's door/000060.ts"));
+    }
+}
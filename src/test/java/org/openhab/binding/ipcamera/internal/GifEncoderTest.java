@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link GifEncoder}. The GIFs are read back with the decoder in the JDK, so they are checked against a
+ * decoder that was written by someone else.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class GifEncoderTest {
+    private static final Executor SAME_THREAD = Runnable::run;
+    private static final byte[] LOOKUP = new byte[1 << 15];
+    private @NonNullByDefault({}) Path folder;
+
+    static {
+        // Palette entry n is used for the 15 bit colour n, see pixel().
+        for (int i = 0; i < 256; i++) {
+            LOOKUP[i] = (byte) i;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("ipcamera");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        File[] files = folder.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        Files.deleteIfExists(folder);
+    }
+
+    // An RGB pixel whose 15 bit colour is the palette index.
+    private static int pixel(int index) {
+        return ((index >> 5) << 11) | ((index & 0x1F) << 3);
+    }
+
+    // Wraps one compressed frame in the smallest GIF that the JDK will read.
+    private static byte[] gif(int width, int height, byte[] compressed) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("GIF89a".getBytes(StandardCharsets.US_ASCII));
+        out.write(new byte[] { (byte) width, (byte) (width >> 8), (byte) height, (byte) (height >> 8), (byte) 0xF7, 0,
+                0 });
+        for (int i = 0; i < 256; i++) {
+            out.write(new byte[] { (byte) i, (byte) i, (byte) i });
+        }
+        out.write(new byte[] { 0x2C, 0, 0, 0, 0, (byte) width, (byte) (width >> 8), (byte) height,
+                (byte) (height >> 8), 0, 8 });
+        out.write(compressed);
+        out.write(0x3B);
+        return out.toByteArray();
+    }
+
+    private static int[] indexes(byte[] gif) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(gif));
+        assertNotNull(image);
+        Raster raster = image.getRaster();
+        return raster.getPixels(0, 0, image.getWidth(), image.getHeight(), (int[]) null);
+    }
+
+    private static void assertRoundTrip(int width, int height, int[] expected) throws IOException {
+        int[] pixels = new int[expected.length];
+        for (int i = 0; i < expected.length; i++) {
+            pixels[i] = pixel(expected[i]);
+        }
+        assertArrayEquals(expected, indexes(gif(width, height, GifEncoder.compress(pixels, LOOKUP))));
+    }
+
+    @Test
+    public void singleColourFrame() throws IOException {
+        int[] expected = new int[64 * 48];
+        Arrays.fill(expected, 7);
+        assertRoundTrip(64, 48, expected);
+    }
+
+    @Test
+    public void framesOfOneAndTwoPixels() throws IOException {
+        assertRoundTrip(1, 1, new int[] { 200 });
+        assertRoundTrip(2, 1, new int[] { 3, 255 });
+    }
+
+    @Test
+    public void codeSizeGrowsThroughEveryWidth() throws IOException {
+        // A few colours at random add codes slowly, so each switch from 9 up to 12 bit codes is crossed on its own.
+        Random random = new Random(1);
+        int[] expected = new int[120 * 100];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = random.nextInt(4);
+        }
+        assertRoundTrip(120, 100, expected);
+    }
+
+    @Test
+    public void fullTableIsClearedAndStartsAgain() throws IOException {
+        // Noise over every colour fills the 4096 codes many times over.
+        Random random = new Random(2);
+        int[] expected = new int[320 * 240];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = random.nextInt(256);
+        }
+        assertRoundTrip(320, 240, expected);
+    }
+
+    @Test
+    public void longRunsAfterNoise() throws IOException {
+        Random random = new Random(3);
+        int[] expected = new int[200 * 200];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (i / 5000) % 2 == 0 ? random.nextInt(256) : i / 5000;
+        }
+        assertRoundTrip(200, 200, expected);
+    }
+
+    private static byte[] jpeg(int width, int height, int rgb) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, x < width / 2 ? rgb : 0xFFFFFF);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void writesAnAnimatedGifOfTheSnapshots() throws IOException {
+        List<byte[]> snapshots = new ArrayList<>();
+        snapshots.add(jpeg(640, 480, 0xFF0000));
+        snapshots.add(new byte[] { 1 });
+        snapshots.add(jpeg(640, 480, 0x00FF00));
+        snapshots.add(jpeg(640, 480, 0x0000FF));
+        File output = new File(folder.toFile(), "ipcamera.gif");
+        assertEquals(3, GifEncoder.write(snapshots, output, 120, 500, SAME_THREAD));
+        assertFalse(new File(folder.toFile(), "ipcamera.gif.tmp").exists());
+        try (ImageInputStream input = ImageIO.createImageInputStream(output)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            ImageReader reader = readers.next();
+            reader.setInput(input);
+            assertEquals(3, reader.getNumImages(true));
+            BufferedImage frame = reader.read(2);
+            assertEquals(160, frame.getWidth());
+            assertEquals(120, frame.getHeight());
+            int rgb = frame.getRGB(10, 60);
+            assertTrue((rgb & 0xFF) > 200 && ((rgb >> 16) & 0xFF) < 60);
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void noFileWhenNoSnapshotCanBeDecoded() throws IOException {
+        File output = new File(folder.toFile(), "ipcamera.gif");
+        assertEquals(0, GifEncoder.write(Arrays.asList(new byte[] { 1 }, new byte[] { 1, 2, 3 }), output, 120, 500,
+                SAME_THREAD));
+        assertFalse(output.exists());
+    }
+}
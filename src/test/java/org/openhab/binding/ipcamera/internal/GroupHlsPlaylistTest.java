@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+import org.openhab.binding.ipcamera.internal.CameraHlsPlaylist.Segment;
+
+/**
+ * Tests for {@link GroupHlsPlaylist}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class GroupHlsPlaylistTest {
+
+    private static Segment segment(int restart, long sequence) {
+        return new Segment(restart, sequence, "2.000000", "ipcamera" + sequence + ".ts");
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int index = text.indexOf(part); index != -1; index = text.indexOf(part, index + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void segmentsArePutAfterTheCameraTheyCameFrom() {
+        GroupHlsPlaylist playlist = new GroupHlsPlaylist();
+        assertTrue(playlist.isEmpty());
+        playlist.add("ipcamera:HIKVISION:front", Arrays.asList(segment(0, 1), segment(0, 2)), 60);
+        String text = playlist.toString();
+        assertTrue(text.startsWith("#EXTM3U\n"));
+        assertTrue(text.contains("#EXT-X-TARGETDURATION:2\n"));
+        assertTrue(text.contains("#EXTINF:2.000000,\n/ipcamera:HIKVISION:front/ipcamera2.ts\n"));
+        // Only the first segment starts a new run.
+        assertEquals(1, count(text, "#EXT-X-DISCONTINUITY\n"));
+    }
+
+    @Test
+    public void segmentsAlreadyAddedAreSkipped() {
+        GroupHlsPlaylist playlist = new GroupHlsPlaylist();
+        playlist.add("front", Arrays.asList(segment(0, 1), segment(0, 2)), 60);
+        String before = playlist.toString();
+        playlist.add("front", Arrays.asList(segment(0, 1), segment(0, 2)), 60);
+        assertSame(before, playlist.toString());
+        playlist.add("front", Arrays.asList(segment(0, 2), segment(0, 3)), 60);
+        assertEquals(3, count(playlist.toString(), "#EXTINF:"));
+    }
+
+    @Test
+    public void changingCameraOrSkippingAheadIsADiscontinuity() {
+        GroupHlsPlaylist playlist = new GroupHlsPlaylist();
+        playlist.add("front", Arrays.asList(segment(0, 1)), 60);
+        playlist.add("back", Arrays.asList(segment(0, 7)), 60);
+        playlist.add("back", Arrays.asList(segment(0, 9)), 60);
+        // FFmpeg was restarted, so sequence 1 is a new segment.
+        playlist.add("front", Arrays.asList(segment(1, 1), segment(1, 2)), 60);
+        assertEquals(4, count(playlist.toString(), "#EXT-X-DISCONTINUITY\n"));
+    }
+
+    @Test
+    public void oldestSegmentsAreRemovedOutsideTheWindow() {
+        GroupHlsPlaylist playlist = new GroupHlsPlaylist();
+        playlist.add("front", Arrays.asList(segment(0, 1), segment(0, 2)), 6);
+        playlist.add("back", Arrays.asList(segment(0, 1), segment(0, 2), segment(0, 3), segment(0, 4)), 6);
+        String text = playlist.toString();
+        assertEquals(3, count(text, "#EXTINF:"));
+        assertFalse(text.contains("/front/"));
+        assertTrue(text.contains("#EXT-X-MEDIA-SEQUENCE:3\n"));
+        // Two runs of segments have gone, the front camera's and the start of the back camera's.
+        assertTrue(text.contains("#EXT-X-DISCONTINUITY-SEQUENCE:2\n"));
+    }
+
+    @Test
+    public void clearKeepsCountingTheSequences() {
+        GroupHlsPlaylist playlist = new GroupHlsPlaylist();
+        playlist.add("front", Arrays.asList(segment(0, 1), segment(0, 2)), 60);
+        playlist.clear();
+        assertTrue(playlist.isEmpty());
+        playlist.add("front", Arrays.asList(segment(0, 1)), 60);
+        String text = playlist.toString();
+        assertTrue(text.contains("#EXT-X-MEDIA-SEQUENCE:2\n"));
+        assertTrue(text.contains("#EXT-X-DISCONTINUITY-SEQUENCE:1\n"));
+        assertEquals(1, count(text, "#EXTINF:"));
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for {@link MediaJobScheduler}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class MediaJobSchedulerTest {
+    private final MediaJobScheduler jobs = new MediaJobScheduler(1);
+    // The order jobs were started in, and how to say each one has finished.
+    private final List<String> started = new ArrayList<>();
+    private final Map<String, Runnable> running = new HashMap<>();
+
+    @After
+    public void tearDown() {
+        jobs.shutdown();
+    }
+
+    private boolean submit(MediaJobScheduler scheduler, String camera, String type, int priority) {
+        String name = camera + "/" + type;
+        return scheduler.submit(camera, type, priority, finished -> {
+            started.add(name);
+            running.put(name, finished);
+        });
+    }
+
+    private void finish(String name) {
+        Runnable finished = running.remove(name);
+        assertNotNull(finished);
+        finished.run();
+    }
+
+    @Test
+    public void onlyTheLimitRunAtOnce() {
+        MediaJobScheduler two = new MediaJobScheduler(2);
+        try {
+            submit(two, "front", "GIF", 5);
+            submit(two, "back", "GIF", 5);
+            submit(two, "side", "GIF", 5);
+            assertEquals(2, two.getRunning(null));
+            assertEquals(1, two.getQueued(null));
+            assertEquals(1, two.getQueued("side"));
+            finish("front/GIF");
+            assertEquals("side/GIF", started.get(2));
+            assertEquals(0, two.getQueued(null));
+        } finally {
+            two.shutdown();
+        }
+    }
+
+    @Test
+    public void lowerPriorityNumberStartsFirstThenOldest() {
+        submit(jobs, "front", "GIF", 5);
+        submit(jobs, "back", "GIF", 5);
+        submit(jobs, "garage", "GIF", 9);
+        submit(jobs, "doorbell", "GIF", 1);
+        finish("front/GIF");
+        assertEquals("doorbell/GIF", started.get(1));
+        finish("doorbell/GIF");
+        assertEquals("back/GIF", started.get(2));
+        finish("back/GIF");
+        assertEquals("garage/GIF", started.get(3));
+    }
+
+    @Test
+    public void sameJobWaitingOrRunningIsDropped() {
+        assertTrue(submit(jobs, "front", "GIF", 5));
+        assertFalse(submit(jobs, "front", "GIF", 5));
+        assertTrue(submit(jobs, "front", "RECORD", 5));
+        assertFalse(submit(jobs, "front", "RECORD", 5));
+        assertTrue(jobs.toPrometheus("front").contains("ipcamera_media_jobs_coalesced_total{camera=\"front\"} 2"));
+        finish("front/GIF");
+        finish("front/RECORD");
+        assertTrue(submit(jobs, "front", "GIF", 5));
+    }
+
+    @Test
+    public void cancelDropsOnlyTheWaitingJobsOfThatCamera() {
+        AtomicInteger cancelled = new AtomicInteger();
+        submit(jobs, "front", "GIF", 5);
+        jobs.submit("front", "RECORD", 5, finished -> fail("was cancelled"), cancelled::incrementAndGet);
+        submit(jobs, "back", "GIF", 5);
+        jobs.cancel("front");
+        assertEquals(1, cancelled.get());
+        assertEquals(1, jobs.getRunning("front"));
+        finish("front/GIF");
+        assertEquals("back/GIF", started.get(1));
+    }
+
+    @Test
+    public void finishingTwiceFreesOnePlace() {
+        MediaJobScheduler two = new MediaJobScheduler(2);
+        try {
+            submit(two, "front", "GIF", 5);
+            Runnable finished = running.get("front/GIF");
+            submit(two, "back", "GIF", 5);
+            submit(two, "side", "GIF", 5);
+            submit(two, "garage", "GIF", 5);
+            finished.run();
+            finished.run();
+            assertEquals(2, two.getRunning(null));
+            assertEquals(1, two.getQueued(null));
+        } finally {
+            two.shutdown();
+        }
+    }
+
+    @Test
+    public void jobThatThrowsGivesUpItsPlace() {
+        jobs.submit("front", "GIF", 5, finished -> {
+            throw new IllegalStateException("no FFmpeg");
+        });
+        submit(jobs, "back", "GIF", 5);
+        assertEquals("back/GIF", started.get(0));
+    }
+
+    @Test
+    public void raisingTheLimitStartsWaitingJobs() {
+        submit(jobs, "front", "GIF", 5);
+        submit(jobs, "back", "GIF", 5);
+        jobs.setLimit(2);
+        assertEquals(2, jobs.getRunning(null));
+    }
+
+    @Test
+    public void jobThatRunsTooLongIsStoppedAndGivesUpItsPlace() throws InterruptedException {
+        MediaJobScheduler quick = new MediaJobScheduler(1, 50);
+        try {
+            CountDownLatch stopped = new CountDownLatch(1);
+            CountDownLatch next = new CountDownLatch(1);
+            quick.submit("front", "RECORD", 5, finished -> {
+            }, () -> {
+            }, stopped::countDown);
+            quick.submit("back", "RECORD", 5, finished -> next.countDown());
+            assertTrue(stopped.await(5, TimeUnit.SECONDS));
+            assertTrue(next.await(5, TimeUnit.SECONDS));
+            assertTrue(quick.toPrometheus("front").contains("ipcamera_media_jobs_expired_total{camera=\"front\"} 1"));
+        } finally {
+            quick.shutdown();
+        }
+    }
+
+    @Test
+    public void timerIsMadeAgainAfterShutdown() throws InterruptedException {
+        MediaJobScheduler quick = new MediaJobScheduler(1, 50);
+        try {
+            quick.shutdown();
+            CountDownLatch stopped = new CountDownLatch(1);
+            quick.submit("front", "GIF", 5, finished -> {
+            }, () -> {
+            }, stopped::countDown);
+            assertTrue(stopped.await(5, TimeUnit.SECONDS));
+        } finally {
+            quick.shutdown();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ScaledSnapshotCache}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class ScaledSnapshotCacheTest {
+
+    static byte[] jpeg(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.ORANGE);
+        graphics.fillRect(0, 0, width / 2, height);
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+
+    private static int width(byte[] jpeg) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertNotNull(image);
+        return image.getWidth();
+    }
+
+    @Test
+    public void sameSnapshotAndSizeIsScaledOnce() throws IOException {
+        ScaledSnapshotCache cache = new ScaledSnapshotCache(1024 * 1024);
+        byte[] full = jpeg(640, 480);
+        byte[] first = cache.get(1, full, 320, 0);
+        assertEquals(320, width(first));
+        assertSame(first, cache.get(1, full, 320, 0));
+    }
+
+    @Test
+    public void eachSizeAndSnapshotHasItsOwnCopy() throws IOException {
+        ScaledSnapshotCache cache = new ScaledSnapshotCache(1024 * 1024);
+        byte[] full = jpeg(640, 480);
+        byte[] small = cache.get(1, full, 160, 0);
+        byte[] larger = cache.get(1, full, 320, 0);
+        assertEquals(160, width(small));
+        assertEquals(320, width(larger));
+        assertNotSame(small, cache.get(2, full, 160, 0));
+        assertNotSame(small, cache.get(1, full, 160, 50));
+    }
+
+    @Test
+    public void leastRecentlyUsedCopyIsThrownAwayFirst() throws IOException {
+        byte[] full = jpeg(640, 480);
+        int size = new ScaledSnapshotCache(Long.MAX_VALUE).get(1, full, 320, 0).length;
+        // Room for two copies, so the third throws one away.
+        ScaledSnapshotCache cache = new ScaledSnapshotCache(size * 2 + size / 2);
+        byte[] one = cache.get(1, full, 320, 0);
+        byte[] two = cache.get(2, full, 320, 0);
+        // Using the first makes the second the oldest.
+        assertSame(one, cache.get(1, full, 320, 0));
+        cache.get(3, full, 320, 0);
+        assertSame(one, cache.get(1, full, 320, 0));
+        assertNotSame(two, cache.get(2, full, 320, 0));
+    }
+
+    @Test
+    public void clearThrowsAwayEveryCopy() throws IOException {
+        ScaledSnapshotCache cache = new ScaledSnapshotCache(1024 * 1024);
+        byte[] full = jpeg(640, 480);
+        byte[] first = cache.get(1, full, 320, 0);
+        cache.clear();
+        assertNotSame(first, cache.get(1, full, 320, 0));
+    }
+
+    @Test
+    public void pictureThatIsNotAJpegIsSentAsItIs() throws IOException {
+        ScaledSnapshotCache cache = new ScaledSnapshotCache(1024 * 1024);
+        byte[] notJpeg = new byte[] { 1, 2, 3, 4 };
+        assertArrayEquals(notJpeg, cache.get(1, notJpeg, 320, 0));
+    }
+}
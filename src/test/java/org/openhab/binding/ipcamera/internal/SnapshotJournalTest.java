@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.binding.ipcamera.internal.SnapshotJournal.Frame;
+
+/**
+ * Tests for {@link SnapshotJournal}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class SnapshotJournalTest {
+    private static final long SIZE = 1024 * 1024;
+    private @NonNullByDefault({}) Path folder;
+    private @NonNullByDefault({}) Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("ipcamera");
+        file = folder.resolve("history.jnl");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(folder);
+    }
+
+    // A snapshot whose bytes say which one it is, so one that was written over or read from the wrong place shows.
+    private static byte[] snapshot(int number, int length) {
+        byte[] jpeg = new byte[length];
+        Arrays.fill(jpeg, (byte) number);
+        jpeg[0] = (byte) (number >> 8);
+        return jpeg;
+    }
+
+    private static Frame frame(@Nullable Frame frame) {
+        assertNotNull(frame);
+        return frame;
+    }
+
+    @Test
+    public void emptyJournalHasNothingToFind() throws IOException {
+        try (SnapshotJournal journal = new SnapshotJournal(file, SIZE)) {
+            assertNull(journal.find(1000));
+            assertNull(journal.next(0));
+        }
+    }
+
+    @Test
+    public void findsTheLastSnapshotAtOrBeforeTheTime() throws IOException {
+        try (SnapshotJournal journal = new SnapshotJournal(file, SIZE)) {
+            for (int i = 1; i <= 5; i++) {
+                journal.append(i * 1000, snapshot(i, 100));
+            }
+            assertEquals(3000, frame(journal.find(3000)).time);
+            assertEquals(3000, frame(journal.find(3999)).time);
+            assertArrayEquals(snapshot(3, 100), frame(journal.find(3500)).jpeg);
+            assertEquals(5000, frame(journal.find(Long.MAX_VALUE)).time);
+            // Before the oldest gives the oldest.
+            assertEquals(1000, frame(journal.find(0)).time);
+        }
+    }
+
+    @Test
+    public void nextStepsThroughInOrder() throws IOException {
+        try (SnapshotJournal journal = new SnapshotJournal(file, SIZE)) {
+            for (int i = 1; i <= 3; i++) {
+                journal.append(i * 1000, snapshot(i, 100));
+            }
+            Frame first = frame(journal.find(1000));
+            Frame second = frame(journal.next(first.index));
+            assertEquals(2000, second.time);
+            Frame third = frame(journal.next(second.index));
+            assertArrayEquals(snapshot(3, 100), third.jpeg);
+            assertNull(journal.next(third.index));
+        }
+    }
+
+    @Test
+    public void snapshotsThatAreWrittenOverAreNotFound() throws IOException {
+        try (SnapshotJournal journal = new SnapshotJournal(file, SIZE)) {
+            // About nine fit, so the ring goes round several times and snapshots land across its end.
+            int length = 110 * 1024;
+            for (int i = 1; i <= 40; i++) {
+                journal.append(i * 1000, snapshot(i, length + i));
+            }
+            Frame oldest = frame(journal.find(0));
+            assertTrue(oldest.time > 30000);
+            // Every snapshot that is left reads back whole.
+            int number = (int) (oldest.time / 1000);
+            for (Frame frame = oldest; frame != null; frame = journal.next(frame.index)) {
+                assertEquals(number * 1000L, frame.time);
+                assertArrayEquals(snapshot(number, length + number), frame.jpeg);
+                number++;
+            }
+            assertEquals(41, number);
+            // A step from a snapshot that was written over skips to the oldest there is.
+            assertEquals(oldest.time, frame(journal.next(0)).time);
+        }
+    }
+
+    @Test
+    public void indexWrapsAroundWhenItIsFull() throws IOException {
+        try (SnapshotJournal journal = new SnapshotJournal(file, SIZE)) {
+            // Small snapshots fill the 1024 places in the index long before the data.
+            for (int i = 1; i <= 3000; i++) {
+                journal.append(i, snapshot(i, 16));
+            }
+            assertEquals(3000 - 1024 + 1, frame(journal.find(0)).time);
+            assertEquals(2500, frame(journal.find(2500)).time);
+            assertArrayEquals(snapshot(2500, 16), frame(journal.find(2500)).jpeg);
+        }
+    }
+
+    @Test
+    public void binarySearchMatchesLookingThroughEverySnapshot() throws IOException {
+        Random random = new Random(4);
+        long[] times = new long[500];
+        try (SnapshotJournal journal = new SnapshotJournal(file, SIZE)) {
+            long time = 0;
+            for (int i = 0; i < times.length; i++) {
+                // Some snapshots share a time.
+                time += random.nextInt(3) * 500;
+                times[i] = time;
+                journal.append(time, snapshot(i, 64));
+            }
+            for (int check = 0; check < 2000; check++) {
+                long wanted = random.nextInt((int) time + 2000) - 1000;
+                int expected = 0;
+                for (int i = 0; i < times.length; i++) {
+                    if (times[i] <= wanted) {
+                        expected = i;
+                    }
+                }
+                Frame found = frame(journal.find(wanted));
+                assertEquals("time " + wanted, expected, found.index);
+            }
+        }
+    }
+
+    @Test
+    public void timeFromAClockSetBackKeepsTheOrder() throws IOException {
+        try (SnapshotJournal journal = new SnapshotJournal(file, SIZE)) {
+            journal.append(5000, snapshot(1, 10));
+            journal.append(1000, snapshot(2, 10));
+            Frame found = frame(journal.find(5000));
+            assertEquals(5000, found.time);
+            assertArrayEquals(snapshot(2, 10), found.jpeg);
+        }
+    }
+
+    @Test
+    public void emptyOrTooLargeSnapshotsAreLeftOut() throws IOException {
+        try (SnapshotJournal journal = new SnapshotJournal(file, SIZE)) {
+            journal.append(1000, new byte[0]);
+            journal.append(2000, new byte[(int) SIZE]);
+            assertNull(journal.find(3000));
+        }
+    }
+
+    @Test
+    public void snapshotsAreThereAfterOpeningAgain() throws IOException {
+        try (SnapshotJournal journal = new SnapshotJournal(file, SIZE)) {
+            journal.append(1000, snapshot(1, 100));
+            journal.append(2000, snapshot(2, 100));
+        }
+        try (SnapshotJournal journal = new SnapshotJournal(file, SIZE)) {
+            assertArrayEquals(snapshot(2, 100), frame(journal.find(2500)).jpeg);
+            // Carries on after the last snapshot.
+            journal.append(3000, snapshot(3, 100));
+            assertEquals(3000, frame(journal.next(frame(journal.find(2000)).index)).time);
+        }
+    }
+
+    @Test
+    public void anotherSizeStartsAgain() throws IOException {
+        try (SnapshotJournal journal = new SnapshotJournal(file, SIZE)) {
+            journal.append(1000, snapshot(1, 100));
+        }
+        try (SnapshotJournal journal = new SnapshotJournal(file, SIZE * 2)) {
+            assertNull(journal.find(2000));
+        }
+    }
+
+    @Test
+    public void closedJournalGivesNothing() throws IOException {
+        SnapshotJournal journal = new SnapshotJournal(file, SIZE);
+        journal.append(1000, snapshot(1, 100));
+        journal.close();
+        journal.append(2000, snapshot(2, 100));
+        assertNull(journal.find(2000));
+        assertNull(journal.next(0));
+        journal.close();
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.binding.ipcamera.internal.TimelineIndex.Entry;
+
+/**
+ * Tests for {@link TimelineIndex}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class TimelineIndexTest {
+    private @NonNullByDefault({}) Path folder;
+    private @NonNullByDefault({}) Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("ipcamera");
+        file = folder.resolve("timeline.idx");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(folder);
+    }
+
+    @Test
+    public void findsTheRecordsBetweenTwoTimes() throws IOException {
+        try (TimelineIndex index = new TimelineIndex(file)) {
+            for (int i = 0; i < 10; i++) {
+                index.append(i * 1000, 1000, i, "segment" + i);
+            }
+            List<Entry> found = index.find(2500, 5000, false, 100);
+            assertEquals(3, found.size());
+            assertEquals(3000, found.get(0).time);
+            assertEquals(5000, found.get(2).time);
+            assertEquals("segment4", found.get(1).tag);
+            assertEquals(4, found.get(1).size);
+            assertEquals(1000, found.get(1).duration);
+        }
+    }
+
+    @Test
+    public void includeEarlierGivesTheRecordTheStartLandsIn() throws IOException {
+        try (TimelineIndex index = new TimelineIndex(file)) {
+            for (int i = 0; i < 10; i++) {
+                index.append(i * 1000, 1000, 0, "");
+            }
+            assertEquals(2000, index.find(2500, 5000, true, 100).get(0).time);
+            // An exact match is not moved back.
+            assertEquals(3000, index.find(3000, 5000, true, 100).get(0).time);
+            assertEquals(0, index.find(-500, 5000, true, 100).get(0).time);
+        }
+    }
+
+    @Test
+    public void findStopsAtTheLimit() throws IOException {
+        try (TimelineIndex index = new TimelineIndex(file)) {
+            for (int i = 0; i < 10; i++) {
+                index.append(i, 1, 0, "");
+            }
+            assertEquals(4, index.find(0, 100, false, 4).size());
+            assertTrue(index.find(20, 100, false, 4).isEmpty());
+        }
+    }
+
+    @Test
+    public void timeFromAClockSetBackKeepsTheOrder() throws IOException {
+        try (TimelineIndex index = new TimelineIndex(file)) {
+            index.append(5000, 1, 0, "first");
+            index.append(1000, 1, 0, "second");
+            assertEquals(5000, index.getLastTime());
+            List<Entry> found = index.find(5000, 5000, false, 10);
+            assertEquals(2, found.size());
+            assertEquals("second", found.get(1).tag);
+        }
+    }
+
+    @Test
+    public void longTagIsCutShort() throws IOException {
+        try (TimelineIndex index = new TimelineIndex(file)) {
+            index.append(0, 1, 0, "0123456789012345678901234567890123456789");
+            assertEquals("0123456789012345678901234567", index.find(0, 0, false, 1).get(0).tag);
+        }
+    }
+
+    @Test
+    public void recordsAreThereAfterOpeningAgain() throws IOException {
+        try (TimelineIndex index = new TimelineIndex(file)) {
+            index.append(1000, 1, 0, "a");
+            index.append(2000, 1, 0, "b");
+        }
+        try (TimelineIndex index = new TimelineIndex(file)) {
+            assertEquals(2, index.size());
+            assertEquals(2000, index.getLastTime());
+            assertEquals("b", index.find(1500, 3000, false, 10).get(0).tag);
+        }
+    }
+
+    @Test
+    public void fileGrowsWhenItIsFull() throws IOException {
+        // More than fit in the first part of the file.
+        int records = 25000;
+        try (TimelineIndex index = new TimelineIndex(file)) {
+            for (int i = 0; i < records; i++) {
+                index.append(i, 1, i, "");
+            }
+            assertEquals(records, index.size());
+            Entry last = index.find(records - 1, records, false, 10).get(0);
+            assertEquals(records - 1, last.size);
+        }
+        try (TimelineIndex index = new TimelineIndex(file)) {
+            assertEquals(records, index.size());
+        }
+    }
+}